@@ -83,6 +83,10 @@ public class Shell {
 
         statement.execute(sql);
         LocalResult rs = statement.getResult();
+        if (rs == null) {
+            // not a query
+            return;
+        }
         int rowCount = printResult(rs);
     }
 
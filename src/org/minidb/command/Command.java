@@ -1,12 +1,12 @@
 package org.minidb.command;
 
+import org.minidb.engine.Constants;
 import org.minidb.engine.Database;
 import org.minidb.engine.DbException;
 import org.minidb.engine.Session;
 import org.minidb.result.LocalResult;
-import org.minidb.result.ResultInterface;
-
-import java.sql.SQLException;
+import org.minidb.schema.Schema;
+import org.minidb.store.mvstore.TransactionStore;
 
 /**
  * Created by gxh on 2016/6/10.
@@ -30,59 +30,112 @@ public class Command implements CommandInterface{
 
     @Override
     public LocalResult executeQuery() {
-        long start = 0;
-        Database database = session.getDatabase();
-        Object sync = (Object) database;
+        //查询只共享schema的锁，不同session的查询可以并发执行，读的是MVMap的快照
+        Schema schema = getSchema();
+        boolean exclusive = !prepared.isTransactional();
+        boolean locked = !prepared.isOnline();
         boolean callStop = true;
-
-        synchronized (sync) {
-            try {
-                while (true) {
-                    try {
-                        return query(1000);
-                    } catch (Exception e){
-                        e.printStackTrace();
-                    }
+        if (locked) {
+            schema.lock(exclusive);
+        }
+        try {
+            long start = 0;
+            while (true) {
+                long savepoint = session.setSavepoint();
+                try {
+                    return query(1000);
+                } catch (RuntimeException e) {
+                    start = retryAfterLockConflict(e, savepoint, start);
                 }
-            } catch (DbException e) {
-                throw e;
-            } finally {
+            }
+        } catch (DbException e) {
+            throw e;
+        } finally {
+            try {
                 if (callStop) {
                     stop();
                 }
+            } finally {
+                if (locked) {
+                    schema.unlock(exclusive);
+                }
             }
         }
     }
 
     @Override
     public int executeUpdate() {
-        long start = 0;
-        Database database = session.getDatabase();
-        //默认一个数据库只允许一个线程更新，通过SET MULTI_THREADED 1可变成多线程的，
-        //这样同步对象是session，即不同的session之间可以并发使用数据库，但是同一个session内部是只允许一个线程。
-        //通过使用database作为同步对象就相当于数据库是单线程的
-        Object sync = (Object) database;
+        //原来用database作为同步对象，相当于数据库是单线程的。
+        //现在DML共享schema的锁，行级别的冲突由TransactionStore的行所有权（trySet）来处理；
+        //DDL（isTransactional为false）独占schema的锁
+        Schema schema = getSchema();
+        boolean exclusive = !prepared.isTransactional();
+        boolean locked = !prepared.isOnline();
         boolean callStop = true;
-
-        synchronized (sync) {
-            try {
-                while (true) {
-                    try {
-                        return update();
-                    } catch (Exception e){
-                        e.printStackTrace();
-                    }
+        if (locked) {
+            schema.lock(exclusive);
+        }
+        try {
+            long start = 0;
+            while (true) {
+                long savepoint = session.setSavepoint();
+                try {
+                    return update();
+                } catch (RuntimeException e) {
+                    start = retryAfterLockConflict(e, savepoint, start);
                 }
-            } catch (DbException e) {
-                throw e;
-            } finally {
+            }
+        } catch (DbException e) {
+            throw e;
+        } finally {
+            try {
                 if (callStop) {
                     stop();
                 }
+            } finally {
+                if (locked) {
+                    schema.unlock(exclusive);
+                }
             }
         }
     }
 
+    private Schema getSchema() {
+        Database database = session.getDatabase();
+        return database.getSchema(session.getCurrentSchemaName());
+    }
+
+    /**
+     * Undo the changes of the failed attempt and wait a bit if the statement
+     * failed because a row is locked by another transaction, so that the
+     * statement can be retried. Other exceptions are re-thrown, as is the lock
+     * conflict once the lock timeout is over.
+     *
+     * @param e the exception
+     * @param savepoint the savepoint before the attempt
+     * @param start the time of the first conflict, or 0
+     * @return the time of the first conflict
+     */
+    private long retryAfterLockConflict(RuntimeException e, long savepoint, long start) {
+        session.rollbackTo(savepoint);
+        if (!(e instanceof IllegalStateException) ||
+                !TransactionStore.ERROR_TRANSACTION_LOCKED.equals(e.getMessage())) {
+            throw e;
+        }
+        long now = System.currentTimeMillis();
+        if (start == 0) {
+            start = now;
+        } else if (now - start > Constants.INITIAL_LOCK_TIMEOUT) {
+            throw DbException.getGeneralException("Timeout trying to lock table: " + e.getMessage());
+        }
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException ie) {
+            // ignore
+        }
+        return start;
+    }
+
     private void stop() {
         //DDL的isTransactional默认都是false，相当于每执行完一条DDL都默认提交事务
         session.commit(true);
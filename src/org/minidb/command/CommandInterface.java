@@ -16,9 +16,16 @@ public interface CommandInterface {
 
     int ALTER_TABLE_ADD_CONSTRAINT_PRIMARY_KEY = 6;
 
+    int ALTER_TABLE_ADD_PARTITION = 91;
+    int ALTER_TABLE_DROP_PARTITION = 92;
+    int ALTER_TABLE_DETACH_PARTITION = 93;
+
+    int ANALYZE = 2;
+
     int CREATE_USER = 32;
     int SELECT = 66;
     int CREATE_INDEX = 25;
+    int CREATE_SEQUENCE = 29;
     int INSERT = 61;
 
     boolean isQuery();
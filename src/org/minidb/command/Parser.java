@@ -1,23 +1,33 @@
 package org.minidb.command;
 
 import org.minidb.command.ddl.AlterTableAddConstraint;
+import org.minidb.command.ddl.AlterTablePartition;
+import org.minidb.command.ddl.Analyze;
 import org.minidb.command.ddl.CreateIndex;
+import org.minidb.command.ddl.CreateSequence;
 import org.minidb.command.ddl.CreateTable;
 import org.minidb.command.ddl.CreateUser;
 import org.minidb.command.dml.Insert;
 import org.minidb.command.dml.Query;
 import org.minidb.command.dml.Select;
+import org.minidb.command.dml.SelectOrderBy;
 import org.minidb.engine.Database;
 import org.minidb.engine.DbException;
+import org.minidb.expression.Aggregate;
 import org.minidb.expression.Comparison;
+import org.minidb.expression.ConditionAndOr;
 import org.minidb.expression.Expression;
 import org.minidb.expression.ExpressionColumn;
+import org.minidb.expression.SequenceValue;
 import org.minidb.expression.ValueExpression;
 import org.minidb.schema.Schema;
+import org.minidb.schema.Sequence;
 import org.minidb.engine.Session;
 import org.minidb.table.IndexColumn;
+import org.minidb.table.PartitionedTable;
 import org.minidb.table.Table;
 import org.minidb.table.TableFilter;
+import org.minidb.table.TableStatistics;
 import org.minidb.util.DataType;
 import org.minidb.table.Column;
 import org.minidb.util.*;
@@ -66,6 +76,7 @@ public class Parser {
     //    private CreateView createView;
     private String schemaName;
     private int orderInFrom;
+    private Select currentSelect;
 
     public Parser(Session session) {
         this.database = session.getDatabase();
@@ -322,6 +333,14 @@ public class Parser {
         String token = currentToken;
         char first = token.charAt(0);
         switch (first) {
+            case 'a':
+            case 'A':
+                if (readIf("ANALYZE")) {
+                    c = parseAnalyze();
+                } else if (readIf("ALTER")) {
+                    c = parseAlter();
+                }
+                break;
             case 'c':
             case 'C':
                 if (readIf("CREATE"))
@@ -356,6 +375,35 @@ public class Parser {
         return c;
     }
 
+    private Analyze parseAnalyze() {
+        Analyze command = new Analyze(session, database.getSchema(session.getCurrentSchemaName()));
+        if (readIf("TABLE")) {
+            String tableName = readIdentifierWithSchema();
+            command = new Analyze(session, getSchema());
+            command.setTableName(tableName);
+        }
+        if (readIf("ROW_COUNT")) {
+            // the statistics stored in the meta table
+            command.setRowCount(readLong());
+            read("SAMPLE_SIZE");
+            command.setSampleSize(readInt());
+            while (readIf("COLUMN")) {
+                String columnName = readColumnIdentifier();
+                read("DISTINCT");
+                long distinct = readLong();
+                read("NULLS");
+                long nulls = readLong();
+                read("HISTOGRAM");
+                Value[] histogram = TableStatistics.decode(readString());
+                command.addColumn(columnName,
+                        new TableStatistics.ColumnStatistics(distinct, nulls, histogram));
+            }
+        } else if (readIf("SAMPLE_SIZE")) {
+            command.setSampleSize(readInt());
+        }
+        return command;
+    }
+
     private Insert parseInsert() {
         Insert command = new Insert(session);
         read("INTO");
@@ -435,18 +483,51 @@ public class Parser {
     private Query parseSelectUnionExtension(Query command, int start,
                                             boolean unionOnly) {
         if (!unionOnly) {
-//            parseEndOfQuery(command);
+            parseEndOfQuery(command);
         }
         setSQL(command, null, start);
         return command;
     }
 
+    private void parseEndOfQuery(Query command) {
+        if (readIf("ORDER")) {
+            read("BY");
+            ArrayList<SelectOrderBy> orderList = new ArrayList<>();
+            do {
+                SelectOrderBy order = new SelectOrderBy();
+                order.expression = readExpression();
+                if (readIf("DESC")) {
+                    order.descending = true;
+                } else {
+                    readIf("ASC");
+                }
+                if (readIf("NULLS")) {
+                    if (readIf("FIRST")) {
+                        order.nullsFirst = true;
+                    } else {
+                        read("LAST");
+                        order.nullsLast = true;
+                    }
+                }
+                orderList.add(order);
+            } while (readIf(","));
+            command.setOrder(orderList);
+        }
+        if (readIf("LIMIT")) {
+            command.setLimit(readExpression());
+            if (readIf("OFFSET")) {
+                command.setOffset(readExpression());
+            }
+        }
+    }
+
 
     private Select parseSelectSimple() {
         readIf("SELECT");
 
         Select command = new Select(session);
         int start = lastParseIndex;
+        currentSelect = command;
         parseSelectSimpleSelectPart(command);
         readIf("FROM");
         parseSelectSimpleFromPart(command);
@@ -454,6 +535,21 @@ public class Parser {
             Expression condition = readExpression();
             command.addCondition(condition);
         }
+        if (readIf("GROUP")) {
+            read("BY");
+            command.setGroupQuery();
+            ArrayList<Expression> list = new ArrayList<>();
+            do {
+                Expression expr = readExpression();
+                list.add(expr);
+            } while (readIf(","));
+            command.setGroupBy(list);
+        }
+        if (readIf("HAVING")) {
+            command.setGroupQuery();
+            Expression condition = readExpression();
+            command.setHaving(condition);
+        }
         setSQL(command, "SELECT", start);
         return command;
     }
@@ -468,17 +564,61 @@ public class Parser {
     }
 
     private void parseSelectSimpleFromPart(Select command) {
+        TableFilter top = null;
         do {
-            TableFilter filter = readTableFilter(false);
-            command.setTableFilter(filter);
+            TableFilter filter = readTableFilter(command);
+            if (top == null) {
+                top = filter;
+                command.addTableFilter(filter, true);
+            } else {
+                // FROM A, B is the same as FROM A CROSS JOIN B
+                top.addJoin(filter, false, null);
+                command.addTableFilter(filter, false);
+            }
+            parseJoinTableFilter(top, command);
         } while (readIf(","));
     }
 
-    private TableFilter readTableFilter(boolean fromOuter) {
+    private void parseJoinTableFilter(TableFilter top, Select command) {
+        while (true) {
+            TableFilter join;
+            if (readIf("LEFT")) {
+                readIf("OUTER");
+                read("JOIN");
+                join = readTableFilter(command);
+                read("ON");
+                Expression on = readExpression();
+                top.addJoin(join, true, on);
+            } else if (readIf("INNER") || isToken("JOIN")) {
+                read("JOIN");
+                join = readTableFilter(command);
+                read("ON");
+                // the ON condition of an inner join is a part of the query
+                // condition
+                command.addCondition(readExpression());
+                top.addJoin(join, false, null);
+            } else if (readIf("CROSS")) {
+                read("JOIN");
+                join = readTableFilter(command);
+                top.addJoin(join, false, null);
+            } else {
+                break;
+            }
+            command.addTableFilter(join, false);
+        }
+    }
+
+    private TableFilter readTableFilter(Select select) {
         Table table;
         String tableName = readIdentifierWithSchema(null);
         table = readTableOrView(tableName);
-        return new TableFilter(session, table);
+        String alias = null;
+        if (readIf("AS")) {
+            alias = readColumnIdentifier();
+        } else if (currentTokenType == IDENTIFIER && !equalsToken("LEFT", currentToken)) {
+            alias = readColumnIdentifier();
+        }
+        return new TableFilter(session, table, alias, select);
     }
 
     private Table readTableOrView(String tableName) {
@@ -766,20 +906,43 @@ public class Parser {
             return parseCreateTable();
         }else if (readIf("USER")) {
             return parseCreateUser();
+        }else if (readIf("SEQUENCE")) {
+            return parseCreateSequence();
         }else {
             boolean hash = false, primaryKey = false;
-            boolean unique = false, spatial = false;
+            boolean unique = false, spatial = false, bitmap = false;
             String indexName = null;
             Schema oldSchema = null;
             boolean ifNotExists = false;
             if (readIf("PRIMARY")) {
                 read("KEY");
+                if (readIf("HASH")) {
+                    hash = true;
+                }
                 primaryKey = true;
                 if (!isToken("ON")) {
                     ifNotExists = readIfNotExists();
                     indexName = readIdentifierWithSchema(null);
                     oldSchema = getSchema();
                 }
+            } else {
+                if (readIf("UNIQUE")) {
+                    unique = true;
+                }
+                if (readIf("HASH")) {
+                    hash = true;
+                } else if (readIf("BITMAP")) {
+                    bitmap = true;
+                }
+                if (readIf("INDEX")) {
+                    if (!isToken("ON")) {
+                        ifNotExists = readIfNotExists();
+                        indexName = readIdentifierWithSchema(null);
+                        oldSchema = getSchema();
+                    }
+                } else {
+                    throw new RuntimeException("parseCreate ERROR");
+                }
             }
             read("ON");
             String tableName = readIdentifierWithSchema();
@@ -788,14 +951,64 @@ public class Parser {
             command.setPrimaryKey(primaryKey);
             command.setTableName(tableName);
             command.setUnique(unique);
+            command.setHash(hash);
+            command.setBitmap(bitmap);
             command.setIndexName(indexName);
             read("(");
             command.setIndexColumns(parseIndexColumnList());
+            if (readIf("INCLUDE")) {
+                read("(");
+                command.setIncludeColumns(parseIncludeColumnList());
+            }
             return command;
         }
     }
 
+    private CreateSequence parseCreateSequence() {
+        String sequenceName = readIdentifierWithSchema();
+        CreateSequence command = new CreateSequence(session, getSchema());
+        command.setSequenceName(sequenceName);
+        while (true) {
+            if (readIf("START")) {
+                read("WITH");
+                command.setStartWith(readLong());
+            } else if (readIf("INCREMENT")) {
+                read("BY");
+                command.setIncrement(readLong());
+            } else if (readIf("CACHE")) {
+                command.setCacheSize(readInt());
+            } else {
+                break;
+            }
+        }
+        return command;
+    }
+
     private IndexColumn[] parseIndexColumnList() {
+        ArrayList<IndexColumn> columns = new ArrayList();
+        do {
+            IndexColumn column = new IndexColumn();
+            column.columnName = readColumnIdentifier();
+            columns.add(column);
+            if (readIf("ASC")) {
+                // ignore
+            } else if (readIf("DESC")) {
+                column.sortType = IndexColumn.DESCENDING;
+            }
+            if (readIf("NULLS")) {
+                if (readIf("FIRST")) {
+                    column.sortType |= IndexColumn.NULLS_FIRST;
+                } else {
+                    read("LAST");
+                    column.sortType |= IndexColumn.NULLS_LAST;
+                }
+            }
+        } while (readIf(","));
+        read(")");
+        return columns.toArray(new IndexColumn[columns.size()]);
+    }
+
+    private IndexColumn[] parseIncludeColumnList() {
         ArrayList<IndexColumn> columns = new ArrayList();
         do {
             IndexColumn column = new IndexColumn();
@@ -837,11 +1050,17 @@ public class Parser {
 /*---------------------------------------------------*/
     private Expression readExpression() {
         Expression r = readAnd();
+        while (readIf("OR")) {
+            r = new ConditionAndOr(ConditionAndOr.OR, r, readAnd());
+        }
         return r;
     }
 
     private Expression readAnd() {
         Expression r = readCondition();
+        while (readIf("AND")) {
+            r = new ConditionAndOr(ConditionAndOr.AND, r, readCondition());
+        }
         return r;
     }
 
@@ -901,17 +1120,62 @@ public class Parser {
             case IDENTIFIER:
                 String name = currentToken;
                 read();
-                r = new ExpressionColumn(database, null, null, name);
+                if (equalsToken("NEXT", name) && readIf("VALUE")) {
+                    read("FOR");
+                    String sequenceName = readIdentifierWithSchema();
+                    Sequence sequence = getSchema().findSequence(sequenceName);
+                    if (sequence == null) {
+                        throw new RuntimeException("Sequence " + sequenceName + " not found");
+                    }
+                    r = new SequenceValue(sequence);
+                    break;
+                }
+                if (currentTokenType == OPEN) {
+                    int aggregateType = Aggregate.getAggregateType(
+                            StringUtils.toUpperEnglish(name));
+                    if (aggregateType < 0) {
+                        throw new RuntimeException("Function " + name + " not found");
+                    }
+                    r = readAggregate(aggregateType);
+                    break;
+                }
+                if (readIf(".")) {
+                    // table alias and column name
+                    r = new ExpressionColumn(database, null, name, readColumnIdentifier());
+                } else {
+                    r = new ExpressionColumn(database, null, null, name);
+                }
                 break;
             case VALUE:
                 r = ValueExpression.get(currentValue);
                 read();
                 break;
+            case OPEN:
+                read();
+                r = readExpression();
+                read(")");
+                break;
             default:
                 throw new RuntimeException("readTerm ERROR");
         }
         return r;
     }
+
+    private Expression readAggregate(int aggregateType) {
+        if (currentSelect == null) {
+            throw new RuntimeException("Aggregate function outside of a query");
+        }
+        read("(");
+        Aggregate r;
+        if (aggregateType == Aggregate.COUNT && readIf("*")) {
+            r = new Aggregate(Aggregate.COUNT_ALL, null, currentSelect);
+        } else {
+            r = new Aggregate(aggregateType, readExpression(), currentSelect);
+        }
+        read(")");
+        currentSelect.addAggregate(r);
+        return r;
+    }
 /*---------------------------------------------------*/
 
     private String readUniqueIdentifier() {
@@ -996,6 +1260,74 @@ public class Parser {
                 } while (readIfMore());
             }
         }
+        if (readIf("ENGINE")) {
+            command.setTableEngine(readColumnIdentifier());
+        }
+        if (readIf("PARTITION")) {
+            read("BY");
+            if (readIf("HASH")) {
+                read("(");
+                command.setPartitioning(PartitionedTable.HASH, readColumnIdentifier());
+                read(")");
+                read("PARTITIONS");
+                int count = readInt();
+                for (int i = 0; i < count; i++) {
+                    command.addPartition("P" + i, null);
+                }
+            } else {
+                read("RANGE");
+                read("(");
+                command.setPartitioning(PartitionedTable.RANGE, readColumnIdentifier());
+                read(")");
+                read("(");
+                do {
+                    read("PARTITION");
+                    String name = readColumnIdentifier();
+                    command.addPartition(name, readPartitionBound());
+                } while (readIfMore());
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Read VALUES LESS THAN (expression | MAXVALUE).
+     *
+     * @return the expression, or null for MAXVALUE
+     */
+    private Expression readPartitionBound() {
+        read("VALUES");
+        read("LESS");
+        read("THAN");
+        read("(");
+        Expression bound = readIf("MAXVALUE") ? null : readExpression();
+        read(")");
+        return bound;
+    }
+
+    private AlterTablePartition parseAlter() {
+        read("TABLE");
+        String tableName = readIdentifierWithSchema();
+        AlterTablePartition command = new AlterTablePartition(session, getSchema());
+        command.setTableName(tableName);
+        if (readIf("ADD")) {
+            read("PARTITION");
+            command.setType(CommandInterface.ALTER_TABLE_ADD_PARTITION);
+            command.setPartitionName(readColumnIdentifier());
+            command.setBound(readPartitionBound());
+        } else if (readIf("DROP")) {
+            read("PARTITION");
+            command.setType(CommandInterface.ALTER_TABLE_DROP_PARTITION);
+            command.setPartitionName(readColumnIdentifier());
+        } else {
+            read("DETACH");
+            read("PARTITION");
+            command.setType(CommandInterface.ALTER_TABLE_DETACH_PARTITION);
+            command.setPartitionName(readColumnIdentifier());
+            if (readIf("AS")) {
+                command.setNewTableName(readColumnIdentifier());
+            }
+        }
         return command;
     }
 
@@ -1082,6 +1414,15 @@ public class Parser {
         return i;
     }
 
+    private String readString() {
+        if (currentTokenType != VALUE) {
+            throw new RuntimeException("readString ERROR");
+        }
+        String s = currentValue.getString();
+        read();
+        return s;
+    }
+
     private boolean readIfMore() {
         if (readIf(",")) {
             return !readIf(")");
@@ -47,6 +47,28 @@ public abstract class Prepared {
         return false;
     }
 
+    /**
+     * Check if this command is transactional. Commands that are not
+     * transactional (DDL) lock the schema exclusively while they run, all
+     * other commands share the lock.
+     *
+     * @return true if it is
+     */
+    public boolean isTransactional() {
+        return false;
+    }
+
+    /**
+     * Check if this command locks the schema itself. Long running DDL that
+     * only needs the exclusive lock for short steps (online index creation)
+     * does that, instead of holding the lock for the whole statement.
+     *
+     * @return true if it does
+     */
+    public boolean isOnline() {
+        return false;
+    }
+
 
     public ResultInterface query(int maxrows) {
         throw new RuntimeException("query NOT ALLOWED");
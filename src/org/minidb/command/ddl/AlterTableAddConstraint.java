@@ -76,7 +76,7 @@ public class AlterTableAddConstraint extends Prepared {
                 int id = getObjectId();
                 try {
                     index = table.addIndex(session, indexName, id,
-                            indexColumns[0].column, indexType);
+                            indexColumns, indexType);
                 } finally {
                     schema.freeUniqueName(indexName);
                 }
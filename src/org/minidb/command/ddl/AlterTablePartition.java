@@ -0,0 +1,94 @@
+package org.minidb.command.ddl;
+
+import org.minidb.command.CommandInterface;
+import org.minidb.command.Prepared;
+import org.minidb.engine.Database;
+import org.minidb.engine.Session;
+import org.minidb.expression.Expression;
+import org.minidb.schema.Schema;
+import org.minidb.table.PartitionedTable;
+import org.minidb.table.Table;
+
+/**
+ * This class represents the statements
+ * ALTER TABLE tableName ADD PARTITION name VALUES LESS THAN (value | MAXVALUE),
+ * ALTER TABLE tableName DROP PARTITION name and
+ * ALTER TABLE tableName DETACH PARTITION name [AS newTableName]
+ * for RANGE partitioned tables.
+ * <p>
+ * DROP and DETACH don't read the rows of the partition (unless the table
+ * has secondary indexes): the map of the partition is removed, or becomes
+ * the map of the new table.
+ */
+public class AlterTablePartition extends Prepared {
+
+    private final Schema schema;
+    private int type;
+    private String tableName;
+    private String partitionName;
+    private Expression bound;
+    private String newTableName;
+
+    public AlterTablePartition(Session session, Schema schema) {
+        super(session);
+        this.schema = schema;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public void setPartitionName(String partitionName) {
+        this.partitionName = partitionName;
+    }
+
+    public void setBound(Expression bound) {
+        this.bound = bound;
+    }
+
+    public void setNewTableName(String newTableName) {
+        this.newTableName = newTableName;
+    }
+
+    @Override
+    public int update() {
+        session.commit(true);
+        Database db = session.getDatabase();
+        Table table = schema.getTableOrView(session, tableName);
+        if (!(table instanceof PartitionedTable)) {
+            throw new RuntimeException("Table " + tableName + " is not partitioned");
+        }
+        PartitionedTable t = (PartitionedTable) table;
+        switch (type) {
+            case CommandInterface.ALTER_TABLE_ADD_PARTITION:
+                t.addPartition(session, partitionName,
+                        bound == null ? null : bound.optimize(session).getValue(session));
+                break;
+            case CommandInterface.ALTER_TABLE_DROP_PARTITION:
+                t.removePartition(session, partitionName, null, 0);
+                break;
+            case CommandInterface.ALTER_TABLE_DETACH_PARTITION: {
+                String name = newTableName != null ? newTableName :
+                        tableName + "_" + partitionName;
+                if (schema.findTableOrView(session, name) != null) {
+                    throw new RuntimeException("TABLE_OR_VIEW_ALREADY_EXISTS ERROR");
+                }
+                Table detached = t.removePartition(session, partitionName, name, getObjectId());
+                db.addSchemaObject(session, detached);
+                break;
+            }
+            default:
+                throw new RuntimeException("type=" + type);
+        }
+        return 0;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.minidb.command.ddl;
+
+import org.minidb.command.CommandInterface;
+import org.minidb.command.Prepared;
+import org.minidb.engine.Database;
+import org.minidb.engine.Session;
+import org.minidb.schema.Schema;
+import org.minidb.table.Column;
+import org.minidb.table.Table;
+import org.minidb.table.TableStatistics;
+import org.minidb.table.TableStatistics.ColumnStatistics;
+import org.minidb.value.Value;
+
+import java.util.ArrayList;
+
+/**
+ * This class represents the statement
+ * ANALYZE [TABLE tableName] [SAMPLE_SIZE rowCount]
+ * <p>
+ * The statistics are stored in the meta table as the statement
+ * ANALYZE TABLE tableName ROW_COUNT .. SAMPLE_SIZE .. COLUMN .. DISTINCT ..
+ * NULLS .. HISTOGRAM '..' [COLUMN ..], which only restores them.
+ */
+public class Analyze extends Prepared {
+
+    /**
+     * The default number of rows to sample.
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+    private final Schema schema;
+    private String tableName;
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    /**
+     * The row count, or -1 if the statistics are computed.
+     */
+    private long rowCount = -1;
+    private final ArrayList<String> columnNames = new ArrayList<>();
+    private final ArrayList<ColumnStatistics> columns = new ArrayList<>();
+
+    public Analyze(Session session, Schema schema) {
+        super(session);
+        this.schema = schema;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    public void setRowCount(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Add the stored statistics of a column.
+     *
+     * @param columnName the column name
+     * @param stats the statistics
+     */
+    public void addColumn(String columnName, ColumnStatistics stats) {
+        columnNames.add(columnName);
+        columns.add(stats);
+    }
+
+    @Override
+    public int update() {
+        session.commit(true);
+        Database db = session.getDatabase();
+        if (rowCount >= 0) {
+            restore(db);
+            return 0;
+        }
+        if (sampleSize <= 0) {
+            throw new RuntimeException("SAMPLE_SIZE must be positive");
+        }
+        if (tableName != null) {
+            analyze(db, schema.getTableOrView(session, tableName));
+        } else {
+            for (Table table : schema.getAllTablesAndViews()) {
+                analyze(db, table);
+            }
+        }
+        return 0;
+    }
+
+    private void analyze(Database db, Table table) {
+        long count = table.getRowCount(session);
+        ArrayList<Value[]> sample = table.sampleRows(session, sampleSize);
+        TableStatistics old = table.getStatistics();
+        int id = old != null ? old.getId() : getObjectId();
+        TableStatistics stats = TableStatistics.compute(db, id, table, count, sample);
+        table.setStatistics(stats);
+        db.updateMeta(session, stats);
+    }
+
+    private void restore(Database db) {
+        Table table = schema.findTableOrView(session, tableName);
+        if (table == null) {
+            throw new RuntimeException("TABLE_OR_VIEW_NOT_FOUND");
+        }
+        Column[] cols = table.getColumns();
+        ColumnStatistics[] stats = new ColumnStatistics[cols.length];
+        for (int i = 0; i < columnNames.size(); i++) {
+            stats[table.getColumn(columnNames.get(i)).getColumnId()] = columns.get(i);
+        }
+        TableStatistics s = new TableStatistics(db, getObjectId(), table, rowCount,
+                sampleSize, stats);
+        table.setStatistics(s);
+        db.updateMeta(session, s);
+    }
+
+    public int getType() {
+        return CommandInterface.ANALYZE;
+    }
+
+}
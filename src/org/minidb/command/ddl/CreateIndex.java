@@ -8,9 +8,9 @@ package org.minidb.command.ddl;
 import org.minidb.command.CommandInterface;
 import org.minidb.command.Prepared;
 import org.minidb.engine.Constants;
-import org.minidb.engine.Database;
 import org.minidb.engine.Session;
 import org.minidb.index.IndexType;
+import org.minidb.index.SecondaryIndex;
 import org.minidb.schema.Schema;
 import org.minidb.table.IndexColumn;
 import org.minidb.table.Table;
@@ -24,7 +24,8 @@ public class CreateIndex extends Prepared {
     private String tableName;
     private String indexName;
     private IndexColumn[] indexColumns;
-    private boolean primaryKey, unique, hash, spatial;
+    private IndexColumn[] includeColumns;
+    private boolean primaryKey, unique, hash, spatial, bitmap;
     private boolean ifTableExists;
     private boolean ifNotExists;
     private String comment;
@@ -55,49 +56,134 @@ public class CreateIndex extends Prepared {
         this.indexColumns = columns;
     }
 
+    public void setIncludeColumns(IndexColumn[] columns) {
+        this.includeColumns = columns;
+    }
+
     @Override
     public int update() {
         session.commit(true);
-        Database db = session.getDatabase();
-        Table table = schema.findTableOrView(session, tableName);
-        if (table == null) {
-            if (ifTableExists) {
-                return 0;
-            }
-            throw new RuntimeException("TABLE_OR_VIEW_NOT_FOUND");
+        // an online build doesn't hold the schema lock for the whole
+        // statement, only while the build is registered and switched;
+        // when the database is opened, the index already exists
+        boolean online = isOnline() && !session.getDatabase().isStarting();
+        if (online) {
+            schema.lock(true);
         }
-        if (schema.findIndex(session, indexName) != null) {
-            if (ifNotExists) {
-                return 0;
+        Table table;
+        SecondaryIndex index;
+        try {
+            table = schema.findTableOrView(session, tableName);
+            if (table == null) {
+                if (ifTableExists) {
+                    return 0;
+                }
+                throw new RuntimeException("TABLE_OR_VIEW_NOT_FOUND");
             }
-            throw new RuntimeException("INDEX_ALREADY_EXISTS");
-        }
-        int id = getObjectId();
-        if (indexName == null) {
+            if (schema.findIndex(session, indexName) != null) {
+                if (ifNotExists) {
+                    return 0;
+                }
+                throw new RuntimeException("INDEX_ALREADY_EXISTS");
+            }
+            int id = getObjectId();
+            if (indexName == null) {
+                if (primaryKey) {
+                    indexName = table.getSchema().getUniqueIndexName(session,
+                            table, Constants.PREFIX_PRIMARY_KEY);
+                } else {
+                    indexName = table.getSchema().getUniqueIndexName(session,
+                            table, Constants.PREFIX_INDEX);
+                }
+            }
+            IndexType indexType;
             if (primaryKey) {
-                indexName = table.getSchema().getUniqueIndexName(session,
-                        table, Constants.PREFIX_PRIMARY_KEY);
+                if (table.findPrimaryKey() != null) {
+                    throw new RuntimeException("SECOND_PRIMARY_KEY");
+                }
+                indexType = IndexType.createPrimaryKey(true, hash);
+            } else if (bitmap) {
+                if (unique) {
+                    throw new RuntimeException("BITMAP index can't be unique");
+                }
+                if (indexColumns.length != 1) {
+                    throw new RuntimeException("BITMAP index supports only one column");
+                }
+                indexType = IndexType.createBitmap(true);
+            } else if (unique) {
+                indexType = IndexType.createUnique(true, hash);
             } else {
-                indexName = table.getSchema().getUniqueIndexName(session,
-                        table, Constants.PREFIX_INDEX);
+                indexType = IndexType.createNonUnique(true, hash, spatial);
             }
-        }
-        IndexType indexType;
-        if (primaryKey) {
-            if (table.findPrimaryKey() != null) {
-                throw new RuntimeException("SECOND_PRIMARY_KEY");
+            IndexColumn.mapColumns(indexColumns, table);
+            if (includeColumns != null) {
+                if (primaryKey || hash || bitmap) {
+                    throw new RuntimeException("INCLUDE is only supported for sorted secondary indexes");
+                }
+                IndexColumn.mapColumns(includeColumns, table);
+            }
+            if (!online) {
+                table.addIndex(session, indexName, id, indexColumns, includeColumns, indexType);
+                return 0;
+            }
+            index = table.startIndexBuild(session, indexName, id, indexColumns,
+                    includeColumns, indexType);
+        } finally {
+            if (online) {
+                schema.unlock(true);
             }
-            indexType = IndexType.createPrimaryKey(true, hash);
-        } else if (unique) {
-            indexType = IndexType.createUnique(true, hash);
-        } else {
-            indexType = IndexType.createNonUnique(true, hash, spatial);
         }
-        IndexColumn.mapColumns(indexColumns, table);
-        table.addIndex(session, indexName, id, indexColumns[0].column, indexType);
+        buildOnline(table, index);
         return 0;
     }
 
+    /**
+     * Build the index from a snapshot of the table while other sessions
+     * continue to write (they only record the changed rows in a side log),
+     * then replay the side log and make the index visible. Only the last
+     * step locks the schema exclusively.
+     */
+    private void buildOnline(Table table, SecondaryIndex index) {
+        boolean success = false;
+        try {
+            schema.lock(false);
+            try {
+                table.buildIndex(session, index);
+            } finally {
+                schema.unlock(false);
+            }
+            schema.lock(true);
+            try {
+                if (schema.findIndex(session, indexName) != null) {
+                    throw new RuntimeException("INDEX_ALREADY_EXISTS");
+                }
+                table.finishIndexBuild(session, index);
+                session.commit(true);
+                success = true;
+            } finally {
+                schema.unlock(true);
+            }
+        } finally {
+            if (!success) {
+                schema.lock(true);
+                try {
+                    table.cancelIndexBuild(index);
+                } finally {
+                    schema.unlock(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorted secondary indexes are built online; primary keys, hash and
+     * bitmap indexes are created while the schema is locked.
+     */
+    @Override
+    public boolean isOnline() {
+        return !primaryKey && !hash && !bitmap;
+    }
+
     public void setPrimaryKey(boolean b) {
         this.primaryKey = b;
     }
@@ -110,6 +196,10 @@ public class CreateIndex extends Prepared {
         this.hash = b;
     }
 
+    public void setBitmap(boolean b) {
+        this.bitmap = b;
+    }
+
     public void setSpatial(boolean b) {
         this.spatial = b;
     }
@@ -0,0 +1,63 @@
+package org.minidb.command.ddl;
+
+import org.minidb.command.CommandInterface;
+import org.minidb.command.Prepared;
+import org.minidb.engine.Constants;
+import org.minidb.engine.Database;
+import org.minidb.engine.Session;
+import org.minidb.schema.Schema;
+import org.minidb.schema.Sequence;
+
+/**
+ * This class represents the statement
+ * CREATE SEQUENCE name [START WITH value] [INCREMENT BY value] [CACHE count]
+ */
+public class CreateSequence extends Prepared {
+
+    private final Schema schema;
+    private String sequenceName;
+    private long start = 1;
+    private long increment = 1;
+    private int cacheSize = Constants.DEFAULT_SEQUENCE_CACHE_SIZE;
+
+    public CreateSequence(Session session, Schema schema) {
+        super(session);
+        this.schema = schema;
+    }
+
+    public void setSequenceName(String sequenceName) {
+        this.sequenceName = sequenceName;
+    }
+
+    public void setStartWith(long start) {
+        this.start = start;
+    }
+
+    public void setIncrement(long increment) {
+        this.increment = increment;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    @Override
+    public int update() {
+        Database db = session.getDatabase();
+        if (schema.findSequence(sequenceName) != null) {
+            throw new RuntimeException("SEQUENCE_ALREADY_EXISTS ERROR");
+        }
+        if (cacheSize <= 0) {
+            throw new RuntimeException("CACHE must be positive");
+        }
+        Sequence sequence = new Sequence(schema, getObjectId(), sequenceName, start,
+                increment, cacheSize);
+        db.addSchemaObject(session, sequence);
+        return 0;
+    }
+
+    public int getType() {
+        return CommandInterface.CREATE_SEQUENCE;
+    }
+
+}
@@ -5,6 +5,7 @@ import org.minidb.command.Prepared;
 import org.minidb.engine.Database;
 import org.minidb.schema.Schema;
 import org.minidb.engine.Session;
+import org.minidb.expression.Expression;
 import org.minidb.table.Column;
 import org.minidb.table.CreateTableData;
 import org.minidb.table.IndexColumn;
@@ -21,6 +22,7 @@ public class CreateTable extends Prepared{
     protected Schema schema;
     private final ArrayList<Prepared> constraintCommands = new ArrayList();
     private IndexColumn[] pkColumns;
+    private final ArrayList<Expression> partitionBounds = new ArrayList<>();
 
 
     public CreateTable(Session session, Schema schema) {
@@ -36,6 +38,26 @@ public class CreateTable extends Prepared{
         data.columns.add(column);
     }
 
+    public void setTableEngine(String tableEngine) {
+        data.tableEngine = tableEngine;
+    }
+
+    public void setPartitioning(int partitionType, String columnName) {
+        data.partitionType = partitionType;
+        data.partitionColumn = columnName;
+    }
+
+    /**
+     * Add a partition.
+     *
+     * @param name the partition name
+     * @param bound the upper bound (RANGE), or null
+     */
+    public void addPartition(String name, Expression bound) {
+        data.partitionNames.add(name);
+        partitionBounds.add(bound);
+    }
+
     @Override
     public int update() {
         Database db = session.getDatabase();
@@ -45,6 +67,10 @@ public class CreateTable extends Prepared{
         }
         data.id = getObjectId(); //第一次新建时会分配一个id
         data.session = session;
+        data.partitionBounds.clear();
+        for (Expression e : partitionBounds) {
+            data.partitionBounds.add(e == null ? null : e.optimize(session).getValue(session));
+        }
         Table table = schema.createTable(data);
 
 //        db.lockMeta(session);
@@ -0,0 +1,269 @@
+package org.minidb.command.dml;
+
+import org.minidb.engine.Session;
+import org.minidb.engine.ValueDataType;
+import org.minidb.expression.Aggregate;
+import org.minidb.expression.AggregateData;
+import org.minidb.store.mvstore.Cursor;
+import org.minidb.store.mvstore.MVMap;
+import org.minidb.store.mvstore.TransactionStore;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueLong;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The hash table of a GROUP BY query: the aggregate data of each group, by
+ * the values of the group expressions.
+ * <p>
+ * The hash table is split into partitions by the hash code of the group
+ * key. If there are more groups than allowed, the partition with the most
+ * groups is written to a temporary map: first the aggregate data of its
+ * groups, then the values of the rows that are added later. The temporary
+ * map is sorted by the group key, so that when the groups are read, the
+ * entries of each group follow each other, and only one group of such a
+ * partition is in memory.
+ */
+class HashAggregate {
+
+    private static final int PARTITION_COUNT = 16;
+
+    /**
+     * The row id of the aggregate data of a group in a temporary map. The
+     * rows of the group have larger ids.
+     */
+    private static final long STATE = Long.MIN_VALUE;
+
+    private final Session session;
+    private final Aggregate[] aggregates;
+    private final int keyLength;
+    private final int maxGroups;
+
+    private final ArrayList<HashMap<ValueArray, AggregateData[]>> partitions;
+    private final ArrayList<MVMap<Value, Value>> spilled;
+    private TransactionStore store;
+    private int groupCount;
+    private long rowId;
+
+    private int partition;
+    private Iterator<Map.Entry<ValueArray, AggregateData[]>> groups;
+    private Cursor<Value, Value> cursor;
+    private Value[] nextKey;
+    private Value[] nextValue;
+    private Value[] currentKey;
+    private AggregateData[] currentData;
+
+    HashAggregate(Session session, Aggregate[] aggregates, int keyLength) {
+        this.session = session;
+        this.aggregates = aggregates;
+        this.keyLength = keyLength;
+        maxGroups = Math.max(1, session.getDatabase().getMaxMemoryRows());
+        partitions = new ArrayList<>(PARTITION_COUNT);
+        spilled = new ArrayList<>(PARTITION_COUNT);
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            partitions.add(new HashMap<ValueArray, AggregateData[]>());
+            spilled.add(null);
+        }
+    }
+
+    /**
+     * Add the current row to its group.
+     *
+     * @param key the values of the group expressions
+     */
+    void add(Value[] key) {
+        ValueArray k = ValueArray.get(key);
+        int p = getPartition(k);
+        HashMap<ValueArray, AggregateData[]> map = partitions.get(p);
+        if (map == null) {
+            // only the values of the aggregated expressions are needed
+            Value[] values = new Value[aggregates.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = aggregates[i].getArgumentValue(session);
+            }
+            spill(p, key, rowId++, values);
+            return;
+        }
+        AggregateData[] data = map.get(k);
+        if (data == null) {
+            data = createData(aggregates);
+            map.put(k, data);
+            groupCount++;
+        }
+        for (int i = 0; i < aggregates.length; i++) {
+            aggregates[i].updateAggregate(session, data[i]);
+        }
+        if (groupCount > maxGroups) {
+            spillLargestPartition();
+        }
+    }
+
+    /**
+     * Create the aggregate data of a new group.
+     *
+     * @param aggregates the aggregates
+     * @return the data
+     */
+    static AggregateData[] createData(Aggregate[] aggregates) {
+        AggregateData[] data = new AggregateData[aggregates.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = aggregates[i].createData();
+        }
+        return data;
+    }
+
+    /**
+     * Check if there are no groups.
+     *
+     * @return true if no row was added
+     */
+    boolean isEmpty() {
+        return groupCount == 0 && rowId == 0 && store == null;
+    }
+
+    private void spillLargestPartition() {
+        int largest = -1;
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            if (partitions.get(i) != null && (largest < 0 ||
+                    partitions.get(i).size() > partitions.get(largest).size())) {
+                largest = i;
+            }
+        }
+        if (store == null) {
+            store = session.getDatabase().getStore().getTransactionStore();
+        }
+        spilled.set(largest, store.createTempMap(new ValueDataType(null),
+                new ValueDataType(null)));
+        for (Map.Entry<ValueArray, AggregateData[]> e :
+                partitions.get(largest).entrySet()) {
+            AggregateData[] data = e.getValue();
+            Value[] state = new Value[data.length];
+            for (int i = 0; i < state.length; i++) {
+                state[i] = data[i].getState();
+            }
+            spill(largest, e.getKey().getList(), STATE, state);
+        }
+        groupCount -= partitions.get(largest).size();
+        partitions.set(largest, null);
+    }
+
+    private void spill(int p, Value[] key, long id, Value[] values) {
+        Value[] k = Arrays.copyOf(key, keyLength + 1);
+        k[keyLength] = ValueLong.get(id);
+        spilled.get(p).put(ValueArray.get(k), ValueArray.get(values));
+    }
+
+    /**
+     * Move to the next group. The groups in memory are read first, then the
+     * groups of the partitions that were written to temporary maps.
+     *
+     * @return true if there is one
+     */
+    boolean next() {
+        while (partition < PARTITION_COUNT) {
+            if (partitions.get(partition) != null) {
+                if (groups == null) {
+                    groups = partitions.get(partition).entrySet().iterator();
+                }
+                if (groups.hasNext()) {
+                    Map.Entry<ValueArray, AggregateData[]> e = groups.next();
+                    currentKey = e.getKey().getList();
+                    currentData = e.getValue();
+                    return true;
+                }
+                groups = null;
+            }
+            partition++;
+        }
+        while (partition < 2 * PARTITION_COUNT) {
+            MVMap<Value, Value> map = spilled.get(partition - PARTITION_COUNT);
+            if (map != null) {
+                if (cursor == null) {
+                    cursor = map.cursor(null);
+                    readNext();
+                }
+                if (nextKey != null) {
+                    readGroup();
+                    return true;
+                }
+                cursor = null;
+            }
+            partition++;
+        }
+        currentKey = null;
+        currentData = null;
+        return false;
+    }
+
+    private void readNext() {
+        if (cursor.hasNext()) {
+            nextKey = ((ValueArray) cursor.next()).getList();
+            nextValue = ((ValueArray) cursor.getValue()).getList();
+        } else {
+            nextKey = null;
+            nextValue = null;
+        }
+    }
+
+    private void readGroup() {
+        Value[] key = Arrays.copyOf(nextKey, keyLength);
+        AggregateData[] data = createData(aggregates);
+        do {
+            if (nextKey[keyLength].getLong() == STATE) {
+                for (int i = 0; i < data.length; i++) {
+                    data[i].merge(nextValue[i]);
+                }
+            } else {
+                for (int i = 0; i < data.length; i++) {
+                    data[i].add(nextValue[i]);
+                }
+            }
+            readNext();
+        } while (nextKey != null && isSameGroup(key, nextKey));
+        currentKey = key;
+        currentData = data;
+    }
+
+    private boolean isSameGroup(Value[] key, Value[] k) {
+        for (int i = 0; i < keyLength; i++) {
+            if (!key[i].equals(k[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Value[] getKey() {
+        return currentKey;
+    }
+
+    AggregateData[] getData() {
+        return currentData;
+    }
+
+    private static int getPartition(ValueArray key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (PARTITION_COUNT - 1);
+    }
+
+    /**
+     * Remove the temporary maps.
+     */
+    void close() {
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            if (spilled.get(i) != null) {
+                store.removeTempMap(spilled.get(i));
+                spilled.set(i, null);
+            }
+            partitions.set(i, null);
+        }
+        groups = null;
+        cursor = null;
+    }
+
+}
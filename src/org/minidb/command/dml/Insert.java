@@ -74,6 +74,11 @@ public class Insert extends Prepared implements ResultTarget {
         return insertRows();
     }
 
+    @Override
+    public boolean isTransactional() {
+        return true;
+    }
+
     private int insertRows() {
         setCurrentRowNumber(0);
         rowNumber = 0;
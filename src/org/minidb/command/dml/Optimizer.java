@@ -8,11 +8,7 @@ package org.minidb.command.dml;
 import org.minidb.engine.Session;
 import org.minidb.expression.Expression;
 import org.minidb.table.Plan;
-import org.minidb.table.PlanItem;
 import org.minidb.table.TableFilter;
-import org.minidb.util.BitField;
-
-import java.util.Random;
 
 /**
  * The optimizer is responsible to find the best execution plan
@@ -20,22 +16,68 @@ import java.util.Random;
  */
 class Optimizer {
 
-    private final TableFilter tableFilter;
+    /**
+     * Up to this number of tables, all join orders are tried.
+     */
+    private static final int MAX_BRUTE_FORCE_FILTERS = 7;
+
+    private final TableFilter[] filters;
     private final Expression condition;
     private final Session session;
 
     private Plan bestPlan;
     private double cost;
 
-    Optimizer(TableFilter filter, Expression condition, Session session) {
-        this.tableFilter = filter;
+    Optimizer(TableFilter[] filters, Expression condition, Session session) {
+        this.filters = filters;
         this.condition = condition;
         this.session = session;
     }
 
     private void calculateBestPlan() {
         cost = -1;
-        Plan p = new Plan(tableFilter, condition);
+        // the query order is tried first, and is kept if no other order
+        // is cheaper
+        testPlan(filters.clone());
+        if (filters.length > 1 && filters.length <= MAX_BRUTE_FORCE_FILTERS &&
+                canReorder()) {
+            calculateBruteForceAll(filters.clone(), 0);
+        }
+    }
+
+    /**
+     * A LEFT JOIN can't be reordered; the ON conditions of inner joins are a
+     * part of the query condition.
+     */
+    private boolean canReorder() {
+        for (TableFilter f : filters) {
+            if (f.isJoinOuter()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void calculateBruteForceAll(TableFilter[] list, int k) {
+        if (k == list.length) {
+            testPlan(list.clone());
+            return;
+        }
+        for (int i = k; i < list.length; i++) {
+            swap(list, k, i);
+            calculateBruteForceAll(list, k + 1);
+            swap(list, k, i);
+        }
+    }
+
+    private static void swap(TableFilter[] list, int a, int b) {
+        TableFilter t = list[a];
+        list[a] = list[b];
+        list[b] = t;
+    }
+
+    private void testPlan(TableFilter[] list) {
+        Plan p = new Plan(list, condition);
         double costNow = p.calculateCost(session);
         if (cost < 0 || costNow < cost) {
             cost = costNow;
@@ -45,12 +87,24 @@ class Optimizer {
 
     void optimize() {
         calculateBestPlan();
-        PlanItem item = bestPlan.getItem();
-        bestPlan.getTableFilter().setPlanItem(item);
+        bestPlan.removeUnusableIndexConditions();
+        TableFilter[] list = bestPlan.getFilters();
+        for (int i = 0; i < list.length; i++) {
+            TableFilter f = list[i];
+            f.setPlanItem(bestPlan.getItem(f));
+            if (list.length > 1) {
+                f.setJoin(i + 1 < list.length ? list[i + 1] : null);
+            }
+        }
     }
 
-    public TableFilter getTableFilter() {
-        return tableFilter;
+    /**
+     * Get the table filters in the join order of the best plan.
+     *
+     * @return the table filters (the first one is the top filter)
+     */
+    TableFilter[] getFilters() {
+        return bestPlan.getFilters();
     }
 
     double getCost() {
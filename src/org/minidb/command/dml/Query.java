@@ -9,8 +9,11 @@ import org.minidb.command.Prepared;
 import org.minidb.engine.Database;
 import org.minidb.engine.Session;
 import org.minidb.expression.Expression;
+import org.minidb.expression.ExpressionVisitor;
+import org.minidb.expression.ValueExpression;
 import org.minidb.result.LocalResult;
 import org.minidb.result.ResultTarget;
+import org.minidb.result.SortOrder;
 import org.minidb.table.ColumnResolver;
 import org.minidb.table.Table;
 import org.minidb.table.TableFilter;
@@ -25,6 +28,25 @@ import java.util.HashSet;
  */
 public abstract class Query extends Prepared {
 
+    /**
+     * The limit expression as specified in the LIMIT clause.
+     */
+    protected Expression limitExpr;
+
+    /**
+     * The offset expression as specified in the OFFSET clause.
+     */
+    protected Expression offsetExpr;
+
+    /**
+     * The order by list, or null.
+     */
+    protected ArrayList<SelectOrderBy> orderList;
+
+    /**
+     * The sort order of the result, or null.
+     */
+    protected SortOrder sort;
 
     Query(Session session) {
         super(session);
@@ -48,16 +70,119 @@ public abstract class Query extends Prepared {
      */
     public abstract void mapColumns(ColumnResolver resolver, int level);
 
+    /**
+     * Check if this expression and all sub-expressions can fulfill a criteria.
+     * If any part returns false, the result is false.
+     *
+     * @param visitor the visitor
+     * @return if the criteria can be fulfilled
+     */
+    public abstract boolean isEverything(ExpressionVisitor visitor);
+
     @Override
     public boolean isQuery() {
         return true;
     }
 
+    @Override
+    public boolean isTransactional() {
+        return true;
+    }
+
     public LocalResult query(int maxrows) {
         return query(null);
     }
 
 
+    public void setOrder(ArrayList<SelectOrderBy> order) {
+        orderList = order;
+    }
+
+    public void setLimit(Expression limit) {
+        this.limitExpr = limit;
+    }
+
+    public void setOffset(Expression offset) {
+        this.offsetExpr = offset;
+    }
+
+    /**
+     * Initialize the order by list. An ORDER BY element is either the
+     * position of a selected expression (starting with 1), an expression
+     * that is selected, or another expression; such expressions are added to
+     * the end of the list, after the visible columns.
+     *
+     * @param expressions the select list expressions
+     * @param visible the number of visible columns in the select list
+     */
+    void initOrder(ArrayList<Expression> expressions, int visible) {
+        if (orderList == null) {
+            return;
+        }
+        int size = orderList.size();
+        int[] index = new int[size];
+        int[] sortType = new int[size];
+        for (int i = 0; i < size; i++) {
+            SelectOrderBy o = orderList.get(i);
+            Expression e = o.expression;
+            int idx;
+            if (e instanceof ValueExpression &&
+                    e.getType() == Value.INT) {
+                // ORDER BY 2: the second column of the select list
+                idx = e.getValue(null).getInt() - 1;
+                if (idx < 0 || idx >= visible) {
+                    throw new RuntimeException("ORDER BY " + (idx + 1) +
+                            " is not in the select list");
+                }
+            } else {
+                idx = -1;
+                String sql = e.getSQL();
+                for (int j = 0; j < visible; j++) {
+                    if (sql.equals(expressions.get(j).getSQL())) {
+                        idx = j;
+                        break;
+                    }
+                }
+                if (idx < 0) {
+                    // not selected: computed for each row, but not returned
+                    idx = expressions.size();
+                    expressions.add(e);
+                }
+            }
+            index[i] = idx;
+            int type = o.descending ? SortOrder.DESCENDING : SortOrder.ASCENDING;
+            if (o.nullsFirst) {
+                type |= SortOrder.NULLS_FIRST;
+            } else if (o.nullsLast) {
+                type |= SortOrder.NULLS_LAST;
+            }
+            sortType[i] = type;
+        }
+        sort = new SortOrder(index, sortType);
+    }
+
+    /**
+     * Get the value of the LIMIT or OFFSET expression.
+     *
+     * @param expr the expression, or null
+     * @param defaultValue the value if there is no expression
+     * @return the value
+     */
+    int getIntValue(Expression expr, int defaultValue) {
+        if (expr == null) {
+            return defaultValue;
+        }
+        Value v = expr.getValue(session);
+        if (v == ValueNull.INSTANCE) {
+            return defaultValue;
+        }
+        int i = v.getInt();
+        if (i < 0) {
+            throw new RuntimeException("LIMIT or OFFSET must not be negative: " + i);
+        }
+        return i;
+    }
+
     LocalResult query(ResultTarget target) {
         LocalResult r = queryWithoutCache(target);
         return r;
@@ -8,20 +8,31 @@ package org.minidb.command.dml;
 import org.minidb.command.CommandInterface;
 import org.minidb.engine.Database;
 import org.minidb.engine.Session;
+import org.minidb.expression.Aggregate;
+import org.minidb.expression.AggregateData;
 import org.minidb.expression.ConditionAndOr;
 import org.minidb.expression.Expression;
 import org.minidb.expression.ExpressionColumn;
+import org.minidb.expression.ExpressionVisitor;
 import org.minidb.result.LocalResult;
 import org.minidb.result.ResultTarget;
+import org.minidb.result.SortOrder;
 import org.minidb.table.*;
 import org.minidb.value.Value;
+import org.minidb.value.ValueBoolean;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 
 
 public class Select extends Query {
     private TableFilter tableFilter;
-    private final ArrayList<TableFilter> topFilters = new ArrayList();
+
+    /**
+     * All table filters, in join order (the first one is tableFilter).
+     */
+    private final ArrayList<TableFilter> filters = new ArrayList<>();
     private ArrayList<Expression> expressions;
     private Expression[] expressionArray;
     private Expression having;
@@ -29,22 +40,124 @@ public class Select extends Query {
     private ArrayList<Expression> group;
     private int[] groupIndex;
     private boolean[] groupByExpression;
-    private int havingIndex;
+    private int havingIndex = -1;
+    private boolean isGroupQuery;
+
+    /**
+     * Whether the rows are read in the order of the group expressions (from
+     * an index), so that each group can be returned when the next group
+     * starts.
+     */
+    private boolean isGroupSortedQuery;
+
+    /**
+     * The aggregates of the select list, the HAVING and the ORDER BY
+     * clause.
+     */
+    private final ArrayList<Aggregate> aggregates = new ArrayList<>();
+
+    /**
+     * The values of the group expressions of the group that is returned, or
+     * null while the rows are read.
+     */
+    private Value[] currentGroupKey;
+
+    /**
+     * The aggregate data of the group that is returned.
+     */
+    private AggregateData[] currentGroupData;
     private double cost;
     private int visibleColumnCount;
 
+    /**
+     * Whether the rows are read in the ORDER BY order (from an index), so
+     * that they don't need to be sorted.
+     */
+    private boolean sortUsingIndex;
+
     public Select(Session session) {
         super(session);
     }
 
-    public void setTableFilter(TableFilter tableFilter) {
-        this.tableFilter = tableFilter;
+    /**
+     * Add a table to the query.
+     *
+     * @param filter the table filter
+     * @param isTop if the table can be the first table in the query plan
+     */
+    public void addTableFilter(TableFilter filter, boolean isTop) {
+        filters.add(filter);
+        if (isTop) {
+            tableFilter = filter;
+        }
     }
 
     public void setExpressions(ArrayList<Expression> expressions) {
         this.expressions = expressions;
     }
 
+    /**
+     * Called if this query contains aggregate functions.
+     */
+    public void setGroupQuery() {
+        isGroupQuery = true;
+    }
+
+    public void setGroupBy(ArrayList<Expression> group) {
+        this.group = group;
+    }
+
+    public void setHaving(Expression having) {
+        this.having = having;
+    }
+
+    /**
+     * Add an aggregate function of this query.
+     *
+     * @param aggregate the aggregate
+     */
+    public void addAggregate(Aggregate aggregate) {
+        aggregate.setIndex(aggregates.size());
+        aggregates.add(aggregate);
+        isGroupQuery = true;
+    }
+
+    /**
+     * Get the aggregate data of the group that is returned.
+     *
+     * @return the data, or null while the rows are read
+     */
+    public AggregateData[] getCurrentGroupData() {
+        return currentGroupData;
+    }
+
+    /**
+     * Get the value of a column of the group that is returned. Only the
+     * columns of the GROUP BY list can be used outside of aggregates.
+     *
+     * @param column the column expression
+     * @return the value, or null while the rows are read
+     */
+    public Value getCurrentGroupValue(ExpressionColumn column) {
+        if (currentGroupKey == null) {
+            return null;
+        }
+        if (groupIndex != null) {
+            for (int i = 0; i < groupIndex.length; i++) {
+                Expression e = expressions.get(groupIndex[i]);
+                if (e instanceof ExpressionColumn) {
+                    ExpressionColumn c = (ExpressionColumn) e;
+                    if (c.getColumn() == column.getColumn() &&
+                            c.getTableFilter() == column.getTableFilter()) {
+                        return currentGroupKey[i];
+                    }
+                }
+            }
+        }
+        throw new RuntimeException("Column " + column.getSQL() +
+                " must be in the GROUP BY list");
+    }
+
     /**
      * Add a condition to the list of conditions.
      *
@@ -59,7 +172,10 @@ public class Select extends Query {
     }
 
     private void queryFlat(int columnCount, ResultTarget result, long limitRows) {
-        while (tableFilter.next()) {
+        long rowNumber = 0;
+        // with a limit, and if the rows don't need to be sorted, the query
+        // stops when enough rows are found
+        while ((limitRows < 0 || rowNumber < limitRows) && tableFilter.next()) {
             if (condition == null ||
                     Boolean.TRUE.equals(condition.getBooleanValue(session))) {
                 Value[] row = new Value[columnCount];
@@ -68,10 +184,112 @@ public class Select extends Query {
                     row[i] = expr.getValue(session);
                 }
                 result.addRow(row);
+                rowNumber++;
             }
         }
     }
 
+    private void queryGroup(int columnCount, ResultTarget result) {
+        Aggregate[] list = getAggregates();
+        HashAggregate hash = new HashAggregate(session, list,
+                groupIndex == null ? 0 : groupIndex.length);
+        try {
+            while (tableFilter.next()) {
+                if (condition == null ||
+                        Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                    hash.add(readGroupKey());
+                }
+            }
+            if (groupIndex == null && hash.isEmpty()) {
+                // an aggregate without GROUP BY returns one row
+                addGroupRow(columnCount, new Value[0],
+                        HashAggregate.createData(list), result);
+            }
+            while (hash.next()) {
+                addGroupRow(columnCount, hash.getKey(), hash.getData(), result);
+            }
+        } finally {
+            hash.close();
+        }
+    }
+
+    private void queryGroupSorted(int columnCount, ResultTarget result) {
+        Aggregate[] list = getAggregates();
+        Value[] previousKey = null;
+        AggregateData[] data = null;
+        while (tableFilter.next()) {
+            if (condition == null ||
+                    Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                Value[] key = readGroupKey();
+                if (previousKey == null || !Arrays.equals(previousKey, key)) {
+                    // the rows of a group follow each other
+                    if (previousKey != null) {
+                        addGroupRow(columnCount, previousKey, data, result);
+                    }
+                    previousKey = key;
+                    data = HashAggregate.createData(list);
+                }
+                for (int i = 0; i < list.length; i++) {
+                    list[i].updateAggregate(session, data[i]);
+                }
+            }
+        }
+        if (previousKey != null) {
+            addGroupRow(columnCount, previousKey, data, result);
+        }
+    }
+
+    private Aggregate[] getAggregates() {
+        return aggregates.toArray(new Aggregate[aggregates.size()]);
+    }
+
+    private Value[] readGroupKey() {
+        if (groupIndex == null) {
+            return new Value[0];
+        }
+        Value[] key = new Value[groupIndex.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = expressions.get(groupIndex[i]).getValue(session);
+        }
+        return key;
+    }
+
+    private void addGroupRow(int columnCount, Value[] key, AggregateData[] data,
+                             ResultTarget result) {
+        currentGroupKey = key;
+        currentGroupData = data;
+        try {
+            if (havingIndex >= 0 && !Boolean.TRUE.equals(
+                    expressions.get(havingIndex).getBooleanValue(session))) {
+                return;
+            }
+            Value[] row = new Value[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                if (i == havingIndex) {
+                    row[i] = ValueBoolean.get(true);
+                } else if (groupByExpression != null && i < groupByExpression.length &&
+                        groupByExpression[i]) {
+                    row[i] = key[getGroupPosition(i)];
+                } else {
+                    row[i] = expressions.get(i).getValue(session);
+                }
+            }
+            result.addRow(row);
+        } finally {
+            currentGroupKey = null;
+            currentGroupData = null;
+        }
+    }
+
+    private int getGroupPosition(int expressionIndex) {
+        for (int i = 0; i < groupIndex.length; i++) {
+            if (groupIndex[i] == expressionIndex) {
+                return i;
+            }
+        }
+        throw new RuntimeException("Not a group expression: " + expressionIndex);
+    }
+
     @Override
     protected LocalResult queryWithoutCache( ResultTarget target) {
         int columnCount = expressions.size();
@@ -79,17 +297,43 @@ public class Select extends Query {
         if (target == null ) {
             result = createLocalResult(result);
         }
-//        tableFilter.startQuery(session);
+        int limitRows = getIntValue(limitExpr, -1);
+        int offset = getIntValue(offsetExpr, 0);
+        boolean sorted = sort == null || sortUsingIndex;
+        if (result != null) {
+            if (!sorted) {
+                result.setSortOrder(sort);
+            }
+            result.setLimit(limitRows);
+            result.setOffset(offset);
+        }
+        tableFilter.startQuery(session);
         tableFilter.reset();
 //        topTableFilter.lock(session, exclusive, exclusive);
         ResultTarget to = result != null ? result : target;
 
-        queryFlat(columnCount, result, 1000);
-
-        if (result != null) {
-            return result;
+        boolean success = false;
+        try {
+            if (isGroupSortedQuery) {
+                queryGroupSorted(columnCount, to);
+            } else if (isGroupQuery) {
+                queryGroup(columnCount, to);
+            } else {
+                queryFlat(columnCount, to,
+                        sorted && limitRows >= 0 ? (long) offset + limitRows : -1);
+            }
+            if (result != null) {
+                result.done();
+            }
+            success = true;
+        } finally {
+            tableFilter.endQuery();
+            if (!success && result != null) {
+                // remove the sorted runs that were already written
+                result.close();
+            }
         }
-        return null;
+        return result;
     }
 
     private LocalResult createLocalResult(LocalResult old) {
@@ -157,27 +401,154 @@ public class Select extends Query {
 //        expandColumnList();
 
         visibleColumnCount = expressions.size();
+        initOrder(expressions, visibleColumnCount);
+        if (group != null) {
+            // the group expressions that are not selected are added to the
+            // end of the list
+            int size = group.size();
+            groupIndex = new int[size];
+            for (int i = 0; i < size; i++) {
+                Expression g = group.get(i);
+                String sql = g.getSQL();
+                int found = -1;
+                for (int j = 0; j < expressions.size(); j++) {
+                    if (sql.equals(expressions.get(j).getSQL())) {
+                        found = j;
+                        break;
+                    }
+                }
+                if (found < 0) {
+                    found = expressions.size();
+                    expressions.add(g);
+                }
+                groupIndex[i] = found;
+            }
+            groupByExpression = new boolean[expressions.size()];
+            for (int gi : groupIndex) {
+                groupByExpression[gi] = true;
+            }
+            isGroupQuery = true;
+        }
+        if (having != null) {
+            havingIndex = expressions.size();
+            expressions.add(having);
+        }
 
-        mapColumns(tableFilter, 0);
+        for (TableFilter f : filters) {
+            mapColumns(f, 0);
+        }
     }
 
     @Override
     public void prepare() {
-        if (condition != null) {
-            condition.createIndexConditions(session, tableFilter);
+        for (TableFilter f : filters) {
+            if (f.isJoinOuter()) {
+                // the query condition must not restrict the rows of the
+                // right side of a LEFT JOIN, only the ON condition may
+                Expression on = f.getJoinCondition();
+                if (on != null) {
+                    on.createIndexConditions(session, f);
+                }
+            } else if (condition != null) {
+                condition.createIndexConditions(session, f);
+            }
+        }
+        if (condition != null && filters.size() == 1) {
+            tableFilter.setFullCondition(condition);
         }
         cost = preparePlan();
+        if (groupIndex != null) {
+            isGroupSortedQuery = isGroupSortedByIndex();
+        }
+        if (sort != null && (!isGroupQuery || isGroupSortedQuery)) {
+            // the groups of a hash table are returned in any order
+            sortUsingIndex = isSortedByIndex();
+        }
         expressionArray = new Expression[expressions.size()];
         expressions.toArray(expressionArray);
     }
 
     private double preparePlan() {
-        Optimizer optimizer = new Optimizer(tableFilter, condition, session);
+        TableFilter[] list = new TableFilter[filters.size()];
+        filters.toArray(list);
+        Optimizer optimizer = new Optimizer(list, condition, session);
         optimizer.optimize();
+        // the inner joins may have been reordered
+        filters.clear();
+        for (TableFilter f : optimizer.getFilters()) {
+            filters.add(f);
+        }
+        tableFilter = filters.get(0);
         return optimizer.getCost();
     }
 
 
+    /**
+     * Check if the first table is read from an index in the order of the
+     * ORDER BY columns. The joined tables don't change the order of the
+     * rows of the first table.
+     *
+     * @return true if the rows don't need to be sorted
+     */
+    private boolean isSortedByIndex() {
+        Column[] sortColumns = tableFilter.getSortColumns();
+        if (sortColumns == null) {
+            return false;
+        }
+        int[] indexes = sort.getQueryColumnIndexes();
+        int[] sortTypes = sort.getSortTypes();
+        if (indexes.length > sortColumns.length) {
+            return false;
+        }
+        for (int i = 0; i < indexes.length; i++) {
+            if (SortOrder.normalize(sortTypes[i]) != SortOrder.ASCENDING) {
+                return false;
+            }
+            Expression e = expressions.get(indexes[i]);
+            if (!(e instanceof ExpressionColumn)) {
+                return false;
+            }
+            ExpressionColumn c = (ExpressionColumn) e;
+            if (c.getTableFilter() != tableFilter ||
+                    c.getColumn() != sortColumns[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if the first table is read from an index in the order of the
+     * group expressions (in any order of the expressions), so that the rows
+     * of each group follow each other.
+     *
+     * @return true if the groups can be aggregated one after the other
+     */
+    private boolean isGroupSortedByIndex() {
+        Column[] sortColumns = tableFilter.getSortColumns();
+        if (sortColumns == null || groupIndex.length > sortColumns.length) {
+            return false;
+        }
+        HashSet<Column> groupColumns = new HashSet<>();
+        for (int idx : groupIndex) {
+            Expression e = expressions.get(idx);
+            if (!(e instanceof ExpressionColumn)) {
+                return false;
+            }
+            ExpressionColumn c = (ExpressionColumn) e;
+            if (c.getTableFilter() != tableFilter) {
+                return false;
+            }
+            groupColumns.add(c.getColumn());
+        }
+        for (int i = 0; i < groupIndex.length; i++) {
+            if (!groupColumns.contains(sortColumns[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public void mapColumns(ColumnResolver resolver, int level) {
         for (Expression e : expressions) {
@@ -186,14 +557,36 @@ public class Select extends Query {
         if (condition != null) {
             condition.mapColumns(resolver, level);
         }
+        for (TableFilter f : filters) {
+            Expression on = f.getJoinCondition();
+            if (on != null) {
+                on.mapColumns(resolver, level);
+            }
+        }
     }
 
     public int getType() {
         return CommandInterface.SELECT;
     }
 
-//    public SortOrder getSortOrder() {
-//        return sort;
-//    }
+    @Override
+    public boolean isEverything(ExpressionVisitor visitor) {
+        for (Expression e : expressions) {
+            if (!e.isEverything(visitor)) {
+                return false;
+            }
+        }
+        for (TableFilter f : filters) {
+            Expression on = f.getJoinCondition();
+            if (on != null && !on.isEverything(visitor)) {
+                return false;
+            }
+        }
+        return condition == null || condition.isEverything(visitor);
+    }
+
+    public SortOrder getSortOrder() {
+        return sort;
+    }
 
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.command.dml;
+
+import org.minidb.expression.Expression;
+
+/**
+ * Describes one element of the ORDER BY clause of a query.
+ */
+public class SelectOrderBy {
+
+    /**
+     * The order by expression.
+     */
+    public Expression expression;
+
+    /**
+     * If the order is descending.
+     */
+    public boolean descending;
+
+    /**
+     * If NULL should appear first.
+     */
+    public boolean nullsFirst;
+
+    /**
+     * If NULL should appear at the end.
+     */
+    public boolean nullsLast;
+
+    public String getSQL() {
+        StringBuilder buff = new StringBuilder();
+        buff.append(expression.getSQL());
+        if (descending) {
+            buff.append(" DESC");
+        }
+        if (nullsFirst) {
+            buff.append(" NULLS FIRST");
+        } else if (nullsLast) {
+            buff.append(" NULLS LAST");
+        }
+        return buff.toString();
+    }
+
+}
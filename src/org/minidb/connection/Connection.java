@@ -6,6 +6,8 @@ import org.minidb.engine.DbException;
 import org.minidb.engine.Session;
 import org.minidb.engine.SessionFactory;
 
+import java.util.ArrayList;
+
 /**
  * Created by gxh on 2016/6/10.
  */
@@ -13,6 +15,7 @@ public class Connection {
 
     private Session session;
     private static SessionFactory sessionFactory;
+    private final ArrayList<Statement> statements = new ArrayList<>();
 
     public Connection(ConnectionInfo ci){
         session = createSession(ci);
@@ -32,7 +35,33 @@ public class Connection {
     }
 
     public Statement createStatement(){
-        return new Statement(this, session);
+        Statement stat = new Statement(this, session);
+        statements.add(stat);
+        return stat;
+    }
+
+    /**
+     * Close the statements of this connection, and with them the results
+     * that were not read to the end.
+     */
+    public void close(){
+        // each statement removes itself
+        for (Statement stat : new ArrayList<>(statements)) {
+            stat.close();
+        }
+    }
+
+    /**
+     * Remove a statement that was closed.
+     *
+     * @param stat the statement
+     */
+    void removeStatement(Statement stat) {
+        statements.remove(stat);
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        session.setReadOnly(readOnly);
     }
 
     Command prepareCommand(String sql) {
@@ -19,6 +19,8 @@ public class Statement {
     }
 
     public void execute(String sql){
+        // the temporary maps of the previous result are not needed any more
+        closeResult();
         Command command = connection.prepareCommand(sql);
         if (command.isQuery()) {
             result = command.executeQuery();
@@ -30,4 +32,20 @@ public class Statement {
     public LocalResult getResult(){
         return result;
     }
+
+    /**
+     * Close the current result, if there is one, and remove this statement
+     * from the connection.
+     */
+    public void close(){
+        closeResult();
+        connection.removeStatement(this);
+    }
+
+    private void closeResult(){
+        if (result != null) {
+            result.close();
+            result = null;
+        }
+    }
 }
@@ -229,6 +229,42 @@ public class Constants {
      */
     public static final int DEFAULT_MAX_MEMORY_UNDO = 50000;
 
+    /**
+     * The default maximum number of rows to be kept in memory, for example
+     * while an index is built.
+     */
+    public static final int DEFAULT_MAX_MEMORY_ROWS = 40000;
+
+    /**
+     * The default size of the decoded row cache in KB (0 to disable it).
+     */
+    public static final int DEFAULT_ROW_CACHE_SIZE = 16 * 1024;
+
+    /**
+     * The default size in KB of the hash table of a hash join. If the rows
+     * of the build side need more memory, some partitions are written to
+     * temporary maps.
+     */
+    public static final int DEFAULT_MAX_HASH_JOIN_MEMORY = 16 * 1024;
+
+    /**
+     * The number of row keys a session reserves at once when inserting into
+     * a table without primary key.
+     */
+    public static final int ROW_KEY_RANGE_SIZE = 64;
+
+    /**
+     * The default number of sequence values a session reserves at once.
+     */
+    public static final int DEFAULT_SEQUENCE_CACHE_SIZE = 32;
+
+    /**
+     * The number of changed rows per table and transaction that are removed
+     * from the row cache one by one after the commit. If more rows are
+     * changed, all rows of the table are removed.
+     */
+    public static final int MAX_CHANGED_ROWS_PER_TABLE = 1000;
+
     /**
      * The default for the setting MAX_OPERATION_MEMORY.
      */
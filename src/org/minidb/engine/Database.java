@@ -11,6 +11,7 @@ import org.minidb.table.*;
 import org.minidb.util.BitField;
 import org.minidb.util.StringUtils;
 import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -27,6 +28,10 @@ public class Database {
     private Table meta;
     private Store store;
     private static TableFactory tableEngine = new TableEngine();
+    private static final HashMap<String, TableFactory> tableEngines = new HashMap<>();
+    static {
+        tableEngines.put(ColumnTableEngine.NAME, new ColumnTableEngine());
+    }
     private HashMap<String, Schema> schemas = new HashMap<String, Schema>();
     private RowFactory rowFactory = new RowFactory();
     private HashMap<String, User> users = new HashMap<>();
@@ -35,6 +40,9 @@ public class Database {
     private boolean starting;
     private BaseIndex metaIdIndex;
     private final String databaseShortName = "TEST";
+    private int maxMemoryRows = Constants.DEFAULT_MAX_MEMORY_ROWS;
+    private int maxHashJoinMemory = Constants.DEFAULT_MAX_HASH_JOIN_MEMORY;
+    private volatile RowCache rowCache = new RowCache(Constants.DEFAULT_ROW_CACHE_SIZE * 1024L);
 
     public Database(){
         //数据库属性的初始化
@@ -59,7 +67,8 @@ public class Database {
         objectIds.set(0);
         starting = true;
         metaIdIndex = meta.addIndex(systemSession, "SYS_ID",
-                0, new Column("ID", Value.INT), IndexType.createPrimaryKey(false, false));
+                0, IndexColumn.wrap(new Column[] { meta.getColumn("ID") }),
+                IndexType.createPrimaryKey(false, false));
         Cursor cursor = metaIdIndex.find(systemSession, null, null);
 //        Cursor cursor = meta.find(systemSession, null, null);
         ArrayList<MetaRecord> records = new ArrayList<>();
@@ -75,6 +84,16 @@ public class Database {
         systemSession.commit(true);
     }
 
+    /**
+     * Check if the database is being opened, that is, the schema objects are
+     * created from the meta table.
+     *
+     * @return true if it is
+     */
+    public boolean isStarting() {
+        return starting;
+    }
+
     private Table createMetaTable(){
         CreateTableData tableData = new CreateTableData();
         tableData.id = 0;
@@ -89,6 +108,23 @@ public class Database {
         return tableEngine;
     }
 
+    /**
+     * Get the factory of a table engine.
+     *
+     * @param name the engine name, or null for the default engine
+     * @return the factory
+     */
+    public TableFactory getTableFactory(String name) {
+        if (name == null) {
+            return tableEngine;
+        }
+        TableFactory factory = tableEngines.get(name);
+        if (factory == null) {
+            throw new RuntimeException("Unknown table engine " + name);
+        }
+        return factory;
+    }
+
     public Store openStore(){
         if(store == null){
             StoreBuilder builder = new StoreBuilder();
@@ -99,10 +135,53 @@ public class Database {
         return store;
     }
 
+    public int getMaxMemoryRows() {
+        return maxMemoryRows;
+    }
+
+    public void setMaxMemoryRows(int value) {
+        this.maxMemoryRows = value;
+    }
+
+    /**
+     * Get the memory that the hash table of a hash join may use.
+     *
+     * @return the size in KB
+     */
+    public int getMaxHashJoinMemory() {
+        return maxHashJoinMemory;
+    }
+
+    public void setMaxHashJoinMemory(int kb) {
+        this.maxHashJoinMemory = kb;
+    }
+
+    /**
+     * Get the cache of decoded committed rows.
+     *
+     * @return the cache, or null if disabled
+     */
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
+    /**
+     * Set the size of the row cache. The cached rows are discarded.
+     *
+     * @param kb the size in KB, 0 to disable the cache
+     */
+    public void setRowCacheSize(int kb) {
+        rowCache = kb <= 0 ? null : new RowCache(kb * 1024L);
+    }
+
     public Row createRow(Value[] data){
         return rowFactory.createRow(data);
     }
 
+    public Row createRow(ValueArray array) {
+        return rowFactory.createRow(array);
+    }
+
     public ArrayList<User> getAllUsers(){
         return new ArrayList<>(users.values());
     }
@@ -134,6 +213,31 @@ public class Database {
         }
     }
 
+    /**
+     * Write the create statement of an object to the meta table again, for
+     * example after its statistics changed. The old record is replaced,
+     * because the row key of the meta table is the object id.
+     *
+     * @param session the session
+     * @param obj the object
+     */
+    public void updateMeta(Session session, DbObject obj) {
+        addMeta(session, obj);
+    }
+
+    /**
+     * Write the create statement of an object to the meta table in a
+     * transaction of its own, which is committed even if the transaction of
+     * the session that changed the object is rolled back (for example the
+     * high-water mark of a sequence).
+     *
+     * @param obj the object
+     */
+    public synchronized void updateMetaCommitted(DbObject obj) {
+        addMeta(systemSession, obj);
+        systemSession.commit(true);
+    }
+
     public boolean areEqual(Value a, Value b) {
         // can not use equals because ValueDecimal 0.0 is not equal to 0.00.
         return a.compareTo(b) == 0;
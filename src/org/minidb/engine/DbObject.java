@@ -8,7 +8,9 @@ public interface DbObject {
     int TABLE_OR_VIEW = 0;
     int INDEX = 1;
     int USER = 2;
+    int SEQUENCE = 3;
     int SCHEMA = 10;
+    int STATISTICS = 15;
 
     String getName();
 
@@ -17,15 +17,20 @@ public class Engine implements SessionFactory{
 
     public Session createSession(ConnectionInfo ci){
         String name = ci.getDbFileName();
-        Database database = DATABASES.get(name);
+        Database database;
         User user = null;
-        if(database == null){
-            database = new Database();
-            if(database.getAllUsers().size() == 0){
-                user = new User(database, database.allocateObjectId(), ci.getUserName());
-                user.setAdmin(true);
-                user.setUserPasswordHash(ci.getPasswordHash());
-                database.setMasterUser(user);
+        //同一个数据库的session共享一个Database对象，这样多个session可以并发地访问
+        synchronized (DATABASES) {
+            database = DATABASES.get(name);
+            if(database == null){
+                database = new Database();
+                if(database.getAllUsers().size() == 0){
+                    user = new User(database, database.allocateObjectId(), ci.getUserName());
+                    user.setAdmin(true);
+                    user.setUserPasswordHash(ci.getPasswordHash());
+                    database.setMasterUser(user);
+                }
+                DATABASES.put(name, database);
             }
         }
         synchronized (database){
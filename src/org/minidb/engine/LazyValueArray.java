@@ -0,0 +1,68 @@
+package org.minidb.engine;
+
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A row of a table map as read from a page: the encoded columns, and an
+ * offset table. A column is only decoded when it is used (the first time).
+ * <p>
+ * Decoding the same column concurrently is allowed, the values are
+ * immutable. The values must not be changed.
+ */
+public class LazyValueArray extends ValueArray {
+
+    private final Value[] values;
+
+    /**
+     * The encoded columns.
+     */
+    final byte[] data;
+
+    /**
+     * The start of each column in the data; the last element is the length
+     * of the data.
+     */
+    final int[] offsets;
+
+    LazyValueArray(byte[] data, int[] offsets) {
+        this(new Value[offsets.length - 1], data, offsets);
+    }
+
+    private LazyValueArray(Value[] values, byte[] data, int[] offsets) {
+        super(values);
+        this.values = values;
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    @Override
+    public Value getValue(int i) {
+        Value v = values[i];
+        if (v == null) {
+            ByteBuffer buff = ByteBuffer.wrap(data, offsets[i], offsets[i + 1] - offsets[i]);
+            v = (Value) ValueDataType.readValue(buff);
+            values[i] = v;
+        }
+        return v;
+    }
+
+    @Override
+    public Value[] getList() {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                getValue(i);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int getMemory() {
+        // the decoded values are not counted
+        return 48 + data.length + values.length * 12;
+    }
+
+}
@@ -3,9 +3,18 @@ package org.minidb.engine;
 import org.minidb.command.Command;
 import org.minidb.command.Parser;
 import org.minidb.command.Prepared;
+import org.minidb.schema.Schema;
 import org.minidb.store.mvstore.TransactionStore.Transaction;
 import org.minidb.table.Row;
+import org.minidb.table.RowCache;
+import org.minidb.table.Table;
+import org.minidb.util.RangeAllocator;
 import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 /**
  * Created by gxh on 2016/6/10.
@@ -14,6 +23,21 @@ public class Session {
     private Database database;
     private User user;
     private Transaction transaction;
+    private boolean readOnly;
+
+    /**
+     * The keys of the rows changed by the open transaction, per table. They
+     * are removed from the row cache after the commit. If too many rows of
+     * a table were changed, the set is null, and all rows of the table are
+     * removed.
+     */
+    private HashMap<Table, HashSet<Long>> changedRows;
+
+    /**
+     * The ranges of row keys and sequence values this session reserved:
+     * the next value and the first value after the range.
+     */
+    private HashMap<RangeAllocator, long[]> ranges;
 
     public Session(Database database, User user){
         this.database = database;
@@ -28,17 +52,125 @@ public class Session {
         return database.createRow(data);
     }
 
+    public Row createRow(ValueArray array) {
+        return database.createRow(array);
+    }
+
     public Transaction getTransaction() {
         if (transaction == null) {
-            transaction = database.getStore().getTransactionStore().begin();
+            if (readOnly) {
+                transaction = database.getStore().getTransactionStore().beginReadOnly();
+            } else {
+                transaction = database.getStore().getTransactionStore().begin();
+            }
         }
         return transaction;
     }
 
+    /**
+     * Only allow reading in the following transactions. Read-only
+     * transactions read committed rows without synchronizing on the undo log.
+     *
+     * @param readOnly the new value
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Remember that the open transaction changed a row.
+     *
+     * @param table the table
+     * @param key the row key
+     */
+    public void rowChanged(Table table, long key) {
+        if (changedRows == null) {
+            changedRows = new HashMap<>();
+        }
+        HashSet<Long> keys;
+        if (!changedRows.containsKey(table)) {
+            keys = new HashSet<>();
+            changedRows.put(table, keys);
+        } else {
+            keys = changedRows.get(table);
+        }
+        if (keys != null) {
+            if (keys.size() < Constants.MAX_CHANGED_ROWS_PER_TABLE) {
+                keys.add(key);
+            } else {
+                changedRows.put(table, null);
+            }
+        }
+    }
+
+    /**
+     * Check whether the open transaction changed rows of the table.
+     *
+     * @param table the table
+     * @return true if yes
+     */
+    public boolean hasChangedRows(Table table) {
+        return changedRows != null && changedRows.containsKey(table);
+    }
+
+    private void removeChangedRowsFromCache() {
+        if (changedRows == null) {
+            return;
+        }
+        RowCache cache = database.getRowCache();
+        if (cache != null) {
+            for (Map.Entry<Table, HashSet<Long>> e : changedRows.entrySet()) {
+                int tableId = e.getKey().getId();
+                if (e.getValue() == null) {
+                    cache.removeTable(tableId);
+                } else {
+                    for (long key : e.getValue()) {
+                        cache.remove(tableId, key);
+                    }
+                }
+            }
+        }
+        changedRows = null;
+    }
+
+    /**
+     * Get the next value of the range this session reserved, and reserve a
+     * new range if it is used up.
+     *
+     * @param allocator the allocator
+     * @return the value
+     */
+    public long nextValue(RangeAllocator allocator) {
+        if (ranges == null) {
+            ranges = new HashMap<>();
+        }
+        long[] range = ranges.get(allocator);
+        if (range == null) {
+            range = new long[2];
+            ranges.put(allocator, range);
+        }
+        if (range[0] >= range[1]) {
+            range[0] = allocator.reserve();
+            range[1] = range[0] + allocator.getRangeSize();
+        }
+        return range[0]++;
+    }
+
     public Command prepareCommand(String sql) {
         Command command;
-        Parser parser = new Parser(this);
-        command = parser.prepareCommand(sql);
+        Schema schema = database.getSchema(getCurrentSchemaName());
+        // parsing reads the schema objects, so DDL must not run concurrently
+        schema.lock(false);
+        try {
+            Parser parser = new Parser(this);
+            command = parser.prepareCommand(sql);
+        } finally {
+            schema.unlock(false);
+        }
         return command;
     }
 
@@ -46,6 +178,26 @@ public class Session {
         return "PUBLIC";
     }
 
+    /**
+     * Create a savepoint in the current transaction.
+     *
+     * @return the savepoint id
+     */
+    public long setSavepoint() {
+        return getTransaction().setSavepoint();
+    }
+
+    /**
+     * Undo the changes of the current transaction after the savepoint.
+     *
+     * @param savepoint the savepoint id
+     */
+    public void rollbackTo(long savepoint) {
+        if (transaction != null && !transaction.isReadOnly()) {
+            transaction.rollbackToSavepoint(savepoint);
+        }
+    }
+
     public Prepared prepare(String sql) {
         Parser parser = new Parser(this);
         return parser.prepare(sql);
@@ -64,7 +216,13 @@ public class Session {
 //                    }
 //                }
 //            }
-            transaction.commit();
+            try {
+                transaction.commit();
+            } finally {
+                // the committed rows may have been cached by other sessions
+                // while they saw the old version
+                removeChangedRowsFromCache();
+            }
             transaction = null;
         }
 //        if (containsUncommitted()) {
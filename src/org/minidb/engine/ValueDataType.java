@@ -8,6 +8,7 @@ package org.minidb.engine;
 import org.minidb.store.mvstore.DataUtil;
 import org.minidb.store.mvstore.WriteBuffer;
 import org.minidb.store.mvstore.type.DataType;
+import org.minidb.table.IndexColumn;
 import org.minidb.value.*;
 
 import java.math.BigDecimal;
@@ -32,14 +33,26 @@ public class ValueDataType implements DataType {
     private static final int STRING_0_31 = 68;
     private static final int BYTES_0_31 = 100;
     private static final int SPATIAL_KEY_2D = 132;
+    private static final int ROW = 133;
 
     public static final int ASCENDING = 0;
     public static final int DESCENDING = 1;
 
     final int[] sortTypes;
 
+    /**
+     * Whether arrays are written as rows: with an offset table, so that a
+     * column can be decoded without decoding the columns before it.
+     */
+    private final boolean rowLayout;
+
     public ValueDataType(int[] sortTypes) {
+        this(sortTypes, false);
+    }
+
+    public ValueDataType(int[] sortTypes, boolean rowLayout) {
         this.sortTypes = sortTypes;
+        this.rowLayout = rowLayout;
     }
 
     @Override
@@ -54,7 +67,8 @@ public class ValueDataType implements DataType {
             int bl = bx.length;
             int len = Math.min(al, bl);
             for (int i = 0; i < len; i++) {
-                int sortType = sortTypes[i];
+                int sortType = sortTypes == null || i >= sortTypes.length ?
+                        ASCENDING : sortTypes[i];
                 int comp = compareValues(ax[i], bx[i], sortType);
                 if (comp != 0) {
                     return comp;
@@ -87,8 +101,7 @@ public class ValueDataType implements DataType {
         boolean aNull = a == ValueNull.INSTANCE;
         boolean bNull = b == ValueNull.INSTANCE;
         if (aNull || bNull) {
-            throw new RuntimeException("compareValues ERROR");
-//            return SortOrder.compareNull(aNull, sortType);
+            return compareNull(aNull, sortType);
         }
         int comp = a.compareTypeSafe(b);
         if ((sortType & DESCENDING) != 0) {
@@ -98,16 +111,29 @@ public class ValueDataType implements DataType {
     }
 
 
+    /**
+     * Compare a NULL value with a non-NULL value. NULL is sorted before all
+     * other values unless NULLS_LAST is set, independent of the sort
+     * direction.
+     *
+     * @param aNull whether the first value is NULL
+     * @param sortType the sort type bit mask
+     * @return the comparison result
+     */
+    private static int compareNull(boolean aNull, int sortType) {
+        if ((sortType & IndexColumn.NULLS_LAST) != 0) {
+            return aNull ? 1 : -1;
+        }
+        return aNull ? -1 : 1;
+    }
+
     @Override
     public int getMemory(Object obj) {
         return getMemory((Value) obj);
     }
 
     private static int getMemory(Value v) {
-//        return v == null ? 0 : v.getMemory();
-//        throw new RuntimeException("getMemory ERROR");
-        System.out.println("getMemory 没写");
-        return 0;
+        return v == null ? 0 : v.getMemory();
     }
 
     @Override
@@ -132,12 +158,56 @@ public class ValueDataType implements DataType {
     @Override
     public void write(WriteBuffer buff, Object obj) {
         Value x = (Value) obj;
-        writeValue(buff, x);
+        if (rowLayout && x instanceof ValueArray) {
+            writeRow(buff, (ValueArray) x);
+        } else {
+            writeValue(buff, x);
+        }
+    }
+
+    /**
+     * Write a row: the tag, the number of columns, the length of the data,
+     * the encoded columns, and the length of each column. A row that was
+     * read is written as it is, without decoding it.
+     */
+    private void writeRow(WriteBuffer buff, ValueArray row) {
+        byte[] data;
+        int[] offsets;
+        if (row instanceof LazyValueArray) {
+            LazyValueArray lazy = (LazyValueArray) row;
+            data = lazy.data;
+            offsets = lazy.offsets;
+            int len = offsets.length - 1;
+            buff.put((byte) ROW).putVarInt(len).putInt(data.length).put(data);
+        } else {
+            Value[] list = row.getList();
+            int len = list.length;
+            offsets = new int[len + 1];
+            buff.put((byte) ROW).putVarInt(len);
+            int lenPos = buff.position();
+            buff.putInt(0);
+            int start = buff.position();
+            for (int i = 0; i < len; i++) {
+                offsets[i] = buff.position() - start;
+                writeValue(buff, list[i]);
+            }
+            offsets[len] = buff.position() - start;
+            buff.putInt(lenPos, offsets[len]);
+        }
+        for (int i = 0, len = offsets.length - 1; i < len; i++) {
+            buff.putVarInt(offsets[i + 1] - offsets[i]);
+        }
     }
 
     private void writeValue(WriteBuffer buff, Value v) {
         int type = v.getType();
         switch (type) {
+            case Value.NULL:
+                buff.put((byte) 0);
+                break;
+            case Value.BOOLEAN:
+                buff.put((byte) (v.getBoolean() ? BOOLEAN_TRUE : BOOLEAN_FALSE));
+                break;
             case Value.INT: {
                 int x = v.getInt();
                 if (x < 0) {
@@ -195,9 +265,15 @@ public class ValueDataType implements DataType {
      *
      * @return the value
      */
-    private Object readValue(ByteBuffer buff) {
+    static Object readValue(ByteBuffer buff) {
         int type = buff.get() & 255;
         switch (type) {
+            case Value.NULL:
+                return ValueNull.INSTANCE;
+            case BOOLEAN_FALSE:
+                return ValueBoolean.get(false);
+            case BOOLEAN_TRUE:
+                return ValueBoolean.get(true);
             case INT_NEG:
                 return ValueInt.get(-readVarInt(buff));
             case Value.INT:
@@ -228,11 +304,24 @@ public class ValueDataType implements DataType {
                 }
                 return ValueArray.get(list);
             }
+            case ROW: {
+                // the columns are decoded when they are used
+                int len = readVarInt(buff);
+                byte[] data = new byte[buff.getInt()];
+                buff.get(data);
+                int[] offsets = new int[len + 1];
+                for (int i = 0; i < len; i++) {
+                    offsets[i + 1] = offsets[i] + readVarInt(buff);
+                }
+                return new LazyValueArray(data, offsets);
+            }
             default:
                 if (type >= INT_0_15 && type < INT_0_15 + 16) {
                     return ValueInt.get(type - INT_0_15);
                 } else if (type >= LONG_0_7 && type < LONG_0_7 + 8) {
                     return ValueLong.get(type - LONG_0_7);
+                } else if (type >= STRING_0_31 && type < STRING_0_31 + 32) {
+                    return ValueString.get(readString(buff, type - STRING_0_31));
                 }
                 throw new RuntimeException("readValue ERROR");
         }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.expression;
+
+import org.minidb.command.dml.Select;
+import org.minidb.engine.Session;
+import org.minidb.table.ColumnResolver;
+import org.minidb.table.TableFilter;
+import org.minidb.value.Value;
+import org.minidb.value.ValueNull;
+
+import java.util.HashMap;
+
+/**
+ * Implements the integrated aggregate functions, such as COUNT, MAX, SUM.
+ */
+public class Aggregate extends Expression {
+
+    /**
+     * The aggregate type for COUNT(*).
+     */
+    public static final int COUNT_ALL = 0;
+
+    /**
+     * The aggregate type for COUNT(expression).
+     */
+    public static final int COUNT = 1;
+
+    /**
+     * The aggregate type for SUM(expression).
+     */
+    public static final int SUM = 2;
+
+    /**
+     * The aggregate type for MIN(expression).
+     */
+    public static final int MIN = 3;
+
+    /**
+     * The aggregate type for MAX(expression).
+     */
+    public static final int MAX = 4;
+
+    /**
+     * The aggregate type for AVG(expression).
+     */
+    public static final int AVG = 5;
+
+    private static final HashMap<String, Integer> AGGREGATES = new HashMap<>();
+
+    static {
+        AGGREGATES.put("COUNT", COUNT);
+        AGGREGATES.put("SUM", SUM);
+        AGGREGATES.put("MIN", MIN);
+        AGGREGATES.put("MAX", MAX);
+        AGGREGATES.put("AVG", AVG);
+    }
+
+    private final int type;
+    private final Expression on;
+    private final Select select;
+
+    /**
+     * The position of the aggregate data within the data of a group.
+     */
+    private int index;
+
+    /**
+     * Create a new aggregate object.
+     *
+     * @param type the aggregate type
+     * @param on the aggregated expression, or null for COUNT(*)
+     * @param select the select statement
+     */
+    public Aggregate(int type, Expression on, Select select) {
+        this.type = type;
+        this.on = on;
+        this.select = select;
+    }
+
+    /**
+     * Get the aggregate type for this name, or -1 if no aggregate has been
+     * found.
+     *
+     * @param name the aggregate function name
+     * @return -1 if no aggregate function has been found, or the aggregate
+     *         type
+     */
+    public static int getAggregateType(String name) {
+        Integer type = AGGREGATES.get(name);
+        return type == null ? -1 : type.intValue();
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Create the data of this aggregate for a new group.
+     *
+     * @return the aggregate data
+     */
+    public AggregateData createData() {
+        return AggregateData.create(type);
+    }
+
+    /**
+     * Get the value of the aggregated expression for the current row.
+     *
+     * @param session the session
+     * @return the value (NULL for COUNT(*))
+     */
+    public Value getArgumentValue(Session session) {
+        return on == null ? ValueNull.INSTANCE : on.getValue(session);
+    }
+
+    /**
+     * Add the current row to the data of a group.
+     *
+     * @param session the session
+     * @param data the aggregate data of the group
+     */
+    public void updateAggregate(Session session, AggregateData data) {
+        data.add(getArgumentValue(session));
+    }
+
+    @Override
+    public Value getValue(Session session) {
+        AggregateData[] data = select.getCurrentGroupData();
+        if (data == null) {
+            throw new RuntimeException("Invalid use of aggregate function " + getSQL());
+        }
+        return data[index].getValue();
+    }
+
+    @Override
+    public int getType() {
+        switch (type) {
+            case MIN:
+            case MAX:
+                return on.getType();
+            default:
+                return Value.LONG;
+        }
+    }
+
+    @Override
+    public Expression optimize(Session session) {
+        return this;
+    }
+
+    @Override
+    public void mapColumns(ColumnResolver resolver, int level) {
+        if (on != null) {
+            on.mapColumns(resolver, level);
+        }
+    }
+
+    @Override
+    public void setEvaluatable(TableFilter tableFilter, boolean value) {
+        if (on != null) {
+            on.setEvaluatable(tableFilter, value);
+        }
+    }
+
+    @Override
+    public boolean isEverything(ExpressionVisitor visitor) {
+        return on == null || on.isEverything(visitor);
+    }
+
+    @Override
+    public String getSQL() {
+        String text;
+        switch (type) {
+            case COUNT_ALL:
+                return "COUNT(*)";
+            case COUNT:
+                text = "COUNT";
+                break;
+            case SUM:
+                text = "SUM";
+                break;
+            case MIN:
+                text = "MIN";
+                break;
+            case MAX:
+                text = "MAX";
+                break;
+            case AVG:
+                text = "AVG";
+                break;
+            default:
+                throw new RuntimeException("type=" + type);
+        }
+        return text + "(" + on.getSQL() + ")";
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.expression;
+
+import org.minidb.value.Value;
+import org.minidb.value.ValueInt;
+
+/**
+ * The data of an aggregate for one group. The accumulated values are kept
+ * in primitive fields where possible, so that adding a row does not create
+ * objects.
+ */
+public abstract class AggregateData {
+
+    /**
+     * Create an AggregateData object of the correct sub-type.
+     *
+     * @param aggregateType the type of the aggregate operation
+     * @return the aggregate data object of the specified type
+     */
+    static AggregateData create(int aggregateType) {
+        switch (aggregateType) {
+            case Aggregate.COUNT_ALL:
+                return new AggregateDataCount(true);
+            case Aggregate.COUNT:
+                return new AggregateDataCount(false);
+            case Aggregate.SUM:
+                return new AggregateDataSum();
+            case Aggregate.AVG:
+                return new AggregateDataAvg();
+            case Aggregate.MIN:
+                return new AggregateDataMinMax(true);
+            case Aggregate.MAX:
+                return new AggregateDataMinMax(false);
+            default:
+                throw new RuntimeException("Unknown aggregate type " + aggregateType);
+        }
+    }
+
+    /**
+     * Add a value to this aggregate.
+     *
+     * @param v the value (NULL for COUNT(*))
+     */
+    public abstract void add(Value v);
+
+    /**
+     * Get the aggregate result.
+     *
+     * @return the value
+     */
+    public abstract Value getValue();
+
+    /**
+     * Get the accumulated state, so that it can be written to a temporary
+     * map and merged later on.
+     *
+     * @return the state
+     */
+    public abstract Value getState();
+
+    /**
+     * Merge the state of another aggregate of the same group.
+     *
+     * @param state the state, see getState
+     */
+    public abstract void merge(Value state);
+
+    /**
+     * Get the value of an INT or LONG value, without converting the value.
+     *
+     * @param v the value
+     * @return the long value
+     */
+    static long getLong(Value v) {
+        return v instanceof ValueInt ? ((ValueInt) v).getInt() : v.getLong();
+    }
+
+    /**
+     * Add two numbers.
+     *
+     * @param a the first number
+     * @param b the second number
+     * @return the sum
+     */
+    static long add(long a, long b) {
+        long x = a + b;
+        // overflow if both arguments have the opposite sign of the result
+        if (((a ^ x) & (b ^ x)) < 0) {
+            throw new RuntimeException("Numeric value out of range: " + a + " + " + b);
+        }
+        return x;
+    }
+
+}
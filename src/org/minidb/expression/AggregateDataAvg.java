@@ -0,0 +1,48 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.expression;
+
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
+
+/**
+ * Data stored while calculating an AVG aggregate. As for the other integer
+ * operations, the result is truncated.
+ */
+class AggregateDataAvg extends AggregateData {
+
+    private long sum;
+    private long count;
+
+    @Override
+    public void add(Value v) {
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        sum = add(sum, getLong(v));
+        count++;
+    }
+
+    @Override
+    public Value getValue() {
+        return count == 0 ? ValueNull.INSTANCE : ValueLong.get(sum / count);
+    }
+
+    @Override
+    public Value getState() {
+        return ValueArray.get(new Value[] { ValueLong.get(sum), ValueLong.get(count) });
+    }
+
+    @Override
+    public void merge(Value state) {
+        Value[] list = ((ValueArray) state).getList();
+        sum = add(sum, list[0].getLong());
+        count += list[1].getLong();
+    }
+
+}
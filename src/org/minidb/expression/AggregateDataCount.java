@@ -0,0 +1,50 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.expression;
+
+import org.minidb.value.Value;
+import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
+
+/**
+ * Data stored while calculating a COUNT(*) or COUNT(expression) aggregate.
+ */
+class AggregateDataCount extends AggregateData {
+
+    /**
+     * Whether all rows are counted (COUNT(*)), or only the values that are
+     * not NULL.
+     */
+    private final boolean all;
+    private long count;
+
+    AggregateDataCount(boolean all) {
+        this.all = all;
+    }
+
+    @Override
+    public void add(Value v) {
+        if (all || v != ValueNull.INSTANCE) {
+            count++;
+        }
+    }
+
+    @Override
+    public Value getValue() {
+        return ValueLong.get(count);
+    }
+
+    @Override
+    public Value getState() {
+        return ValueLong.get(count);
+    }
+
+    @Override
+    public void merge(Value state) {
+        count += state.getLong();
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.expression;
+
+import org.minidb.value.Value;
+import org.minidb.value.ValueNull;
+
+/**
+ * Data stored while calculating a MIN or MAX aggregate.
+ */
+class AggregateDataMinMax extends AggregateData {
+
+    private final boolean min;
+    private Value value;
+
+    AggregateDataMinMax(boolean min) {
+        this.min = min;
+    }
+
+    @Override
+    public void add(Value v) {
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        if (value == null) {
+            value = v;
+        } else {
+            int comp = v.compareTo(value);
+            if (min ? comp < 0 : comp > 0) {
+                value = v;
+            }
+        }
+    }
+
+    @Override
+    public Value getValue() {
+        return value == null ? ValueNull.INSTANCE : value;
+    }
+
+    @Override
+    public Value getState() {
+        return getValue();
+    }
+
+    @Override
+    public void merge(Value state) {
+        add(state);
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.expression;
+
+import org.minidb.value.Value;
+import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
+
+/**
+ * Data stored while calculating a SUM aggregate.
+ */
+class AggregateDataSum extends AggregateData {
+
+    private long sum;
+
+    /**
+     * Whether a value that is not NULL was added; the sum of no values is
+     * NULL.
+     */
+    private boolean found;
+
+    @Override
+    public void add(Value v) {
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        sum = add(sum, getLong(v));
+        found = true;
+    }
+
+    @Override
+    public Value getValue() {
+        return found ? ValueLong.get(sum) : ValueNull.INSTANCE;
+    }
+
+    @Override
+    public Value getState() {
+        return getValue();
+    }
+
+    @Override
+    public void merge(Value state) {
+        add(state);
+    }
+
+}
@@ -197,6 +197,12 @@ public class Comparison extends Condition {
         }
     }
 
+    @Override
+    public boolean isEverything(ExpressionVisitor visitor) {
+        return left.isEverything(visitor) &&
+                (right == null || right.isEverything(visitor));
+    }
+
     @Override
     public void createIndexConditions(Session session, TableFilter filter) {
 //        if (!filter.getTable().isQueryComparable()) {
@@ -241,17 +247,15 @@ public class Comparison extends Condition {
         if (l == null) {
             ExpressionVisitor visitor =
                     ExpressionVisitor.getNotFromResolverVisitor(filter);
-//            throw new RuntimeException("ERROR");
-//            if (!left.isEverything(visitor)) {
-//                return;
-//            }
+            if (!left.isEverything(visitor)) {
+                return;
+            }
         } else if (r == null) {
             ExpressionVisitor visitor =
                     ExpressionVisitor.getNotFromResolverVisitor(filter);
-//            throw new RuntimeException("ERROR");
-//            if (!right.isEverything(visitor)) {
-//                return;
-//            }
+            if (!right.isEverything(visitor)) {
+                return;
+            }
         } else {
             // if both sides are part of the same filter, it can't be used for
             // index lookup
@@ -281,17 +285,65 @@ public class Comparison extends Condition {
                 filter.addIndexCondition(
                         IndexCondition.get(compareType, l, right));
             } else if (r != null) {
-                throw new RuntimeException("ERROR");
-//                int compareRev = getReversedCompareType(compareType);
-//                filter.addIndexCondition(
-//                        IndexCondition.get(compareRev, r, left));
+                int compareRev = getReversedCompareType(compareType);
+                filter.addIndexCondition(
+                        IndexCondition.get(compareRev, r, left));
             }
         }
     }
 
     @Override
     public void setEvaluatable(TableFilter tableFilter, boolean value) {
-        throw new RuntimeException("ERROR");
+        left.setEvaluatable(tableFilter, value);
+        if (right != null) {
+            right.setEvaluatable(tableFilter, value);
+        }
+    }
+
+    /**
+     * Get the comparison type for the swapped operands (a &lt; b is b &gt; a).
+     *
+     * @param type the type
+     * @return the reversed type
+     */
+    static int getReversedCompareType(int type) {
+        switch (type) {
+            case EQUAL:
+            case EQUAL_NULL_SAFE:
+            case NOT_EQUAL:
+            case NOT_EQUAL_NULL_SAFE:
+            case SPATIAL_INTERSECTS:
+                return type;
+            case BIGGER_EQUAL:
+                return SMALLER_EQUAL;
+            case BIGGER:
+                return SMALLER;
+            case SMALLER_EQUAL:
+                return BIGGER_EQUAL;
+            case SMALLER:
+                return BIGGER;
+            default:
+                throw new RuntimeException("type=" + type);
+        }
+    }
+
+    /**
+     * Get the comparison type, see the constants of this class.
+     *
+     * @return the type
+     */
+    public int getCompareType() {
+        return compareType;
+    }
+
+    /**
+     * Get the left or the right sub-expression of this condition.
+     *
+     * @param getLeft true to get the left sub-expression
+     * @return the sub-expression
+     */
+    public Expression getExpression(boolean getLeft) {
+        return getLeft ? left : right;
     }
 
     public String getSQL() {
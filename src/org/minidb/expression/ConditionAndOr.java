@@ -9,6 +9,8 @@ import org.minidb.engine.Session;
 import org.minidb.table.ColumnResolver;
 import org.minidb.table.TableFilter;
 import org.minidb.value.Value;
+import org.minidb.value.ValueBoolean;
+import org.minidb.value.ValueNull;
 
 /**
  * An 'and' or 'or' condition as in WHERE ID=1 AND NAME=?
@@ -36,22 +38,94 @@ public class ConditionAndOr extends Condition {
 
     @Override
     public Value getValue(Session session) {
-        throw new RuntimeException("getValue ERROR");
+        Value l = left.getValue(session);
+        Value r;
+        switch (andOrType) {
+            case AND: {
+                if (l != ValueNull.INSTANCE && !l.getBoolean()) {
+                    return ValueBoolean.get(false);
+                }
+                r = right.getValue(session);
+                if (r != ValueNull.INSTANCE && !r.getBoolean()) {
+                    return ValueBoolean.get(false);
+                }
+                if (l == ValueNull.INSTANCE || r == ValueNull.INSTANCE) {
+                    return ValueNull.INSTANCE;
+                }
+                return ValueBoolean.get(true);
+            }
+            case OR: {
+                if (l != ValueNull.INSTANCE && l.getBoolean()) {
+                    return ValueBoolean.get(true);
+                }
+                r = right.getValue(session);
+                if (r != ValueNull.INSTANCE && r.getBoolean()) {
+                    return ValueBoolean.get(true);
+                }
+                if (l == ValueNull.INSTANCE || r == ValueNull.INSTANCE) {
+                    return ValueNull.INSTANCE;
+                }
+                return ValueBoolean.get(false);
+            }
+            default:
+                throw new RuntimeException("type=" + andOrType);
+        }
     }
 
     @Override
     public Expression optimize(Session session) {
-        throw new RuntimeException("optimize ERROR");
+        left = left.optimize(session);
+        right = right.optimize(session);
+        if (left instanceof ValueExpression && right instanceof ValueExpression) {
+            return ValueExpression.get(getValue(session));
+        }
+        return this;
     }
 
     @Override
     public void mapColumns(ColumnResolver resolver, int level) {
-        throw new RuntimeException("ERROR");
+        left.mapColumns(resolver, level);
+        right.mapColumns(resolver, level);
+    }
+
+    @Override
+    public void setEvaluatable(TableFilter tableFilter, boolean b) {
+        left.setEvaluatable(tableFilter, b);
+        right.setEvaluatable(tableFilter, b);
+    }
+
+    @Override
+    public void createIndexConditions(Session session, TableFilter filter) {
+        // an OR condition can't restrict a single index lookup; it can only
+        // be used by bitmap indexes, see TableFilter.getBestPlanItem
+        if (andOrType == AND) {
+            left.createIndexConditions(session, filter);
+            right.createIndexConditions(session, filter);
+        }
+    }
+
+    /**
+     * Get the type of this condition (AND or OR).
+     *
+     * @return the type
+     */
+    public int getAndOrType() {
+        return andOrType;
+    }
+
+    /**
+     * Get the left or the right sub-expression.
+     *
+     * @param getLeft true to get the left sub-expression
+     * @return the sub-expression
+     */
+    public Expression getExpression(boolean getLeft) {
+        return getLeft ? left : right;
     }
 
     @Override
-    public void setEvaluatable(TableFilter tableFilter, boolean value) {
-        throw new RuntimeException("ERROR");
+    public boolean isEverything(ExpressionVisitor visitor) {
+        return left.isEverything(visitor) && right.isEverything(visitor);
     }
 
     public String getSQL() {
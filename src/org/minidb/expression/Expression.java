@@ -56,12 +56,30 @@ public abstract class Expression {
         // default is do nothing
     }
 
+    /**
+     * Check if this expression will always return the same value.
+     *
+     * @return if the expression is constant
+     */
+    public boolean isConstant() {
+        return false;
+    }
+
     public Boolean getBooleanValue(Session session) {
         return getValue(session).getBoolean();
     }
 
     public abstract void setEvaluatable(TableFilter tableFilter, boolean value);
 
+    /**
+     * Check if this expression and all sub-expressions can fulfill a criteria.
+     * If any part returns false, the result is false.
+     *
+     * @param visitor the visitor
+     * @return if the criteria can be fulfilled
+     */
+    public abstract boolean isEverything(ExpressionVisitor visitor);
+
     public String getAlias() {
         return StringUtils.unEnclose(getSQL());
     }
@@ -75,6 +75,10 @@ public class ExpressionColumn extends Expression {
 
 
     public void mapColumns(ColumnResolver resolver, int level) {
+        if (tableAlias != null && !database.equalsIdentifiers(
+                tableAlias, resolver.getTableAlias())) {
+            return;
+        }
         for (Column col : resolver.getColumns()) {
             String n = col.getName();
             if (database.equalsIdentifiers(columnName, n)) {
@@ -86,7 +90,25 @@ public class ExpressionColumn extends Expression {
 
     @Override
     public void setEvaluatable(TableFilter tableFilter, boolean value) {
+        if (columnResolver != null && tableFilter == columnResolver.getTableFilter()) {
+            evaluatable = value;
+        }
+    }
 
+    @Override
+    public boolean isEverything(ExpressionVisitor visitor) {
+        switch (visitor.getType()) {
+            case ExpressionVisitor.EVALUATABLE:
+                // whether the current row of the table filter is known
+                return evaluatable;
+            case ExpressionVisitor.NOT_FROM_RESOLVER:
+                return columnResolver != visitor.getResolver();
+            case ExpressionVisitor.GET_COLUMNS:
+                visitor.addColumn(column);
+                return true;
+            default:
+                return true;
+        }
     }
 
     private void mapColumn(ColumnResolver resolver, Column col, int level) {
@@ -95,7 +117,7 @@ public class ExpressionColumn extends Expression {
             column = col;
             this.columnResolver = resolver;
         } else if (queryLevel == level && this.columnResolver != resolver) {
-            throw new RuntimeException("mapColumn ERROR");
+            throw new RuntimeException("Ambiguous column name " + columnName);
         }
     }
 
@@ -128,6 +150,15 @@ public class ExpressionColumn extends Expression {
 
     @Override
     public Value getValue(Session session) {
+        TableFilter filter = columnResolver.getTableFilter();
+        Select select = filter == null ? null : filter.getSelect();
+        if (select != null) {
+            // in a GROUP BY query, the value of the group that is returned
+            Value v = select.getCurrentGroupValue(this);
+            if (v != null) {
+                return v;
+            }
+        }
         Value value = columnResolver.getValue(column);
         return value;
     }
@@ -170,7 +170,7 @@ public class ExpressionVisitor {
      * @param resolver the resolver
      * @return the new visitor
      */
-    static ExpressionVisitor getNotFromResolverVisitor(ColumnResolver resolver) {
+    public static ExpressionVisitor getNotFromResolverVisitor(ColumnResolver resolver) {
         return new ExpressionVisitor(NOT_FROM_RESOLVER, 0, null, null, null,
                 resolver, null);
     }
@@ -290,13 +290,10 @@ public class ExpressionVisitor {
 
     public static HashSet<Column> allColumnsForTableFilters(TableFilter filter) {
         HashSet<Column> allColumnsSet = new HashSet();
-//        for (int i = 0; i < filters.length; i++) {
-//            if (filters[i].getSelect() != null) {
-//                filters[i].getSelect().isEverything(
-//                        ExpressionVisitor.getColumnsVisitor(allColumnsSet));
-//            }
-//        }
-        allColumnsSet.add(filter.getColumns()[0]);     //先这么写！！！
+        if (filter.getSelect() != null) {
+            filter.getSelect().isEverything(
+                    ExpressionVisitor.getColumnsVisitor(allColumnsSet));
+        }
         return allColumnsSet;
     }
 
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.expression;
+
+import org.minidb.engine.Session;
+import org.minidb.schema.Sequence;
+import org.minidb.table.ColumnResolver;
+import org.minidb.table.TableFilter;
+import org.minidb.value.Value;
+import org.minidb.value.ValueLong;
+
+/**
+ * Wraps a sequence when used in a statement (NEXT VALUE FOR name).
+ */
+public class SequenceValue extends Expression {
+
+    private final Sequence sequence;
+
+    public SequenceValue(Sequence sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public Value getValue(Session session) {
+        return ValueLong.get(sequence.getNext(session));
+    }
+
+    @Override
+    public int getType() {
+        return Value.LONG;
+    }
+
+    @Override
+    public Expression optimize(Session session) {
+        return this;
+    }
+
+    @Override
+    public void mapColumns(ColumnResolver resolver, int level) {
+        // nothing to do
+    }
+
+    @Override
+    public void setEvaluatable(TableFilter tableFilter, boolean value) {
+        // nothing to do
+    }
+
+    @Override
+    public boolean isEverything(ExpressionVisitor visitor) {
+        switch (visitor.getType()) {
+            case ExpressionVisitor.DETERMINISTIC:
+            case ExpressionVisitor.READONLY:
+            case ExpressionVisitor.INDEPENDENT:
+            case ExpressionVisitor.QUERY_COMPARABLE:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public String getSQL() {
+        return "NEXT VALUE FOR " + sequence.getSQL();
+    }
+
+}
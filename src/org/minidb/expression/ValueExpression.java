@@ -74,11 +74,21 @@ public class ValueExpression extends Expression {
         return value.getType();
     }
 
+    @Override
+    public boolean isConstant() {
+        return true;
+    }
+
     @Override
     public Expression optimize(Session session) {
         return this;
     }
 
+    @Override
+    public boolean isEverything(ExpressionVisitor visitor) {
+        return true;
+    }
+
     @Override
     public void mapColumns(ColumnResolver resolver, int level) {
 
@@ -86,7 +96,7 @@ public class ValueExpression extends Expression {
 
     @Override
     public void setEvaluatable(TableFilter tableFilter, boolean value) {
-        throw new RuntimeException("ERROR");
+        // nothing to do
     }
 
     @Override
@@ -0,0 +1,213 @@
+package org.minidb.index;
+
+import org.minidb.engine.Constants;
+import org.minidb.engine.DbException;
+import org.minidb.engine.Session;
+import org.minidb.store.mvstore.TransactionStore;
+import org.minidb.table.Column;
+import org.minidb.table.IndexColumn;
+import org.minidb.table.Row;
+import org.minidb.table.Table;
+import org.minidb.table.TableFilter;
+import org.minidb.table.TableStatistics;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueNull;
+
+import java.util.HashSet;
+
+/**
+ * The base class for hash indexes. A hash index maps the values of the index
+ * columns to row keys, and only supports equality lookups on all columns.
+ * <p>
+ * The hash entries are not transactional: an entry is added as soon as the
+ * row is added, and entries are not removed when a row is replaced, so that
+ * a rollback doesn't lose the entry of the old row. Lookups therefore read
+ * every candidate row with the session's transaction and check it still
+ * contains the searched values.
+ */
+public abstract class BaseHashIndex extends BaseIndex {
+
+    protected void initHashIndex(Table table, int id, String indexName,
+                                 IndexColumn[] columns, IndexType indexType) {
+        initBaseIndex(table, id, indexName, columns, indexType);
+    }
+
+    /**
+     * Add an entry, unless the same entry already exists.
+     *
+     * @param key the hash key
+     * @param rowKey the row key
+     */
+    protected abstract void addEntry(Value key, long rowKey);
+
+    /**
+     * Get the row keys of all entries with the given hash key. The result
+     * may contain stale entries.
+     *
+     * @param key the hash key
+     * @return the row keys
+     */
+    protected abstract long[] getRowKeys(Value key);
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries
+     */
+    protected abstract long getEntryCount();
+
+    /**
+     * Get the hash key of a row: the value of the index column, or an array
+     * of the values if there are multiple index columns.
+     */
+    protected Value getHashKey(Row row) {
+        if (columns.length == 1) {
+            return convert(columns[0], row.getValue(columnIds[0]));
+        }
+        Value[] list = new Value[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            list[i] = convert(columns[i], row.getValue(columnIds[i]));
+        }
+        return ValueArray.get(list);
+    }
+
+    private static Value convert(Column column, Value v) {
+        if (v == null || v == ValueNull.INSTANCE) {
+            return ValueNull.INSTANCE;
+        }
+        // the hash code depends on the data type
+        return v.getType() == column.getType() ? v : column.convert(v);
+    }
+
+    private boolean containsNull(Row row) {
+        for (int id : columnIds) {
+            Value v = row.getValue(id);
+            if (v == null || v == ValueNull.INSTANCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void add(Session session, Row row) {
+        Value key = getHashKey(row);
+        if (indexType.isUnique() && !containsNull(row)) {
+            checkUnique(session, key, row);
+        }
+        addEntry(key, row.getKey());
+    }
+
+    @Override
+    public void remove(Session session, Row row) {
+        // entries are removed lazily, see the class comment
+    }
+
+    private void checkUnique(Session session, Value key, Row row) {
+        for (long rowKey : getRowKeys(key)) {
+            if (rowKey == row.getKey()) {
+                // the same row is replaced
+                continue;
+            }
+            Row r = table.getRow(session, rowKey);
+            if (r != null && compareRows(r, row) == 0) {
+                throw DbException.get("DUPLICATE_KEY " + getName() + " " + key.getSQL());
+            }
+            if (table.isRowLocked(session, rowKey)) {
+                throw new IllegalStateException(
+                        TransactionStore.ERROR_TRANSACTION_LOCKED);
+            }
+        }
+    }
+
+    @Override
+    public Cursor find(Session session, Row first, Row last) {
+        if (first == null || last == null || containsNull(first) ||
+                compareRows(first, last) != 0) {
+            throw new RuntimeException("HASH index supports only equality lookups");
+        }
+        return new HashCursor(session, getRowKeys(getHashKey(first)), first);
+    }
+
+    @Override
+    public double getCost(Session session, int[] masks, TableFilter filter,
+                          HashSet<Column> allColumnsSet) {
+        if (masks == null) {
+            return Long.MAX_VALUE;
+        }
+        for (int id : columnIds) {
+            if ((masks[id] & IndexCondition.EQUALITY) != IndexCondition.EQUALITY) {
+                return Long.MAX_VALUE;
+            }
+        }
+        if (indexType.isUnique()) {
+            // one probe and one row lookup
+            return 2;
+        }
+        long rowCount = getEntryCount();
+        long rowsCost;
+        TableStatistics stats = table.getStatistics();
+        if (stats != null) {
+            double selectivity = 1;
+            for (int id : columnIds) {
+                selectivity *= stats.getEqualSelectivity(id);
+            }
+            rowsCost = 1 + Math.max((long) (rowCount * selectivity), 1);
+        } else {
+            long distinctRows = rowCount * Constants.SELECTIVITY_DEFAULT / 100;
+            if (distinctRows <= 0) {
+                distinctRows = 1;
+            }
+            rowsCost = 1 + Math.max(rowCount / distinctRows, 1);
+        }
+        // every row is read again from the table
+        return rowsCost + rowsCost;
+    }
+
+    /**
+     * A cursor over the rows of one hash key.
+     */
+    class HashCursor implements Cursor {
+
+        private final Session session;
+        private final long[] rowKeys;
+        private final Row search;
+        private int index = -1;
+        private Row row;
+
+        HashCursor(Session session, long[] rowKeys, Row search) {
+            this.session = session;
+            this.rowKeys = rowKeys;
+            this.search = search;
+        }
+
+        @Override
+        public Row get() {
+            return row;
+        }
+
+        @Override
+        public Row getSearchRow() {
+            return row;
+        }
+
+        @Override
+        public boolean next() {
+            while (++index < rowKeys.length) {
+                Row r = table.getRow(session, rowKeys[index]);
+                if (r != null && compareRows(r, search) == 0) {
+                    row = r;
+                    return true;
+                }
+            }
+            row = null;
+            return false;
+        }
+
+        @Override
+        public boolean previous() {
+            throw new RuntimeException("previous 不支持");
+        }
+    }
+}
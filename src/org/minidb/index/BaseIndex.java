@@ -4,7 +4,9 @@ import org.minidb.engine.*;
 import org.minidb.schema.SchemaObjectBase;
 import org.minidb.table.*;
 import org.minidb.util.StatementBuilder;
+import org.minidb.value.Value;
 import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
 
 import java.util.HashSet;
 
@@ -15,22 +17,37 @@ public abstract class BaseIndex extends SchemaObjectBase {
 
     protected Table table;
     protected IndexType indexType;
-    protected Column column;
+    protected Column column;                //第一个索引列
     protected IndexColumn[] indexColumns;
+    protected Column[] columns;
+    protected int[] columnIds;
+    protected IndexColumn[] includeColumns;  //只存在索引里、不参与排序的列（INCLUDE）
 
     protected void initBaseIndex(Table newTable, int id, String name,
-                                 Column column, IndexType newIndexType) {
+                                 IndexColumn[] newIndexColumns, IndexType newIndexType) {
         initSchemaObjectBase(newTable.getSchema(), id, name);
-//        this.indexColumns = column;
         this.table = newTable;
-        this.column = column;
         this.indexType = newIndexType;
+        this.indexColumns = newIndexColumns;
+        if (newIndexColumns != null) {
+            columns = new Column[newIndexColumns.length];
+            int len = columns.length;
+            columnIds = new int[len];
+            for (int i = 0; i < len; i++) {
+                Column col = newIndexColumns[i].column;
+                columns[i] = col;
+                columnIds[i] = col.getColumnId();
+            }
+            column = len > 0 ? columns[0] : null;
+        }
     }
 
     public abstract Cursor find(Session session, Row start, Row end);
 
     public abstract void add(Session session, Row row);
 
+    public abstract void remove(Session session, Row row);
+
     @Override
     public int getType() {
         return DbObject.INDEX;
@@ -47,7 +64,10 @@ public abstract class BaseIndex extends SchemaObjectBase {
         }
         buff.append(quotedName);
         buff.append(" ON ").append(targetTable.getSQL());
-        buff.append('(').append(getColumnListSQL()).append(')');
+        buff.append('(').append(getColumnListSQL(indexColumns)).append(')');
+        if (includeColumns != null) {
+            buff.append(" INCLUDE(").append(getColumnListSQL(includeColumns)).append(')');
+        }
         return buff.toString();
     }
 
@@ -56,14 +76,12 @@ public abstract class BaseIndex extends SchemaObjectBase {
         return getCreateSQLForCopy(table, getSQL());
     }
 
-    private String getColumnListSQL() {
+    private static String getColumnListSQL(IndexColumn[] list) {
         StatementBuilder buff = new StatementBuilder();
-//        for (Column c : columns) {
-//            buff.appendExceptFirst(", ");
-//            buff.append(c.getSQL());
-//        }
-        buff.appendExceptFirst(", ");
-        buff.append(column.getSQL());   //先考虑单列
+        for (IndexColumn c : list) {
+            buff.appendExceptFirst(", ");
+            buff.append(c.getSQL());
+        }
         return buff.toString();
     }
 
@@ -75,29 +93,197 @@ public abstract class BaseIndex extends SchemaObjectBase {
         return indexColumns;
     }
 
+    public IndexColumn[] getIncludeColumns() {
+        return includeColumns;
+    }
+
+    /**
+     * Calculate the cost for the given mask as if this index was a typical
+     * b-tree range index. The conditions must be on a prefix of the index
+     * columns: the first column without an equality condition ends the
+     * range, so that columns after it are not used.
+     *
+     * @param masks the search mask
+     * @param rowCount the number of rows in the index
+     * @param filter the table filter
+     * @param isScanIndex whether the index contains the row data, so that no
+     *            second lookup is needed
+     * @param allColumnsSet the set of all columns
+     * @return the estimated cost
+     */
     protected final long getCostRangeIndex(int[] masks, long rowCount, TableFilter filter,
                                            boolean isScanIndex, HashSet<Column> allColumnsSet) {
+        // with statistics (see ANALYZE), the selectivity of equality and
+        // range conditions is estimated from the distinct values and the
+        // histograms; otherwise fixed fractions are used
+        TableStatistics stats = table.getStatistics();
+        double selectivity = 1;
         int totalSelectivity = 0;
         long rowsCost = rowCount;
-        if (masks != null) {
-            int index = column.getColumnId();
-            int mask = masks[index];
-            if ((mask & IndexCondition.EQUALITY) == IndexCondition.EQUALITY) {
-                totalSelectivity = 50;    //暂时先给50
-                long distinctRows = rowCount * totalSelectivity / 100;
-                if (distinctRows <= 0) {
-                    distinctRows = 1;
+        if (masks != null && columns != null) {
+            for (int i = 0, len = columns.length; i < len; i++) {
+                int index = columnIds[i];
+                int mask = index < 0 || index >= masks.length ? 0 : masks[index];
+                if ((mask & IndexCondition.EQUALITY) == IndexCondition.EQUALITY) {
+                    if (i == len - 1 && indexType.isUnique()) {
+                        rowsCost = 3;
+                        break;
+                    }
+                    if (stats != null) {
+                        selectivity *= stats.getEqualSelectivity(index);
+                        rowsCost = 2 + Math.max((long) (rowCount * selectivity), 1);
+                        continue;
+                    }
+                    //每个列暂时按50%的选择性估算
+                    totalSelectivity = 100 - ((100 - totalSelectivity) *
+                            (100 - Constants.SELECTIVITY_DEFAULT) / 100);
+                    long distinctRows = rowCount * totalSelectivity / 100;
+                    if (distinctRows <= 0) {
+                        distinctRows = 1;
+                    }
+                    rowsCost = 2 + Math.max(rowCount / distinctRows, 1);
+                } else if (stats != null && (mask & IndexCondition.RANGE) != 0) {
+                    selectivity *= getRangeSelectivity(stats, index, mask, filter);
+                    rowsCost = 2 + Math.max((long) (rowCount * selectivity), 1);
+                    break;
+                } else if ((mask & IndexCondition.RANGE) == IndexCondition.RANGE) {
+                    rowsCost = 2 + rowCount / 4;
+                    break;
+                } else if ((mask & IndexCondition.START) == IndexCondition.START) {
+                    rowsCost = 2 + rowCount / 3;
+                    break;
+                } else if ((mask & IndexCondition.END) == IndexCondition.END) {
+                    rowsCost = rowCount / 3;
+                    break;
+                } else {
+                    break;
+                }
+            }
+        }
+        if (isScanIndex) {
+            return rowsCost;
+        }
+        // every row found in a secondary index is read again from the table
+        return rowsCost + rowsCost;
+    }
+
+    /**
+     * Estimate the selectivity of the range conditions on a column from the
+     * histogram. Only conditions with a constant value can be estimated; for
+     * the others, the same fixed fractions as without statistics are used.
+     */
+    private static double getRangeSelectivity(TableStatistics stats, int columnId,
+                                              int mask, TableFilter filter) {
+        Value min = null, max = null;
+        boolean known = false;
+        if (filter != null) {
+            for (IndexCondition c : filter.getIndexConditions()) {
+                if (c.getColumn().getColumnId() != columnId || c.getExpression() == null ||
+                        !c.getExpression().isConstant()) {
+                    continue;
+                }
+                Value v = c.getCurrentValue(filter.getSession());
+                if (v == ValueNull.INSTANCE) {
+                    continue;
+                }
+                if (c.isStart() && (min == null || v.compareTo(min) > 0)) {
+                    min = v;
+                    known = true;
+                }
+                if (c.isEnd() && (max == null || v.compareTo(max) < 0)) {
+                    max = v;
+                    known = true;
                 }
-                rowsCost = 2 + Math.max(rowCount / distinctRows, 1);
-            } else if ((mask & IndexCondition.RANGE) == IndexCondition.RANGE) {
-                rowsCost = 2 + rowCount / 4;
-            } else if ((mask & IndexCondition.START) == IndexCondition.START) {
-                rowsCost = 2 + rowCount / 3;
-            } else if ((mask & IndexCondition.END) == IndexCondition.END) {
-                rowsCost = rowCount / 3;
             }
         }
-        return rowsCost;
+        if (!known) {
+            return (mask & IndexCondition.RANGE) == IndexCondition.RANGE ? 0.25 : 1.0 / 3;
+        }
+        return stats.getRangeSelectivity(columnId, min, max);
+    }
+
+    /**
+     * Get the index of a column in the list of index columns.
+     *
+     * @param col the column
+     * @return the index (0 meaning first column), or -1 if not found
+     */
+    public int getColumnIndex(Column col) {
+        if (columns != null) {
+            for (int i = 0, len = columns.length; i < len; i++) {
+                if (columns[i].equals(col)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public Column[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get the column by which a search returns the rows in ascending order,
+     * if any. A merge join reads two tables in the order of the join
+     * column.
+     *
+     * @return the column, or null if the order is not known
+     */
+    public Column getSortColumn() {
+        return null;
+    }
+
+    /**
+     * Compare two rows on the index columns. Comparison stops at the first
+     * column that is not set in the second row, so that a partially filled
+     * search row matches all rows with the same prefix.
+     *
+     * @param rowData the first row
+     * @param compare the second (search) row
+     * @return the compare result
+     */
+    public int compareRows(Row rowData, Row compare) {
+        if (rowData == compare) {
+            return 0;
+        }
+        for (int i = 0, len = indexColumns.length; i < len; i++) {
+            int index = columnIds[i];
+            Value v = compare.getValue(index);
+            if (v == null) {
+                // can't compare further
+                return 0;
+            }
+            int c = compareValues(rowData.getValue(index), v,
+                    indexColumns[i].sortType);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareValues(Value a, Value b, int sortType) {
+        if (a == b) {
+            return 0;
+        }
+        boolean aNull = a == null || a == ValueNull.INSTANCE;
+        boolean bNull = b == null || b == ValueNull.INSTANCE;
+        if (aNull || bNull) {
+            if (aNull == bNull) {
+                return 0;
+            }
+            //NULL排在最前面，与ValueDataType一致
+            if ((sortType & IndexColumn.NULLS_LAST) != 0) {
+                return aNull ? 1 : -1;
+            }
+            return aNull ? -1 : 1;
+        }
+        int comp = a.compareTypeSafe(b);
+        if ((sortType & IndexColumn.DESCENDING) != 0) {
+            comp = -comp;
+        }
+        return comp;
     }
 
     public Cursor find(TableFilter filter, Row first, Row last) {
@@ -0,0 +1,171 @@
+package org.minidb.index;
+
+import org.minidb.engine.Session;
+import org.minidb.expression.Comparison;
+import org.minidb.expression.ConditionAndOr;
+import org.minidb.expression.Expression;
+import org.minidb.expression.ExpressionColumn;
+import org.minidb.expression.ExpressionVisitor;
+import org.minidb.table.Column;
+import org.minidb.table.TableFilter;
+import org.minidb.util.RoaringBitmap;
+import org.minidb.value.Value;
+import org.minidb.value.ValueNull;
+
+import java.util.ArrayList;
+
+/**
+ * A condition that can be evaluated with bitmap indexes alone: COLUMN=value
+ * lookups on bitmap indexed columns, combined with AND and OR as bitmap
+ * intersections and unions. The row keys are known before any row is read.
+ * <p>
+ * The result is a superset of the matching rows: the bitmaps may contain
+ * stale row keys, and for an AND only one side needs a bitmap index. The
+ * rows are therefore still checked against the query condition.
+ */
+public class BitmapCondition {
+
+    private static final int LOOKUP = -1;
+
+    private final int type;
+    private final BitmapIndex index;
+    private final Expression value;
+    private final BitmapCondition left, right;
+
+    private BitmapCondition(BitmapIndex index, Expression value) {
+        this.type = LOOKUP;
+        this.index = index;
+        this.value = value;
+        this.left = this.right = null;
+    }
+
+    private BitmapCondition(int andOrType, BitmapCondition left, BitmapCondition right) {
+        this.type = andOrType;
+        this.index = left.index;
+        this.value = null;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Convert the condition of a query to a bitmap condition for the given
+     * table filter.
+     *
+     * @param filter the table filter
+     * @param condition the condition
+     * @return the bitmap condition, or null if bitmap indexes can't be used
+     */
+    public static BitmapCondition get(TableFilter filter, Expression condition) {
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) condition;
+            BitmapCondition l = get(filter, c.getExpression(true));
+            BitmapCondition r = get(filter, c.getExpression(false));
+            if (c.getAndOrType() == ConditionAndOr.AND) {
+                if (l == null || r == null) {
+                    // the other side is checked when reading the rows
+                    return l == null ? r : l;
+                }
+            } else if (l == null || r == null) {
+                return null;
+            }
+            return new BitmapCondition(c.getAndOrType(), l, r);
+        } else if (condition instanceof Comparison) {
+            Comparison c = (Comparison) condition;
+            if (c.getCompareType() != Comparison.EQUAL) {
+                return null;
+            }
+            BitmapCondition l = getLookup(filter, c.getExpression(true), c.getExpression(false));
+            return l != null ? l : getLookup(filter, c.getExpression(false), c.getExpression(true));
+        }
+        return null;
+    }
+
+    private static BitmapCondition getLookup(TableFilter filter, Expression col, Expression value) {
+        if (!(col instanceof ExpressionColumn) || value == null) {
+            return null;
+        }
+        ExpressionColumn ec = (ExpressionColumn) col;
+        if (ec.getTableFilter() != filter ||
+                !value.isEverything(ExpressionVisitor.getNotFromResolverVisitor(filter))) {
+            return null;
+        }
+        Column column = ec.getColumn();
+        ArrayList<BaseIndex> indexes = filter.getTable().getIndexes();
+        for (int i = 0, size = indexes.size(); i < size; i++) {
+            BaseIndex index = indexes.get(i);
+            if (index instanceof BitmapIndex && index.getColumnIndex(column) == 0) {
+                return new BitmapCondition((BitmapIndex) index, value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the first index used by this condition.
+     *
+     * @return the index
+     */
+    public BitmapIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the estimated fraction of the rows that match.
+     *
+     * @return the selectivity, between 0 and 1
+     */
+    public double getSelectivity() {
+        switch (type) {
+            case LOOKUP:
+                return index.getSelectivity();
+            case ConditionAndOr.AND:
+                return left.getSelectivity() * right.getSelectivity();
+            default: {
+                double a = left.getSelectivity(), b = right.getSelectivity();
+                return a + b - a * b;
+            }
+        }
+    }
+
+    private int getLookupCount() {
+        return type == LOOKUP ? 1 : left.getLookupCount() + right.getLookupCount();
+    }
+
+    /**
+     * Get the estimated cost: every bitmap is read once, and every matching
+     * row is read from the table.
+     *
+     * @param rowCount the number of rows in the table
+     * @return the cost
+     */
+    public double getCost(long rowCount) {
+        double rows = Math.max(1, rowCount * getSelectivity());
+        return getLookupCount() + rows + rows;
+    }
+
+    /**
+     * Evaluate the condition.
+     *
+     * @param session the session
+     * @return the bitmap of the candidate row keys
+     */
+    public RoaringBitmap getBitmap(Session session) {
+        switch (type) {
+            case LOOKUP: {
+                Value v = value.getValue(session);
+                if (v == ValueNull.INSTANCE) {
+                    // COLUMN=NULL is never true
+                    return new RoaringBitmap();
+                }
+                return index.getBitmap(v);
+            }
+            case ConditionAndOr.AND: {
+                RoaringBitmap l = left.getBitmap(session);
+                return l.isEmpty() ? l : l.and(right.getBitmap(session));
+            }
+            default:
+                return left.getBitmap(session).or(right.getBitmap(session));
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+package org.minidb.index;
+
+import org.minidb.engine.Database;
+import org.minidb.engine.Session;
+import org.minidb.engine.ValueDataType;
+import org.minidb.store.mvstore.MVMap;
+import org.minidb.store.mvstore.WriteBuffer;
+import org.minidb.store.mvstore.type.DataType;
+import org.minidb.table.Column;
+import org.minidb.table.IndexColumn;
+import org.minidb.table.Row;
+import org.minidb.table.Table;
+import org.minidb.table.TableFilter;
+import org.minidb.table.TableStatistics;
+import org.minidb.util.RoaringBitmap;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.PrimitiveIterator;
+
+/**
+ * A bitmap index on one column with few distinct values. For each value,
+ * the row keys are kept in a compressed bitmap (see {@link RoaringBitmap}).
+ * The map key is { value, high bits of the row key }, and the map value is
+ * the container with the low bits, so that adding a row only rewrites one
+ * container.
+ * <p>
+ * Like the hash indexes, the entries are not transactional: a bit is set as
+ * soon as the row is added, and bits are not cleared when a row is
+ * replaced. Lookups read every candidate row with the session's transaction,
+ * and only return the rows that still contain the value.
+ */
+public class BitmapIndex extends BaseIndex {
+
+    private final MVMap<Value, RoaringBitmap.Container> map;
+    private final boolean needRebuild;
+
+    /**
+     * The cached number of distinct values, and the number of rows when it
+     * was counted.
+     */
+    private long distinctValues = -1, distinctRowCount;
+
+    public BitmapIndex(Database db, Table table, int id, String indexName,
+                       IndexColumn[] columns, IndexType indexType) {
+        initBaseIndex(table, id, indexName, columns, indexType);
+        if (columns.length != 1) {
+            throw new RuntimeException("BITMAP index supports only one column");
+        }
+        MVMap.Builder<Value, RoaringBitmap.Container> builder =
+                new MVMap.Builder<Value, RoaringBitmap.Container>().
+                keyType(new ValueDataType(null)).valueType(new ContainerType());
+        map = db.getStore().getMvStore().openMap("index." + getId(), builder);
+        needRebuild = map.isEmpty();
+    }
+
+    private Value convert(Value v) {
+        if (v == null || v == ValueNull.INSTANCE) {
+            return ValueNull.INSTANCE;
+        }
+        return v.getType() == column.getType() ? v : column.convert(v);
+    }
+
+    private static ValueArray getMapKey(Value v, long high) {
+        return ValueArray.get(new Value[] { v, ValueLong.get(high) });
+    }
+
+    @Override
+    public void add(Session session, Row row) {
+        addEntry(convert(row.getValue(columnIds[0])), row.getKey());
+    }
+
+    private synchronized void addEntry(Value v, long rowKey) {
+        ValueArray key = getMapKey(v, RoaringBitmap.high(rowKey));
+        RoaringBitmap.Container old = map.get(key);
+        char low = (char) rowKey;
+        RoaringBitmap.Container c = old == null ?
+                RoaringBitmap.Container.of(low) : old.add(low);
+        if (c != old) {
+            map.put(key, c);
+        }
+    }
+
+    @Override
+    public void remove(Session session, Row row) {
+        // bits are cleared lazily, see the class comment
+    }
+
+    /**
+     * Get the bitmap of the row keys with the given value. The result may
+     * contain stale row keys.
+     *
+     * @param v the value
+     * @return the bitmap
+     */
+    public RoaringBitmap getBitmap(Value v) {
+        v = convert(v);
+        RoaringBitmap bitmap = new RoaringBitmap();
+        org.minidb.store.mvstore.Cursor<Value, RoaringBitmap.Container> c =
+                map.cursor(getMapKey(v, Long.MIN_VALUE));
+        while (c.hasNext()) {
+            Value[] key = ((ValueArray) c.next()).getList();
+            if (!key[0].equals(v)) {
+                break;
+            }
+            bitmap.addContainer(key[1].getLong(), c.getValue());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Get the estimated fraction of the rows that have a given value. If the
+     * table was analyzed, the statistics are used, otherwise the distinct
+     * values of the index are counted.
+     *
+     * @return the selectivity, between 0 and 1
+     */
+    public double getSelectivity() {
+        TableStatistics stats = table.getStatistics();
+        if (stats != null) {
+            return stats.getEqualSelectivity(columnIds[0]);
+        }
+        return 1.0 / getDistinctValues();
+    }
+
+    /**
+     * Count the distinct values. The map is only read once per distinct
+     * value, by skipping to the next value; the count is cached until the
+     * number of rows changed by more than 10%.
+     */
+    private synchronized long getDistinctValues() {
+        long rowCount = table.getDataMap().sizeAsLongMax();
+        if (distinctValues < 0 || Math.abs(rowCount - distinctRowCount) * 10 > distinctRowCount) {
+            long count = 0;
+            Value from = null;
+            while (true) {
+                org.minidb.store.mvstore.Cursor<Value, RoaringBitmap.Container> c =
+                        map.cursor(from);
+                if (!c.hasNext()) {
+                    break;
+                }
+                count++;
+                from = getMapKey(((ValueArray) c.next()).getList()[0], Long.MAX_VALUE);
+            }
+            distinctValues = Math.max(1, count);
+            distinctRowCount = rowCount;
+        }
+        return distinctValues;
+    }
+
+    @Override
+    public Cursor find(Session session, Row first, Row last) {
+        if (first == null || last == null || compareRows(first, last) != 0 ||
+                first.getValue(columnIds[0]) == null) {
+            throw new RuntimeException("BITMAP index supports only equality lookups");
+        }
+        return new BitmapCursor(session, getBitmap(first.getValue(columnIds[0])), first);
+    }
+
+    /**
+     * Find the rows with the given row keys, for example the result of
+     * combining the bitmaps of several indexes. The rows are not checked
+     * against any condition.
+     *
+     * @param session the session
+     * @param rowKeys the row keys
+     * @return the cursor
+     */
+    public Cursor find(Session session, RoaringBitmap rowKeys) {
+        return new BitmapCursor(session, rowKeys, null);
+    }
+
+    @Override
+    public double getCost(Session session, int[] masks, TableFilter filter,
+                          HashSet<Column> allColumnsSet) {
+        if (masks == null ||
+                (masks[columnIds[0]] & IndexCondition.EQUALITY) != IndexCondition.EQUALITY) {
+            return Long.MAX_VALUE;
+        }
+        long rowCount = table.getDataMap().sizeAsLongMax();
+        double rows = Math.max(1, rowCount * getSelectivity());
+        // reading the bitmap, then every row is read from the table
+        return 1 + rows + rows;
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return needRebuild;
+    }
+
+    /**
+     * A cursor over the rows of a bitmap.
+     */
+    class BitmapCursor implements Cursor {
+
+        private final Session session;
+        private final PrimitiveIterator.OfLong rowKeys;
+        private final Row search;
+        private Row row;
+
+        BitmapCursor(Session session, RoaringBitmap rowKeys, Row search) {
+            this.session = session;
+            this.rowKeys = rowKeys.iterator();
+            this.search = search;
+        }
+
+        @Override
+        public Row get() {
+            return row;
+        }
+
+        @Override
+        public Row getSearchRow() {
+            return row;
+        }
+
+        @Override
+        public boolean next() {
+            while (rowKeys.hasNext()) {
+                Row r = table.getRow(session, rowKeys.nextLong());
+                if (r != null && (search == null || compareRows(r, search) == 0)) {
+                    row = r;
+                    return true;
+                }
+            }
+            row = null;
+            return false;
+        }
+
+        @Override
+        public boolean previous() {
+            throw new RuntimeException("previous 不支持");
+        }
+    }
+
+    /**
+     * The data type of the bitmap containers.
+     */
+    static class ContainerType implements DataType {
+
+        @Override
+        public int compare(Object a, Object b) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getMemory(Object obj) {
+            return ((RoaringBitmap.Container) obj).getMemory();
+        }
+
+        @Override
+        public void write(WriteBuffer buff, Object obj) {
+            ((RoaringBitmap.Container) obj).write(buff);
+        }
+
+        @Override
+        public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+            for (int i = 0; i < len; i++) {
+                write(buff, obj[i]);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer buff) {
+            return RoaringBitmap.Container.read(buff);
+        }
+
+        @Override
+        public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+            for (int i = 0; i < len; i++) {
+                obj[i] = read(buff);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+package org.minidb.index;
+
+import org.minidb.engine.Database;
+import org.minidb.engine.ValueDataType;
+import org.minidb.store.mvstore.MVMap;
+import org.minidb.table.IndexColumn;
+import org.minidb.table.Table;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueInt;
+import org.minidb.value.ValueLong;
+
+import java.util.Arrays;
+
+/**
+ * A persistent hash index, using extendible hashing on top of an MVMap.
+ * <p>
+ * The map contains the buckets, keyed by bucket id, and the directory. A
+ * bucket is stored as one value: { localDepth, entry, entry, ... }, where
+ * each entry is { key, rowKey }. The directory has 2^globalDepth slots, and
+ * slot i points to the bucket for all hash codes whose lowest globalDepth
+ * bits are i. When a bucket is full, it is split in two using one more hash
+ * bit, and only if its local depth already equals the global depth, the
+ * directory is doubled. A lookup is one directory access (in memory) and
+ * one map read.
+ */
+public class ExtendibleHashIndex extends BaseHashIndex {
+
+    /**
+     * The number of entries in a bucket before it is split.
+     */
+    private static final int BUCKET_SIZE = 64;
+
+    /**
+     * The maximum local depth. Buckets at this depth (which only happens if
+     * many entries have the same hash code) are not split any more.
+     */
+    private static final int MAX_DEPTH = 24;
+
+    private static final ValueInt DIRECTORY_KEY = ValueInt.get(-1);
+
+    private final MVMap<Value, Value> map;
+    private final boolean needRebuild;
+    private volatile int[] directory;
+    private int globalDepth;
+    private int nextBucketId;
+
+    public ExtendibleHashIndex(Database db, Table table, int id, String indexName,
+                               IndexColumn[] columns, IndexType indexType) {
+        initHashIndex(table, id, indexName, columns, indexType);
+        MVMap.Builder<Value, Value> builder = new MVMap.Builder<Value, Value>().
+                keyType(new ValueDataType(null)).valueType(new ValueDataType(null));
+        map = db.getStore().getMvStore().openMap("index." + getId(), builder);
+        Value dir = map.get(DIRECTORY_KEY);
+        needRebuild = dir == null;
+        if (dir == null) {
+            directory = new int[] { 0 };
+            globalDepth = 0;
+            nextBucketId = 1;
+            map.put(ValueInt.get(0), ValueArray.get(new Value[] { ValueInt.get(0) }));
+            writeDirectory();
+        } else {
+            // { globalDepth, nextBucketId, slot 0, slot 1, ... }
+            Value[] list = ((ValueArray) dir).getList();
+            globalDepth = list[0].getInt();
+            nextBucketId = list[1].getInt();
+            int[] d = new int[list.length - 2];
+            for (int i = 0; i < d.length; i++) {
+                d[i] = list[i + 2].getInt();
+            }
+            directory = d;
+        }
+    }
+
+    private void writeDirectory() {
+        int[] d = directory;
+        Value[] list = new Value[d.length + 2];
+        list[0] = ValueInt.get(globalDepth);
+        list[1] = ValueInt.get(nextBucketId);
+        for (int i = 0; i < d.length; i++) {
+            list[i + 2] = ValueInt.get(d[i]);
+        }
+        map.put(DIRECTORY_KEY, ValueArray.get(list));
+    }
+
+    private static int hash(Value key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    protected synchronized void addEntry(Value key, long rowKey) {
+        int h = hash(key);
+        ValueArray entry = ValueArray.get(new Value[] { key, ValueLong.get(rowKey) });
+        while (true) {
+            int[] d = directory;
+            int bucketId = d[h & (d.length - 1)];
+            ValueInt bucketKey = ValueInt.get(bucketId);
+            Value[] bucket = ((ValueArray) map.get(bucketKey)).getList();
+            for (int i = 1; i < bucket.length; i++) {
+                if (bucket[i].equals(entry)) {
+                    return;
+                }
+            }
+            int localDepth = bucket[0].getInt();
+            if (bucket.length - 1 < BUCKET_SIZE || localDepth >= MAX_DEPTH ||
+                    sameHash(bucket)) {
+                Value[] b = Arrays.copyOf(bucket, bucket.length + 1);
+                b[bucket.length] = entry;
+                map.put(bucketKey, ValueArray.get(b));
+                return;
+            }
+            split(bucketId, bucket);
+        }
+    }
+
+    private static boolean sameHash(Value[] bucket) {
+        int h = hash(((ValueArray) bucket[1]).getList()[0]);
+        for (int i = 2; i < bucket.length; i++) {
+            if (hash(((ValueArray) bucket[i]).getList()[0]) != h) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split a full bucket: the entries with the next hash bit set are moved
+     * to a new bucket, and the directory slots are updated. Readers don't
+     * lock: the new bucket is written first, then the new directory is
+     * published, and only then the old bucket is rewritten. A reader that
+     * sees the directory change while reading retries.
+     */
+    private void split(int bucketId, Value[] bucket) {
+        int localDepth = bucket[0].getInt();
+        int[] d = directory;
+        if (localDepth == globalDepth) {
+            // double the directory, the new half is a copy of the old one
+            int[] nd = Arrays.copyOf(d, d.length * 2);
+            System.arraycopy(d, 0, nd, d.length, d.length);
+            d = nd;
+            globalDepth++;
+        } else {
+            d = d.clone();
+        }
+        int bit = 1 << localDepth;
+        int newBucketId = nextBucketId++;
+        Value[] a = new Value[bucket.length];
+        Value[] b = new Value[bucket.length];
+        int aLen = 1, bLen = 1;
+        for (int i = 1; i < bucket.length; i++) {
+            ValueArray e = (ValueArray) bucket[i];
+            if ((hash(e.getList()[0]) & bit) == 0) {
+                a[aLen++] = e;
+            } else {
+                b[bLen++] = e;
+            }
+        }
+        a[0] = b[0] = ValueInt.get(localDepth + 1);
+        for (int i = 0; i < d.length; i++) {
+            if (d[i] == bucketId && (i & bit) != 0) {
+                d[i] = newBucketId;
+            }
+        }
+        map.put(ValueInt.get(newBucketId), ValueArray.get(Arrays.copyOf(b, bLen)));
+        directory = d;
+        map.put(ValueInt.get(bucketId), ValueArray.get(Arrays.copyOf(a, aLen)));
+        writeDirectory();
+    }
+
+    @Override
+    protected long[] getRowKeys(Value key) {
+        int h = hash(key);
+        while (true) {
+            int[] d = directory;
+            Value bucket = map.get(ValueInt.get(d[h & (d.length - 1)]));
+            if (d == directory) {
+                return getRowKeys(((ValueArray) bucket).getList(), key);
+            }
+            // a bucket was split concurrently
+        }
+    }
+
+    private static long[] getRowKeys(Value[] bucket, Value key) {
+        long[] result = new long[bucket.length - 1];
+        int count = 0;
+        for (int i = 1; i < bucket.length; i++) {
+            Value[] e = ((ValueArray) bucket[i]).getList();
+            if (e[0].equals(key)) {
+                result[count++] = e[1].getLong();
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    @Override
+    protected long getEntryCount() {
+        return table.getDataMap().sizeAsLongMax();
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return needRebuild;
+    }
+
+}
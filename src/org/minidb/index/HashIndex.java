@@ -0,0 +1,120 @@
+package org.minidb.index;
+
+import org.minidb.table.IndexColumn;
+import org.minidb.table.Table;
+import org.minidb.value.Value;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A non-persistent hash index. The entries are kept in an open addressing
+ * table with linear probing; the table is rebuilt from the rows when the
+ * database is opened. Lookups share a read lock, so that they can run
+ * concurrently, and only writes are exclusive.
+ */
+public class HashIndex extends BaseHashIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Value[] keys;
+    private long[] rowKeys;
+    private int size;
+
+    public HashIndex(Table table, int id, String indexName,
+                     IndexColumn[] columns, IndexType indexType) {
+        initHashIndex(table, id, indexName, columns, indexType);
+        keys = new Value[INITIAL_CAPACITY];
+        rowKeys = new long[INITIAL_CAPACITY];
+    }
+
+    private static int hash(Value key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    protected void addEntry(Value key, long rowKey) {
+        lock.writeLock().lock();
+        try {
+            // keep the load factor below 0.75
+            if ((size + 1) * 4L > keys.length * 3L) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != null) {
+                if (rowKeys[i] == rowKey && keys[i].equals(key)) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            rowKeys[i] = rowKey;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void resize(int capacity) {
+        Value[] oldKeys = keys;
+        long[] oldRowKeys = rowKeys;
+        keys = new Value[capacity];
+        rowKeys = new long[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Value k = oldKeys[j];
+            if (k != null) {
+                int i = hash(k) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                rowKeys[i] = oldRowKeys[j];
+            }
+        }
+    }
+
+    @Override
+    protected long[] getRowKeys(Value key) {
+        lock.readLock().lock();
+        try {
+            long[] result = new long[4];
+            int count = 0;
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != null) {
+                if (keys[i].equals(key)) {
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count * 2);
+                    }
+                    result[count++] = rowKeys[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return Arrays.copyOf(result, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected long getEntryCount() {
+        return size;
+    }
+
+    @Override
+    public boolean needRebuild() {
+        // the entries are not persisted
+        return true;
+    }
+
+    @Override
+    public String getCreateSQL() {
+        // not persistent
+        return null;
+    }
+
+}
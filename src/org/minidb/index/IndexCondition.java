@@ -11,6 +11,7 @@ import org.minidb.engine.Session;
 import org.minidb.expression.Comparison;
 import org.minidb.expression.Expression;
 import org.minidb.expression.ExpressionColumn;
+import org.minidb.expression.ExpressionVisitor;
 import org.minidb.result.ResultInterface;
 import org.minidb.table.Column;
 import org.minidb.table.Table;
@@ -380,21 +381,20 @@ public class IndexCondition {
      * @return true if it can be evaluated
      */
     public boolean isEvaluatable() {
-        throw new RuntimeException("ERROR");
-//        if (expression != null) {
-//            return expression
-//                    .isEverything(ExpressionVisitor.EVALUATABLE_VISITOR);
-//        }
-//        if (expressionList != null) {
-//            for (Expression e : expressionList) {
-//                if (!e.isEverything(ExpressionVisitor.EVALUATABLE_VISITOR)) {
-//                    return false;
-//                }
-//            }
-//            return true;
-//        }
-//        return expressionQuery
-//                .isEverything(ExpressionVisitor.EVALUATABLE_VISITOR);
+        if (expression != null) {
+            return expression
+                    .isEverything(ExpressionVisitor.EVALUATABLE_VISITOR);
+        }
+        if (expressionList != null) {
+            for (Expression e : expressionList) {
+                if (!e.isEverything(ExpressionVisitor.EVALUATABLE_VISITOR)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return expressionQuery
+                .isEverything(ExpressionVisitor.EVALUATABLE_VISITOR);
     }
 
     @Override
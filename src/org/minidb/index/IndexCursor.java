@@ -42,6 +42,7 @@ public class IndexCursor implements Cursor {
     private Value[] inList;
     private ResultInterface inResult;
     private HashSet<Value> inResultTested;
+    private BitmapCondition bitmapCondition;
 
     public IndexCursor(TableFilter filter) {
         this.tableFilter = filter;
@@ -55,15 +56,28 @@ public class IndexCursor implements Cursor {
         IndexColumn[] idxCols = index.getIndexColumns();
         if (idxCols != null) {
             for (int i = 0, len = columns.length; i < len; i++) {
-                throw new RuntimeException("ERROR");
-//                int idx = index.getColumnIndex(columns[i]);
-//                if (idx >= 0) {
-//                    indexColumns[i] = idxCols[idx];
-//                }
+                int idx = index.getColumnIndex(columns[i]);
+                if (idx >= 0) {
+                    indexColumns[i] = idxCols[idx];
+                }
             }
         }
     }
 
+    /**
+     * Use a condition that is evaluated with bitmap indexes, instead of a
+     * range lookup in the index.
+     *
+     * @param bitmapCondition the bitmap condition, or null
+     */
+    public void setBitmapCondition(BitmapCondition bitmapCondition) {
+        this.bitmapCondition = bitmapCondition;
+    }
+
+    public BitmapCondition getBitmapCondition() {
+        return bitmapCondition;
+    }
+
     /**
      * Prepare this index cursor to make a lookup in index.
      *
@@ -103,6 +117,13 @@ public class IndexCursor implements Cursor {
                 }
             } else {
                 Value v = condition.getCurrentValue(s);
+                if (v == ValueNull.INSTANCE &&
+                        condition.getCompareType() != Comparison.EQUAL_NULL_SAFE) {
+                    // a comparison with NULL is never true, for example
+                    // a join with a row where the column is NULL
+                    alwaysFalse = true;
+                    break;
+                }
                 boolean isStart = condition.isStart();
                 boolean isEnd = condition.isEnd();
                 boolean isIntersects = condition.isSpatialIntersects();
@@ -153,6 +174,18 @@ public class IndexCursor implements Cursor {
      * @param indexConditions the index conditions
      */
     public void find(Session s, ArrayList<IndexCondition> indexConditions) {
+        if (bitmapCondition != null) {
+            // all row keys are known before the first row is read
+            this.session = s;
+            inColumn = null;
+            inList = null;
+            inResult = null;
+            close();
+            cursor = bitmapCondition.getIndex().find(s, bitmapCondition.getBitmap(s));
+            return;
+        }
+        // the cursor of the last lookup (for the previous row of a join)
+        close();
         prepare(s, indexConditions);
         if (inColumn != null) {
             return;
@@ -179,7 +212,8 @@ public class IndexCursor implements Cursor {
         // IndexCondition.getMask.
         IndexColumn[] cols = index.getIndexColumns();
         if (cols == null) {
-            return true;
+            // the scan index can't be used for lookups
+            return false;
         }
         IndexColumn idxCol = cols[0];
         return idxCol == null || idxCol.column == column;
@@ -258,6 +292,17 @@ public class IndexCursor implements Cursor {
         return end;
     }
 
+    /**
+     * Stop the lookup: the cursor of a parallel partition scan that was not
+     * read to the end stops its background threads.
+     */
+    public void close() {
+        if (cursor instanceof PartitionedTable.ParallelCursor) {
+            ((PartitionedTable.ParallelCursor) cursor).close();
+        }
+        cursor = null;
+    }
+
     @Override
     public Row get() {
         if (cursor == null) {
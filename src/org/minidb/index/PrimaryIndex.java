@@ -2,6 +2,7 @@ package org.minidb.index;
 
 import org.minidb.engine.Session;
 import org.minidb.table.Column;
+import org.minidb.table.IndexColumn;
 import org.minidb.table.Row;
 import org.minidb.table.Table;
 import org.minidb.table.TableFilter;
@@ -17,9 +18,9 @@ public class PrimaryIndex extends BaseIndex{
     static final ValueLong MIN = ValueLong.get(Long.MIN_VALUE);
     static final ValueLong MAX = ValueLong.get(Long.MAX_VALUE);
 
-    public PrimaryIndex(Table table, int id, String name, Column column, IndexType newIndexType) {
+    public PrimaryIndex(Table table, int id, String name, IndexColumn[] columns, IndexType newIndexType) {
         initBaseIndex(table, id, name,
-                column, newIndexType);
+                columns, newIndexType);
     }
 
     @Override
@@ -29,14 +30,31 @@ public class PrimaryIndex extends BaseIndex{
         return table.find(session, min, max);
     }
 
+    @Override
+    public Cursor find(TableFilter filter, Row first, Row last) {
+        ValueLong min = table.getKey(first, MIN, MIN);
+        ValueLong max = table.getKey(last, MAX, MIN);
+        return table.find(filter, min, max);
+    }
+
     public void add(Session session, Row row) {
         //nothing to do
     }
 
+    public void remove(Session session, Row row) {
+        //nothing to do
+    }
+
     public boolean needRebuild() {
         return false;
     }
 
+    @Override
+    public Column getSortColumn() {
+        // the rows are stored by the value of the column (the row key)
+        return table.isSortedByKey() ? columns[0] : null;
+    }
+
     @Override
     public double getCost(Session session, int[] masks, TableFilter filter, HashSet<Column> allColumnsSet) {
         return getCostRangeIndex(masks, table.getRowCount(session),
@@ -0,0 +1,66 @@
+package org.minidb.index;
+
+import org.minidb.engine.Session;
+import org.minidb.table.Column;
+import org.minidb.table.Row;
+import org.minidb.table.Table;
+import org.minidb.table.TableFilter;
+import org.minidb.value.ValueLong;
+
+import java.util.HashSet;
+
+/**
+ * The scan index is not really an index, it reads all rows of the table
+ * map in key order. It is used when no other index can be used, for example
+ * for tables without a primary key.
+ */
+public class ScanIndex extends BaseIndex {
+
+    static final ValueLong MIN = ValueLong.get(Long.MIN_VALUE);
+    static final ValueLong MAX = ValueLong.get(Long.MAX_VALUE);
+
+    public ScanIndex(Table table, int id, IndexType indexType) {
+        initBaseIndex(table, id, table.getName() + "_DATA", null, indexType);
+    }
+
+    @Override
+    public Cursor find(Session session, Row first, Row last) {
+        return table.find(session, MIN, MAX);
+    }
+
+    @Override
+    public Cursor find(TableFilter filter, Row first, Row last) {
+        return table.find(filter, MIN, MAX);
+    }
+
+    @Override
+    public void add(Session session, Row row) {
+        //nothing to do
+    }
+
+    @Override
+    public void remove(Session session, Row row) {
+        //nothing to do
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return false;
+    }
+
+    @Override
+    public Column getSortColumn() {
+        int id = table.getPrimaryIndexColumnId();
+        return id < 0 || !table.isSortedByKey() ? null : table.getColumns()[id];
+    }
+
+    @Override
+    public double getCost(Session session, int[] masks, TableFilter filter, HashSet<Column> allColumnsSet) {
+        return table.getScanCost(session, filter);
+    }
+
+    @Override
+    public String getCreateSQL() {
+        return null;
+    }
+}
@@ -1,61 +1,342 @@
 package org.minidb.index;
 
 import org.minidb.engine.Database;
+import org.minidb.engine.DbException;
 import org.minidb.engine.Session;
+import org.minidb.engine.ValueDataType;
+import org.minidb.store.mvstore.DataUtil;
+import org.minidb.store.mvstore.MVMap;
 import org.minidb.store.mvstore.TransactionStore;
 import org.minidb.table.Column;
+import org.minidb.table.IndexColumn;
 import org.minidb.table.Row;
 import org.minidb.table.Table;
 import org.minidb.table.TableFilter;
 import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
 import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
- * Created by gxh on 2016/7/16.
+ * A secondary index. The index map key is the array of the indexed column
+ * values followed by the row key, so that every key is unique even for
+ * non-unique indexes. The map value is the array of the INCLUDE column
+ * values, or NULL if there are none. If a query only needs columns that are
+ * stored in the index, the rows are not read from the table (index-only
+ * scan).
  */
 public class SecondaryIndex extends BaseIndex{
 
     public static final int ASCENDING = 0;
 
-//    final Table table;
-
-//    private final int keyColumns;
-//    private final String mapName;
+    private final int keyColumns;
+    private final String mapName;
+    private final ValueDataType keyType;
+    private final TransactionStore transactionStore;
     private TransactionStore.TransactionMap<Value, Value> dataMap;
 
     public SecondaryIndex(Database db, Table table, int id, String indexName,
-                          Column col, IndexType indexType) {
-        System.out.println("SecondaryIndex 构造器 没写");
-//        this.table = table;
-//        initBaseIndex(table, id, indexName);
-//        // always store the row key in the map key,
-//        // even for unique indexes, as some of the index columns could be null
-//        keyColumns = columns.length + 1;
-//        mapName = "index." + getId();
-//        int[] sortTypes = new int[keyColumns];
-//        for (int i = 0; i < columns.length; i++) {
-//            sortTypes[i] = columns[i].sortType;
-//        }
-//        sortTypes[keyColumns - 1] = ASCENDING;
-//        ValueDataType keyType = new ValueDataType(sortTypes);
-//        ValueDataType valueType = new ValueDataType(null);
-//        TransactionStore.Transaction t = Table.getTransaction(null);
-//        dataMap = t.openMap(mapName, keyType, valueType);
-//        t.commit();
+                          IndexColumn[] columns, IndexColumn[] includeColumns,
+                          IndexType indexType) {
+        initBaseIndex(table, id, indexName, columns, indexType);
+        this.includeColumns = includeColumns;
+        transactionStore = db.getStore().getTransactionStore();
+        // always store the row key in the map key,
+        // even for unique indexes, as some of the index columns could be null
+        keyColumns = columns.length + 1;
+        mapName = "index." + getId();
+        int[] sortTypes = new int[keyColumns];
+        for (int i = 0; i < columns.length; i++) {
+            sortTypes[i] = columns[i].sortType;
+        }
+        sortTypes[keyColumns - 1] = ASCENDING;
+        keyType = new ValueDataType(sortTypes);
+        ValueDataType valueType = new ValueDataType(null);
+        TransactionStore.Transaction t = table.getTransaction(null);
+        dataMap = t.openMap(mapName, keyType, valueType);
+        t.commit();
     }
 
     @Override
-    public Cursor find(Session session, Row start, Row end) {
-        System.out.println("find 没写");
-        return null;
+    public void add(Session session, Row row) {
+        add(getMap(session), row);
     }
 
+    private void add(TransactionStore.TransactionMap<Value, Value> map, Row row) {
+        ValueArray array = convertToKey(row);
+        ValueArray unique = null;
+        if (indexType.isUnique()) {
+            // this will detect committed entries only
+            unique = convertToKey(row);
+            unique.getList()[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
+            checkUnique(map, unique);
+        }
+        map.put(array, convertToValue(row));
+        if (indexType.isUnique() && !containsNull(unique)) {
+            // check again, to detect entries of other open transactions
+            // that were added concurrently
+            Iterator<Value> it = map.keyIterator(unique, true);
+            while (it.hasNext()) {
+                ValueArray k = (ValueArray) it.next();
+                if (compareKeys(k, unique) != 0) {
+                    break;
+                }
+                if (map.isSameTransaction(k)) {
+                    continue;
+                }
+                if (map.get(k) != null) {
+                    throw getDuplicateKeyException(k);
+                }
+                throw new IllegalStateException(
+                        TransactionStore.ERROR_TRANSACTION_LOCKED);
+            }
+        }
+    }
+
+    /**
+     * Remove the index entry of a row that is replaced or deleted.
+     *
+     * @param session the session
+     * @param row the old row
+     */
     @Override
-    public void add(Session session, Row row) {
-        System.out.println("add 没写");
+    public void remove(Session session, Row row) {
+        ValueArray array = convertToKey(row);
+        TransactionStore.TransactionMap<Value, Value> map = getMap(session);
+        map.remove(array);
+    }
+
+    /**
+     * Remove the entry of a row version, whether it is committed or not.
+     * This is used while an index is built online, before it is used.
+     *
+     * @param row the row version
+     */
+    public void removeCommitted(Row row) {
+        dataMap.removeCommitted(convertToKey(row));
+    }
+
+    /**
+     * Add the entries of a row that was changed while the index was built
+     * online. The committed version is added as a committed entry. If an
+     * open transaction changed the row, the change is repeated with that
+     * transaction, so that it is committed or rolled back together with
+     * the change of the row.
+     *
+     * @param committed the committed row, or null
+     * @param owner the open transaction that changed the row, or null
+     * @param uncommitted the row as changed by the owner, or null if deleted
+     */
+    public void addChangedRow(Row committed, TransactionStore.Transaction owner,
+                              Row uncommitted) {
+        if (committed != null) {
+            ValueArray array = convertToKey(committed);
+            if (indexType.isUnique()) {
+                ValueArray unique = convertToKey(committed);
+                unique.getList()[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
+                checkUnique(dataMap, unique);
+            }
+            dataMap.putCommitted(array, convertToValue(committed));
+        }
+        if (owner != null) {
+            TransactionStore.TransactionMap<Value, Value> map =
+                    dataMap.getInstance(owner, Long.MAX_VALUE);
+            if (committed != null) {
+                map.remove(convertToKey(committed));
+            }
+            if (uncommitted != null) {
+                add(map, uncommitted);
+            }
+        }
+    }
+
+    /**
+     * Remove the index map, for example because building the index failed.
+     */
+    public void removeMap() {
+        TransactionStore.Transaction t = table.getTransaction(null);
+        t.removeMap(dataMap);
+        t.commit();
+    }
+
+    private void checkUnique(TransactionStore.TransactionMap<Value, Value> map,
+                             ValueArray unique) {
+        if (containsNull(unique)) {
+            // NULL values never conflict
+            return;
+        }
+        Iterator<Value> it = map.keyIterator(unique, true);
+        while (it.hasNext()) {
+            ValueArray k = (ValueArray) it.next();
+            if (compareKeys(k, unique) != 0) {
+                break;
+            }
+            if (map.get(k) != null) {
+                throw getDuplicateKeyException(k);
+            }
+        }
+    }
+
+    private DbException getDuplicateKeyException(ValueArray key) {
+        return DbException.get("DUPLICATE_KEY " + getName() + " " + key.getSQL());
+    }
+
+    /**
+     * Compare the indexed columns of two keys, ignoring the row key.
+     */
+    private int compareKeys(ValueArray a, ValueArray b) {
+        Value[] ax = a.getList();
+        Value[] bx = b.getList();
+        for (int i = 0; i < keyColumns - 1; i++) {
+            Value v = bx[i];
+            if (v == null) {
+                // unbounded
+                return 0;
+            }
+            int comp = keyType.compare(ax[i], v);
+            if (comp != 0) {
+                return comp;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean containsNull(ValueArray key) {
+        Value[] list = key.getList();
+        for (int i = 0; i < list.length - 1; i++) {
+            if (list[i] == ValueNull.INSTANCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ValueArray convertToKey(Row r) {
+        if (r == null) {
+            return null;
+        }
+        Value[] array = new Value[keyColumns];
+        for (int i = 0; i < columns.length; i++) {
+            Value v = r.getValue(columnIds[i]);
+            array[i] = v == null ? ValueNull.INSTANCE : v;
+        }
+        array[keyColumns - 1] = ValueLong.get(r.getKey());
+        return ValueArray.get(array);
+    }
+
+    /**
+     * Get the map value of a row: the values of the INCLUDE columns.
+     */
+    private Value convertToValue(Row r) {
+        if (includeColumns == null) {
+            return ValueNull.INSTANCE;
+        }
+        Value[] array = new Value[includeColumns.length];
+        for (int i = 0; i < includeColumns.length; i++) {
+            Value v = r.getValue(includeColumns[i].column.getColumnId());
+            array[i] = v == null ? ValueNull.INSTANCE : v;
+        }
+        return ValueArray.get(array);
+    }
+
+    /**
+     * Convert a search row to a map key. Columns that are not set are kept
+     * as null, which sorts before all values, and the row key is set to the
+     * minimum so that the search starts before the first matching entry.
+     */
+    private ValueArray convertToSearchKey(Row r) {
+        Value[] array = new Value[keyColumns];
+        if (r != null) {
+            for (int i = 0; i < columns.length; i++) {
+                array[i] = r.getValue(columnIds[i]);
+            }
+        }
+        array[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
+        return ValueArray.get(array);
+    }
+
+    /**
+     * Convert an index entry to a search row. The index columns, the INCLUDE
+     * columns, the row key and the primary key column (which is the row
+     * key) are set.
+     *
+     * @param key the index key
+     * @param value the map value
+     * @return the row
+     */
+    Row convertToSearchRow(ValueArray key, Value value) {
+        Value[] array = key.getList();
+        Row searchRow = table.getTemplateRow();
+        long rowKey = array[array.length - 1].getLong();
+        searchRow.setKey(rowKey);
+        for (int i = 0; i < columns.length; i++) {
+            searchRow.setValue(columnIds[i], array[i]);
+        }
+        if (includeColumns != null && value instanceof ValueArray) {
+            Value[] list = ((ValueArray) value).getList();
+            for (int i = 0; i < includeColumns.length; i++) {
+                searchRow.setValue(includeColumns[i].column.getColumnId(), list[i]);
+            }
+        }
+        int pk = table.getPrimaryIndexColumnId();
+        if (pk >= 0 && searchRow.getValue(pk) == null) {
+            searchRow.setValue(pk, table.getColumns()[pk].convert(ValueLong.get(rowKey)));
+        }
+        return searchRow;
+    }
+
+    /**
+     * Check whether all columns of this table that the query uses are stored
+     * in the index, so that no row needs to be read from the table.
+     */
+    private boolean isCovering(HashSet<Column> allColumnsSet) {
+        if (allColumnsSet == null) {
+            return false;
+        }
+        int pk = table.getPrimaryIndexColumnId();
+        for (Column c : allColumnsSet) {
+            int id = c.getColumnId();
+            if (c.getTable() != table || id < 0 || id == pk) {
+                continue;
+            }
+            if (getColumnIndex(c) < 0 && getIncludeColumnIndex(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getIncludeColumnIndex(Column col) {
+        if (includeColumns != null) {
+            for (int i = 0; i < includeColumns.length; i++) {
+                if (includeColumns[i].column.equals(col)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Cursor find(Session session, Row first, Row last) {
+        ValueArray min = convertToSearchKey(first);
+        TransactionStore.TransactionMap<Value, Value> map = getMap(session);
+        return new SecondaryCursor(session, map.entryIterator(min), last);
+    }
+
+    @Override
+    public Column getSortColumn() {
+        IndexColumn c = indexColumns[0];
+        return (c.sortType & IndexColumn.DESCENDING) != 0 ? null : c.column;
     }
 
     public boolean needRebuild() {
@@ -66,92 +347,190 @@ public class SecondaryIndex extends BaseIndex{
         }
     }
 
-    public void addRowsToBuffer(List<Row> rows, String bufferName) {
-        System.out.println("addRowsToBuffer 没写");
-//        MVMap<Value, Value> map = openMap(bufferName);
-//        for (Row row : rows) {
-//            ValueArray key = convertToKey(row);
-//            map.put(key, ValueNull.INSTANCE);
-//        }
-    }
-
-    public void addBufferedRows(List<String> bufferNames) {
-        System.out.println("addBufferedRows 没写");
-//        ArrayList<String> mapNames = New.arrayList(bufferNames);
-//        final CompareMode compareMode = database.getCompareMode();
-//        /**
-//         * A source of values.
-//         */
-//        class Source implements Comparable<Source> {
-//            Value value;
-//            Iterator<Value> next;
-//            int sourceId;
-//            @Override
-//            public int compareTo(Source o) {
-//                int comp = value.compareTo(o.value, compareMode);
-//                if (comp == 0) {
-//                    comp = sourceId - o.sourceId;
-//                }
-//                return comp;
-//            }
-//        }
-//        TreeSet<Source> sources = new TreeSet<Source>();
-//        for (int i = 0; i < bufferNames.size(); i++) {
-//            MVMap<Value, Value> map = openMap(bufferNames.get(i));
-//            Iterator<Value> it = map.keyIterator(null);
-//            if (it.hasNext()) {
-//                Source s = new Source();
-//                s.value = it.next();
-//                s.next = it;
-//                s.sourceId = i;
-//                sources.add(s);
-//            }
-//        }
-//        try {
-//            while (true) {
-//                Source s = sources.first();
-//                Value v = s.value;
-//
-//                if (indexType.isUnique()) {
-//                    Value[] array = ((ValueArray) v).getList();
-//                    // don't change the original value
-//                    array = array.clone();
-//                    array[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
-//                    ValueArray unique = ValueArray.get(array);
-//                    SearchRow row = convertToSearchRow((ValueArray) v);
-//                    checkUnique(row, dataMap, unique);
-//                }
-//
-//                dataMap.putCommitted(v, ValueNull.INSTANCE);
-//
-//                Iterator<Value> it = s.next;
-//                if (!it.hasNext()) {
-//                    sources.remove(s);
-//                    if (sources.size() == 0) {
-//                        break;
-//                    }
-//                } else {
-//                    Value nextValue = it.next();
-//                    sources.remove(s);
-//                    s.value = nextValue;
-//                    sources.add(s);
-//                }
-//            }
-//        } finally {
-//            for (String tempMapName : mapNames) {
-//                MVMap<Value, Value> map = openMap(tempMapName);
-//                map.getStore().removeMap(map);
-//            }
-//        }
+    /**
+     * Sort the index keys of the given rows and write them to a new
+     * temporary map (a sorted run). The map is filled with a bulk load, so
+     * that runs can be written by multiple threads at the same time.
+     *
+     * @param rows the rows
+     * @return the temporary map
+     */
+    public MVMap<Value, Value> addRowsToBuffer(List<Row> rows) {
+        ArrayList<Map.Entry<Value, Value>> entries = new ArrayList<>(rows.size());
+        for (Row r : rows) {
+            entries.add(new DataUtil.MapEntry<Value, Value>(convertToKey(r), convertToValue(r)));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<Value, Value>>() {
+            @Override
+            public int compare(Map.Entry<Value, Value> a, Map.Entry<Value, Value> b) {
+                return keyType.compare(a.getKey(), b.getKey());
+            }
+        });
+        MVMap<Value, Value> map = transactionStore.createTempMap(keyType,
+                new ValueDataType(null));
+        map.bulkLoad(entries.iterator());
+        return map;
     }
 
-    @Override
-    public String getCreateSQL() {
-        return null;
+    /**
+     * Merge the sorted runs into the (empty) index map, and remove them.
+     * The runs are merged with a priority queue over their first entries,
+     * and the merged stream is bulk loaded, so that every index page is
+     * written once. Duplicates of unique indexes are detected while merging.
+     *
+     * @param buffers the sorted runs
+     */
+    public void addBufferedRows(List<MVMap<Value, Value>> buffers) {
+        /**
+         * A source of values.
+         */
+        class Source implements Comparable<Source> {
+            Value value;
+            Value data;
+            org.minidb.store.mvstore.Cursor<Value, Value> next;
+            int sourceId;
+            @Override
+            public int compareTo(Source o) {
+                int comp = keyType.compare(value, o.value);
+                if (comp == 0) {
+                    comp = sourceId - o.sourceId;
+                }
+                return comp;
+            }
+        }
+        final PriorityQueue<Source> sources = new PriorityQueue<Source>();
+        for (int i = 0; i < buffers.size(); i++) {
+            org.minidb.store.mvstore.Cursor<Value, Value> it = buffers.get(i).cursor(null);
+            if (it.hasNext()) {
+                Source s = new Source();
+                s.value = it.next();
+                s.data = it.getValue();
+                s.next = it;
+                s.sourceId = i;
+                sources.add(s);
+            }
+        }
+        try {
+            dataMap.bulkLoadCommitted(new Iterator<Map.Entry<Value, Value>>() {
+
+                private ValueArray last;
+
+                @Override
+                public boolean hasNext() {
+                    return !sources.isEmpty();
+                }
+
+                @Override
+                public Map.Entry<Value, Value> next() {
+                    Source s = sources.poll();
+                    ValueArray v = (ValueArray) s.value;
+                    Value data = s.data;
+                    if (s.next.hasNext()) {
+                        s.value = s.next.next();
+                        s.data = s.next.getValue();
+                        sources.add(s);
+                    }
+                    if (indexType.isUnique() && last != null &&
+                            !containsNull(v) && compareKeys(last, v) == 0) {
+                        throw getDuplicateKeyException(v);
+                    }
+                    last = v;
+                    return new DataUtil.MapEntry<Value, Value>(v, data);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        } finally {
+            for (MVMap<Value, Value> map : buffers) {
+                transactionStore.removeTempMap(map);
+            }
+        }
     }
 
     @Override
     public double getCost(Session session, int[] masks, TableFilter filter, HashSet<Column> allColumnsSet) {
-        throw new RuntimeException("getCost 没写");
+        TransactionStore.TransactionMap<Value, Value> map = getMap(session);
+        return getCostRangeIndex(masks, map.sizeAsLongMax(),
+                filter, isCovering(allColumnsSet), allColumnsSet);
+    }
+
+    /**
+     * Get the map to store the data.
+     *
+     * @param session the session
+     * @return the map
+     */
+    TransactionStore.TransactionMap<Value, Value> getMap(Session session) {
+        if (session == null) {
+            return dataMap;
+        }
+        TransactionStore.Transaction t = table.getTransaction(session);
+        return dataMap.getInstance(t, Long.MAX_VALUE);
+    }
+
+    /**
+     * A cursor over the index entries. Only the columns stored in the index
+     * and the row key are known; the complete row is read from the table
+     * when needed.
+     */
+    class SecondaryCursor implements Cursor {
+
+        private final Session session;
+        private final Iterator<Map.Entry<Value, Value>> it;
+        private final Row last;
+        private Map.Entry<Value, Value> current;
+        private Row searchRow;
+        private Row row;
+
+        SecondaryCursor(Session session, Iterator<Map.Entry<Value, Value>> it, Row last) {
+            this.session = session;
+            this.it = it;
+            this.last = last;
+        }
+
+        @Override
+        public Row get() {
+            if (row == null) {
+                Row r = getSearchRow();
+                if (r != null) {
+                    row = table.getRow(session, r.getKey());
+                }
+            }
+            return row;
+        }
+
+        @Override
+        public Row getSearchRow() {
+            if (searchRow == null) {
+                if (current != null) {
+                    searchRow = convertToSearchRow((ValueArray) current.getKey(),
+                            current.getValue());
+                }
+            }
+            return searchRow;
+        }
+
+        @Override
+        public boolean next() {
+            current = it.hasNext() ? it.next() : null;
+            searchRow = null;
+            if (current != null) {
+                if (last != null && compareRows(getSearchRow(), last) > 0) {
+                    searchRow = null;
+                    current = null;
+                }
+            }
+            row = null;
+            return current != null;
+        }
+
+        @Override
+        public boolean previous() {
+            throw new RuntimeException("previous 不支持");
+        }
+
     }
 }
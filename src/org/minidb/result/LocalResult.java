@@ -3,11 +3,37 @@ package org.minidb.result;
 
 import org.minidb.engine.Database;
 import org.minidb.engine.Session;
+import org.minidb.engine.ValueDataType;
 import org.minidb.expression.Expression;
+import org.minidb.store.mvstore.Cursor;
+import org.minidb.store.mvstore.DataUtil;
+import org.minidb.store.mvstore.MVMap;
+import org.minidb.store.mvstore.TransactionStore;
 import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueLong;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
 
+/**
+ * The result of a query. If the rows are sorted (ORDER BY):
+ * <ul>
+ * <li>if only the first rows are needed (LIMIT), only those are kept, in
+ * a heap with the largest row on top (top-N);</li>
+ * <li>otherwise, the rows are sorted in memory, up to the maximum number
+ * of rows in memory; if there are more, sorted runs of that many rows are
+ * written to temporary maps, and merged while the rows are read (an
+ * external merge sort).</li>
+ * </ul>
+ * The rows may contain more columns than visible, for example for ORDER BY
+ * expressions that are not selected.
+ */
 public class LocalResult implements ResultInterface, ResultTarget {
 
     private Session session;
@@ -16,6 +42,26 @@ public class LocalResult implements ResultInterface, ResultTarget {
     private ArrayList<Value[]> rows;
     private int rowId, rowCount;
     private Value[] currentRow;
+    private SortOrder sort;
+    private int limit = -1;
+    private int offset;
+    private final int maxMemoryRows;
+
+    /**
+     * The first rows with the largest one on top, if only the first rows
+     * are needed.
+     */
+    private PriorityQueue<Value[]> topRows;
+
+    /**
+     * The sorted runs that were written to temporary maps, or null.
+     */
+    private ArrayList<MVMap<Value, Value>> runs;
+
+    /**
+     * The next row of each sorted run, while the runs are merged.
+     */
+    private PriorityQueue<Run> merge;
 
     public LocalResult(Session session, Expression[] expressions,
                        int visibleColumnCount) {
@@ -24,11 +70,196 @@ public class LocalResult implements ResultInterface, ResultTarget {
         this.visibleColumnCount = visibleColumnCount;
         rowId = -1;
         this.expressions = expressions;
+        Database db = session.getDatabase();
+        maxMemoryRows = Math.max(1, db.getMaxMemoryRows());
+    }
+
+    /**
+     * Set the sort order. Must be called before rows are added.
+     *
+     * @param sort the sort order
+     */
+    public void setSortOrder(SortOrder sort) {
+        this.sort = sort;
+    }
+
+    /**
+     * Set the number of rows that this result will return.
+     *
+     * @param limit the limit (-1 means no limit, 0 means no rows)
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Set the number of rows to skip.
+     *
+     * @param offset the offset
+     */
+    public void setOffset(int offset) {
+        this.offset = offset;
     }
 
     public void addRow(Value[] values) {
-        rows.add(values);
         rowCount++;
+        if (sort != null && limit >= 0 && (long) offset + limit <= maxMemoryRows) {
+            addTopRow(values, offset + limit);
+            return;
+        }
+        rows.add(values);
+        if (sort != null && rows.size() >= maxMemoryRows) {
+            addRun();
+        }
+    }
+
+    private void addTopRow(Value[] values, int n) {
+        if (n == 0) {
+            return;
+        }
+        if (topRows == null) {
+            topRows = new PriorityQueue<>(n, Collections.reverseOrder(sort));
+        }
+        if (topRows.size() < n) {
+            topRows.add(values);
+        } else if (sort.compare(values, topRows.peek()) < 0) {
+            // replaces the largest row
+            topRows.poll();
+            topRows.add(values);
+        }
+    }
+
+    /**
+     * Sort the rows in memory and write them to a temporary map.
+     */
+    private void addRun() {
+        sort.sort(rows);
+        ArrayList<Map.Entry<Value, Value>> entries = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            // the key is the position in the sorted run
+            entries.add(new DataUtil.MapEntry<Value, Value>(ValueLong.get(i),
+                    ValueArray.get(rows.get(i))));
+        }
+        MVMap<Value, Value> map = getTransactionStore().createTempMap(
+                new ValueDataType(null), new ValueDataType(null));
+        if (runs == null) {
+            runs = new ArrayList<>();
+        }
+        // added first, so that close removes it if the load fails
+        runs.add(map);
+        map.bulkLoad(entries.iterator());
+        rows = new ArrayList<>();
+    }
+
+    /**
+     * This method is called after all rows have been added. The rows are
+     * sorted, and the offset and limit are applied.
+     */
+    public void done() {
+        if (topRows != null) {
+            rows = new ArrayList<>(topRows);
+            topRows = null;
+        }
+        if (sort != null) {
+            sort.sort(rows);
+        }
+        if (runs != null) {
+            boolean success = false;
+            try {
+                startMerge();
+                long count = Math.max(0, rowCount - offset);
+                rowCount = (int) (limit < 0 ? count : Math.min(count, limit));
+                for (int i = 0; i < offset && !merge.isEmpty(); i++) {
+                    nextMerged();
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    close();
+                }
+            }
+            return;
+        }
+        int from = Math.min(offset, rows.size());
+        int to = limit < 0 ? rows.size() : (int) Math.min((long) from + limit, rows.size());
+        if (from > 0 || to < rows.size()) {
+            rows = new ArrayList<>(rows.subList(from, to));
+        }
+        rowCount = rows.size();
+    }
+
+    private void startMerge() {
+        merge = new PriorityQueue<>(runs.size() + 1, new Comparator<Run>() {
+            @Override
+            public int compare(Run a, Run b) {
+                int comp = sort.compare(a.row, b.row);
+                // the rows that were added first come first
+                return comp != 0 ? comp : a.id - b.id;
+            }
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            final Cursor<Value, Value> c = runs.get(i).cursor(null);
+            addRun(i, new Iterator<Value[]>() {
+                @Override
+                public boolean hasNext() {
+                    return c.hasNext();
+                }
+
+                @Override
+                public Value[] next() {
+                    c.next();
+                    return ((ValueArray) c.getValue()).getList();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+        // the last rows are not written
+        addRun(runs.size(), rows.iterator());
+        rows = null;
+    }
+
+    private void addRun(int id, Iterator<Value[]> it) {
+        if (it.hasNext()) {
+            Run r = new Run();
+            r.id = id;
+            r.it = it;
+            r.row = it.next();
+            merge.add(r);
+        }
+    }
+
+    private Value[] nextMerged() {
+        Run r = merge.poll();
+        Value[] row = r.row;
+        if (r.it.hasNext()) {
+            r.row = r.it.next();
+            merge.add(r);
+        }
+        return row;
+    }
+
+    private TransactionStore getTransactionStore() {
+        return session.getDatabase().getStore().getTransactionStore();
+    }
+
+    /**
+     * Remove the temporary maps of the sorted runs. This is done when the
+     * last row was read, and must be done by the caller if the result is not
+     * read to the end.
+     */
+    public void close() {
+        if (runs != null) {
+            TransactionStore store = getTransactionStore();
+            for (MVMap<Value, Value> map : runs) {
+                store.removeTempMap(map);
+            }
+            runs = null;
+            merge = null;
+        }
     }
 
     @Override
@@ -46,10 +277,25 @@ public class LocalResult implements ResultInterface, ResultTarget {
         if (rowId < rowCount) {
             rowId++;
             if (rowId < rowCount) {
-                currentRow = rows.get(rowId);
+                Value[] row;
+                boolean success = false;
+                try {
+                    row = merge != null ? nextMerged() : rows.get(rowId);
+                    success = true;
+                } finally {
+                    if (!success) {
+                        close();
+                    }
+                }
+                if (row.length > visibleColumnCount) {
+                    // the ORDER BY expressions that are not selected
+                    row = Arrays.copyOf(row, visibleColumnCount);
+                }
+                currentRow = row;
                 return true;
             }
             currentRow = null;
+            close();
         }
         return false;
     }
@@ -61,4 +307,13 @@ public class LocalResult implements ResultInterface, ResultTarget {
     public int getVisibleColumnCount() {
         return visibleColumnCount;
     }
+
+    /**
+     * The next row of a sorted run.
+     */
+    private static class Run {
+        int id;
+        Value[] row;
+        Iterator<Value[]> it;
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.result;
+
+import org.minidb.value.Value;
+import org.minidb.value.ValueNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * A sort order represents an ORDER BY clause in a query.
+ */
+public class SortOrder implements Comparator<Value[]> {
+
+    /**
+     * This bit mask means the values should be sorted in ascending order.
+     */
+    public static final int ASCENDING = 0;
+
+    /**
+     * This bit mask means the values should be sorted in descending order.
+     */
+    public static final int DESCENDING = 1;
+
+    /**
+     * This bit mask means NULLs should be sorted before other data, no matter
+     * if ascending or descending order is used.
+     */
+    public static final int NULLS_FIRST = 2;
+
+    /**
+     * This bit mask means NULLs should be sorted after other data, no matter
+     * if ascending or descending order is used.
+     */
+    public static final int NULLS_LAST = 4;
+
+    /**
+     * The column indexes of the order by expressions within the query.
+     */
+    private final int[] queryColumnIndexes;
+
+    /**
+     * The sort type bit mask (DESCENDING, NULLS_FIRST, NULLS_LAST).
+     */
+    private final int[] sortTypes;
+
+    /**
+     * Construct a new sort order object.
+     *
+     * @param queryColumnIndexes the column index list
+     * @param sortType the sort order bit masks
+     */
+    public SortOrder(int[] queryColumnIndexes, int[] sortType) {
+        this.queryColumnIndexes = queryColumnIndexes;
+        this.sortTypes = sortType;
+    }
+
+    /**
+     * Compare two expressions where one of them is NULL. NULL is smaller
+     * than other values, unless NULLS FIRST or NULLS LAST is used.
+     *
+     * @param aNull whether the first expression is null
+     * @param sortType the sort bit mask to use
+     * @return the result of the comparison (-1 meaning the first expression
+     *         should appear before the second, 0 if they are equal)
+     */
+    public static int compareNull(boolean aNull, int sortType) {
+        if ((sortType & NULLS_FIRST) != 0) {
+            return aNull ? -1 : 1;
+        } else if ((sortType & NULLS_LAST) != 0) {
+            return aNull ? 1 : -1;
+        } else {
+            // the default is NULLs sorted low, as in the indexes
+            int comp = aNull ? -1 : 1;
+            return (sortType & DESCENDING) == 0 ? comp : -comp;
+        }
+    }
+
+    /**
+     * Get the sort type without the NULLS FIRST or NULLS LAST flag if it is
+     * the default for the direction (NULL is smaller than other values).
+     *
+     * @param sortType the sort type
+     * @return the sort type
+     */
+    public static int normalize(int sortType) {
+        if ((sortType & DESCENDING) == 0) {
+            return sortType & ~NULLS_FIRST;
+        }
+        return sortType & ~NULLS_LAST;
+    }
+
+    /**
+     * Compare two expression lists.
+     *
+     * @param a the first expression list
+     * @param b the second expression list
+     * @return the result of the comparison
+     */
+    @Override
+    public int compare(Value[] a, Value[] b) {
+        for (int i = 0, len = queryColumnIndexes.length; i < len; i++) {
+            int idx = queryColumnIndexes[i];
+            int type = sortTypes[i];
+            Value ao = a[idx];
+            Value bo = b[idx];
+            boolean aNull = ao == ValueNull.INSTANCE, bNull = bo == ValueNull.INSTANCE;
+            if (aNull || bNull) {
+                if (aNull == bNull) {
+                    continue;
+                }
+                return compareNull(aNull, type);
+            }
+            int comp = ao.compareTo(bo);
+            if (comp != 0) {
+                return (type & DESCENDING) == 0 ? comp : -comp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sort a list of rows.
+     *
+     * @param rows the list of rows
+     */
+    public void sort(ArrayList<Value[]> rows) {
+        Collections.sort(rows, this);
+    }
+
+    /**
+     * Get the column index list. This is the column indexes of the order by
+     * expressions within the query.
+     *
+     * @return the list
+     */
+    public int[] getQueryColumnIndexes() {
+        return queryColumnIndexes;
+    }
+
+    /**
+     * Get the sort order bit masks.
+     *
+     * @return the list
+     */
+    public int[] getSortTypes() {
+        return sortTypes;
+    }
+
+}
@@ -5,8 +5,10 @@ import org.minidb.index.BaseIndex;
 import org.minidb.table.CreateTableData;
 import org.minidb.table.Table;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Created by gxh on 2016/6/10.
@@ -15,8 +17,14 @@ public class Schema extends DbObjectBase {
 
     private final HashMap<String, Table> tablesAndViews = new HashMap<>();
     private final HashMap<String, BaseIndex> indexes = new HashMap<>();
+    private final HashMap<String, Sequence> sequences = new HashMap<>();
     private final HashSet<String> temporaryUniqueNames = new HashSet();
 
+    /**
+     * Shared by statements that read or write data, exclusive for DDL.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
     public Schema(Database database, int objectId, String schemaName){
         initDbObjectBase(database, objectId , schemaName );
     }
@@ -25,9 +33,37 @@ public class Schema extends DbObjectBase {
         return getName();
     }
 
+    /**
+     * Lock the schema. Any number of sessions can hold the shared lock at
+     * the same time; the exclusive lock waits until no other session holds
+     * the lock.
+     *
+     * @param exclusive whether the exclusive lock is needed
+     */
+    public void lock(boolean exclusive) {
+        if (exclusive) {
+            lock.writeLock().lock();
+        } else {
+            lock.readLock().lock();
+        }
+    }
+
+    /**
+     * Unlock the schema.
+     *
+     * @param exclusive whether the exclusive lock was taken
+     */
+    public void unlock(boolean exclusive) {
+        if (exclusive) {
+            lock.writeLock().unlock();
+        } else {
+            lock.readLock().unlock();
+        }
+    }
+
     public Table createTable(CreateTableData data){
         data.schema = this;
-        return database.getTableFactory().createTable(data);
+        return database.getTableFactory(data.tableEngine).createTable(data);
     }
 
     public Table findTableOrView(Session session, String name) {
@@ -35,6 +71,15 @@ public class Schema extends DbObjectBase {
         return table;
     }
 
+    /**
+     * Get all tables of this schema.
+     *
+     * @return the tables
+     */
+    public ArrayList<Table> getAllTablesAndViews() {
+        return new ArrayList<>(tablesAndViews.values());
+    }
+
     public void add(SchemaObject obj) {
         String name = obj.getName();
         HashMap<String, SchemaObject> map = getMap(obj.getType());
@@ -50,6 +95,9 @@ public class Schema extends DbObjectBase {
             case DbObject.INDEX:
                 result = indexes;
                 break;
+            case DbObject.SEQUENCE:
+                result = sequences;
+                break;
             default:
                 throw new RuntimeException("getMap ERROR" );
         }
@@ -114,6 +162,10 @@ public class Schema extends DbObjectBase {
         }
     }
 
+    public Sequence findSequence(String sequenceName) {
+        return sequences.get(sequenceName);
+    }
+
     public BaseIndex findIndex(Session session, String name) {
         BaseIndex index = indexes.get(name);
         return index;
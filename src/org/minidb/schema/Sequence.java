@@ -0,0 +1,92 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.minidb.schema;
+
+import org.minidb.engine.DbObject;
+import org.minidb.engine.Session;
+import org.minidb.util.RangeAllocator;
+
+/**
+ * A sequence is created using the statement
+ * CREATE SEQUENCE name [START WITH value] [INCREMENT BY value] [CACHE count]
+ * <p>
+ * Each session reserves CACHE values at once, so concurrent sessions don't
+ * synchronize for each value. Only the end of the reserved values (the
+ * high-water mark) is stored, as the START WITH value of the create
+ * statement in the meta table; after the database is reopened, the
+ * sequence continues there.
+ */
+public class Sequence extends SchemaObjectBase {
+
+    /**
+     * The value number 0 of the allocator stands for.
+     */
+    private final long start;
+    private final long increment;
+    private final int cacheSize;
+
+    /**
+     * Hands out the numbers of the values (0, 1, 2, ..).
+     */
+    private final RangeAllocator allocator;
+
+    /**
+     * The number of values that are covered by the stored high-water mark.
+     */
+    private long persisted;
+
+    public Sequence(Schema schema, int id, String name, long start, long increment,
+                    int cacheSize) {
+        initSchemaObjectBase(schema, id, name);
+        if (increment == 0) {
+            throw new RuntimeException("INCREMENT BY must not be 0");
+        }
+        this.start = start;
+        this.increment = increment;
+        this.cacheSize = cacheSize;
+        allocator = new RangeAllocator(0, cacheSize) {
+            @Override
+            protected void reserved(long end) {
+                flush(end);
+            }
+        };
+    }
+
+    /**
+     * Get the next value for the session.
+     *
+     * @param session the session
+     * @return the value
+     */
+    public long getNext(Session session) {
+        return start + session.nextValue(allocator) * increment;
+    }
+
+    /**
+     * Store the high-water mark, in its own transaction, before any value
+     * below it is used.
+     *
+     * @param end the number of values that may be used
+     */
+    private synchronized void flush(long end) {
+        if (end > persisted) {
+            persisted = end;
+            getDatabase().updateMetaCommitted(this);
+        }
+    }
+
+    @Override
+    public int getType() {
+        return DbObject.SEQUENCE;
+    }
+
+    @Override
+    public synchronized String getCreateSQL() {
+        return "CREATE SEQUENCE " + getSQL() + " START WITH " + (start + persisted * increment) +
+                " INCREMENT BY " + increment + " CACHE " + cacheSize;
+    }
+
+}
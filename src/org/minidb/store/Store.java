@@ -13,13 +13,19 @@ import java.util.HashMap;
 public class Store {
 
     TransactionStore transactionStore;
+    private final MVStore mvStore;
 
     public Store(HashMap<String, Object> config){
+        this.mvStore = new MVStore(config);
         this.transactionStore = new TransactionStore(
-                new MVStore(config),
+                mvStore,
                 new ValueDataType(null));
     }
 
+    public MVStore getMvStore() {
+        return mvStore;
+    }
+
     public TransactionStore getTransactionStore() {
         return transactionStore;
     }
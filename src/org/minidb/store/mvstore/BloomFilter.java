@@ -0,0 +1,238 @@
+package org.minidb.store.mvstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A Bloom filter over the keys of a map. If the filter doesn't contain a
+ * key, the map doesn't contain it either, so that a lookup can return
+ * without reading any page. Keys are never removed from the filter: after
+ * a remove or a rollback, the key is just a false positive.
+ * <p>
+ * The hash code of the keys must be stable (it is persisted), and equal keys
+ * must have the same hash code. There are about 10 bits per key and 7 hash
+ * functions, for a false positive rate of about 1%. When more keys are added
+ * than the filter was sized for, the map rebuilds it with twice the size.
+ * <p>
+ * The filter is stored in a map of the store in segments of 64 words, and
+ * only the segments that changed are written when the store is committed.
+ */
+public class BloomFilter {
+
+    /**
+     * The number of bits per key.
+     */
+    static final int BITS_PER_KEY = 10;
+
+    private static final int HASH_COUNT = 7;
+
+    /**
+     * The number of words of a stored segment.
+     */
+    private static final int SEGMENT_WORDS = 64;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final long capacity;
+    private volatile long count;
+
+    /**
+     * Whether a segment changed since it was last stored, by segment. A
+     * segment is marked after its bits are set.
+     */
+    private final AtomicIntegerArray dirty;
+
+    /**
+     * Whether keys were added since the filter was last stored.
+     */
+    private volatile boolean changed;
+
+    /**
+     * Whether the filter was not stored yet, so that the segments of an
+     * older filter of the map may need to be removed.
+     */
+    private boolean isNew;
+
+    /**
+     * Create an empty filter.
+     *
+     * @param capacity the number of keys it is sized for
+     */
+    BloomFilter(long capacity) {
+        capacity = Math.max(capacity, 1024);
+        this.capacity = capacity;
+        bits = new long[(int) Math.min(Integer.MAX_VALUE - 8,
+                (capacity * BITS_PER_KEY + 63) / 64)];
+        bitCount = bits.length * 64L;
+        dirty = new AtomicIntegerArray(getSegmentCount(bits.length));
+        for (int i = 0; i < dirty.length(); i++) {
+            dirty.set(i, 1);
+        }
+        changed = true;
+        isNew = true;
+    }
+
+    private BloomFilter(long[] bits, long capacity, long count) {
+        this.bits = bits;
+        this.bitCount = bits.length * 64L;
+        this.capacity = capacity;
+        this.count = count;
+        dirty = new AtomicIntegerArray(getSegmentCount(bits.length));
+    }
+
+    private static int getSegmentCount(int words) {
+        return (words + SEGMENT_WORDS - 1) / SEGMENT_WORDS;
+    }
+
+    private static long hash(Object key) {
+        // spread the bits of the 32 bit hash code over 64 bits
+        long h = key.hashCode() * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 31;
+        h *= 0xbf58476d1ce4e5b9L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Add a key. Only the map adds keys, while it is synchronized.
+     *
+     * @param key the key
+     * @param isNew whether the key was not in the map yet
+     */
+    void add(Object key, boolean isNew) {
+        long h = hash(key);
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long x = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            int w = (int) (x >>> 6);
+            bits[w] |= 1L << x;
+            dirty.set(w / SEGMENT_WORDS, 1);
+        }
+        if (isNew) {
+            count++;
+        }
+        changed = true;
+    }
+
+    /**
+     * Check if the key may be in the map.
+     *
+     * @param key the key
+     * @return false if the key is definitely not in the map
+     */
+    public boolean mightContain(Object key) {
+        long h = hash(key);
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long x = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int) (x >>> 6)] & (1L << x)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether more keys were added than the filter was sized for.
+     *
+     * @return true if it should be rebuilt
+     */
+    boolean isFull() {
+        return count > capacity;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Write the segments that changed since the last call, and the header,
+     * to the given map. The changed flags are reset before the segments are
+     * copied, so that a key that is added concurrently is written the next
+     * time.
+     *
+     * @param map the map of the stored filters
+     * @param mapId the id of the map of this filter
+     */
+    void store(MVMap<Long, long[]> map, int mapId) {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        for (int i = 0; i < dirty.length(); i++) {
+            if (dirty.getAndSet(i, 0) != 0) {
+                int from = i * SEGMENT_WORDS;
+                int to = Math.min(from + SEGMENT_WORDS, bits.length);
+                map.put(getKey(mapId, i), Arrays.copyOfRange(bits, from, to));
+            }
+        }
+        if (isNew) {
+            // the segments of an older, larger filter of the map
+            isNew = false;
+            removeSegments(map, mapId, dirty.length());
+        }
+        map.put(getKey(mapId, -1), new long[] { capacity, count, bits.length });
+    }
+
+    /**
+     * Read a stored filter.
+     *
+     * @param map the map of the stored filters
+     * @param mapId the id of the map of the filter
+     * @return the filter, or null if it is not stored
+     */
+    static BloomFilter read(MVMap<Long, long[]> map, int mapId) {
+        long[] header = map.get(getKey(mapId, -1));
+        if (header == null) {
+            return null;
+        }
+        long[] bits = new long[(int) header[2]];
+        for (int i = 0; i < getSegmentCount(bits.length); i++) {
+            long[] segment = map.get(getKey(mapId, i));
+            if (segment == null) {
+                return null;
+            }
+            System.arraycopy(segment, 0, bits, i * SEGMENT_WORDS, segment.length);
+        }
+        return new BloomFilter(bits, header[0], header[1]);
+    }
+
+    /**
+     * Remove the stored filter of a map.
+     *
+     * @param map the map of the stored filters
+     * @param mapId the id of the map of the filter
+     */
+    static void remove(MVMap<Long, long[]> map, int mapId) {
+        removeSegments(map, mapId, -1);
+    }
+
+    private static void removeSegments(MVMap<Long, long[]> map, int mapId, int from) {
+        long end = getKey(mapId + 1, -1);
+        ArrayList<Long> keys = new ArrayList<Long>();
+        for (Iterator<Long> it = map.keyIterator(getKey(mapId, from)); it.hasNext();) {
+            Long k = it.next();
+            if (k >= end) {
+                break;
+            }
+            keys.add(k);
+        }
+        for (Long k : keys) {
+            map.remove(k);
+        }
+    }
+
+    /**
+     * Get the key of a segment in the map of the stored filters. The header
+     * (capacity, count, number of words) is stored before the segments.
+     *
+     * @param mapId the id of the map of the filter
+     * @param segment the segment, or -1 for the header
+     * @return the key
+     */
+    static long getKey(int mapId, int segment) {
+        return ((long) mapId << 32) + segment + 1;
+    }
+
+}
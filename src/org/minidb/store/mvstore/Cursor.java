@@ -22,12 +22,18 @@ public class Cursor<K, V> implements Iterator<K> { //深度优先，然后到右
     private V currentValue, lastValue;
     private Page lastPage;
     private final Page root;
+    private final PageFilter filter;
     private boolean initialized;
 
     Cursor(MVMap<K, ?> map, Page root, K from) {
+        this(map, root, from, null);
+    }
+
+    Cursor(MVMap<K, ?> map, Page root, K from, PageFilter filter) {
         this.map = map;
         this.root = root;
         this.from = from;
+        this.filter = filter;
     }
 
     @Override
@@ -101,6 +107,17 @@ public class Cursor<K, V> implements Iterator<K> { //深度优先，然后到右
             } else {
                 x++;
             }
+            int childCount = map.getChildPageCount(p);
+            while (x < childCount && !accept(p, x)) {
+                //跳过整个子树，后面的子节点里的key都比from大
+                x++;
+                from = null;
+            }
+            if (x == childCount) {
+                //没有可以匹配的子节点，fetchNext会转到parent
+                pos = new CursorPos(p, x, pos);
+                break;
+            }
             //遍历完当前leaf page后，就转到parent page，然后就到右边的第一个兄弟page，
             //所以要x+1
             pos = new CursorPos(p, x + 1, pos);
@@ -124,11 +141,31 @@ public class Cursor<K, V> implements Iterator<K> { //深度优先，然后到右
             if (pos == null) {
                 break;
             }
-            if (pos.index < map.getChildPageCount(pos.page)) {
-                min(pos.page.getChildPage(pos.index++), null);
+            while (pos.index < map.getChildPageCount(pos.page)) {
+                int index = pos.index++;
+                if (accept(pos.page, index)) {
+                    min(pos.page.getChildPage(index), null);
+                    break;
+                }
             }
         }
         current = null;
     }
 
+    /**
+     * Check whether the child page can contain entries that match the
+     * filter.
+     *
+     * @param p the parent page
+     * @param index the child index
+     * @return false if the child page can be skipped
+     */
+    private boolean accept(Page p, int index) {
+        if (filter == null) {
+            return true;
+        }
+        Object summary = p.getChildSummary(index);
+        return summary == null || filter.test(summary);
+    }
+
 }
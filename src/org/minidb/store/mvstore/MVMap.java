@@ -31,6 +31,10 @@ public class MVMap<K, V> {
     private ArrayList<Page> oldRoots =
             new ArrayList<Page>();
 
+    private boolean bloomFilterEnabled;
+    private volatile BloomFilter bloomFilter;   //可选，key不在过滤器里就一定不在map里
+    private volatile PageSummaryType summaryType;   //可选，存page时在父节点里存每个子节点的摘要
+
     protected MVMap(DataType keyType, DataType valueType) {
         this.keyType = keyType;
         this.valueType = valueType;
@@ -51,10 +55,74 @@ public class MVMap<K, V> {
         Page p = root.copy(v);
         p = splitRootIfNeeded(p, v);
         Object result = put(p, v, key, value);
+        addToBloomFilter(p, key, result == null);
         newRoot(p);
         return (V) result;
     }
 
+    /**
+     * Add a key to the Bloom filter, if there is one. This is done before
+     * the new root is set, so that a reader that sees the new root also
+     * sees the key in the filter.
+     *
+     * @param newRoot the new root (not yet set)
+     * @param key the key
+     * @param isNew whether the key was not in the map yet
+     */
+    private void addToBloomFilter(Page newRoot, Object key, boolean isNew) {
+        BloomFilter f = bloomFilter;
+        if (f == null) {
+            return;
+        }
+        if (isNew && f.isFull()) {
+            bloomFilter = createBloomFilter(newRoot, f.getCount() * 2);
+        } else {
+            f.add(key, isNew);
+        }
+    }
+
+    private BloomFilter createBloomFilter(Page r, long capacity) {
+        BloomFilter f = new BloomFilter(capacity);
+        Cursor<K, V> c = new Cursor<K, V>(this, r, null);
+        while (c.hasNext()) {
+            f.add(c.next(), true);
+        }
+        return f;
+    }
+
+    /**
+     * Load the stored Bloom filter of this map, or build it from the keys if
+     * it was not stored. Called when the map is opened, if the map was opened
+     * with a Bloom filter.
+     */
+    void initBloomFilter() {
+        if (!bloomFilterEnabled) {
+            return;
+        }
+        Page r = root;
+        BloomFilter f = store.readBloomFilter(id);
+        if (f == null) {
+            f = createBloomFilter(r, r.getTotalCount() * 2);
+        }
+        bloomFilter = f;
+    }
+
+    BloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+
+    /**
+     * Check if the map may contain the key, using the Bloom filter. No page
+     * is read.
+     *
+     * @param key the key
+     * @return false if the key is definitely not in the map
+     */
+    public boolean mightContain(Object key) {
+        BloomFilter f = bloomFilter;
+        return f == null || f.mightContain(key);
+    }
+
     //通过memory属性判断是否需要分裂
     protected Page splitRootIfNeeded(Page p, long writeVersion) {
         if (p.getMemory() <= PAGE_SIZE || p.getKeyCount() <= 1) {    //大于4k则分裂
@@ -113,21 +181,29 @@ public class MVMap<K, V> {
     }
 
     //更新root，同时将旧版本的root放入oldRoots
+    //与store的commit互斥，store取快照时所有map的root都不会变
     protected void newRoot(Page newRoot) {
-        if (root != newRoot) {
-            removeUnusedOldVersions();
-            if (root.getVersion() != newRoot.getVersion()) {
-                Page last = oldRoots.size() == 0 ? null : oldRoots.get(oldRoots.size() - 1);
-                if (last == null || last.getVersion() != root.getVersion()) {
-                    oldRoots.add(root);
+        synchronized (store.rootLock) {
+            if (root != newRoot) {
+                removeUnusedOldVersions();
+                if (root.getVersion() != newRoot.getVersion()) {
+                    Page last = oldRoots.size() == 0 ? null : oldRoots.get(oldRoots.size() - 1);
+                    if (last == null || last.getVersion() != root.getVersion()) {
+                        oldRoots.add(root);
+                    }
                 }
+                root = newRoot;
             }
-            root = newRoot;
         }
     }
 
     public V get(Object key) {
-        return (V) binarySearch(root, key);
+        // read the root first, see addToBloomFilter
+        Page r = root;
+        if (!mightContain(key)) {
+            return null;
+        }
+        return (V) binarySearch(r, key);
     }
 
     //采用二分查找不断往下到叶子节点，查找到value
@@ -206,16 +282,18 @@ public class MVMap<K, V> {
     //rollback就是从oldRoots里找到所要版本的root，版本更加新的那些全部删掉
     //H2 rollbackTo主要是对内存数据库起作用，会保留5个老版本，对于使用硬盘存储的时候不会保留，只要这个版本在磁盘上存了，oldRoots里面就会删掉
     void rollbackTo(long version) {
-        if (root.getVersion() >= version) {
-            while (true) {
-                Page last = oldRoots.size() == 0 ? null : oldRoots.get(oldRoots.size()-1); //不断从oldRoots里找，不是就删，直到小于所要的版本的root
-                if (last == null) {
-                    break;
-                }
-                oldRoots.remove(last);
-                root = last;
-                if (root.getVersion() < version) {
-                    break;
+        synchronized (store.rootLock) {
+            if (root.getVersion() >= version) {
+                while (true) {
+                    Page last = oldRoots.size() == 0 ? null : oldRoots.get(oldRoots.size()-1); //不断从oldRoots里找，不是就删，直到小于所要的版本的root
+                    if (last == null) {
+                        break;
+                    }
+                    oldRoots.remove(last);
+                    root = last;
+                    if (root.getVersion() < version) {
+                        break;
+                    }
                 }
             }
         }
@@ -232,20 +310,24 @@ public class MVMap<K, V> {
                 store.getFileStore() == null)) {
             newest = r;
         } else {
-            Page last = oldRoots.size() == 0 ? null : oldRoots.get(0);
-            if (last == null || version < last.getVersion()) {
+            synchronized (store.rootLock) {
+                Page last = oldRoots.size() == 0 ? null : oldRoots.get(0);
+                if (last != null && version >= last.getVersion()) {
+                    Iterator<Page> it = oldRoots.iterator();
+                    while (it.hasNext()) {                     //找到小于等于所要版本的root
+                        Page p = it.next();
+                        if (p.getVersion() > version) {
+                            break;
+                        }
+                        last = p;
+                    }
+                    newest = last;
+                }
+            }
+            if (newest == null) {
                 // smaller than all in-memory versions
                 return store.openMapVersion(version, id, this);
             }
-            Iterator<Page> it = oldRoots.iterator();
-            while (it.hasNext()) {                     //找到小于等于所要版本的root
-                Page p = it.next();
-                if (p.getVersion() > version) {
-                    break;
-                }
-                last = p;
-            }
-            newest = last;
         }
         MVMap<K, V> m = openReadOnly();             //new一个新的map，设置为只读，这里暂时去掉，没有设置
         m.root = newest;
@@ -259,6 +341,8 @@ public class MVMap<K, V> {
         config.put("createVersion", createVersion);
         m.init(store ,config);
         m.root = root;
+        m.bloomFilter = bloomFilter;
+        m.summaryType = summaryType;
         return m;
     }
 
@@ -266,6 +350,191 @@ public class MVMap<K, V> {
         newRoot(Page.createEmpty(this, writeVersion));
     }
 
+    /**
+     * Load entries into an empty map. The entries must be sorted by key and
+     * the keys must be unique. Instead of inserting every entry from the root
+     * down, the leaf pages are filled one after the other, and the inner
+     * pages are built bottom-up from the first key of every child page.
+     * The new root is only set once all entries are read, so that the map is
+     * unchanged if the iterator throws an exception.
+     *
+     * @param entries the sorted entries
+     * @return the number of entries loaded
+     */
+    public synchronized long bulkLoad(Iterator<Map.Entry<K, V>> entries) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("Map is not empty: " + getName());
+        }
+        long v = writeVersion;
+        //先按顺序填满叶子节点
+        ArrayList<Page> level = new ArrayList<Page>();
+        ArrayList<Object> firstKeys = new ArrayList<Object>();
+        ArrayList<Object> keys = new ArrayList<Object>();
+        ArrayList<Object> values = new ArrayList<Object>();
+        int memory = 0;
+        long count = 0;
+        while (entries.hasNext()) {
+            Map.Entry<K, V> e = entries.next();
+            Object k = e.getKey();
+            Object value = e.getValue();
+            int mem = keyType.getMemory(k) + valueType.getMemory(value);
+            if (keys.size() > 1 && memory + mem > PAGE_SIZE) {
+                addLeaf(level, firstKeys, keys, values, v);
+                memory = 0;
+            }
+            keys.add(k);
+            values.add(value);
+            memory += mem;
+            count++;
+        }
+        if (keys.size() > 0 || level.isEmpty()) {
+            addLeaf(level, firstKeys, keys, values, v);
+        }
+        //再一层一层往上建内部节点，key为右边子节点的第一个key
+        while (level.size() > 1) {
+            ArrayList<Page> parents = new ArrayList<Page>();
+            ArrayList<Object> parentFirstKeys = new ArrayList<Object>();
+            int start = 0;
+            while (start < level.size()) {
+                int end = start + 1;
+                int mem = 16;
+                while (end < level.size()) {
+                    int m = keyType.getMemory(firstKeys.get(end)) + 16;
+                    if (end - start > 1 && mem + m > PAGE_SIZE) {
+                        break;
+                    }
+                    mem += m;
+                    end++;
+                }
+                if (end == level.size() - 1) {
+                    // don't leave a single child for the last node
+                    end++;
+                }
+                int childCount = end - start;
+                Object[] nodeKeys = new Object[childCount - 1];
+                Page.PageReference[] children = new Page.PageReference[childCount];
+                long totalCount = 0;
+                for (int i = 0; i < childCount; i++) {
+                    Page c = level.get(start + i);
+                    if (i > 0) {
+                        nodeKeys[i - 1] = firstKeys.get(start + i);
+                    }
+                    children[i] = new Page.PageReference(c, c.getPos(), c.getTotalCount());
+                    totalCount += c.getTotalCount();
+                }
+                parents.add(Page.create(this, v, nodeKeys, null, children, totalCount, 0));
+                parentFirstKeys.add(firstKeys.get(start));
+                start = end;
+            }
+            level = parents;
+            firstKeys = parentFirstKeys;
+        }
+        if (bloomFilter != null) {
+            bloomFilter = createBloomFilter(level.get(0), count * 2);
+        }
+        newRoot(level.get(0));
+        return count;
+    }
+
+    private void addLeaf(ArrayList<Page> level, ArrayList<Object> firstKeys,
+                         ArrayList<Object> keys, ArrayList<Object> values, long v) {
+        Object[] k = keys.toArray();
+        Object[] val = values.toArray();
+        level.add(Page.create(this, v, k, val, null, k.length, 0));
+        firstKeys.add(k.length == 0 ? null : k[0]);
+        keys.clear();
+        values.clear();
+    }
+
+    /**
+     * Get the key at the given index. The entry counts of the child pages
+     * are used to descend, so that only one page per level is read; this
+     * allows to pick uniformly distributed random samples.
+     *
+     * @param index the index (0 is the first key)
+     * @return the key, or null if the index is out of range
+     */
+    @SuppressWarnings("unchecked")
+    public K getKey(long index) {
+        Page p = root;
+        if (index < 0 || index >= p.getTotalCount()) {
+            return null;
+        }
+        long offset = 0;
+        while (!p.isLeaf()) {
+            int i = 0, size = getChildPageCount(p);
+            for (; i < size; i++) {
+                long c = p.getCounts(i);
+                if (index < offset + c) {
+                    break;
+                }
+                offset += c;
+            }
+            if (i == size) {
+                return null;
+            }
+            p = p.getChildPage(i);
+        }
+        int x = (int) (index - offset);
+        return x < p.getKeyCount() ? (K) p.getKey(x) : null;
+    }
+
+    /**
+     * Get keys that split the map into about the given number of ranges of
+     * similar size. Only the inner pages are read: the separator keys of the
+     * first levels that contain enough of them are used.
+     *
+     * @param count the number of ranges
+     * @return the split keys in ascending order (at most count - 1)
+     */
+    @SuppressWarnings("unchecked")
+    public List<K> getSplitKeys(int count) {
+        ArrayList<K> result = new ArrayList<K>();
+        if (count <= 1) {
+            return result;
+        }
+        Page r = root;
+        ArrayList<Object> separators = new ArrayList<Object>();
+        for (int depth = 1; ; depth++) {
+            separators.clear();
+            boolean leafReached = collectSeparators(r, depth, separators);
+            if (separators.size() >= count - 1 || leafReached) {
+                break;
+            }
+        }
+        int size = separators.size();
+        if (size == 0) {
+            return result;
+        }
+        int parts = Math.min(count, size + 1);
+        for (int i = 1; i < parts; i++) {
+            K k = (K) separators.get((int) ((long) i * size / parts));
+            if (result.isEmpty() || keyType.compare(result.get(result.size() - 1), k) < 0) {
+                result.add(k);
+            }
+        }
+        return result;
+    }
+
+    private boolean collectSeparators(Page p, int depth, ArrayList<Object> separators) {
+        if (p.isLeaf()) {
+            return true;
+        }
+        boolean leafReached = false;
+        int keyCount = p.getKeyCount();
+        for (int i = 0; i <= keyCount; i++) {
+            if (depth > 1) {
+                leafReached |= collectSeparators(p.getChildPage(i), depth - 1, separators);
+            } else if (p.getChildPage(i).isLeaf()) {
+                leafReached = true;
+            }
+            if (i < keyCount) {
+                separators.add(p.getKey(i));
+            }
+        }
+        return leafReached;
+    }
+
     String asString(String name) {
         StringBuilder buff = new StringBuilder();
         if (name != null) {
@@ -294,6 +563,7 @@ public class MVMap<K, V> {
     }
 
     //主要是对内存数据库起作用，会保留5个老版本，对于使用硬盘存储的时候不会保留，只要这个版本在磁盘上存了，oldRoots里面就会删掉
+    //调用者要持有store.rootLock
     void removeUnusedOldVersions() {
         long oldest = getOldestVersionToKeep();
         if (oldest == -1) {
@@ -418,6 +688,42 @@ public class MVMap<K, V> {
         return new Cursor<K, V>(this, root, from);
     }
 
+    /**
+     * Get a cursor that skips the stored pages the filter rejects.
+     *
+     * @param from the first key to return
+     * @param filter the filter, or null
+     * @return the cursor
+     */
+    public Cursor<K, V> cursor(K from, PageFilter filter) {
+        return new Cursor<K, V>(this, root, from, filter);
+    }
+
+    /**
+     * Set the type of the page summaries. Pages that are stored afterwards
+     * contain the summaries of their children.
+     *
+     * @param summaryType the summary type
+     */
+    public synchronized void setSummaryType(PageSummaryType summaryType) {
+        this.summaryType = summaryType;
+        Page r = root;
+        if (summaryType != null && !r.isLeaf() && r.getPos() != 0) {
+            //root是在没有摘要类型时读的，子节点的摘要没有读出来，重新读一次
+            Page p = readPage(r.getPos());
+            p.setVersion(r.getVersion());
+            synchronized (store.rootLock) {
+                if (root == r) {
+                    root = p;
+                }
+            }
+        }
+    }
+
+    public PageSummaryType getSummaryType() {
+        return summaryType;
+    }
+
     public synchronized V putIfAbsent(K key, V value) {
         V old = get(key);
         if (old == null) {
@@ -563,6 +869,7 @@ public class MVMap<K, V> {
 
         protected DataType keyType;
         protected DataType valueType;
+        protected boolean bloomFilter;
 
         /**
          * Create a new builder with the default key and value data types.
@@ -601,6 +908,18 @@ public class MVMap<K, V> {
             return this;
         }
 
+        /**
+         * Keep a Bloom filter over the keys, so that lookups of keys that
+         * don't exist don't read any page. The hash code of the keys must be
+         * stable, see {@link BloomFilter}.
+         *
+         * @return this
+         */
+        public Builder<K, V> bloomFilter() {
+            this.bloomFilter = true;
+            return this;
+        }
+
         public MVMap<K, V> create() {
             if (keyType == null) {
                 keyType = new ObjectDataType();
@@ -608,7 +927,9 @@ public class MVMap<K, V> {
             if (valueType == null) {
                 valueType = new ObjectDataType();
             }
-            return new MVMap<K, V>(keyType, valueType);
+            MVMap<K, V> map = new MVMap<K, V>(keyType, valueType);
+            map.bloomFilterEnabled = bloomFilter;
+            return map;
         }
 
     }
@@ -14,6 +14,12 @@ public class MVStore {
 
     static final int BLOCK_SIZE = 4 * 1024;
 
+    /**
+     * The name of the map of the stored Bloom filters. Key: mapId and
+     * segment, see {@link BloomFilter#getKey}, value: the words.
+     */
+    private static final String BLOOM_FILTER_MAP = "bloomFilter";
+
     long currentVersion;
     private volatile long currentStoreVersion = -1;
     int lastMapId;
@@ -25,6 +31,19 @@ public class MVStore {
     private long lastStoredVersion;
     private volatile boolean metaChanged;
 
+    /**
+     * Held while the root of a map is replaced, and while the roots of the
+     * maps are collected for storing, so that a chunk contains the state of
+     * all maps at the same point in time.
+     */
+    final Object rootLock = new Object();
+
+    /**
+     * The map of the stored Bloom filters, or null if it was not opened yet.
+     * Only used while synchronized on the store.
+     */
+    private MVMap<Long, long[]> bloomFilterMap;
+
 
     private WriteBuffer writeBuffer;
     private HashMap<String, Object> storeHeader = new HashMap();
@@ -102,7 +121,7 @@ public class MVStore {
         }
     }
 
-    public long commit() {
+    public synchronized long commit() {
         if( fileStore != null){
             if (!hasUnsavedChanges()) {
 //                System.out.println("没有unsaved");
@@ -135,23 +154,32 @@ public class MVStore {
     private long storeNowTry() {
         freeUnusedChunks();   //还没写，删掉老的chunk
 
-        long storeVersion = currentVersion;
-        long version = ++currentVersion;
-        setWriteVersion(version);
-
-        ArrayList<MVMap<?, ?>> list = new ArrayList(maps.values());
+        long storeVersion;
+        long version;
+        ArrayList<MVMap<?, ?>> list;
         ArrayList<MVMap<?, ?>> changed = new ArrayList();
-        for (MVMap<?, ?> m : list) {          //通过版本的判断找到所有发生改变的map
-            m.setWriteVersion(version);
-            long v = m.getVersion();
-            if (m.getCreateVersion() > storeVersion) {
-                // the map was created after storing started
-                continue;
-            }
-            if (v >= 0 && v >= lastStoredVersion) {
-                MVMap<?, ?> r = m.openVersion(storeVersion);
-                if (r.getRoot().getPos() == 0) {
-                    changed.add(r);
+        // no root is replaced while the changed maps are collected
+        synchronized (rootLock) {
+            //Bloom过滤器在取快照之前写进bloomFilter map，和map的root存在同一个chunk里；
+            //root已经换上的key都已经在过滤器里，所以存下的过滤器包含快照里所有的key
+            storeBloomFilters();
+            list = new ArrayList(maps.values());
+            storeVersion = currentVersion;
+            version = ++currentVersion;
+            setWriteVersion(version);
+
+            for (MVMap<?, ?> m : list) {          //通过版本的判断找到所有发生改变的map
+                m.setWriteVersion(version);
+                long v = m.getVersion();
+                if (m.getCreateVersion() > storeVersion) {
+                    // the map was created after storing started
+                    continue;
+                }
+                if (v >= 0 && v >= lastStoredVersion) {
+                    MVMap<?, ?> r = m.openVersion(storeVersion);
+                    if (r.getRoot().getPos() == 0) {
+                        changed.add(r);
+                    }
                 }
             }
         }
@@ -218,9 +246,51 @@ public class MVStore {
         return version;
     }
 
-    private void revertTemp(long storeVersion) {
+    /**
+     * Write the changed segments of the Bloom filters. The stored filter of a
+     * map that was changed without maintaining its filter is removed, as it
+     * may not contain the new keys. The caller must hold the root lock.
+     */
+    private void storeBloomFilters() {
         for (MVMap<?, ?> m : maps.values()) {
-            m.removeUnusedOldVersions();
+            if (m == bloomFilterMap) {
+                continue;
+            }
+            BloomFilter f = m.getBloomFilter();
+            if (f != null) {
+                f.store(getBloomFilterMap(true), m.getId());
+            } else if (m.getVersion() >= 0 && m.getVersion() >= lastStoredVersion) {
+                MVMap<Long, long[]> b = getBloomFilterMap(false);
+                if (b != null && b.containsKey(BloomFilter.getKey(m.getId(), -1))) {
+                    BloomFilter.remove(b, m.getId());
+                }
+            }
+        }
+    }
+
+    private MVMap<Long, long[]> getBloomFilterMap(boolean create) {
+        if (bloomFilterMap == null && (create || hasMap(BLOOM_FILTER_MAP))) {
+            bloomFilterMap = openMap(BLOOM_FILTER_MAP, new MVMap.Builder<Long, long[]>());
+        }
+        return bloomFilterMap;
+    }
+
+    /**
+     * Read the stored Bloom filter of a map.
+     *
+     * @param mapId the map id
+     * @return the filter, or null if it is not stored
+     */
+    synchronized BloomFilter readBloomFilter(int mapId) {
+        MVMap<Long, long[]> b = getBloomFilterMap(false);
+        return b == null ? null : BloomFilter.read(b, mapId);
+    }
+
+    private void revertTemp(long storeVersion) {
+        synchronized (rootLock) {
+            for (MVMap<?, ?> m : maps.values()) {
+                m.removeUnusedOldVersions();
+            }
         }
     }
 
@@ -311,6 +381,7 @@ public class MVStore {
             root = 0;
         }
         map.setRootPos(root, -1);
+        map.initBloomFilter();
         maps.put(id, map);              //在maps里放入这个map
         return map;
     }
@@ -631,6 +702,27 @@ public class MVStore {
         return meta.containsKey("name." + name);
     }
 
+    /**
+     * Rename a map. Only the meta data is changed, not the pages.
+     *
+     * @param map the map
+     * @param newName the new name
+     */
+    public synchronized void renameMap(MVMap<?, ?> map, String newName) {
+        int id = map.getId();
+        String oldName = getMapName(id);
+        if (oldName.equals(newName)) {
+            return;
+        }
+        if (hasMap(newName)) {
+            throw new IllegalArgumentException("A map named " + newName + " already exists");
+        }
+        markMetaChanged();
+        meta.remove("name." + oldName);
+        meta.put(MVMap.getMapKey(id), map.asString(newName));
+        meta.put("name." + newName, Integer.toHexString(id));
+    }
+
     public Map<String, Object> getStoreHeader() {
         return storeHeader;
     }
@@ -676,6 +768,10 @@ public class MVStore {
         meta.remove("name." + name);
         meta.remove(MVMap.getMapRootKey(id));
         maps.remove(id);
+        MVMap<Long, long[]> b = getBloomFilterMap(false);
+        if (b != null) {
+            BloomFilter.remove(b, id);
+        }
     }
 
     public void setAutoCommitDelay(int millis) {
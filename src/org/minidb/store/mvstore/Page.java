@@ -13,6 +13,12 @@ public class Page {
 
     public static final Object[] EMPTY_OBJECT_ARRAY = new Object[0];
 
+    /**
+     * The bit of the page type that is set if the node page contains the
+     * summaries of the children.
+     */
+    private static final int PAGE_HAS_SUMMARIES = 4;
+
     private final MVMap<?, ?> map;
     private long version;
     private long totalCount;
@@ -23,6 +29,12 @@ public class Page {
     private PageReference[] children;
     private long pos;       //由chunkid，在chunk里的offset，length，type（叶子还是内部节点）共同组成
 
+    /**
+     * The summary of the values, computed when the page is stored (see
+     * {@link PageSummaryType}), or null.
+     */
+    private Object summary;
+
     Page(MVMap<?, ?> map, long version) {
         this.map = map;
         this.version = version;
@@ -316,21 +328,20 @@ public class Page {
             // already stored before
             return;
         }
-        int patch = write(c, buff);
         if (!isLeaf()) {
+            //先写子节点：父节点里要存子节点的pos和摘要（摘要的长度不固定，不能回填）
             int len = children.length;
             for (int i = 0; i < len; i++) {
                 Page p = children[i].page;
                 if (p != null) {
+                    boolean unsaved = p.pos == 0;
                     p.writeUnsavedRecursive(c, buff);
-                    children[i] = new PageReference(p, p.getPos(), p.totalCount);    //这里看上去只更新了children的pos，要这么重新new一个吗？
+                    Object s = unsaved ? p.summary : children[i].summary;
+                    children[i] = new PageReference(p, p.getPos(), p.totalCount, s);
                 }
             }
-            int old = buff.position();  //记录最终位置
-            buff.position(patch);       //跳到要回填的位置
-            writeChildren(buff); //writeChildren(chunk, buff)中的children pos可能为0，在这回填一次
-            buff.position(old);         //回到最终位置
         }
+        write(c, buff);
     }
 
     private void writeChildren(WriteBuffer buff) {
@@ -353,17 +364,31 @@ public class Page {
         int len = keys.length;
         int type = children != null ? 1     //1表示内部节点
                 : 0;                        //0表示叶子
+        PageSummaryType summaryType = map.getSummaryType();
+        summary = summaryType == null ? null : summarize(summaryType);
+        boolean withSummaries = type == 1 && summaryType != null;
         buff.putInt(0).                     //先放一个固定4个字节的int的0，占个位置，后面会改为pageLength
                 putShort((byte) 0).         //放一个固定2个字节的short的0，占个位置，后面会改为check
                 putVarInt(map.getId()).     //放一个可变的，根据大小决定字节数的mapID
                 putVarInt(len);             //放一个可变的keys.length
         int typePos = buff.position();
-        buff.put((byte) type);              //放一个字节的type
+        buff.put((byte) (withSummaries ? type | PAGE_HAS_SUMMARIES : type)); //放一个字节的type
         if (type == 1) {    //内部
-            writeChildren(buff); //写所有children的pos，此时pagePos可能为0，在writeUnsavedRecursive中再回填一次
+            writeChildren(buff); //写所有children的pos
             for (int i = 0; i <= len; i++) { //keys.length + 1 才等于 children.length
                 buff.putVarLong(children[i].count);
             }
+            if (withSummaries) {
+                //每个子节点的摘要：长度 + 内容，长度为0表示没有摘要
+                for (int i = 0; i <= len; i++) {
+                    int lenPos = buff.position();
+                    buff.putInt(0);
+                    if (children[i].summary != null) {
+                        summaryType.write(buff, children[i].summary);
+                    }
+                    buff.putInt(lenPos, buff.position() - lenPos - 4);
+                }
+            }
         }
         map.getKeyType().write(buff, keys, len, true); //将keys里面每个key的长度与key的内容写入buff
         if (type == 0) {    //叶子
@@ -384,10 +409,33 @@ public class Page {
         return typePos + 1;       //返回type所放的位置加1
     }
 
+    /**
+     * Compute the summary of this page: of the values for a leaf, of the
+     * summaries of the children for a node.
+     *
+     * @param summaryType the summary type
+     * @return the summary, or null if unknown
+     */
+    private Object summarize(PageSummaryType summaryType) {
+        if (isLeaf()) {
+            return keys.length == 0 ? null : summaryType.summarize(values, keys.length);
+        }
+        Object[] list = new Object[children.length];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = children[i].summary;
+            if (list[i] == null) {
+                return null;
+            }
+        }
+        return summaryType.merge(list, list.length);
+    }
+
     static Page read(FileStore fileStore, long pos, MVMap<?, ?> map,
                      long filePos, long maxPos) {
         ByteBuffer buff;
         int length = DataUtil.getPageMaxLength(pos);
+        //最大长度是估计的，不能读到chunk外面（可能是文件末尾）
+        length = (int) Math.min(maxPos - filePos, length);
         buff = fileStore.readFully(filePos, length);
         Page p = new Page(map, 0);
         p.pos = pos;
@@ -420,10 +468,23 @@ public class Page {
                 p[i] = buff.getLong();
             }
             long total = 0;
+            long[] counts = new long[len + 1];
             for (int i = 0; i <= len; i++) {
-                long s = DataUtil.readVarLong(buff);
-                total += s;
-                children[i] = new PageReference(null, p[i], s);
+                counts[i] = DataUtil.readVarLong(buff);
+                total += counts[i];
+            }
+            PageSummaryType summaryType = map.getSummaryType();
+            for (int i = 0; i <= len; i++) {
+                Object s = null;
+                if ((type & PAGE_HAS_SUMMARIES) != 0) {
+                    int summaryLength = buff.getInt();
+                    int end = buff.position() + summaryLength;
+                    if (summaryLength > 0 && summaryType != null) {
+                        s = summaryType.read(buff);
+                    }
+                    buff.position(end);
+                }
+                children[i] = new PageReference(null, p[i], counts[i], s);
             }
             totalCount = total;
         }
@@ -479,6 +540,16 @@ public class Page {
         return version;
     }
 
+    /**
+     * Get the number of entries in the given child page.
+     *
+     * @param index the child index
+     * @return the number of entries
+     */
+    public long getCounts(int index) {
+        return children[index].count;
+    }
+
     public int getRawChildPageCount() {
         return children.length;
     }
@@ -487,16 +558,37 @@ public class Page {
         return pos;
     }
 
+    /**
+     * Get the summary of the given child page, if it is stored.
+     *
+     * @param index the child index
+     * @return the summary, or null
+     */
+    Object getChildSummary(int index) {
+        return children[index].summary;
+    }
+
     /*-----------------------------------------------------------------------------------------------------------*/
     public static class PageReference {
         final Page page;
         final long pos;
         final long count;
 
+        /**
+         * The summary of the page, or null if the page is not stored or the
+         * map has no summary type.
+         */
+        final Object summary;
+
         public PageReference(Page page, long pos,long count) {
+            this(page, pos, count, null);
+        }
+
+        PageReference(Page page, long pos, long count, Object summary) {
             this.page = page;
             this.pos = pos;
             this.count = count;
+            this.summary = summary;
         }
     }
 
@@ -0,0 +1,17 @@
+package org.minidb.store.mvstore;
+
+/**
+ * Decides, using the summaries of the pages (see {@link PageSummaryType}),
+ * which pages a cursor can skip.
+ */
+public interface PageFilter {
+
+    /**
+     * Check whether the page can contain entries that match.
+     *
+     * @param summary the summary of the page
+     * @return false if the page can be skipped
+     */
+    boolean test(Object summary);
+
+}
@@ -0,0 +1,51 @@
+package org.minidb.store.mvstore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Computes a small summary of the values of a page, for example the smallest
+ * and the largest value of each column (a zone map). When a page is stored,
+ * its summary is stored in the parent page, next to the position of the
+ * page, so that a cursor with a {@link PageFilter} can skip the page and all
+ * its children without reading them.
+ * <p>
+ * Only stored pages have a summary: if a page is changed, the summary in the
+ * parent is removed until the page is stored again.
+ */
+public interface PageSummaryType {
+
+    /**
+     * Summarize the values of a leaf page.
+     *
+     * @param values the values
+     * @param len the number of values
+     * @return the summary, or null if the values can't be summarized
+     */
+    Object summarize(Object[] values, int len);
+
+    /**
+     * Combine the summaries of the children of a page.
+     *
+     * @param summaries the summaries (not null)
+     * @param len the number of summaries
+     * @return the summary of the page
+     */
+    Object merge(Object[] summaries, int len);
+
+    /**
+     * Write a summary.
+     *
+     * @param buff the target buffer
+     * @param summary the summary
+     */
+    void write(WriteBuffer buff, Object summary);
+
+    /**
+     * Read a summary.
+     *
+     * @param buff the source buffer
+     * @return the summary
+     */
+    Object read(ByteBuffer buff);
+
+}
@@ -9,10 +9,16 @@ import org.minidb.store.mvstore.type.DataType;
 import org.minidb.store.mvstore.type.ObjectDataType;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * A store that supports concurrent MVCC read-committed transactions.
@@ -33,6 +39,75 @@ public class TransactionStore {
      */
     final MVMap<Long, Object[]> undoLog;
 
+    /**
+     * The undo log spill maps of the transactions that went over the undo
+     * memory budget, by transaction id. Only accessed while synchronized on
+     * the undo log.
+     * <p>
+     * Key: opId, value: [ mapId, key, oldValue ].
+     */
+    private final HashMap<Integer, MVMap<Long, Object[]>> spillMaps = new HashMap<>();
+
+    /**
+     * The number of undo log entries that are processed at once when a spill
+     * map is committed or rolled back. The undo log monitor is released
+     * between batches, so that other transactions are not blocked.
+     */
+    private static final int SPILL_BATCH_SIZE = 1024;
+
+    private final ArrayType undoLogValueType;
+
+    /**
+     * The transactions that are committed, but whose entries were not yet
+     * rewritten to the committed form by the cleanup worker. Entries of these
+     * transactions are read as committed. Only accessed while synchronized on
+     * the undo log.
+     */
+    private final BitSet committedTransactions = new BitSet();
+
+    /**
+     * The transactions that are committed, but not yet cleaned up. The entry
+     * is stored together with the commit, and removed by the cleanup, so that
+     * the cleanup can be finished when the store is opened after a crash.
+     * <p>
+     * Key: transactionId, value: [ maxLogId, spillLogId, spillMapName ].
+     */
+    final MVMap<Integer, Object[]> committedLog;
+
+    /**
+     * The committed transactions that wait for the cleanup worker.
+     */
+    private final LinkedBlockingQueue<Transaction> cleanupQueue =
+            new LinkedBlockingQueue<Transaction>();
+
+    /**
+     * The committed transactions whose cleanup failed in the cleanup worker.
+     * The cleanup is tried again when the next transaction begins, and when
+     * the store is closed.
+     */
+    private final LinkedBlockingQueue<Transaction> failedCleanups =
+            new LinkedBlockingQueue<Transaction>();
+
+    /**
+     * Held while the entries of one transaction are cleaned up.
+     */
+    private final Object cleanupLock = new Object();
+
+    private Thread cleanupThread;
+
+    /**
+     * The number of undo log entries that are cleaned up at once. The undo
+     * log monitor is released between batches.
+     */
+    private static final int CLEANUP_BATCH_SIZE = 1024;
+
+    /**
+     * The maximum memory, in bytes, that the undo log entries of one
+     * transaction may use in the shared undo log. Later entries are written
+     * to a spill map of the transaction. 0 means no limit.
+     */
+    private long undoMemoryBudget = 16 * 1024 * 1024;
+
     /**
      * The map of maps.
      */
@@ -40,8 +115,29 @@ public class TransactionStore {
 
     private final DataType dataType;
 
+    /**
+     * The message of the exception that is thrown when an entry is locked by
+     * another transaction.
+     */
+    public static final String ERROR_TRANSACTION_LOCKED = "Entry is locked";
+
     private final BitSet openTransactions = new BitSet();
 
+    /**
+     * The open transactions by transaction id, so that the owner of an
+     * uncommitted entry can be found.
+     */
+    private final HashMap<Integer, Transaction> transactions =
+            new HashMap<Integer, Transaction>();
+
+    /**
+     * The number of open transactions that have written to the undo log.
+     * Transactions in openTransactions that only read are not counted. While
+     * this is 0, every entry of every map is committed, so that reads do not
+     * need to look at the undo log.
+     */
+    private volatile int openWriters;
+
     private int nextTempMapId;
 
     /**
@@ -63,18 +159,97 @@ public class TransactionStore {
         this.store = store;
         this.dataType = dataType;
         VersionedValueType oldValueType = new VersionedValueType(dataType);
-        ArrayType undoLogValueType = new ArrayType(new DataType[]{
+        undoLogValueType = new ArrayType(new DataType[]{
                 new ObjectDataType(), dataType, oldValueType
         });
         MVMap.Builder<Long, Object[]> builder =
                 new MVMap.Builder<Long, Object[]>().
                 valueType(undoLogValueType);
         undoLog = store.openMap("undoLog", builder);
+        MVMap.Builder<Integer, Object[]> committedBuilder =
+                new MVMap.Builder<Integer, Object[]>().
+                valueType(new ArrayType(new DataType[]{
+                        new ObjectDataType(), new ObjectDataType(), new ObjectDataType()
+                }));
+        committedLog = store.openMap("undoLog.committed", committedBuilder);
         //TransactionStore 主要维护了一个 undoLog的 MVMap
         //undoLog的Key: opId, value: [ mapId, key, oldValue ].
         //opId为transactionId和logId共同构成，通过opId就能确定是哪一个transaction，是哪一个修改（通过logid）
         //存放到MVMap里的数据的键值对的值的类型VersionedValue都含有属性operationId（即opId），不为0表示还未提交，为0表示已提交
         //这里的提交，未提交是指是否已经调用commit方法，将undoLog里面对应的项去掉，同时将map里的值更新为一个operationId的值，然后会调用MVStore里的commit方法
+        finishCommitted();
+        rollbackOpen();
+        removeTempMaps();
+    }
+
+    /**
+     * Finish the cleanup of the transactions that were committed before the
+     * store was closed, so that their entries are read as committed by the
+     * transactions that begin later.
+     */
+    private void finishCommitted() {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for (Iterator<Integer> it = committedLog.keyIterator(null); it.hasNext();) {
+            ids.add(it.next());
+        }
+        for (Integer id : ids) {
+            Object[] c = committedLog.get(id);
+            Transaction t = new Transaction(this, id, Transaction.STATUS_CLOSED, null, 0);
+            t.commitLogId = (Long) c[0];
+            if (c[2] != null) {
+                t.spill = openSpillMap((String) c[2]);
+                t.spillLogId = (Long) c[1];
+                spillMaps.put(id, t.spill);
+            }
+            committedTransactions.set(id);
+            openTransactions.set(id);
+            cleanup(t);
+        }
+    }
+
+    /**
+     * Roll back the entries of the transactions that were still open when
+     * the store was closed: first the spill maps, then the shared undo log,
+     * newest entry first. The spill maps are removed with the other
+     * temporary maps afterwards.
+     */
+    private void rollbackOpen() {
+        for (String mapName : getTempMapNames("temp.undo.")) {
+            rollbackAll(openSpillMap(mapName));
+        }
+        rollbackAll(undoLog);
+    }
+
+    private void rollbackAll(MVMap<Long, Object[]> log) {
+        synchronized (undoLog) {
+            for (Long k = log.lastKey(); k != null; k = log.lowerKey(k)) {
+                rollbackEntry(log.get(k));
+            }
+            log.clear();
+        }
+    }
+
+    /**
+     * Remove the temporary maps that are left over from before the store
+     * was closed, so that the names can be used again.
+     */
+    private void removeTempMaps() {
+        for (String mapName : getTempMapNames("temp.")) {
+            store.removeMap(store.openMap(mapName));
+        }
+    }
+
+    private ArrayList<String> getTempMapNames(String prefix) {
+        String key = "name." + prefix;
+        ArrayList<String> names = new ArrayList<String>();
+        for (Iterator<String> it = store.getMetaMap().keyIterator(key); it.hasNext();) {
+            String k = it.next();
+            if (!k.startsWith(key)) {
+                break;
+            }
+            names.add(k.substring("name.".length()));
+        }
+        return names;
     }
 
     /**
@@ -111,8 +286,28 @@ public class TransactionStore {
     /**
      * Close the transaction store.
      */
-    public synchronized void close() {
-        store.commit();
+    public void close() {
+        // finish the pending cleanup in this thread
+        Transaction t;
+        while ((t = cleanupQueue.poll()) != null) {
+            cleanup(t);
+        }
+        retryFailedCleanups();
+        synchronized (cleanupLock) {
+            synchronized (this) {
+                store.commit();
+            }
+        }
+    }
+
+    /**
+     * Set the maximum memory that the undo log entries of one transaction may
+     * use in the shared undo log.
+     *
+     * @param bytes the budget in bytes, 0 for no limit
+     */
+    public void setUndoMemoryBudget(long bytes) {
+        this.undoMemoryBudget = bytes;
     }
 
     /**
@@ -120,13 +315,79 @@ public class TransactionStore {
      *
      * @return the transaction
      */
-    public synchronized Transaction begin() {
-        int transactionId;
-        int status;
-        transactionId = openTransactions.nextClearBit(1);
-        openTransactions.set(transactionId);
-        status = Transaction.STATUS_OPEN;
-        return new Transaction(this, transactionId, status, null, 0);
+    public Transaction begin() {
+        retryFailedCleanups();
+        synchronized (this) {
+            int transactionId;
+            int status;
+            transactionId = openTransactions.nextClearBit(1);
+            openTransactions.set(transactionId);
+            status = Transaction.STATUS_OPEN;
+            Transaction t = new Transaction(this, transactionId, status, null, 0);
+            transactions.put(transactionId, t);
+            return t;
+        }
+    }
+
+    /**
+     * Begin a new read-only transaction. Such a transaction does not use a
+     * transaction id, and reads committed entries without synchronizing on
+     * the undo log.
+     *
+     * @return the transaction
+     */
+    public Transaction beginReadOnly() {
+        Transaction t = new Transaction(this, 0, Transaction.STATUS_OPEN, null, 0);
+        t.readOnly = true;
+        return t;
+    }
+
+    /**
+     * Check whether any open transaction has uncommitted changes.
+     *
+     * @return true if there is at least one such transaction
+     */
+    public boolean hasOpenWriters() {
+        return openWriters != 0;
+    }
+
+    /**
+     * Begin a new optimistic transaction. Such a transaction does not write
+     * to the undo log and does not own any rows while it is open: changes are
+     * buffered, and at commit the versions that were read are validated
+     * before all buffered changes are applied in one batch.
+     * <p>
+     * Only the entries that were read are validated: a range scan does not
+     * detect an entry that another transaction added to the range in the
+     * meantime (a phantom row).
+     *
+     * @return the transaction
+     */
+    public Transaction beginOptimistic() {
+        retryFailedCleanups();
+        synchronized (this) {
+            int transactionId = openTransactions.nextClearBit(1);
+            openTransactions.set(transactionId);
+            Transaction t = new Transaction(this, transactionId, Transaction.STATUS_OPEN,
+                    null, 0, true);
+            transactions.put(transactionId, t);
+            return t;
+        }
+    }
+
+    /**
+     * Get the open transaction with the given id.
+     *
+     * @param transactionId the transaction id
+     * @return the transaction, or null if it is committed or closed
+     */
+    synchronized Transaction getOpenTransaction(int transactionId) {
+        Transaction t = transactions.get(transactionId);
+        if (t == null || t.getStatus() == Transaction.STATUS_CLOSED ||
+                t.getStatus() == Transaction.STATUS_COMMITTING) {
+            return null;
+        }
+        return t;
     }
 
     /**
@@ -140,11 +401,76 @@ public class TransactionStore {
      */
     void log(Transaction t, long logId, int mapId,
             Object key, Object oldValue) {
+        if (!t.writer) {
+            markWriter(t);
+        }
         Long undoKey = getOperationId(t.getId(), logId);
         Object[] log = new Object[] { mapId, key, oldValue };
         synchronized (undoLog) {
+            // the same rule as when the entry is read: entries before the
+            // spill log id are in the shared undo log, even if they are
+            // written again after a rollback
+            if (t.spill != null && logId >= t.spillLogId) {
+                t.spill.put(undoKey, log);
+                return;
+            }
             undoLog.put(undoKey, log);
+            if (undoMemoryBudget > 0) {
+                t.undoMemory += undoLogValueType.getMemory(log);
+                if (t.spill == null && t.undoMemory > undoMemoryBudget) {
+                    // the following entries go to the spill map
+                    t.spill = openSpillMap();
+                    t.spillLogId = logId + 1;
+                    spillMaps.put(t.transactionId, t.spill);
+                }
+            }
+        }
+    }
+
+    private synchronized MVMap<Long, Object[]> openSpillMap() {
+        return openSpillMap("temp.undo." + nextTempMapId++);
+    }
+
+    private synchronized MVMap<Long, Object[]> openSpillMap(String mapName) {
+        MVMap.Builder<Long, Object[]> builder =
+                new MVMap.Builder<Long, Object[]>().
+                valueType(undoLogValueType);
+        return store.openMap(mapName, builder);
+    }
+
+    /**
+     * Get an undo log entry, which is either in the shared undo log or in the
+     * spill map of the transaction. The caller must synchronize on the undo
+     * log.
+     *
+     * @param opId the operation id
+     * @return the entry, or null if there is none
+     */
+    Object[] getUndo(Long opId) {
+        Object[] d = undoLog.get(opId);
+        if (d == null && !spillMaps.isEmpty()) {
+            MVMap<Long, Object[]> spill = spillMaps.get(getTransactionId(opId));
+            if (spill != null) {
+                d = spill.get(opId);
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Remove the spill map of a transaction after its entries were committed
+     * or rolled back.
+     *
+     * @param t the transaction
+     */
+    private void removeSpill(Transaction t) {
+        synchronized (undoLog) {
+            spillMaps.remove(t.transactionId);
         }
+        store.removeMap(t.spill);
+        t.spill = null;
+        t.spillLogId = -1;
+        t.undoMemory = 0;
     }
 
     /**
@@ -156,7 +482,11 @@ public class TransactionStore {
     public void logUndo(Transaction t, long logId) {
         Long undoKey = getOperationId(t.getId(), logId);
         synchronized (undoLog) {
-            Object[] old = undoLog.remove(undoKey);
+            if (t.spill != null && logId >= t.spillLogId) {
+                t.spill.remove(undoKey);
+            } else {
+                undoLog.remove(undoKey);
+            }
         }
     }
 
@@ -179,33 +509,369 @@ public class TransactionStore {
      * @param maxLogId the last log id
      */
     void commit(Transaction t, long maxLogId) {
+        if (maxLogId == 0) {
+            endTransaction(t);
+            return;
+        }
+        //提交只是标记一下，之后读到这个事务的值都当作已提交的；
+        //把map里的值改写成operationId为0的形式、删除undoLog里的项，都交给后台的cleanup线程去做
+        //committedLog里的项和数据一起存盘，崩溃后打开时据此把cleanup做完
+        String spillName = t.spill == null ? null : store.getMapName(t.spill.getId());
         synchronized (undoLog) {
             t.setStatus(Transaction.STATUS_COMMITTING);
-            for (long logId = 0; logId < maxLogId; logId++) {
-                Long undoKey = getOperationId(t.getId(), logId);
-                Object[] op = undoLog.get(undoKey);
-                int mapId = (Integer) op[0];
-                MVMap<Object, VersionedValue> map = openMap(mapId);
-                if (map == null) {
-                    // map was later removed
-                } else {
-                    Object key = op[1];
-                    VersionedValue value = map.get(key);
-                    if (value == null) {
-                        // nothing to do
-                    } else if (value.value == null) {
-                        // remove the value
-                        map.remove(key);
-                    } else {
-                        VersionedValue v2 = new VersionedValue();
-                        v2.value = value.value;
-                        map.put(key, v2);
+            committedTransactions.set(t.transactionId);
+            committedLog.put(t.transactionId, new Object[] {
+                    maxLogId, spillName == null ? null : t.spillLogId, spillName });
+        }
+        t.commitLogId = maxLogId;
+        synchronized (this) {
+            // the transaction id is only released after the cleanup
+            t.setStatus(Transaction.STATUS_CLOSED);
+            if (t.writer) {
+                t.writer = false;
+                openWriters--;
+            }
+            store.commit();
+        }
+        cleanupQueue.add(t);
+        startCleanupThread();
+    }
+
+    /**
+     * Whether the given transaction is committed, but its entries are not
+     * yet rewritten. The caller must synchronize on the undo log.
+     *
+     * @param transactionId the transaction id
+     * @return true if the entries of the transaction are committed
+     */
+    boolean isCommitted(int transactionId) {
+        return committedTransactions.get(transactionId);
+    }
+
+    private synchronized void startCleanupThread() {
+        if (cleanupThread != null) {
+            return;
+        }
+        cleanupThread = new Thread("MiniDB transaction cleanup") {
+            @Override
+            public void run() {
+                while (true) {
+                    Transaction t;
+                    try {
+                        t = cleanupQueue.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    try {
+                        cleanup(t);
+                    } catch (RuntimeException e) {
+                        // the entries are still read as committed; the
+                        // next begin tries again, and reports the error
+                        failedCleanups.add(t);
                     }
                 }
-                undoLog.remove(undoKey);
             }
+        };
+        cleanupThread.setDaemon(true);
+        cleanupThread.start();
+    }
+
+    /**
+     * Clean up the transactions whose cleanup failed in the cleanup worker.
+     *
+     * @throws IllegalStateException if the cleanup fails again
+     */
+    private void retryFailedCleanups() {
+        if (failedCleanups.isEmpty()) {
+            return;
+        }
+        // a transaction must not be cleaned up twice: once it is done, its id
+        // may be used by a new transaction
+        synchronized (cleanupLock) {
+            Transaction t;
+            while ((t = failedCleanups.peek()) != null) {
+                try {
+                    cleanup(t);
+                } catch (RuntimeException e) {
+                    throw new IllegalStateException(
+                            "Cleanup of committed transaction " + t + " failed", e);
+                }
+                failedCleanups.remove();
+            }
+        }
+    }
+
+    /**
+     * Rewrite the entries of a committed transaction to the committed form,
+     * remove its undo log entries, and release the transaction id. The undo
+     * log is processed in batches, and within a batch the entries are
+     * changed map by map in key order.
+     *
+     * @param t the committed transaction
+     */
+    private void cleanup(Transaction t) {
+        synchronized (cleanupLock) {
+            long maxLogId = t.commitLogId;
+            ArrayList<Object[]> batch = new ArrayList<Object[]>(CLEANUP_BATCH_SIZE);
+            for (long start = 0; start < maxLogId; start += CLEANUP_BATCH_SIZE) {
+                long end = Math.min(start + CLEANUP_BATCH_SIZE, maxLogId);
+                batch.clear();
+                for (long logId = start; logId < end; logId++) {
+                    Object[] op = getUndo(t, logId);
+                    if (op != null) {
+                        batch.add(op);
+                    }
+                }
+                sortByMapAndKey(batch);
+                synchronized (undoLog) {
+                    for (Object[] op : batch) {
+                        commitEntry(op, t.transactionId);
+                    }
+                    for (long logId = start; logId < end; logId++) {
+                        if (t.spill == null || logId < t.spillLogId) {
+                            undoLog.remove(getOperationId(t.transactionId, logId));
+                        }
+                    }
+                }
+            }
+            if (t.spill != null) {
+                removeSpill(t);
+            }
+            synchronized (undoLog) {
+                committedTransactions.clear(t.transactionId);
+                committedLog.remove(t.transactionId);
+            }
+            // not stored here: the changes are stored with the next commit,
+            // and until then the committed log entry is stored, so that the
+            // cleanup is done again after a crash
+            synchronized (this) {
+                openTransactions.clear(t.transactionId);
+                transactions.remove(t.transactionId);
+            }
+        }
+    }
+
+    private Object[] getUndo(Transaction t, long logId) {
+        Long undoKey = getOperationId(t.transactionId, logId);
+        if (t.spill != null && logId >= t.spillLogId) {
+            return t.spill.get(undoKey);
+        }
+        return undoLog.get(undoKey);
+    }
+
+    private void sortByMapAndKey(ArrayList<Object[]> ops) {
+        Collections.sort(ops, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                int mapA = (Integer) a[0];
+                int mapB = (Integer) b[0];
+                if (mapA != mapB) {
+                    return mapA < mapB ? -1 : 1;
+                }
+                MVMap<Object, VersionedValue> map = openMap(mapA);
+                return map == null ? 0 : map.getKeyType().compare(a[1], b[1]);
+            }
+        });
+    }
+
+    /**
+     * Replace the value of an entry that was changed by a committed
+     * transaction with the committed form, if the entry was not changed
+     * since. The caller must synchronize on the undo log.
+     *
+     * @param op the undo log entry
+     * @param transactionId the committed transaction
+     */
+    private void commitEntry(Object[] op, int transactionId) {
+        int mapId = (Integer) op[0];
+        MVMap<Object, VersionedValue> map = openMap(mapId);
+        if (map == null) {
+            // map was later removed
+            return;
+        }
+        Object key = op[1];
+        VersionedValue value = map.get(key);
+        if (value == null || getTransactionId(value.operationId) != transactionId) {
+            // nothing to do, or already done
+        } else if (value.value == null) {
+            // remove the value
+            map.remove(key);
+        } else {
+            VersionedValue v2 = new VersionedValue();
+            v2.value = value.value;
+            map.put(key, v2);
+        }
+    }
+
+    /**
+     * Rewrite an entry of a committed transaction whose cleanup is still
+     * pending, so that another transaction can change it.
+     *
+     * @param map the map
+     * @param key the key
+     * @param current the current value
+     * @return true if the entry was rewritten (or changed in the meantime)
+     */
+    boolean commitPendingEntry(MVMap<Object, VersionedValue> map, Object key,
+            VersionedValue current) {
+        int tx = getTransactionId(current.operationId);
+        synchronized (undoLog) {
+            if (!committedTransactions.get(tx)) {
+                return false;
+            }
+            if (map.get(key) == current) {
+                if (current.value == null) {
+                    map.remove(key);
+                } else {
+                    VersionedValue v2 = new VersionedValue();
+                    v2.value = current.value;
+                    map.put(key, v2);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Commit an optimistic transaction. The versions observed by the
+     * transaction are validated, and if none of them changed in the meantime
+     * the buffered changes are applied, and committed as the changes of a
+     * pessimistic transaction are. If validation fails, nothing is applied
+     * and the transaction is closed.
+     *
+     * @param t the transaction
+     * @throws IllegalStateException if a concurrent change was detected
+     */
+    void commitOptimistic(Transaction t) {
+        boolean ok;
+        synchronized (undoLog) {
+            ok = validate(t) && apply(t);
+        }
+        t.optimisticStates = null;
+        t.optimisticLog = null;
+        if (!ok) {
+            endTransaction(t);
+            throw new IllegalStateException("Transaction " + t + " conflicts with a concurrent change");
+        }
+        commit(t, t.logId);
+    }
+
+    //乐观事务的读集合校验：读的时候记录下看到的版本（operationId和值），提交时map里的还是同一个版本，
+    //说明期间没有被别的事务修改过。不能比较对象：page重新读出来、cleanup改写成已提交的形式，都会换成新的对象
+    private boolean validate(Transaction t) {
+        for (OptimisticState state : t.optimisticStates.values()) {
+            DataType valueType = ((VersionedValueType) state.map.getValueType()).valueType;
+            for (Map.Entry<Object, VersionedValue> e : state.reads.entrySet()) {
+                VersionedValue current = getCommittedForm(state.map.get(e.getKey()));
+                if (!isSameVersion(valueType, e.getValue(), current)) {
+                    return false;
+                }
+            }
+            for (Object key : state.writes.keySet()) {
+                VersionedValue current = state.map.get(key);
+                if (current != null && current.operationId != 0 &&
+                        !isCommitted(getTransactionId(current.operationId))) {
+                    // the row is owned by an open pessimistic transaction
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the value of an entry as it is read by an optimistic transaction:
+     * an entry of a committed transaction whose cleanup is pending has the
+     * operation id 0, as it has after the cleanup. The caller must
+     * synchronize on the undo log.
+     *
+     * @param v the value stored in the map
+     * @return the value, or a committed copy
+     */
+    VersionedValue getCommittedForm(VersionedValue v) {
+        if (v == null || v.operationId == 0 ||
+                !isCommitted(getTransactionId(v.operationId))) {
+            return v;
+        }
+        VersionedValue c = new VersionedValue();
+        c.value = v.value;
+        return c;
+    }
+
+    private static boolean isSameVersion(DataType valueType,
+            VersionedValue a, VersionedValue b) {
+        if (a == b) {
+            return true;
+        }
+        long opA = a == null ? 0 : a.operationId;
+        long opB = b == null ? 0 : b.operationId;
+        if (opA != opB) {
+            return false;
+        }
+        // a committed removal is the same as no entry
+        Object valueA = a == null ? null : a.value;
+        Object valueB = b == null ? null : b.value;
+        if (valueA == null || valueB == null) {
+            return valueA == valueB;
+        }
+        return valueType.compare(valueA, valueB) == 0;
+    }
+
+    //写集合和悲观事务的修改一样写入：先写undoLog，再放入带operationId的值，最后和悲观事务一样提交。
+    //这样中间别的事务触发的store.commit()即使只存了一部分，崩溃后打开时也会根据undoLog回滚
+    private boolean apply(Transaction t) {
+        // the log ids of the write set are not needed any more
+        t.logId = 0;
+        for (OptimisticState state : t.optimisticStates.values()) {
+            int mapId = state.map.getId();
+            for (Map.Entry<Object, Object> e : state.writes.entrySet()) {
+                Object key = e.getKey();
+                VersionedValue current = state.map.get(key);
+                if (current != null && current.operationId != 0 &&
+                        commitPendingEntry(state.map, key, current)) {
+                    // the undo log entry must not refer to a transaction
+                    // whose cleanup is pending
+                    current = state.map.get(key);
+                }
+                VersionedValue newValue = new VersionedValue();
+                newValue.operationId = getOperationId(t.transactionId, t.logId);
+                newValue.value = e.getValue();
+                t.log(mapId, key, current);
+                if (!replaceRaw(state.map, key, current, newValue)) {
+                    // a pessimistic writer was faster than us:
+                    // undo what was applied so far
+                    t.logUndo();
+                    rollbackTo(t, t.logId, 0);
+                    t.logId = 0;
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace the raw value of an entry if it is still the expected one.
+     *
+     * @param map the map
+     * @param key the key
+     * @param expected the expected current value (compared by identity)
+     * @param newValue the new value, or null to remove the entry
+     * @return whether the entry was changed
+     */
+    private static boolean replaceRaw(MVMap<Object, VersionedValue> map, Object key,
+            VersionedValue expected, VersionedValue newValue) {
+        synchronized (map) {
+            if (map.get(key) != expected) {
+                return false;
+            }
+            if (newValue != null) {
+                map.put(key, newValue);
+            } else if (expected != null) {
+                map.remove(key);
+            }
+            return true;
         }
-        endTransaction(t);
     }
 
     /**
@@ -215,10 +881,12 @@ public class TransactionStore {
      * @param name the map name
      * @param keyType the key type
      * @param valueType the value type
+     * @param bloomFilter whether to keep a Bloom filter over the keys
      * @return the map
      */
     synchronized <K> MVMap<K, VersionedValue> openMap(String name,
-                                                      DataType keyType, DataType valueType) {
+                                                      DataType keyType, DataType valueType,
+                                                      boolean bloomFilter) {
         if (keyType == null) {
             keyType = new ObjectDataType();
         }
@@ -230,6 +898,9 @@ public class TransactionStore {
         MVMap.Builder<K, VersionedValue> builder =
                 new MVMap.Builder<K, VersionedValue>().
                 keyType(keyType).valueType(vt);
+        if (bloomFilter) {
+            builder.bloomFilter();
+        }
         map = store.openMap(name, builder);
         @SuppressWarnings("unchecked")
         MVMap<Object, VersionedValue> m = (MVMap<Object, VersionedValue>) map;
@@ -269,10 +940,23 @@ public class TransactionStore {
      */
     synchronized void endTransaction(Transaction t) {
         t.setStatus(Transaction.STATUS_CLOSED);
+        if (t.readOnly) {
+            return;
+        }
+        if (t.writer) {
+            t.writer = false;
+            openWriters--;
+        }
         openTransactions.clear(t.transactionId);
+        transactions.remove(t.transactionId);
         store.commit();
     }
 
+    private synchronized void markWriter(Transaction t) {
+        t.writer = true;
+        openWriters++;
+    }
+
     /**
      * Rollback to an old savepoint.
      *
@@ -282,28 +966,60 @@ public class TransactionStore {
      */
     //rollbackTo就是将这个Transaction的想要会到的LogId之后所有的logId的影响都去掉，包括去掉undoLog里面的项，在map里删掉或者放入原先的值
     void rollbackTo(Transaction t, long maxLogId, long toLogId) {
+        if (t.spill != null) {
+            if (maxLogId > t.spillLogId) {
+                // the spilled entries first, in batches, newest first
+                long logId = maxLogId - 1;
+                long last = Math.max(toLogId, t.spillLogId);
+                while (logId >= last) {
+                    synchronized (undoLog) {
+                        for (int i = 0; i < SPILL_BATCH_SIZE && logId >= last; i++, logId--) {
+                            Long undoKey = getOperationId(t.getId(), logId);
+                            rollbackEntry(t.spill.get(undoKey));
+                            t.spill.remove(undoKey);
+                        }
+                    }
+                }
+                maxLogId = Math.min(maxLogId, last);
+            }
+            // also if no entry was spilled yet: the spill map must not stay
+            // attached when the log ids go below the spill log id
+            if (toLogId <= t.spillLogId) {
+                removeSpill(t);
+            }
+        }
         synchronized (undoLog) {
             for (long logId = maxLogId - 1; logId >= toLogId; logId--) {
                 Long undoKey = getOperationId(t.getId(), logId);
                 Object[] op = undoLog.get(undoKey);
-                int mapId = ((Integer) op[0]).intValue();
-                MVMap<Object, VersionedValue> map = openMap(mapId);
-                if (map != null) {
-                    Object key = op[1];
-                    VersionedValue oldValue = (VersionedValue) op[2];
-                    if (oldValue == null) {
-                        // this transaction added the value
-                        map.remove(key);
-                    } else {
-                        // this transaction updated the value
-                        map.put(key, oldValue);
-                    }
-                }
+                rollbackEntry(op);
                 undoLog.remove(undoKey);
             }
         }
     }
 
+    /**
+     * Restore the old value of an undo log entry. The caller must synchronize
+     * on the undo log.
+     *
+     * @param op the undo log entry
+     */
+    private void rollbackEntry(Object[] op) {
+        int mapId = ((Integer) op[0]).intValue();
+        MVMap<Object, VersionedValue> map = openMap(mapId);
+        if (map != null) {
+            Object key = op[1];
+            VersionedValue oldValue = (VersionedValue) op[2];
+            if (oldValue == null) {
+                // this transaction added the value
+                map.remove(key);
+            } else {
+                // this transaction updated the value
+                map.put(key, oldValue);
+            }
+        }
+    }
+
     /**
      * Create a temporary map. Such maps are removed when opening the store.
      *
@@ -327,6 +1043,33 @@ public class TransactionStore {
         return store.openMap(mapName, mapBuilder);
     }
 
+    /**
+     * Create a temporary map with the given key and value types, for example
+     * for the sorted runs of an index build. The map must be removed with
+     * removeTempMap once it is no longer needed.
+     *
+     * @param keyType the key type
+     * @param valueType the value type
+     * @return the map
+     */
+    public synchronized <K, V> MVMap<K, V> createTempMap(DataType keyType,
+            DataType valueType) {
+        String mapName = "temp." + nextTempMapId++;
+        MVMap.Builder<K, V> mapBuilder =
+                new MVMap.Builder<K, V>().
+                        keyType(keyType).valueType(valueType);
+        return store.openMap(mapName, mapBuilder);
+    }
+
+    /**
+     * Remove a temporary map.
+     *
+     * @param map the map
+     */
+    public void removeTempMap(MVMap<?, ?> map) {
+        store.removeMap(map);
+    }
+
     /**
      * A transaction.
      */
@@ -375,13 +1118,74 @@ public class TransactionStore {
 
         private String name;
 
+        /**
+         * Whether changes are buffered until commit (optimistic mode).
+         */
+        final boolean optimistic;
+
+        /**
+         * The read and write sets of an optimistic transaction, per map id.
+         */
+        HashMap<Integer, OptimisticState> optimisticStates;
+
+        /**
+         * The changes to the write sets of an optimistic transaction, in
+         * order, so that the write sets can be restored to a savepoint. In
+         * optimistic mode, the log id is the number of entries.
+         * <p>
+         * Entry: [ state, key, hadOldValue, oldValue ].
+         */
+        ArrayList<Object[]> optimisticLog;
+
+        /**
+         * Whether this transaction may not change any data.
+         */
+        boolean readOnly;
+
+        /**
+         * Whether this transaction has written to the undo log.
+         */
+        boolean writer;
+
+        /**
+         * The estimated memory of the entries of this transaction in the
+         * shared undo log.
+         */
+        long undoMemory;
+
+        /**
+         * The map that receives the undo log entries once the undo memory
+         * budget is used up, or null.
+         */
+        MVMap<Long, Object[]> spill;
+
+        /**
+         * The first log id that is stored in the spill map.
+         */
+        long spillLogId = -1;
+
+        /**
+         * The log id at commit, for the cleanup worker.
+         */
+        long commitLogId;
+
         Transaction(TransactionStore store, int transactionId, int status,
                 String name, long logId) {
+            this(store, transactionId, status, name, logId, false);
+        }
+
+        Transaction(TransactionStore store, int transactionId, int status,
+                String name, long logId, boolean optimistic) {
             this.store = store;
             this.transactionId = transactionId;
             this.status = status;
             this.name = name;
             this.logId = logId;
+            this.optimistic = optimistic;
+            if (optimistic) {
+                optimisticStates = new HashMap<Integer, OptimisticState>();
+                optimisticLog = new ArrayList<Object[]>();
+            }
         }
 
         public int getId() {
@@ -404,6 +1208,32 @@ public class TransactionStore {
             return name;
         }
 
+        public boolean isOptimistic() {
+            return optimistic;
+        }
+
+        public boolean isReadOnly() {
+            return readOnly;
+        }
+
+        /**
+         * Get the read and write set of the given map.
+         *
+         * @param mapId the map id
+         * @param map the map
+         * @return the state
+         */
+        OptimisticState getOptimisticState(int mapId, MVMap<?, VersionedValue> map) {
+            OptimisticState state = optimisticStates.get(mapId);
+            if (state == null) {
+                @SuppressWarnings("unchecked")
+                MVMap<Object, VersionedValue> m = (MVMap<Object, VersionedValue>) map;
+                state = new OptimisticState(m);
+                optimisticStates.put(mapId, state);
+            }
+            return state;
+        }
+
         /**
          * Create a new savepoint.
          *
@@ -426,6 +1256,21 @@ public class TransactionStore {
             logId++;
         }
 
+        /**
+         * Add a buffered change of an optimistic transaction to the write set.
+         *
+         * @param state the read and write set of the map
+         * @param key the key
+         * @param value the new value, or null to remove the entry
+         */
+        void logOptimistic(OptimisticState state, Object key, Object value) {
+            boolean exists = state.writes.containsKey(key);
+            optimisticLog.add(new Object[] { state, key, exists,
+                    exists ? state.writes.get(key) : null });
+            logId++;
+            state.writes.put(key, value);
+        }
+
         /**
          * Remove the last log entry.
          */
@@ -457,8 +1302,26 @@ public class TransactionStore {
          */
         public <K, V> TransactionMap<K, V> openMap(String name,
                                                    DataType keyType, DataType valueType) {
+            return openMap(name, keyType, valueType, false);
+        }
+
+        /**
+         * Open the map to store the data.
+         *
+         * @param <K> the key type
+         * @param <V> the value type
+         * @param name the name of the map
+         * @param keyType the key data type
+         * @param valueType the value data type
+         * @param bloomFilter whether to keep a Bloom filter over the keys,
+         *            so that looking up keys that don't exist is cheap
+         * @return the transaction map
+         */
+        public <K, V> TransactionMap<K, V> openMap(String name,
+                                                   DataType keyType, DataType valueType,
+                                                   boolean bloomFilter) {
             MVMap<K, VersionedValue> map = store.openMap(name, keyType,
-                    valueType);
+                    valueType, bloomFilter);
             int mapId = map.getId();
 //            System.out.println("name: " + name + "mapId:" + mapId);
             return new TransactionMap<K, V>(this, map, mapId);
@@ -490,6 +1353,10 @@ public class TransactionStore {
          * Commit the transaction. Afterwards, this transaction is closed.
          */
         public void commit() {
+            if (optimistic) {
+                store.commitOptimistic(this);
+                return;
+            }
             store.commit(this, logId);
         }
 
@@ -500,7 +1367,20 @@ public class TransactionStore {
          * @param savepointId the savepoint id
          */
         public void rollbackToSavepoint(long savepointId) {
-            store.rollbackTo(this, logId, savepointId);
+            if (optimistic) {
+                // restore the buffered changes, newest first
+                for (int i = optimisticLog.size() - 1; i >= savepointId; i--) {
+                    Object[] op = optimisticLog.remove(i);
+                    OptimisticState state = (OptimisticState) op[0];
+                    if ((Boolean) op[2]) {
+                        state.writes.put(op[1], op[3]);
+                    } else {
+                        state.writes.remove(op[1]);
+                    }
+                }
+            } else {
+                store.rollbackTo(this, logId, savepointId);
+            }
             logId = savepointId;
         }
 
@@ -508,7 +1388,13 @@ public class TransactionStore {
          * Roll the transaction back. Afterwards, this transaction is closed.
          */
         public void rollback() {
-            store.rollbackTo(this, logId, 0);
+            if (optimistic) {
+                // nothing was written yet
+                optimisticStates = null;
+                optimisticLog = null;
+            } else {
+                store.rollbackTo(this, logId, 0);
+            }
             store.endTransaction(this);
         }
 
@@ -521,6 +1407,16 @@ public class TransactionStore {
             store.removeMap(map);
         }
 
+        /**
+         * Rename the map. The data is not copied.
+         *
+         * @param map the map
+         * @param newName the new name
+         */
+        public <K, V> void renameMap(TransactionMap<K, V> map, String newName) {
+            store.store.renameMap(map.map, newName);
+        }
+
         @Override
         public String toString() {
             return "" + transactionId;
@@ -569,32 +1465,151 @@ public class TransactionStore {
         }
 
         /**
-         * Set the savepoint. Afterwards, reads are based on the specified
-         * savepoint.
+         * Set the savepoint. Afterwards, reads are based on the specified
+         * savepoint.
+         *
+         * @param savepoint the savepoint
+         */
+        public void setSavepoint(long savepoint) {
+            this.readLogId = savepoint;
+        }
+
+        /**
+         * Summarize the committed values of the stored pages (see
+         * {@link PageSummaryType}). Pages with uncommitted changes get no
+         * summary, because other transactions read the old values.
+         *
+         * @param valueSummaryType the summary type of the values
+         */
+        public void setPageSummaryType(PageSummaryType valueSummaryType) {
+            map.setSummaryType(valueSummaryType == null ? null :
+                    new VersionedSummaryType(valueSummaryType));
+        }
+
+        /**
+         * Get a clone of this map for the given transaction.
+         *
+         * @param transaction the transaction
+         * @param savepoint the savepoint
+         * @return the map
+         */
+        public TransactionMap<K, V> getInstance(Transaction transaction,
+                long savepoint) {
+            TransactionMap<K, V> m =
+                    new TransactionMap<K, V>(transaction, map, mapId);
+            m.setSavepoint(savepoint);
+            return m;
+        }
+
+        public long sizeAsLongMax() {
+            return map.sizeAsLong();
+        }
+
+        /**
+         * Get the key at the given index of the underlying map. The entry
+         * may be uncommitted or removed, so the value still needs to be read
+         * with {@link #get(Object)}.
+         *
+         * @param index the index
+         * @return the key, or null if the index is out of range
+         */
+        public K getKey(long index) {
+            return map.getKey(index);
+        }
+
+        /**
+         * Get keys that split the map into about the given number of ranges,
+         * for example to scan it with multiple threads.
+         *
+         * @param count the number of ranges
+         * @return the split keys
+         */
+        public List<K> getSplitKeys(int count) {
+            return map.getSplitKeys(count);
+        }
+
+        /**
+         * Load committed entries into an empty map. The entries must be
+         * sorted by key. No undo log entries are written, so this can not be
+         * rolled back; it is used to build new indexes.
          *
-         * @param savepoint the savepoint
+         * @param entries the sorted entries
+         * @return the number of entries loaded
          */
-        public void setSavepoint(long savepoint) {
-            this.readLogId = savepoint;
+        public long bulkLoadCommitted(final Iterator<Map.Entry<K, V>> entries) {
+            return map.bulkLoad(new Iterator<Map.Entry<K, VersionedValue>>() {
+
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Map.Entry<K, VersionedValue> next() {
+                    Map.Entry<K, V> e = entries.next();
+                    VersionedValue v = new VersionedValue();
+                    v.value = e.getValue();
+                    return new DataUtil.MapEntry<K, VersionedValue>(e.getKey(), v);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
         }
 
         /**
-         * Get a clone of this map for the given transaction.
+         * Iterate over the committed entries of a snapshot of the map (the
+         * current root page, which is never changed afterwards). Entries
+         * that have uncommitted changes are skipped; their keys are added to
+         * the given list instead.
          *
-         * @param transaction the transaction
-         * @param savepoint the savepoint
-         * @return the map
+         * @param pending the list of keys with uncommitted changes
+         * @return the iterator
          */
-        public TransactionMap<K, V> getInstance(Transaction transaction,
-                long savepoint) {
-            TransactionMap<K, V> m =
-                    new TransactionMap<K, V>(transaction, map, mapId);
-            m.setSavepoint(savepoint);
-            return m;
-        }
+        public Iterator<Map.Entry<K, V>> snapshotIterator(final List<K> pending) {
+            final Cursor<K, VersionedValue> cursor = map.openVersion(map.getVersion()).cursor(null);
+            return new Iterator<Map.Entry<K, V>>() {
+                private Map.Entry<K, V> current;
 
-        public long sizeAsLongMax() {
-            return map.sizeAsLong();
+                {
+                    fetchNext();
+                }
+
+                private void fetchNext() {
+                    while (cursor.hasNext()) {
+                        K k = cursor.next();
+                        VersionedValue data = cursor.getValue();
+                        if (data.operationId != 0) {
+                            pending.add(k);
+                        } else if (data.value != null) {
+                            @SuppressWarnings("unchecked")
+                            final V value = (V) data.value;
+                            current = new DataUtil.MapEntry<K, V>(k, value);
+                            return;
+                        }
+                    }
+                    current = null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return current != null;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    Map.Entry<K, V> result = current;
+                    fetchNext();
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
         }
 
         /**
@@ -704,17 +1719,51 @@ public class TransactionStore {
             VersionedValue newValue = new VersionedValue();
             newValue.value = value;
             VersionedValue oldValue = map.put(key, newValue);
-            System.out.println("putCommitted:" + "oldValue:" + oldValue + ",newValue:"+ newValue);
             return (V) (oldValue == null ? null : oldValue.value);
         }
 
+        /**
+         * Remove the entry for the given key, without adding an undo log
+         * entry, whether it is committed or not.
+         *
+         * @param key the key
+         * @return the old value
+         */
+        @SuppressWarnings("unchecked")
+        public V removeCommitted(K key) {
+            VersionedValue oldValue = map.remove(key);
+            return (V) (oldValue == null ? null : oldValue.value);
+        }
+
+        /**
+         * Remove a committed entry without adding an undo log entry, but
+         * only if it was not changed since the value was read (for example
+         * with a snapshot iterator).
+         *
+         * @param key the key
+         * @param expected the committed value that was read (compared by
+         *            identity)
+         * @return whether the entry was removed
+         */
+        public boolean removeCommitted(K key, V expected) {
+            // trySet replaces entries while synchronized on the map as well
+            synchronized (map) {
+                VersionedValue current = map.get(key);
+                if (current == null || current.operationId != 0 || current.value != expected) {
+                    return false;
+                }
+                map.remove(key);
+                return true;
+            }
+        }
+
         private V set(K key, V value) {
             V old = get(key);
             boolean ok = trySet(key, value, false);
             if (ok) {
                 return old;
             }
-            throw new RuntimeException("Entry is locked");
+            throw new IllegalStateException(ERROR_TRANSACTION_LOCKED);
         }
 
         /**
@@ -761,6 +1810,15 @@ public class TransactionStore {
          */
         //不允许脏写，只允许提交以后或者是同一个事务的才能修改
         public boolean trySet(K key, V value, boolean onlyIfUnchanged) { //思考时要注意一点: put和remove都会调用它
+            if (transaction.readOnly) {
+                throw new IllegalStateException("Transaction " + transaction + " is read-only");
+            }
+            if (transaction.optimistic) {
+                // buffered until commit, no undo log entry and no row ownership
+                transaction.logOptimistic(
+                        transaction.getOptimisticState(mapId, map), key, value);
+                return true;
+            }
             VersionedValue current = map.get(key);
             VersionedValue newValue = new VersionedValue();
             newValue.operationId = getOperationId(
@@ -790,6 +1848,16 @@ public class TransactionStore {
                 return true;
             }
             int tx = getTransactionId(current.operationId);
+            if (tx != transaction.transactionId) {
+                @SuppressWarnings("unchecked")
+                MVMap<Object, VersionedValue> m = (MVMap<Object, VersionedValue>) map;
+                if (transaction.store.commitPendingEntry(m, key, current)) {
+                    // committed by a transaction whose cleanup is pending:
+                    // rewrite the entry first, so that the undo log entry
+                    // of this transaction does not refer to it
+                    return trySet(key, value, onlyIfUnchanged);
+                }
+            }
             if (tx == transaction.transactionId) {          //如果没有提交，但这个值是同一个事务修改的，则可以修改它
                 // added or updated by this transaction
                 transaction.log(mapId, key, current);
@@ -838,6 +1906,58 @@ public class TransactionStore {
             return get(key) != null;
         }
 
+        /**
+         * Whether the entry for this key was added or changed by this
+         * transaction, and is not committed yet.
+         *
+         * @param key the key
+         * @return true if yes
+         */
+        public boolean isSameTransaction(K key) {
+            VersionedValue data = map.get(key);
+            if (data == null || data.operationId == 0) {
+                // doesn't exist or committed
+                return false;
+            }
+            int tx = getTransactionId(data.operationId);
+            return tx == transaction.transactionId;
+        }
+
+        /**
+         * Whether the entry for this key was changed by another transaction
+         * that is still open.
+         *
+         * @param key the key
+         * @return true if yes
+         */
+        public boolean isLockedByOther(K key) {
+            VersionedValue data = map.get(key);
+            if (data == null || data.operationId == 0) {
+                return false;
+            }
+            int tx = getTransactionId(data.operationId);
+            return tx != transaction.transactionId &&
+                    !transaction.store.isCommitted(tx);
+        }
+
+        /**
+         * Get the open transaction that changed the entry for this key.
+         *
+         * @param key the key
+         * @return the transaction, or null if the entry is committed
+         */
+        public Transaction getLockOwner(K key) {
+            VersionedValue data = map.get(key);
+            if (data == null || data.operationId == 0) {
+                return null;
+            }
+            int tx = getTransactionId(data.operationId);
+            if (transaction.store.isCommitted(tx)) {
+                return null;
+            }
+            return transaction.store.getOpenTransaction(tx);
+        }
+
         /**
          * Get the value for the given key.
          *
@@ -847,11 +1967,58 @@ public class TransactionStore {
          */
         @SuppressWarnings("unchecked")
         public V get(K key, long maxLogId) {
+            if (transaction.optimistic) {
+                OptimisticState state = transaction.getOptimisticState(mapId, map);
+                if (state.writes.containsKey(key)) {
+                    return (V) state.writes.get(key);
+                }
+                return (V) observe(state, key, map.get(key));
+            }
             VersionedValue data = getValue(key, maxLogId);
             return data == null ? null : (V) data.value;
         }
 
+        /**
+         * Record the version of an entry read by an optimistic transaction,
+         * and get the committed value.
+         *
+         * @param state the read and write set
+         * @param key the key
+         * @param raw the value stored in the main map
+         * @return the committed value or null
+         */
+        private Object observe(OptimisticState state, Object key, VersionedValue raw) {
+            boolean first = !state.reads.containsKey(key);
+            if (raw == null || raw.operationId == 0) {
+                if (first) {
+                    state.reads.put(key, raw);
+                }
+                return raw == null ? null : raw.value;
+            }
+            VersionedValue data;
+            synchronized (getUndoLog()) {
+                if (first) {
+                    state.reads.put(key, transaction.store.getCommittedForm(raw));
+                }
+                @SuppressWarnings("unchecked")
+                K k = (K) key;
+                data = getValue(k, readLogId, raw);
+            }
+            return data == null ? null : data.value;
+        }
+
         private VersionedValue getValue(K key, long maxLog) {
+            if (!map.mightContain(key)) {
+                // a definite miss doesn't need the undo log
+                return null;
+            }
+            if (isLockFree()) {
+                VersionedValue data = map.get(key);
+                if (data == null || data.operationId == 0) {
+                    return data;
+                }
+                // a writer started in the meantime
+            }
             synchronized (getUndoLog()) {
                 VersionedValue data = map.get(key);
                 return getValue(key, maxLog, data);
@@ -862,6 +2029,31 @@ public class TransactionStore {
             return transaction.store.undoLog;
         }
 
+        /**
+         * Whether committed entries can be read without synchronizing on the
+         * undo log: either this transaction is read-only, or no transaction
+         * has uncommitted changes. Entries that turn out to be uncommitted
+         * still need the slow path.
+         *
+         * @return true if the fast path can be used
+         */
+        private boolean isLockFree() {
+            return transaction.readOnly || !transaction.store.hasOpenWriters();
+        }
+
+        /**
+         * Check whether an entry is visible (not removed) and the value
+         * filter accepts its value.
+         *
+         * @param valueFilter the value filter, or null
+         * @param data the value as seen by this transaction, or null
+         * @return true if the entry is returned
+         */
+        private static boolean accept(ValueFilter valueFilter, VersionedValue data) {
+            return data != null && data.value != null &&
+                    (valueFilter == null || valueFilter.accept(data.value));
+        }
+
         /**
          * Get the versioned value for the given key.
          *
@@ -889,12 +2081,15 @@ public class TransactionStore {
                     if (getLogId(id) < maxLog) {
                         return data;
                     }
+                } else if (transaction.store.isCommitted(tx)) {
+                    // committed, but not yet cleaned up
+                    return data;
                 }
                 // get the value before the uncommitted transaction
                 //如果要获取的值还未提交，则从undoLog去获取老的值，这个老的值已经提交了。
                 //如果没有提交，一般情况下undoLog会存在着一项
                 Object[] d;
-                d = transaction.store.undoLog.get(id);
+                d = transaction.store.getUndo(id);
                 if (d == null) {
                     // this entry should be committed or rolled back
                     // in the meantime (the transaction might still be open)
@@ -926,6 +2121,26 @@ public class TransactionStore {
          * @return the iterator
          */
         public Iterator<K> keyIterator(final K from, final boolean includeUncommitted) {
+            if (transaction.optimistic) {
+                final Iterator<Map.Entry<K, V>> it = optimisticEntryIterator(from, null, null);
+                return new Iterator<K>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public K next() {
+                        return it.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new RuntimeException("Removing is not supported");
+                    }
+                };
+            }
             return new Iterator<K>() {
                 private K currentKey = from;
                 private Cursor<K, VersionedValue> cursor = map.cursor(currentKey);
@@ -974,10 +2189,41 @@ public class TransactionStore {
         }
 
         public Iterator<Map.Entry<K, V>> entryIterator(final K from) {
+            return entryIterator(from, null, null);
+        }
+
+        /**
+         * Iterate over entries, and skip the stored pages whose summary the
+         * filter rejects (see {@link #setPageSummaryType}). Entries that
+         * don't match may still be returned.
+         *
+         * @param from the first key to return
+         * @param filter the page filter, or null
+         * @return the iterator
+         */
+        public Iterator<Map.Entry<K, V>> entryIterator(final K from, final PageFilter filter) {
+            return entryIterator(from, filter, null);
+        }
+
+        /**
+         * Iterate over entries, skip the stored pages whose summary the page
+         * filter rejects, and the entries whose value (as seen by this
+         * transaction) the value filter rejects.
+         *
+         * @param from the first key to return
+         * @param filter the page filter, or null
+         * @param valueFilter the value filter, or null
+         * @return the iterator
+         */
+        public Iterator<Map.Entry<K, V>> entryIterator(final K from, final PageFilter filter,
+                                                       final ValueFilter valueFilter) {
+            if (transaction.optimistic) {
+                return optimisticEntryIterator(from, filter, valueFilter);
+            }
             return new Iterator<Map.Entry<K, V>>() {
                 private Map.Entry<K, V> current;
                 private K currentKey = from;
-                private Cursor<K, VersionedValue> cursor = map.cursor(currentKey);
+                private Cursor<K, VersionedValue> cursor = map.cursor(currentKey, filter);
 
                 {
                     fetchNext();
@@ -985,6 +2231,31 @@ public class TransactionStore {
 
                 private void fetchNext() {
                     while (cursor.hasNext()) {
+                        if (isLockFree()) {
+                            K k = cursor.next();
+                            VersionedValue data = cursor.getValue();
+                            if (data.operationId == 0) {
+                                if (accept(valueFilter, data)) {
+                                    @SuppressWarnings("unchecked")
+                                    final V value = (V) data.value;
+                                    current = new DataUtil.MapEntry<K, V>(k, value);
+                                    currentKey = k;
+                                    return;
+                                }
+                                continue;
+                            }
+                            synchronized (getUndoLog()) {
+                                data = getValue(k, readLogId, data);
+                            }
+                            if (accept(valueFilter, data)) {
+                                @SuppressWarnings("unchecked")
+                                final V value = (V) data.value;
+                                current = new DataUtil.MapEntry<K, V>(k, value);
+                                currentKey = k;
+                                return;
+                            }
+                            continue;
+                        }
                         synchronized (getUndoLog()) {
                             K k;
                             try {
@@ -995,7 +2266,7 @@ public class TransactionStore {
                             final K key = k;
                             VersionedValue data = cursor.getValue();
                             data = getValue(key, readLogId, data);
-                            if (data != null && data.value != null) {
+                            if (accept(valueFilter, data)) {
                                 @SuppressWarnings("unchecked")
                                 final V value = (V) data.value;
                                 current = new DataUtil.MapEntry<K, V>(key, value);
@@ -1027,6 +2298,129 @@ public class TransactionStore {
             };
 
         }
+
+        /**
+         * Iterate over the entries as seen by an optimistic transaction: the
+         * committed entries of the map merged with the buffered changes. Every
+         * committed entry that is returned is added to the read set.
+         *
+         * @param from the first key to return
+         * @param filter the page filter, or null
+         * @param valueFilter the value filter, or null
+         * @return the iterator
+         */
+        private Iterator<Map.Entry<K, V>> optimisticEntryIterator(final K from,
+                final PageFilter filter, final ValueFilter valueFilter) {
+            final OptimisticState state = transaction.getOptimisticState(mapId, map);
+            // a copy, so that changes made while iterating are not visible
+            final Iterator<Map.Entry<Object, Object>> pending = new TreeMap<Object, Object>(
+                    from == null ? state.writes : state.writes.tailMap(from, true)).entrySet().iterator();
+            return new Iterator<Map.Entry<K, V>>() {
+                private final Cursor<K, VersionedValue> cursor = map.cursor(from, filter);
+                private K baseKey;
+                private VersionedValue baseValue;
+                private Map.Entry<Object, Object> pendingEntry;
+                private Map.Entry<K, V> current;
+
+                {
+                    fetchNext();
+                }
+
+                @SuppressWarnings("unchecked")
+                private void fetchNext() {
+                    while (true) {
+                        if (baseKey == null && cursor.hasNext()) {
+                            baseKey = cursor.next();
+                            baseValue = cursor.getValue();
+                        }
+                        if (pendingEntry == null && pending.hasNext()) {
+                            pendingEntry = pending.next();
+                        }
+                        if (baseKey == null && pendingEntry == null) {
+                            current = null;
+                            return;
+                        }
+                        int comp = baseKey == null ? 1 : pendingEntry == null ? -1 :
+                                map.getKeyType().compare(baseKey, pendingEntry.getKey());
+                        K key;
+                        Object value;
+                        if (comp < 0) {
+                            key = baseKey;
+                            value = observe(state, baseKey, baseValue);
+                            baseKey = null;
+                        } else {
+                            key = (K) pendingEntry.getKey();
+                            value = pendingEntry.getValue();
+                            if (comp == 0) {
+                                // overwritten by this transaction
+                                observe(state, baseKey, baseValue);
+                                baseKey = null;
+                            }
+                            pendingEntry = null;
+                        }
+                        // the entry was read (added to the read set) even if
+                        // the value filter rejects it
+                        if (value != null && (valueFilter == null || valueFilter.accept(value))) {
+                            current = new DataUtil.MapEntry<K, V>(key, (V) value);
+                            return;
+                        }
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return current != null;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    Map.Entry<K, V> result = current;
+                    fetchNext();
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new RuntimeException("Removing is not supported");
+                }
+            };
+        }
+    }
+
+    /**
+     * The read and write set of an optimistic transaction for one map.
+     */
+    static class OptimisticState {
+
+        /**
+         * The map.
+         */
+        final MVMap<Object, VersionedValue> map;
+
+        /**
+         * The versions that were read. The value is the VersionedValue that
+         * was stored in the map at that time (null if there was none), in
+         * the committed form if its transaction was committed.
+         */
+        final TreeMap<Object, VersionedValue> reads;
+
+        /**
+         * The buffered changes (a null value means the entry is removed).
+         */
+        final TreeMap<Object, Object> writes;
+
+        OptimisticState(final MVMap<Object, VersionedValue> map) {
+            this.map = map;
+            Comparator<Object> comparator = new Comparator<Object>() {
+                @Override
+                public int compare(Object a, Object b) {
+                    return map.getKeyType().compare(a, b);
+                }
+            };
+            reads = new TreeMap<Object, VersionedValue>(comparator);
+            writes = new TreeMap<Object, Object>(comparator);
+        }
+
     }
 
     /**
@@ -1055,6 +2449,50 @@ public class TransactionStore {
 
     }
 
+    /**
+     * The summary type of a transaction map: summarizes the committed values
+     * of a page, using the summary type of the values.
+     */
+    static class VersionedSummaryType implements PageSummaryType {
+
+        private final PageSummaryType valueSummaryType;
+
+        VersionedSummaryType(PageSummaryType valueSummaryType) {
+            this.valueSummaryType = valueSummaryType;
+        }
+
+        @Override
+        public Object summarize(Object[] values, int len) {
+            Object[] list = new Object[len];
+            int count = 0;
+            for (int i = 0; i < len; i++) {
+                VersionedValue v = (VersionedValue) values[i];
+                if (v.operationId != 0) {
+                    return null;
+                }
+                if (v.value != null) {
+                    list[count++] = v.value;
+                }
+            }
+            return count == 0 ? null : valueSummaryType.summarize(list, count);
+        }
+
+        @Override
+        public Object merge(Object[] summaries, int len) {
+            return valueSummaryType.merge(summaries, len);
+        }
+
+        @Override
+        public void write(WriteBuffer buff, Object summary) {
+            valueSummaryType.write(buff, summary);
+        }
+
+        @Override
+        public Object read(ByteBuffer buff) {
+            return valueSummaryType.read(buff);
+        }
+    }
+
     /**
      * The value type for a versioned value.
      */
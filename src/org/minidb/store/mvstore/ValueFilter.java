@@ -0,0 +1,17 @@
+package org.minidb.store.mvstore;
+
+/**
+ * Decides which values an iterator returns. Values are tested before an
+ * entry is created for them.
+ */
+public interface ValueFilter {
+
+    /**
+     * Check whether the value matches.
+     *
+     * @param value the value
+     * @return false if the entry is skipped
+     */
+    boolean accept(Object value);
+
+}
@@ -29,6 +29,10 @@ public class Column {
      * @param table the table
      * @param columnId the column index
      */
+    public Table getTable() {
+        return table;
+    }
+
     public void setTable(Table table, int columnId) {
         this.table = table;
         this.columnId = columnId;
@@ -16,6 +16,13 @@ import org.minidb.value.Value;
  */
 public interface ColumnResolver {
 
+    /**
+     * Get the table alias.
+     *
+     * @return the table alias
+     */
+    String getTableAlias();
+
     TableFilter getTableFilter();
 
     Column[] getColumns();
@@ -0,0 +1,304 @@
+package org.minidb.table;
+
+import org.minidb.engine.ValueDataType;
+import org.minidb.store.mvstore.DataUtil;
+import org.minidb.store.mvstore.WriteBuffer;
+import org.minidb.store.mvstore.type.DataType;
+import org.minidb.value.Value;
+import org.minidb.value.ValueNull;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * The values of one column for a segment of the rows of a column table
+ * (see {@link ColumnTable}), together with the smallest and the largest
+ * value. A segment is written once and never changed.
+ * <p>
+ * When the segment is written, the encoding with the smallest estimated size
+ * is used: PLAIN stores each value, DICTIONARY stores the distinct values
+ * once and the position in the dictionary for each row, and RLE stores runs
+ * of equal values as the value and the length of the run. When it is read,
+ * the segment is decoded completely.
+ */
+public class ColumnSegment {
+
+    /**
+     * Each value is stored.
+     */
+    static final int PLAIN = 0;
+
+    /**
+     * The distinct values, and the position in the dictionary for each row.
+     */
+    static final int DICTIONARY = 1;
+
+    /**
+     * Runs of equal values (run-length encoding).
+     */
+    static final int RLE = 2;
+
+    private static final ValueDataType VALUE_TYPE = new ValueDataType(null);
+
+    private final Value[] values;
+    private final Value min, max;
+    private final int encoding;
+    private final int memory;
+
+    private ColumnSegment(Value[] values, Value min, Value max, int encoding) {
+        this.values = values;
+        this.min = min;
+        this.max = max;
+        this.encoding = encoding;
+        // the segment is kept decoded in memory
+        long mem = 64 + values.length * 8L;
+        for (Value v : values) {
+            mem += v.getMemory();
+        }
+        memory = (int) Math.min(Integer.MAX_VALUE, mem);
+    }
+
+    /**
+     * Create a segment, and pick the encoding.
+     *
+     * @param values the values by position (NULL as ValueNull)
+     * @return the segment
+     */
+    public static ColumnSegment create(Value[] values) {
+        Value min = null, max = null;
+        HashMap<Value, Value> distinct = new HashMap<>();
+        // estimated sizes: all values, distinct values, and the first
+        // value of each run
+        long plain = 0, dictionary = 0, rle = 0;
+        int runs = 0;
+        for (int i = 0; i < values.length; i++) {
+            Value v = values[i];
+            int size = v.getMemory();
+            plain += size;
+            if (distinct.put(v, v) == null) {
+                dictionary += size;
+            }
+            if (i == 0 || !v.equals(values[i - 1])) {
+                rle += size;
+                runs++;
+            }
+            if (v != ValueNull.INSTANCE) {
+                if (min == null || v.compareTo(min) < 0) {
+                    min = v;
+                }
+                if (max == null || v.compareTo(max) > 0) {
+                    max = v;
+                }
+            }
+        }
+        dictionary += (long) values.length * getVarIntLen(distinct.size());
+        rle += runs * 2L;
+        int encoding = PLAIN;
+        long size = plain;
+        if (dictionary < size) {
+            encoding = DICTIONARY;
+            size = dictionary;
+        }
+        if (rle < size) {
+            encoding = RLE;
+            size = rle;
+        }
+        return new ColumnSegment(values, min, max, encoding);
+    }
+
+    private static int getVarIntLen(int x) {
+        int len = 1;
+        while ((x >>>= 7) != 0) {
+            len++;
+        }
+        return len;
+    }
+
+    /**
+     * Get the value of a row.
+     *
+     * @param pos the position of the row in the segment
+     * @return the value
+     */
+    public Value getValue(int pos) {
+        return values[pos];
+    }
+
+    public int getRowCount() {
+        return values.length;
+    }
+
+    /**
+     * Get the smallest value.
+     *
+     * @return the value, or null if all values are NULL
+     */
+    public Value getMin() {
+        return min;
+    }
+
+    /**
+     * Get the largest value.
+     *
+     * @return the value, or null if all values are NULL
+     */
+    public Value getMax() {
+        return max;
+    }
+
+    public int getEncoding() {
+        return encoding;
+    }
+
+    public int getMemory() {
+        return memory;
+    }
+
+    private static Value orNull(Value v) {
+        return v == null ? ValueNull.INSTANCE : v;
+    }
+
+    /**
+     * Write the segment.
+     *
+     * @param buff the target buffer
+     */
+    void write(WriteBuffer buff) {
+        int n = values.length;
+        buff.put((byte) encoding).putVarInt(n);
+        VALUE_TYPE.write(buff, orNull(min));
+        VALUE_TYPE.write(buff, orNull(max));
+        switch (encoding) {
+            case PLAIN:
+                for (Value v : values) {
+                    VALUE_TYPE.write(buff, v);
+                }
+                break;
+            case DICTIONARY: {
+                HashMap<Value, Integer> dictionary = new HashMap<>();
+                for (Value v : values) {
+                    if (!dictionary.containsKey(v)) {
+                        dictionary.put(v, dictionary.size());
+                    }
+                }
+                Value[] list = new Value[dictionary.size()];
+                for (java.util.Map.Entry<Value, Integer> e : dictionary.entrySet()) {
+                    list[e.getValue()] = e.getKey();
+                }
+                buff.putVarInt(list.length);
+                for (Value v : list) {
+                    VALUE_TYPE.write(buff, v);
+                }
+                for (Value v : values) {
+                    buff.putVarInt(dictionary.get(v));
+                }
+                break;
+            }
+            default: {
+                int runs = 0;
+                for (int i = 0; i < n; i++) {
+                    if (i == 0 || !values[i].equals(values[i - 1])) {
+                        runs++;
+                    }
+                }
+                buff.putVarInt(runs);
+                for (int i = 0; i < n; ) {
+                    int j = i + 1;
+                    while (j < n && values[j].equals(values[i])) {
+                        j++;
+                    }
+                    VALUE_TYPE.write(buff, values[i]);
+                    buff.putVarInt(j - i);
+                    i = j;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a segment.
+     *
+     * @param buff the source buffer
+     * @return the segment
+     */
+    static ColumnSegment read(ByteBuffer buff) {
+        int encoding = buff.get();
+        int n = DataUtil.readVarInt(buff);
+        Value min = (Value) VALUE_TYPE.read(buff);
+        Value max = (Value) VALUE_TYPE.read(buff);
+        Value[] values = new Value[n];
+        switch (encoding) {
+            case PLAIN:
+                for (int i = 0; i < n; i++) {
+                    values[i] = (Value) VALUE_TYPE.read(buff);
+                }
+                break;
+            case DICTIONARY: {
+                Value[] list = new Value[DataUtil.readVarInt(buff)];
+                for (int i = 0; i < list.length; i++) {
+                    list[i] = (Value) VALUE_TYPE.read(buff);
+                }
+                for (int i = 0; i < n; i++) {
+                    values[i] = list[DataUtil.readVarInt(buff)];
+                }
+                break;
+            }
+            case RLE: {
+                int runs = DataUtil.readVarInt(buff);
+                for (int r = 0, i = 0; r < runs; r++) {
+                    Value v = (Value) VALUE_TYPE.read(buff);
+                    for (int len = DataUtil.readVarInt(buff); len > 0; len--) {
+                        values[i++] = v;
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown column segment encoding " + encoding);
+        }
+        return new ColumnSegment(values,
+                min == ValueNull.INSTANCE ? null : min,
+                max == ValueNull.INSTANCE ? null : max, encoding);
+    }
+
+    /**
+     * The data type of column segments in the column maps.
+     */
+    static class SegmentType implements DataType {
+
+        @Override
+        public int compare(Object a, Object b) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getMemory(Object obj) {
+            return ((ColumnSegment) obj).getMemory();
+        }
+
+        @Override
+        public void write(WriteBuffer buff, Object obj) {
+            ((ColumnSegment) obj).write(buff);
+        }
+
+        @Override
+        public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+            for (int i = 0; i < len; i++) {
+                write(buff, obj[i]);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer buff) {
+            return ColumnSegment.read(buff);
+        }
+
+        @Override
+        public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+            for (int i = 0; i < len; i++) {
+                obj[i] = read(buff);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,599 @@
+package org.minidb.table;
+
+import org.minidb.engine.Database;
+import org.minidb.engine.Session;
+import org.minidb.engine.ValueDataType;
+import org.minidb.index.BaseIndex;
+import org.minidb.index.Cursor;
+import org.minidb.index.IndexType;
+import org.minidb.index.SecondaryIndex;
+import org.minidb.store.mvstore.DataUtil;
+import org.minidb.store.mvstore.MVMap;
+import org.minidb.store.mvstore.MVStore;
+import org.minidb.store.mvstore.TransactionStore.TransactionMap;
+import org.minidb.store.mvstore.WriteBuffer;
+import org.minidb.store.mvstore.type.DataType;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A table that stores each column separately (CREATE TABLE .. ENGINE
+ * COLUMN). Queries only read the columns they use.
+ * <p>
+ * New and changed rows are first added to the table map (the delta), like
+ * in a regular table, so that they are transactional. When the delta
+ * contains enough committed rows, they are moved to segments of
+ * {@link #SEGMENT_ROWS} rows: the values of each column are stored as a
+ * {@link ColumnSegment} in a map per column, and the row keys, the deleted
+ * rows, and the smallest and largest value of each column in the segment
+ * map. Segments are never changed, except that rows are marked as deleted
+ * when a newer version is moved to another segment.
+ * <p>
+ * A row in the delta hides the row with the same key in the segments. The
+ * segments are published as an immutable list, so that a query reads a
+ * consistent list together with the delta. Rows are returned segment by
+ * segment, followed by the delta, and not in key order.
+ * <p>
+ * Only a primary key index is supported.
+ */
+public class ColumnTable extends Table {
+
+    /**
+     * The number of rows per segment.
+     */
+    public static final int SEGMENT_ROWS = 1024;
+
+    /**
+     * The number of rows in the delta at which committed rows are moved to
+     * segments.
+     */
+    private static final int FLUSH_ROWS = 2 * SEGMENT_ROWS;
+
+    private final MVMap<Value, SegmentInfo> segmentMap;
+    private final ArrayList<MVMap<Value, ColumnSegment>> columnMaps;
+
+    /**
+     * The segments, ordered by id. The array is replaced, never changed.
+     */
+    private volatile SegmentInfo[] segments;
+
+    /**
+     * Held while rows are moved from the delta to segments.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private long nextSegmentId;
+
+    @SuppressWarnings("unchecked")
+    public ColumnTable(CreateTableData data, Database db) {
+        super(data, db);
+        MVStore mvStore = db.getStore().getMvStore();
+        String prefix = "table." + getId();
+        segmentMap = mvStore.openMap(prefix + ".segments",
+                new MVMap.Builder<Value, SegmentInfo>().
+                keyType(new ValueDataType(null)).valueType(new SegmentInfoType()));
+        Column[] cols = getColumns();
+        columnMaps = new ArrayList<>(cols.length);
+        for (int i = 0; i < cols.length; i++) {
+            columnMaps.add(mvStore.openMap(prefix + ".col." + i,
+                    new MVMap.Builder<Value, ColumnSegment>().
+                    keyType(new ValueDataType(null)).valueType(new ColumnSegment.SegmentType())));
+        }
+        ArrayList<SegmentInfo> list = new ArrayList<>();
+        org.minidb.store.mvstore.Cursor<Value, SegmentInfo> c = segmentMap.cursor(null);
+        while (c.hasNext()) {
+            c.next();
+            SegmentInfo s = c.getValue();
+            list.add(s);
+            nextSegmentId = s.id + 1;
+            // generated row keys must not reuse the keys in segments
+            updateLastKey(s.keys[s.keys.length - 1]);
+        }
+        segments = list.toArray(new SegmentInfo[0]);
+    }
+
+    @Override
+    public BaseIndex addIndex(Session session, String indexName, int indexId,
+                              IndexColumn[] cols, IndexColumn[] includeColumns,
+                              IndexType indexType) {
+        if (!indexType.isPrimaryKey()) {
+            throw new RuntimeException("Secondary indexes are not supported on column tables");
+        }
+        if (cols.length != 1 || indexType.isHash()) {
+            throw new RuntimeException("Column tables only support a primary key on one column");
+        }
+        return super.addIndex(session, indexName, indexId, cols,
+                includeColumns, indexType);
+    }
+
+    @Override
+    public SecondaryIndex startIndexBuild(Session session, String indexName, int indexId,
+                                          IndexColumn[] cols, IndexColumn[] includeColumns,
+                                          IndexType indexType) {
+        throw new RuntimeException("Secondary indexes are not supported on column tables");
+    }
+
+    @Override
+    public void addRow(Session session, Row row) {
+        super.addRow(session, row);
+        if (getDataMap().sizeAsLongMax() >= FLUSH_ROWS && flushLock.tryLock()) {
+            // only one session moves rows, the others don't wait
+            try {
+                flush();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Move committed rows from the delta to new segments. Only full segments
+     * are written; the rows with the largest keys stay in the delta.
+     */
+    private void flush() {
+        ArrayList<Value> pending = new ArrayList<>();
+        Iterator<Map.Entry<Value, Value>> it = getDataMap().snapshotIterator(pending);
+        ArrayList<Map.Entry<Value, Value>> rows = new ArrayList<>();
+        while (it.hasNext()) {
+            rows.add(it.next());
+        }
+        int count = rows.size() / SEGMENT_ROWS * SEGMENT_ROWS;
+        if (count == 0) {
+            return;
+        }
+        SegmentInfo[] old = segments;
+        // old segments that contain older versions of the moved rows
+        HashMap<Long, SegmentInfo> changed = new HashMap<>();
+        ArrayList<SegmentInfo> added = new ArrayList<>();
+        int columnCount = getColumns().length;
+        for (int start = 0; start < count; start += SEGMENT_ROWS) {
+            long[] keys = new long[SEGMENT_ROWS];
+            Value[][] values = new Value[columnCount][SEGMENT_ROWS];
+            for (int i = 0; i < SEGMENT_ROWS; i++) {
+                Map.Entry<Value, Value> e = rows.get(start + i);
+                keys[i] = e.getKey().getLong();
+                Value[] data = ((ValueArray) e.getValue()).getList();
+                for (int c = 0; c < columnCount; c++) {
+                    values[c][i] = data[c] == null ? ValueNull.INSTANCE : data[c];
+                }
+            }
+            long id = nextSegmentId++;
+            Value[] min = new Value[columnCount], max = new Value[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                ColumnSegment s = ColumnSegment.create(values[c]);
+                min[c] = s.getMin();
+                max[c] = s.getMax();
+                columnMaps.get(c).put(ValueLong.get(id), s);
+            }
+            added.add(new SegmentInfo(id, keys, new BitSet(), min, max));
+            for (SegmentInfo s : old) {
+                SegmentInfo c = changed.get(s.id);
+                SegmentInfo d = (c == null ? s : c).delete(keys);
+                if (d != null) {
+                    changed.put(s.id, d);
+                }
+            }
+        }
+        for (SegmentInfo s : changed.values()) {
+            segmentMap.put(ValueLong.get(s.id), s);
+        }
+        for (SegmentInfo s : added) {
+            segmentMap.put(ValueLong.get(s.id), s);
+        }
+        SegmentInfo[] list = new SegmentInfo[old.length + added.size()];
+        for (int i = 0; i < old.length; i++) {
+            SegmentInfo c = changed.get(old[i].id);
+            list[i] = c == null ? old[i] : c;
+        }
+        for (int i = 0; i < added.size(); i++) {
+            list[old.length + i] = added.get(i);
+        }
+        segments = list;
+
+        // remove the moved rows from the delta; rows that were changed in
+        // the meantime stay, and the moved version is marked as deleted
+        TransactionMap<Value, Value> map = getDataMap();
+        ArrayList<Long> notRemoved = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map.Entry<Value, Value> e = rows.get(i);
+            if (!map.removeCommitted(e.getKey(), e.getValue())) {
+                notRemoved.add(e.getKey().getLong());
+            }
+        }
+        if (!notRemoved.isEmpty()) {
+            long[] keys = new long[notRemoved.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = notRemoved.get(i);
+            }
+            list = list.clone();
+            for (int i = old.length; i < list.length; i++) {
+                SegmentInfo d = list[i].delete(keys);
+                if (d != null) {
+                    list[i] = d;
+                    segmentMap.put(ValueLong.get(d.id), d);
+                }
+            }
+            segments = list;
+        }
+    }
+
+    @Override
+    public Row getRow(Session session, long key) {
+        // the segments are read after the delta: a row that is moved in the
+        // meantime is in the segments by then
+        Value v = getMap(session).get(ValueLong.get(key));
+        if (v != null) {
+            Row row = session.createRow((ValueArray) v);
+            row.setKey(key);
+            return row;
+        }
+        for (SegmentInfo s : segments) {
+            int pos = s.indexOf(key);
+            if (pos >= 0) {
+                Column[] cols = getColumns();
+                Value[] data = new Value[cols.length];
+                for (int c = 0; c < cols.length; c++) {
+                    data[c] = columnMaps.get(c).get(ValueLong.get(s.id)).getValue(pos);
+                }
+                Row row = session.createRow(data);
+                row.setKey(key);
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Cursor find(Session session, ValueLong first, ValueLong last) {
+        return find(session, first, last, null);
+    }
+
+    @Override
+    public Cursor find(TableFilter filter, ValueLong first, ValueLong last) {
+        return find(filter.getSession(), first, last, filter.getColumnsUsed());
+    }
+
+    private Cursor find(Session session, ValueLong first, ValueLong last, boolean[] columnsUsed) {
+        TransactionMap<Value, Value> map = getMap(session);
+        while (true) {
+            SegmentInfo[] list = segments;
+            ArrayList<Row> delta = new ArrayList<>();
+            HashSet<Long> deltaKeys = new HashSet<>();
+            Iterator<Map.Entry<Value, Value>> it = map.entryIterator(first);
+            while (it.hasNext()) {
+                Map.Entry<Value, Value> e = it.next();
+                long key = e.getKey().getLong();
+                if (key > last.getLong()) {
+                    break;
+                }
+                Row row = session.createRow((ValueArray) e.getValue());
+                row.setKey(key);
+                delta.add(row);
+                deltaKeys.add(key);
+            }
+            // if rows were moved to segments in the meantime, they may be
+            // missing in both
+            if (list == segments) {
+                return new ColumnCursor(session, list, delta, deltaKeys,
+                        first.getLong(), last.getLong(), columnsUsed);
+            }
+        }
+    }
+
+    /**
+     * Get the number of rows. Rows of the delta that replace rows in the
+     * segments are counted twice.
+     */
+    @Override
+    public long getRowCount(Session session) {
+        long count = getMap(session).sizeAsLong();
+        for (SegmentInfo s : segments) {
+            count += s.getLiveCount();
+        }
+        return count;
+    }
+
+    @Override
+    public double getBaseCost() {
+        long count = getDataMap().sizeAsLongMax();
+        for (SegmentInfo s : segments) {
+            count += s.getLiveCount();
+        }
+        return count + 1;
+    }
+
+    /**
+     * Read a uniform random sample of the rows visible to the session
+     * (reservoir sampling over all rows).
+     */
+    @Override
+    public ArrayList<Value[]> sampleRows(Session session, int sampleSize) {
+        ArrayList<Value[]> rows = new ArrayList<>();
+        Random random = new Random();
+        Cursor cursor = find(session, MIN, MAX);
+        for (long n = 0; cursor.next(); n++) {
+            Value[] data = cursor.get().getValueList();
+            if (n < sampleSize) {
+                rows.add(data);
+            } else {
+                long j = (long) (random.nextDouble() * (n + 1));
+                if (j < sampleSize) {
+                    rows.set((int) j, data);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The row keys, the deleted rows, and the smallest and largest values
+     * of a segment.
+     */
+    static final class SegmentInfo {
+
+        final long id;
+
+        /**
+         * The row keys, in ascending order.
+         */
+        final long[] keys;
+
+        /**
+         * The positions of the deleted rows. Not changed once the segment
+         * is published.
+         */
+        final BitSet deleted;
+
+        /**
+         * The smallest and largest value by column; null if all values are
+         * NULL.
+         */
+        final Value[] min, max;
+
+        SegmentInfo(long id, long[] keys, BitSet deleted, Value[] min, Value[] max) {
+            this.id = id;
+            this.keys = keys;
+            this.deleted = deleted;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Get the position of a row that is not deleted.
+         *
+         * @param key the row key
+         * @return the position, or -1
+         */
+        int indexOf(long key) {
+            if (key < keys[0] || key > keys[keys.length - 1]) {
+                return -1;
+            }
+            int pos = Arrays.binarySearch(keys, key);
+            return pos < 0 || deleted.get(pos) ? -1 : pos;
+        }
+
+        int getLiveCount() {
+            return keys.length - deleted.cardinality();
+        }
+
+        /**
+         * Mark rows as deleted.
+         *
+         * @param rowKeys the row keys, in ascending order
+         * @return the new segment info, or null if none of the rows are in
+         *         this segment
+         */
+        SegmentInfo delete(long[] rowKeys) {
+            if (rowKeys[0] > keys[keys.length - 1] ||
+                    rowKeys[rowKeys.length - 1] < keys[0]) {
+                return null;
+            }
+            BitSet d = null;
+            for (long k : rowKeys) {
+                int pos = indexOf(k);
+                if (pos >= 0) {
+                    if (d == null) {
+                        d = (BitSet) deleted.clone();
+                    }
+                    d.set(pos);
+                }
+            }
+            return d == null ? null : new SegmentInfo(id, keys, d, min, max);
+        }
+    }
+
+    /**
+     * The data type of the segment map.
+     */
+    static class SegmentInfoType implements DataType {
+
+        private static final ValueDataType VALUE_TYPE = new ValueDataType(null);
+
+        @Override
+        public int compare(Object a, Object b) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getMemory(Object obj) {
+            SegmentInfo s = (SegmentInfo) obj;
+            return 64 + s.keys.length * 8 + s.deleted.size() / 8 + s.min.length * 64;
+        }
+
+        @Override
+        public void write(WriteBuffer buff, Object obj) {
+            SegmentInfo s = (SegmentInfo) obj;
+            buff.putVarLong(s.id).putVarInt(s.keys.length).putLong(s.keys[0]);
+            // the keys are ascending: only the differences are stored
+            for (int i = 1; i < s.keys.length; i++) {
+                buff.putVarLong(s.keys[i] - s.keys[i - 1]);
+            }
+            long[] deleted = s.deleted.toLongArray();
+            buff.putVarInt(deleted.length);
+            for (long x : deleted) {
+                buff.putLong(x);
+            }
+            buff.putVarInt(s.min.length);
+            for (int i = 0; i < s.min.length; i++) {
+                VALUE_TYPE.write(buff, s.min[i] == null ? ValueNull.INSTANCE : s.min[i]);
+                VALUE_TYPE.write(buff, s.max[i] == null ? ValueNull.INSTANCE : s.max[i]);
+            }
+        }
+
+        @Override
+        public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+            for (int i = 0; i < len; i++) {
+                write(buff, obj[i]);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer buff) {
+            long id = DataUtil.readVarLong(buff);
+            long[] keys = new long[DataUtil.readVarInt(buff)];
+            keys[0] = buff.getLong();
+            for (int i = 1; i < keys.length; i++) {
+                keys[i] = keys[i - 1] + DataUtil.readVarLong(buff);
+            }
+            long[] deleted = new long[DataUtil.readVarInt(buff)];
+            for (int i = 0; i < deleted.length; i++) {
+                deleted[i] = buff.getLong();
+            }
+            int columnCount = DataUtil.readVarInt(buff);
+            Value[] min = new Value[columnCount], max = new Value[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                min[i] = readNullable(buff);
+                max[i] = readNullable(buff);
+            }
+            return new SegmentInfo(id, keys, BitSet.valueOf(deleted), min, max);
+        }
+
+        private static Value readNullable(ByteBuffer buff) {
+            Value v = (Value) VALUE_TYPE.read(buff);
+            return v == ValueNull.INSTANCE ? null : v;
+        }
+
+        @Override
+        public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+            for (int i = 0; i < len; i++) {
+                obj[i] = read(buff);
+            }
+        }
+    }
+
+    /**
+     * A cursor over the rows of a list of segments, followed by the rows of
+     * the delta. Only the used columns are read from the segments; the
+     * other values of the rows are null.
+     */
+    private class ColumnCursor implements Cursor {
+
+        private final Session session;
+        private final SegmentInfo[] list;
+        private final ArrayList<Row> delta;
+        private final HashSet<Long> deltaKeys;
+        private final long first, last;
+        private final boolean[] columnsUsed;
+        private final ColumnSegment[] current;
+        private int segmentIndex = -1;
+        private SegmentInfo segment;
+        private int pos;
+        private int deltaIndex = -1;
+        private Row row;
+
+        ColumnCursor(Session session, SegmentInfo[] list, ArrayList<Row> delta,
+                     HashSet<Long> deltaKeys, long first, long last, boolean[] columnsUsed) {
+            this.session = session;
+            this.list = list;
+            this.delta = delta;
+            this.deltaKeys = deltaKeys;
+            this.first = first;
+            this.last = last;
+            this.columnsUsed = columnsUsed;
+            current = new ColumnSegment[getColumns().length];
+        }
+
+        @Override
+        public Row get() {
+            return row;
+        }
+
+        @Override
+        public Row getSearchRow() {
+            return row;
+        }
+
+        @Override
+        public boolean next() {
+            row = null;
+            while (segment != null || nextSegment()) {
+                if (++pos >= segment.keys.length || segment.keys[pos] > last) {
+                    segment = null;
+                    continue;
+                }
+                long key = segment.keys[pos];
+                if (segment.deleted.get(pos) || deltaKeys.contains(key)) {
+                    continue;
+                }
+                Value[] data = new Value[current.length];
+                for (int c = 0; c < data.length; c++) {
+                    if (current[c] != null) {
+                        data[c] = current[c].getValue(pos);
+                    }
+                }
+                row = session.createRow(data);
+                row.setKey(key);
+                return true;
+            }
+            if (++deltaIndex < delta.size()) {
+                row = delta.get(deltaIndex);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Move to the next segment that contains rows in the key range, and
+         * read the used columns.
+         */
+        private boolean nextSegment() {
+            while (++segmentIndex < list.length) {
+                SegmentInfo s = list[segmentIndex];
+                long[] keys = s.keys;
+                if (keys[0] > last || keys[keys.length - 1] < first ||
+                        s.getLiveCount() == 0) {
+                    continue;
+                }
+                Value id = ValueLong.get(s.id);
+                for (int c = 0; c < current.length; c++) {
+                    current[c] = columnsUsed == null || columnsUsed[c] ?
+                            columnMaps.get(c).get(id) : null;
+                }
+                // the position before the first key in the range
+                int p = Arrays.binarySearch(keys, first);
+                pos = (p < 0 ? -p - 1 : p) - 1;
+                segment = s;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean previous() {
+            throw new RuntimeException("previous 不支持");
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.minidb.table;
+
+import org.minidb.engine.Database;
+
+/**
+ * The engine of tables that store each column separately (see
+ * {@link ColumnTable}).
+ */
+public class ColumnTableEngine implements TableFactory {
+
+    /**
+     * The name of the engine, as in CREATE TABLE .. ENGINE COLUMN.
+     */
+    public static final String NAME = "COLUMN";
+
+    public Table createTable(CreateTableData data) {
+        if (data.partitionType >= 0) {
+            throw new RuntimeException("Column tables can't be partitioned");
+        }
+        Database database = data.session.getDatabase();
+        database.openStore();
+        return new ColumnTable(data, database);
+    }
+}
@@ -0,0 +1,118 @@
+package org.minidb.table;
+
+import org.minidb.engine.Session;
+import org.minidb.expression.Comparison;
+import org.minidb.index.IndexCondition;
+import org.minidb.store.mvstore.PageFilter;
+import org.minidb.store.mvstore.ValueFilter;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueNull;
+
+import java.util.ArrayList;
+
+/**
+ * The conditions of a table scan that compare a column with a value
+ * (column = ?, column &lt; ? and so on), pushed down into the iterator of
+ * the table map. They are used to skip the pages whose zone map can't match,
+ * and the rows that don't match: those are not returned by the iterator,
+ * so no Row is created for them. Only the columns of the conditions are
+ * decoded.
+ * <p>
+ * The query still evaluates its condition on the rows that are returned.
+ */
+class ConditionFilter implements PageFilter, ValueFilter {
+
+    private final ArrayList<Integer> columns = new ArrayList<>();
+    private final ArrayList<Value> lows = new ArrayList<>();
+    private final ArrayList<Value> highs = new ArrayList<>();
+    private final ArrayList<Boolean> lowInclusive = new ArrayList<>();
+    private final ArrayList<Boolean> highInclusive = new ArrayList<>();
+
+    /**
+     * Get the filter for the index conditions of a scan, or null if none of
+     * them can be used.
+     *
+     * @param session the session
+     * @param conditions the index conditions, or null
+     * @return the filter, or null
+     */
+    static ConditionFilter create(Session session, ArrayList<IndexCondition> conditions) {
+        if (conditions == null || conditions.isEmpty()) {
+            return null;
+        }
+        ConditionFilter filter = new ConditionFilter();
+        for (IndexCondition c : conditions) {
+            int compareType = c.getCompareType();
+            if (compareType != Comparison.EQUAL && compareType != Comparison.BIGGER_EQUAL &&
+                    compareType != Comparison.BIGGER && compareType != Comparison.SMALLER_EQUAL &&
+                    compareType != Comparison.SMALLER) {
+                continue;
+            }
+            Value v = c.getCurrentValue(session);
+            if (v == ValueNull.INSTANCE) {
+                continue;
+            }
+            // not converted to the column type: the values are compared
+            // like the query condition does
+            filter.add(c.getColumn().getColumnId(), v, compareType);
+        }
+        return filter.columns.isEmpty() ? null : filter;
+    }
+
+    private void add(int column, Value v, int compareType) {
+        columns.add(column);
+        boolean start = compareType != Comparison.SMALLER &&
+                compareType != Comparison.SMALLER_EQUAL;
+        boolean end = compareType != Comparison.BIGGER &&
+                compareType != Comparison.BIGGER_EQUAL;
+        lows.add(start ? v : null);
+        lowInclusive.add(compareType != Comparison.BIGGER);
+        highs.add(end ? v : null);
+        highInclusive.add(compareType != Comparison.SMALLER);
+    }
+
+    @Override
+    public boolean accept(Object value) {
+        ValueArray row = (ValueArray) value;
+        for (int i = 0, size = columns.size(); i < size; i++) {
+            int column = columns.get(i);
+            if (column >= row.getLength()) {
+                continue;
+            }
+            Value v = row.getValue(column);
+            if (v == ValueNull.INSTANCE) {
+                // a comparison with NULL is never true
+                return false;
+            }
+            Value low = lows.get(i);
+            if (low != null) {
+                int comp = v.compareTo(low);
+                if (comp < 0 || comp == 0 && !lowInclusive.get(i)) {
+                    return false;
+                }
+            }
+            Value high = highs.get(i);
+            if (high != null) {
+                int comp = v.compareTo(high);
+                if (comp > 0 || comp == 0 && !highInclusive.get(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean test(Object summary) {
+        ZoneMap z = (ZoneMap) summary;
+        for (int i = 0, size = columns.size(); i < size; i++) {
+            if (!z.canMatch(columns.get(i), lows.get(i), lowInclusive.get(i),
+                    highs.get(i), highInclusive.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
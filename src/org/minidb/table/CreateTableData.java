@@ -3,6 +3,7 @@ package org.minidb.table;
 import org.minidb.engine.Session;
 import org.minidb.schema.Schema;
 import org.minidb.table.Column;
+import org.minidb.value.Value;
 
 import java.util.ArrayList;
 
@@ -16,4 +17,30 @@ public class CreateTableData {
     public Session session;
     public Schema schema;
     public ArrayList<Column> columns = new ArrayList<Column>();    //因为不知道有多少列
+
+    /**
+     * The name of the table engine, or null for the default engine.
+     */
+    public String tableEngine;
+
+    /**
+     * The partitioning (PartitionedTable.RANGE or HASH), or -1 if the table
+     * is not partitioned.
+     */
+    public int partitionType = -1;
+
+    /**
+     * The name of the partition column.
+     */
+    public String partitionColumn;
+
+    /**
+     * The partition names.
+     */
+    public ArrayList<String> partitionNames = new ArrayList<String>();
+
+    /**
+     * The upper bounds of the RANGE partitions (null for MAXVALUE).
+     */
+    public ArrayList<Value> partitionBounds = new ArrayList<Value>();
 }
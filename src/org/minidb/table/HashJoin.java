@@ -0,0 +1,270 @@
+package org.minidb.table;
+
+import org.minidb.engine.Session;
+import org.minidb.engine.ValueDataType;
+import org.minidb.index.IndexCondition;
+import org.minidb.index.IndexCursor;
+import org.minidb.store.mvstore.Cursor;
+import org.minidb.store.mvstore.MVMap;
+import org.minidb.store.mvstore.TransactionStore;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The hash table of a hash join. Instead of searching the joined table for
+ * each row of the tables joined before (a scan, if there is no index on the
+ * join columns), its rows are read once and hashed by the join columns
+ * (the build side); the rows of the other tables then only look up the rows
+ * with the same values (the probe side).
+ * <p>
+ * The hash table is split into partitions by the hash code of the join
+ * columns. If the rows need more memory than allowed, the largest
+ * partitions are written to temporary maps, sorted by the join columns, and
+ * the rows of those partitions are read from there.
+ */
+class HashJoin {
+
+    private static final int PARTITION_COUNT = 16;
+
+    /**
+     * The conditions column = expression; the columns belong to the
+     * build side, the expressions use the tables joined before.
+     */
+    private final IndexCondition[] conditions;
+    private final Column[] columns;
+
+    private TransactionStore store;
+    private ArrayList<HashMap<ValueArray, ArrayList<Row>>> partitions;
+    private ArrayList<MVMap<Value, Value>> spilled;
+    private long[] partitionMemory;
+    private long memory;
+    private boolean built;
+
+    private Iterator<Row> rows;
+    private Cursor<Value, Value> spillCursor;
+    private ValueArray spillKey;
+    private Row current;
+
+    HashJoin(ArrayList<IndexCondition> conditions) {
+        this.conditions = conditions.toArray(new IndexCondition[conditions.size()]);
+        columns = new Column[this.conditions.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = this.conditions[i].getColumn();
+        }
+    }
+
+    /**
+     * Find the rows that match the current row of the tables joined before.
+     * The hash table is built the first time.
+     *
+     * @param session the session
+     * @param cursor the cursor of the build side
+     * @param buildConditions the index conditions of the build side
+     */
+    void find(Session session, IndexCursor cursor,
+              ArrayList<IndexCondition> buildConditions) {
+        if (!built) {
+            build(session, cursor, buildConditions);
+        }
+        rows = null;
+        spillCursor = null;
+        current = null;
+        Value[] key = new Value[conditions.length];
+        for (int i = 0; i < key.length; i++) {
+            Value v = conditions[i].getCurrentValue(session);
+            if (v == ValueNull.INSTANCE) {
+                // a comparison with NULL is never true
+                return;
+            }
+            v = columns[i].convert(v);
+            if (v == null) {
+                return;
+            }
+            key[i] = v;
+        }
+        ValueArray k = ValueArray.get(key);
+        int p = getPartition(k);
+        if (partitions.get(p) != null) {
+            ArrayList<Row> list = partitions.get(p).get(k);
+            if (list != null) {
+                rows = list.iterator();
+            }
+        } else {
+            spillKey = k;
+            Value[] from = Arrays.copyOf(key, key.length + 1);
+            from[key.length] = ValueLong.get(Long.MIN_VALUE);
+            spillCursor = spilled.get(p).cursor(ValueArray.get(from));
+        }
+    }
+
+    /**
+     * Move to the next matching row.
+     *
+     * @param session the session
+     * @return true if there is one
+     */
+    boolean next(Session session) {
+        if (rows != null) {
+            if (rows.hasNext()) {
+                current = rows.next();
+                return true;
+            }
+        } else if (spillCursor != null && spillCursor.hasNext()) {
+            Value[] key = ((ValueArray) spillCursor.next()).getList();
+            boolean match = true;
+            for (int i = 0; i < columns.length; i++) {
+                if (!key[i].equals(spillKey.getValue(i))) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                Row row = session.createRow((ValueArray) spillCursor.getValue());
+                row.setKey(key[columns.length].getLong());
+                current = row;
+                return true;
+            }
+        }
+        rows = null;
+        spillCursor = null;
+        current = null;
+        return false;
+    }
+
+    Row get() {
+        return current;
+    }
+
+    private void build(Session session, IndexCursor cursor,
+                       ArrayList<IndexCondition> buildConditions) {
+        partitions = new ArrayList<>(PARTITION_COUNT);
+        spilled = new ArrayList<>(PARTITION_COUNT);
+        partitionMemory = new long[PARTITION_COUNT];
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            partitions.add(new HashMap<ValueArray, ArrayList<Row>>());
+            spilled.add(null);
+        }
+        memory = 0;
+        store = session.getDatabase().getStore().getTransactionStore();
+        long maxMemory = session.getDatabase().getMaxHashJoinMemory() * 1024L;
+        cursor.find(session, buildConditions);
+        while (cursor.next()) {
+            Row row = cursor.get();
+            Value[] key = new Value[columns.length];
+            boolean containsNull = false;
+            for (int i = 0; i < key.length; i++) {
+                Value v = row.getValue(columns[i].getColumnId());
+                if (v == null || v == ValueNull.INSTANCE) {
+                    containsNull = true;
+                    break;
+                }
+                key[i] = v;
+            }
+            if (containsNull) {
+                // can't match
+                continue;
+            }
+            ValueArray k = ValueArray.get(key);
+            int p = getPartition(k);
+            if (partitions.get(p) == null) {
+                spill(p, k, row);
+                continue;
+            }
+            ArrayList<Row> list = partitions.get(p).get(k);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                partitions.get(p).put(k, list);
+            }
+            list.add(row);
+            // the key, the list and the row
+            int mem = k.getMemory() + 64 + row.getMemory();
+            partitionMemory[p] += mem;
+            memory += mem;
+            while (memory > maxMemory && spillLargestPartition()) {
+                // continue
+            }
+        }
+        built = true;
+    }
+
+    private boolean spillLargestPartition() {
+        int largest = -1;
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            if (partitions.get(i) != null && (largest < 0 ||
+                    partitionMemory[i] > partitionMemory[largest])) {
+                largest = i;
+            }
+        }
+        if (largest < 0) {
+            return false;
+        }
+        spilled.set(largest, store.createTempMap(new ValueDataType(null),
+                new ValueDataType(null, true)));
+        for (Map.Entry<ValueArray, ArrayList<Row>> e :
+                partitions.get(largest).entrySet()) {
+            for (Row row : e.getValue()) {
+                spill(largest, e.getKey(), row);
+            }
+        }
+        partitions.set(largest, null);
+        memory -= partitionMemory[largest];
+        partitionMemory[largest] = 0;
+        return true;
+    }
+
+    private void spill(int partition, ValueArray key, Row row) {
+        Value[] k = Arrays.copyOf(key.getList(), columns.length + 1);
+        k[columns.length] = ValueLong.get(row.getKey());
+        spilled.get(partition).put(ValueArray.get(k), getValueArray(row));
+    }
+
+    private static ValueArray getValueArray(Row row) {
+        if (row instanceof LazyRow) {
+            // written as it is, without decoding the columns
+            return ((LazyRow) row).getArray();
+        }
+        Value[] data = row.getValueList().clone();
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == null) {
+                // a column that was not read (not used by the query)
+                data[i] = ValueNull.INSTANCE;
+            }
+        }
+        return ValueArray.get(data);
+    }
+
+    private static int getPartition(ValueArray key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (PARTITION_COUNT - 1);
+    }
+
+    /**
+     * Remove the hash table and the temporary maps. The hash table is built
+     * again when it is used the next time.
+     */
+    void close() {
+        if (spilled != null) {
+            for (MVMap<Value, Value> map : spilled) {
+                if (map != null) {
+                    store.removeTempMap(map);
+                }
+            }
+        }
+        partitions = null;
+        spilled = null;
+        partitionMemory = null;
+        rows = null;
+        spillCursor = null;
+        current = null;
+        built = false;
+    }
+
+}
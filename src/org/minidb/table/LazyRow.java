@@ -0,0 +1,44 @@
+package org.minidb.table;
+
+import org.minidb.engine.LazyValueArray;
+import org.minidb.value.Value;
+
+/**
+ * A row whose columns are decoded when they are used, for example by
+ * {@link TableFilter#getValue(Column)}: a query that reads a few columns of
+ * a wide table doesn't decode the other columns.
+ */
+public class LazyRow extends Row {
+
+    private final LazyValueArray array;
+
+    LazyRow(LazyValueArray array) {
+        // the decoded columns are kept in the array
+        super(null);
+        this.array = array;
+    }
+
+    @Override
+    public Value getValue(int i) {
+        return array.getValue(i);
+    }
+
+    @Override
+    public Value[] getValueList() {
+        return array.getList();
+    }
+
+    @Override
+    public void setValue(int i, Value v) {
+        array.getList()[i] = v;
+    }
+
+    LazyValueArray getArray() {
+        return array;
+    }
+
+    @Override
+    public int getMemory() {
+        return array.getMemory();
+    }
+}
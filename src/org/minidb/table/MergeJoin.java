@@ -0,0 +1,161 @@
+package org.minidb.table;
+
+import org.minidb.engine.Session;
+import org.minidb.index.BaseIndex;
+import org.minidb.index.Cursor;
+import org.minidb.index.IndexCondition;
+import org.minidb.value.Value;
+import org.minidb.value.ValueNull;
+
+import java.util.ArrayList;
+
+/**
+ * A merge join: if the rows of the tables joined before come in the order
+ * of the join column (for example a scan of a table by its primary key),
+ * the joined table is read with one cursor over an index on the join
+ * column, that only moves forward. For parent and child tables that share
+ * the same key, both tables are read in one sequential pass, instead of one
+ * index lookup for each row.
+ * <p>
+ * The rows that match the last value are kept, as the same value is often
+ * repeated (a parent row with many child rows). If a value is smaller than
+ * the value before (the rows are not sorted), the index is searched again
+ * from that value.
+ */
+class MergeJoin {
+
+    /**
+     * The condition column = expression; the column belongs to the joined
+     * table, the expression uses the tables joined before.
+     */
+    private final IndexCondition condition;
+    private final Column column;
+
+    private Cursor cursor;
+
+    /**
+     * The next row of the cursor (a search row), or null if there are no
+     * more rows.
+     */
+    private Row next;
+
+    /**
+     * The value of the last search, or null.
+     */
+    private Value last;
+
+    /**
+     * The value of the current search, or null if no more rows match.
+     */
+    private Value value;
+    private Row current;
+
+    /**
+     * The rows that match the last value.
+     */
+    private final ArrayList<Row> group = new ArrayList<>();
+
+    /**
+     * The position in the group if the last value is repeated, or -1.
+     */
+    private int groupIndex = -1;
+
+    MergeJoin(IndexCondition condition) {
+        this.condition = condition;
+        this.column = condition.getColumn();
+    }
+
+    /**
+     * Find the rows that match the current row of the tables joined before.
+     *
+     * @param filter the table filter of the joined table
+     * @param index the index on the join column
+     */
+    void find(TableFilter filter, BaseIndex index) {
+        value = null;
+        current = null;
+        Session session = filter.getSession();
+        Value v = condition.getCurrentValue(session);
+        if (v == ValueNull.INSTANCE) {
+            // a comparison with NULL is never true
+            return;
+        }
+        v = column.convert(v);
+        if (v == null) {
+            return;
+        }
+        groupIndex = -1;
+        int comp = cursor == null || last == null ? -1 : v.compareTo(last);
+        if (comp == 0) {
+            groupIndex = 0;
+            return;
+        }
+        group.clear();
+        if (comp < 0) {
+            Row first = filter.getTable().getTemplateRow();
+            first.setValue(column.getColumnId(), v);
+            cursor = index.find(filter, first, null);
+            advance();
+        } else {
+            while (next != null && getValue(next).compareTo(v) < 0) {
+                advance();
+            }
+        }
+        last = v;
+        value = v;
+    }
+
+    /**
+     * Move to the next matching row.
+     *
+     * @return true if there is one
+     */
+    boolean next() {
+        if (groupIndex >= 0) {
+            if (groupIndex < group.size()) {
+                current = group.get(groupIndex++);
+                return true;
+            }
+            current = null;
+            return false;
+        }
+        if (value == null || next == null ||
+                getValue(next).compareTo(value) != 0) {
+            value = null;
+            current = null;
+            return false;
+        }
+        // only the rows that match are read from the table
+        current = cursor.get();
+        group.add(current);
+        advance();
+        return true;
+    }
+
+    Row get() {
+        return current;
+    }
+
+    private void advance() {
+        next = cursor.next() ? cursor.getSearchRow() : null;
+    }
+
+    private Value getValue(Row row) {
+        Value v = row.getValue(column.getColumnId());
+        return v == null ? ValueNull.INSTANCE : v;
+    }
+
+    /**
+     * Close the cursor. The next search starts from the index again.
+     */
+    void close() {
+        cursor = null;
+        next = null;
+        last = null;
+        value = null;
+        current = null;
+        group.clear();
+        groupIndex = -1;
+    }
+
+}
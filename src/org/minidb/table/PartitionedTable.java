@@ -0,0 +1,826 @@
+package org.minidb.table;
+
+import org.minidb.engine.Database;
+import org.minidb.engine.Session;
+import org.minidb.engine.ValueDataType;
+import org.minidb.expression.Comparison;
+import org.minidb.index.BaseIndex;
+import org.minidb.index.Cursor;
+import org.minidb.index.IndexCondition;
+import org.minidb.store.mvstore.TransactionStore;
+import org.minidb.store.mvstore.TransactionStore.TransactionMap;
+import org.minidb.util.StatementBuilder;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueLong;
+import org.minidb.value.ValueNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A table that is split into partitions by the value of one column
+ * (CREATE TABLE .. PARTITION BY RANGE(column) (PARTITION name VALUES LESS
+ * THAN (value), ..) or PARTITION BY HASH(column) PARTITIONS count). Each
+ * partition has its own table map, so that writers to different partitions
+ * don't copy the same root page, and a partition can be dropped by removing
+ * its map.
+ * <p>
+ * Scans only read the partitions that can contain rows matching the index
+ * conditions of the query on the partition column. If more than one
+ * partition is read, the partitions are read ahead in parallel.
+ * <p>
+ * Indexes are global: they contain the rows of all partitions.
+ */
+public class PartitionedTable extends Table {
+
+    /**
+     * Each partition contains the values smaller than its bound.
+     */
+    public static final int RANGE = 0;
+
+    /**
+     * The partition is picked by the hash code of the value.
+     */
+    public static final int HASH = 1;
+
+    /**
+     * The minimum number of rows to read partitions in parallel.
+     */
+    private static final int PARALLEL_SCAN_MIN_ROWS = 10000;
+
+    /**
+     * The number of rows that are read ahead per batch.
+     */
+    private static final int BATCH_ROWS = 256;
+
+    /**
+     * The threads of parallel partition scans. There are at most as many
+     * threads as processors; if none is free, the partition is read by the
+     * query itself.
+     */
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0,
+            Runtime.getRuntime().availableProcessors(), 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "partition scan");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final int partitionType;
+    private final Column partitionColumn;
+
+    /**
+     * The partitions; for RANGE ordered by bound. The array is replaced,
+     * never changed.
+     */
+    private volatile Partition[] partitions;
+
+    public PartitionedTable(CreateTableData data, Database db) {
+        super(data, db);
+        partitionType = data.partitionType;
+        partitionColumn = getColumn(data.partitionColumn);
+        if (partitionColumn == null) {
+            throw new RuntimeException("Partition column " + data.partitionColumn + " not found");
+        }
+        Partition[] list = new Partition[data.partitionNames.size()];
+        for (int i = 0; i < list.length; i++) {
+            Value bound = data.partitionBounds.get(i);
+            list[i] = openPartition(data.partitionNames.get(i),
+                    bound == null ? null : partitionColumn.convert(bound));
+        }
+        checkBounds(list);
+        partitions = list;
+        for (Partition p : list) {
+            // generated row keys must not reuse the keys of any partition
+            Value k = p.map.lastKey();
+            if (k != null) {
+                updateLastKey(k.getLong());
+            }
+        }
+    }
+
+    private Partition openPartition(String name, Value bound) {
+        for (Partition p : partitions == null ? new Partition[0] : partitions) {
+            if (p.name.equals(name)) {
+                throw new RuntimeException("Duplicate partition " + name);
+            }
+        }
+        TransactionStore.Transaction t = getTransaction(null);
+        int[] sortTypes = new int[getColumns().length];
+        for (int i = 0; i < sortTypes.length; i++) {
+            sortTypes[i] = ASCENDING;
+        }
+        TransactionMap<Value, Value> map = t.openMap(getPartitionMapName(name),
+                new ValueDataType(null), new ValueDataType(sortTypes, true), true);
+        map.setPageSummaryType(new ZoneMap.ZoneMapType());
+        t.commit();
+        return new Partition(name, bound, map);
+    }
+
+    private String getPartitionMapName(String partitionName) {
+        return "table." + getId() + ".part." + partitionName;
+    }
+
+    private void checkBounds(Partition[] list) {
+        if (list.length == 0) {
+            throw new RuntimeException("A partitioned table needs at least one partition");
+        }
+        if (partitionType != RANGE) {
+            return;
+        }
+        for (int i = 0; i < list.length; i++) {
+            Value bound = list[i].bound;
+            if (bound == null ? i != list.length - 1 :
+                    i > 0 && bound.compareTo(list[i - 1].bound) <= 0) {
+                throw new RuntimeException("The partition bounds must be ascending, and only the last may be MAXVALUE");
+            }
+        }
+    }
+
+    public int getPartitionType() {
+        return partitionType;
+    }
+
+    public Column getPartitionColumn() {
+        return partitionColumn;
+    }
+
+    @Override
+    List<TransactionMap<Value, Value>> getDataMaps() {
+        ArrayList<TransactionMap<Value, Value>> list = new ArrayList<>();
+        for (Partition p : partitions) {
+            list.add(p.map);
+        }
+        return list;
+    }
+
+    private TransactionMap<Value, Value> getMap(Session session, Partition p) {
+        if (session == null) {
+            return p.map;
+        }
+        return p.map.getInstance(getTransaction(session), Long.MAX_VALUE);
+    }
+
+    /**
+     * Get the partition for a value of the partition column.
+     *
+     * @param list the partitions
+     * @param v the value
+     * @return the index of the partition
+     */
+    private int getPartitionIndex(Partition[] list, Value v) {
+        if (v == null || v == ValueNull.INSTANCE) {
+            // NULL sorts before all other values
+            return 0;
+        }
+        v = partitionColumn.convert(v);
+        if (partitionType == HASH) {
+            return Math.floorMod(v.hashCode(), list.length);
+        }
+        // the first partition with a larger bound
+        int low = 0, high = list.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Value bound = list[mid].bound;
+            if (bound == null || bound.compareTo(v) > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if (low == list.length) {
+            throw new RuntimeException("No partition of " + getName() + " for value " + v.getSQL());
+        }
+        return low;
+    }
+
+    /**
+     * Whether the row key is the value of the partition column, so that a
+     * row can be found by key in a single partition.
+     */
+    private boolean isPartitionedByKey() {
+        return getPrimaryIndexColumnId() == partitionColumn.getColumnId();
+    }
+
+    @Override
+    protected Value putRow(Session session, Value key, ValueArray value) {
+        Partition[] list = partitions;
+        int index = getPartitionIndex(list, value.getList()[partitionColumn.getColumnId()]);
+        Value old = getMap(session, list[index]).put(key, value);
+        if (old == null && getPrimaryIndexColumnId() >= 0 && !isPartitionedByKey()) {
+            // the row may have been in another partition
+            for (int i = 0; i < list.length; i++) {
+                if (i != index) {
+                    TransactionMap<Value, Value> map = getMap(session, list[i]);
+                    if (map.get(key) != null) {
+                        old = map.remove(key);
+                        break;
+                    }
+                }
+            }
+        }
+        return old;
+    }
+
+    @Override
+    public Row getRow(Session session, long key) {
+        RowCache cache = getRowCache(session);
+        long stamp = 0;
+        if (cache != null) {
+            Row row = cache.get(getId(), key);
+            if (row != null) {
+                return row;
+            }
+            stamp = cache.getStamp();
+        }
+        Partition[] list = partitions;
+        ValueLong k = ValueLong.get(key);
+        Value v = null;
+        if (isPartitionedByKey()) {
+            v = getMap(session, list[getPartitionIndex(list, k)]).get(k);
+        } else {
+            for (Partition p : list) {
+                // the Bloom filters make the lookups in the other partitions cheap
+                v = getMap(session, p).get(k);
+                if (v != null) {
+                    break;
+                }
+            }
+        }
+        if (v == null) {
+            return null;
+        }
+        Row row = session.createRow((ValueArray) v);
+        row.setKey(key);
+        if (cache != null) {
+            cache.put(getId(), key, row, stamp);
+        }
+        return row;
+    }
+
+    @Override
+    public boolean isRowLocked(Session session, long key) {
+        for (Partition p : partitions) {
+            if (getMap(session, p).isLockedByOther(ValueLong.get(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getRowCount(Session session) {
+        long count = 0;
+        for (Partition p : partitions) {
+            count += getMap(session, p).sizeAsLong();
+        }
+        return count;
+    }
+
+    /**
+     * The partitions are read one after the other (or in parallel), so the
+     * rows are not in the order of the row key.
+     */
+    @Override
+    public boolean isSortedByKey() {
+        return false;
+    }
+
+    @Override
+    public double getBaseCost() {
+        long count = 0;
+        for (Partition p : partitions) {
+            count += p.map.sizeAsLongMax();
+        }
+        return count + 1;
+    }
+
+    /**
+     * Get the cost of scanning the partitions that can contain rows matching
+     * the constant conditions on the partition column.
+     */
+    @Override
+    public double getScanCost(Session session, TableFilter filter) {
+        long count = 0;
+        for (Partition p : getPartitions(session, filter.getIndexConditions(), true, MIN, MAX)) {
+            count += p.map.sizeAsLongMax();
+        }
+        return count + 1;
+    }
+
+    /**
+     * Read a sample of each partition, in proportion to its size.
+     */
+    @Override
+    public ArrayList<Value[]> sampleRows(Session session, int sampleSize) {
+        Partition[] list = partitions;
+        long total = 0;
+        for (Partition p : list) {
+            total += p.map.sizeAsLongMax();
+        }
+        ArrayList<Value[]> rows = new ArrayList<>();
+        for (Partition p : list) {
+            long size = p.map.sizeAsLongMax();
+            if (size > 0) {
+                int n = (int) Math.max(1, Math.round((double) sampleSize * size / total));
+                sampleRows(getMap(session, p), n, rows);
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public Cursor find(Session session, ValueLong first, ValueLong last) {
+        return find(session, getPartitions(session, null, false, first, last), first, last,
+                null);
+    }
+
+    @Override
+    public Cursor find(TableFilter filter, ValueLong first, ValueLong last) {
+        Session session = filter.getSession();
+        ArrayList<IndexCondition> conditions = filter.getAllIndexConditions();
+        return find(session, getPartitions(session, conditions, false, first, last),
+                first, last, ConditionFilter.create(session, conditions));
+    }
+
+    private Cursor find(Session session, ArrayList<Partition> list, ValueLong first,
+                        ValueLong last, ConditionFilter conditions) {
+        RowCache cache = getRowCache(session);
+        // the stamp is read before the iterators read the first rows
+        long stamp = cache == null ? 0 : cache.getStamp();
+        ArrayList<TableCursor> cursors = new ArrayList<>(list.size());
+        long rows = 0;
+        for (Partition p : list) {
+            cursors.add(new TableCursor(session,
+                    getMap(session, p).entryIterator(first, conditions, conditions),
+                    last, cache, stamp));
+            rows += p.map.sizeAsLongMax();
+        }
+        if (cursors.size() > 1 && rows >= PARALLEL_SCAN_MIN_ROWS) {
+            return new ParallelCursor(cursors);
+        }
+        return new PartitionCursor(cursors);
+    }
+
+    /**
+     * Get the partitions that can contain rows that match the conditions
+     * on the partition column and the key range.
+     *
+     * @param session the session
+     * @param conditions the index conditions, or null
+     * @param constantOnly whether only constant conditions can be evaluated
+     *            (while the plan is calculated)
+     * @param first the lowest row key
+     * @param last the highest row key
+     * @return the partitions, for RANGE in ascending order
+     */
+    private ArrayList<Partition> getPartitions(Session session,
+            ArrayList<IndexCondition> conditions, boolean constantOnly,
+            ValueLong first, ValueLong last) {
+        Partition[] list = partitions;
+        Value min = null, max = null, equal = null;
+        // whether max itself is excluded (column < max)
+        boolean maxExclusive = false;
+        if (isPartitionedByKey()) {
+            // the primary index passes its own copies of MIN and MAX
+            min = first.getLong() == Long.MIN_VALUE ? null : first;
+            max = last.getLong() == Long.MAX_VALUE ? null : last;
+        }
+        if (conditions != null) {
+            for (IndexCondition c : conditions) {
+                if (c.isAlwaysFalse()) {
+                    return new ArrayList<>();
+                }
+                if (c.getColumn() != partitionColumn || !(c.isStart() || c.isEnd()) ||
+                        constantOnly && !c.getExpression().isConstant()) {
+                    continue;
+                }
+                Value v = c.getCurrentValue(session);
+                if (v == ValueNull.INSTANCE) {
+                    // NULL is handled by the query condition
+                    continue;
+                }
+                v = partitionColumn.convert(v);
+                if (c.getCompareType() == Comparison.EQUAL) {
+                    equal = v;
+                }
+                if (c.isStart() && (min == null || v.compareTo(min) > 0)) {
+                    min = v;
+                }
+                if (c.isEnd()) {
+                    int comp = max == null ? -1 : v.compareTo(max);
+                    if (comp < 0 || comp == 0 && c.getCompareType() == Comparison.SMALLER) {
+                        max = v;
+                        maxExclusive = c.getCompareType() == Comparison.SMALLER;
+                    }
+                }
+            }
+        }
+        ArrayList<Partition> result = new ArrayList<>();
+        if (partitionType == HASH) {
+            if (equal != null) {
+                result.add(list[getPartitionIndex(list, equal)]);
+            } else {
+                for (Partition p : list) {
+                    result.add(p);
+                }
+            }
+            return result;
+        }
+        for (int i = 0; i < list.length; i++) {
+            // the partition contains the values from the previous bound
+            // (inclusive) to its bound (exclusive)
+            Value low = i == 0 ? null : list[i - 1].bound;
+            Value high = list[i].bound;
+            if (max != null && low != null) {
+                int comp = low.compareTo(max);
+                if (comp > 0 || comp == 0 && maxExclusive) {
+                    break;
+                }
+            }
+            if (min != null && high != null && high.compareTo(min) <= 0) {
+                continue;
+            }
+            result.add(list[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Add a partition after the last one (only for RANGE).
+     *
+     * @param session the session
+     * @param name the partition name
+     * @param bound the bound, or null for MAXVALUE
+     */
+    public void addPartition(Session session, String name, Value bound) {
+        if (partitionType != RANGE) {
+            throw new RuntimeException("Partitions can only be added to RANGE partitioned tables");
+        }
+        Partition[] old = partitions;
+        Partition[] list = new Partition[old.length + 1];
+        System.arraycopy(old, 0, list, 0, old.length);
+        list[old.length] = openPartition(name, bound == null ? null : partitionColumn.convert(bound));
+        checkBounds(list);
+        partitions = list;
+        getDatabase().updateMeta(session, this);
+    }
+
+    /**
+     * Remove a partition from the table (only for RANGE), and either remove
+     * its rows, or keep them in a new table. The rows are not read, except
+     * to remove their index entries if the table has secondary indexes.
+     *
+     * @param session the session
+     * @param name the partition name
+     * @param newTableName the name of the new table, or null to remove the
+     *            rows
+     * @param newTableId the object id of the new table
+     * @return the new table, or null
+     */
+    public Table removePartition(Session session, String name, String newTableName,
+                                 int newTableId) {
+        if (partitionType != RANGE) {
+            throw new RuntimeException("Partitions can only be removed from RANGE partitioned tables");
+        }
+        Partition[] old = partitions;
+        int index = -1;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i].name.equals(name)) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            throw new RuntimeException("Partition " + name + " not found");
+        }
+        if (old.length == 1) {
+            throw new RuntimeException("The last partition can't be removed");
+        }
+        Partition p = old[index];
+        for (BaseIndex idx : getIndexes()) {
+            if (idx.getIndexType().isPrimaryKey() && !idx.getIndexType().isHash()) {
+                // the primary key is the key of the table maps
+                continue;
+            }
+            Cursor cursor = find(session, new ArrayList<>(Collections.singletonList(p)),
+                    MIN, MAX, null);
+            while (cursor.next()) {
+                idx.remove(session, cursor.get());
+            }
+        }
+        Partition[] list = new Partition[old.length - 1];
+        System.arraycopy(old, 0, list, 0, index);
+        System.arraycopy(old, index + 1, list, index, list.length - index);
+        partitions = list;
+        RowCache cache = getDatabase().getRowCache();
+        if (cache != null) {
+            cache.removeTable(getId());
+        }
+        Table table = null;
+        TransactionStore.Transaction t = getTransaction(null);
+        if (newTableName == null) {
+            t.removeMap(p.map);
+        } else {
+            // the map of the partition becomes the map of the new table
+            t.renameMap(p.map, "table." + newTableId);
+            CreateTableData data = new CreateTableData();
+            data.id = newTableId;
+            data.tableName = newTableName;
+            data.session = session;
+            data.schema = getSchema();
+            for (Column c : getColumns()) {
+                Column col = new Column(c.getName(), c.getType());
+                col.setNullable(c.isNullable());
+                col.setOriginalSQL(c.getOriginalSQL());
+                data.columns.add(col);
+            }
+            table = getSchema().createTable(data);
+        }
+        t.commit();
+        getDatabase().updateMeta(session, this);
+        return table;
+    }
+
+    @Override
+    public String getCreateSQL() {
+        String sql = super.getCreateSQL();
+        if (sql == null) {
+            return null;
+        }
+        StatementBuilder buff = new StatementBuilder(sql);
+        buff.append("\nPARTITION BY ");
+        buff.append(partitionType == HASH ? "HASH(" : "RANGE(");
+        buff.append(partitionColumn.getSQL()).append(')');
+        Partition[] list = partitions;
+        if (partitionType == HASH) {
+            buff.append(" PARTITIONS ").append(list.length);
+        } else {
+            buff.append(" (\n    ");
+            for (Partition p : list) {
+                buff.appendExceptFirst(",\n    ");
+                buff.append("PARTITION ").append(p.name).append(" VALUES LESS THAN (");
+                buff.append(p.bound == null ? "MAXVALUE" : p.bound.getSQL()).append(')');
+            }
+            buff.append("\n)");
+        }
+        return buff.toString();
+    }
+
+    /**
+     * A partition: the rows with values smaller than the bound (for RANGE).
+     */
+    static final class Partition {
+
+        final String name;
+
+        /**
+         * The exclusive upper bound, or null for MAXVALUE (and for HASH).
+         */
+        final Value bound;
+        final TransactionMap<Value, Value> map;
+
+        Partition(String name, Value bound, TransactionMap<Value, Value> map) {
+            this.name = name;
+            this.bound = bound;
+            this.map = map;
+        }
+    }
+
+    /**
+     * A cursor that reads the partitions one after the other.
+     */
+    private static class PartitionCursor implements Cursor {
+
+        private final ArrayList<TableCursor> cursors;
+        private int index;
+
+        PartitionCursor(ArrayList<TableCursor> cursors) {
+            this.cursors = cursors;
+        }
+
+        @Override
+        public Row get() {
+            return index < cursors.size() ? cursors.get(index).get() : null;
+        }
+
+        @Override
+        public Row getSearchRow() {
+            return get();
+        }
+
+        @Override
+        public boolean next() {
+            while (index < cursors.size()) {
+                if (cursors.get(index).next()) {
+                    return true;
+                }
+                index++;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean previous() {
+            throw new RuntimeException("previous 不支持");
+        }
+    }
+
+    /**
+     * A cursor that reads all partitions at the same time, in background
+     * threads, and returns the rows partition by partition. Each partition
+     * reads at most a few batches ahead. A partition for which no thread is
+     * free is read by the query itself. The threads stop when the cursor is
+     * closed, or if it is no longer used.
+     */
+    public static class ParallelCursor implements Cursor {
+
+        /**
+         * Marks the end of a partition.
+         */
+        private static final Row[] END = new Row[0];
+
+        private final ArrayList<TableCursor> cursors;
+        private final ArrayList<BlockingQueue<Object>> queues;
+        private final ArrayList<Future<?>> tasks;
+        private volatile boolean closed;
+        private int index;
+        private Row[] batch = END;
+        private int pos;
+        private Row row;
+
+        ParallelCursor(ArrayList<TableCursor> cursors) {
+            this.cursors = cursors;
+            queues = new ArrayList<>(cursors.size());
+            tasks = new ArrayList<>(cursors.size());
+            WeakReference<ParallelCursor> ref = new WeakReference<>(this);
+            for (TableCursor c : cursors) {
+                BlockingQueue<Object> queue = new ArrayBlockingQueue<>(4);
+                Future<?> task;
+                try {
+                    task = EXECUTOR.submit(new ReadAhead(c, queue, ref));
+                } catch (RejectedExecutionException e) {
+                    // all threads are busy
+                    queue = null;
+                    task = null;
+                }
+                queues.add(queue);
+                tasks.add(task);
+            }
+        }
+
+        @Override
+        public Row get() {
+            return row;
+        }
+
+        @Override
+        public Row getSearchRow() {
+            return row;
+        }
+
+        @Override
+        public boolean next() {
+            while (pos >= batch.length) {
+                if (index >= queues.size()) {
+                    row = null;
+                    return false;
+                }
+                BlockingQueue<Object> queue = queues.get(index);
+                if (queue == null) {
+                    TableCursor c = cursors.get(index);
+                    if (c.next()) {
+                        row = c.get();
+                        return true;
+                    }
+                    index++;
+                    continue;
+                }
+                Object o;
+                try {
+                    o = queue.take();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("Partition scan interrupted", e);
+                }
+                if (o instanceof RuntimeException) {
+                    throw (RuntimeException) o;
+                }
+                batch = (Row[]) o;
+                pos = 0;
+                if (batch == END) {
+                    index++;
+                }
+            }
+            row = batch[pos++];
+            return true;
+        }
+
+        @Override
+        public boolean previous() {
+            throw new RuntimeException("previous 不支持");
+        }
+
+        /**
+         * Stop the background threads, and wait until they don't read any
+         * more rows: the transaction of the query may be committed next.
+         */
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (int i = 0; i < tasks.size(); i++) {
+                Future<?> task = tasks.get(i);
+                if (task == null) {
+                    continue;
+                }
+                // a thread that waits for space stops at the next try
+                queues.get(i).clear();
+                // not interrupted: that would close the file of the store
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("Partition scan interrupted", e);
+                } catch (ExecutionException e) {
+                    // reported to the reader already
+                }
+            }
+            row = null;
+        }
+    }
+
+    /**
+     * Reads the rows of one partition in batches.
+     */
+    private static class ReadAhead implements Runnable {
+
+        private final TableCursor cursor;
+        private final BlockingQueue<Object> queue;
+        private final WeakReference<ParallelCursor> owner;
+
+        ReadAhead(TableCursor cursor, BlockingQueue<Object> queue,
+                  WeakReference<ParallelCursor> owner) {
+            this.cursor = cursor;
+            this.queue = queue;
+            this.owner = owner;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isClosed()) {
+                    ArrayList<Row> rows = new ArrayList<>(BATCH_ROWS);
+                    while (rows.size() < BATCH_ROWS && cursor.next()) {
+                        rows.add(cursor.get());
+                    }
+                    if (!rows.isEmpty() && !put(rows.toArray(new Row[0]))) {
+                        return;
+                    }
+                    if (rows.size() < BATCH_ROWS) {
+                        put(ParallelCursor.END);
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                put(e);
+            }
+        }
+
+        private boolean isClosed() {
+            ParallelCursor c = owner.get();
+            // if the cursor is no longer used, the query doesn't read the
+            // rows any more
+            return c == null || c.closed;
+        }
+
+        private boolean put(Object o) {
+            try {
+                while (!isClosed()) {
+                    if (queue.offer(o, 1, TimeUnit.SECONDS)) {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+}
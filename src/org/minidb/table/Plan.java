@@ -8,31 +8,124 @@ package org.minidb.table;
 import org.minidb.engine.Session;
 import org.minidb.expression.Expression;
 import org.minidb.expression.ExpressionVisitor;
+import org.minidb.index.IndexCondition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 
+/**
+ * A possible query execution plan: the table filters in join order, and
+ * the index to use for each of them.
+ */
 public class Plan {
 
-    private final TableFilter tableFilter;
-    private PlanItem planItem = null;
+    /**
+     * The cost of adding a row to the hash table of a hash join, relative
+     * to reading it.
+     */
+    private static final int HASH_BUILD_COST = 3;
+
+    private final TableFilter[] filters;
+    private final HashMap<TableFilter, PlanItem> planItems = new HashMap<>();
     private final Expression condition;
 
-    public Plan(TableFilter filter, Expression condition) {
-        this.tableFilter = filter;
+    /**
+     * Create a query plan.
+     *
+     * @param filters the table filters, in join order
+     * @param condition the query condition, or null
+     */
+    public Plan(TableFilter[] filters, Expression condition) {
+        this.filters = filters;
         this.condition = condition;
     }
 
-    public PlanItem getItem() {
-        return planItem;
+    public PlanItem getItem(TableFilter filter) {
+        return planItems.get(filter);
     }
 
-    public TableFilter getTableFilter() {
-        return tableFilter;
+    public TableFilter[] getFilters() {
+        return filters;
     }
 
+    /**
+     * Remove the index conditions of each table filter that use a table
+     * that is joined later.
+     */
+    public void removeUnusableIndexConditions() {
+        for (TableFilter f : filters) {
+            setEvaluatable(f, true);
+            f.removeUnusableIndexConditions();
+        }
+        for (TableFilter f : filters) {
+            setEvaluatable(f, false);
+        }
+    }
+
+    /**
+     * Calculate the cost of this plan: the cost of reading the first table,
+     * plus the cost of searching each joined table for each row. A joined
+     * table that can only be scanned, but has equality conditions with the
+     * tables joined before, is read once into a hash table if that is
+     * cheaper (a hash join). If the rows of the tables joined before are
+     * sorted by the join column, and the joined table has an index on it,
+     * the index may be read in one pass (a merge join).
+     *
+     * @param session the session
+     * @return the cost
+     */
     public double calculateCost(Session session) {
-        final HashSet<Column> allColumnsSet = ExpressionVisitor
-                .allColumnsForTableFilters(tableFilter);
-        planItem = tableFilter.getBestPlanItem(session, tableFilter, allColumnsSet);
-        return planItem.cost;
+        double cost = 1;
+        // the column by which the rows of the tables joined so far are
+        // sorted, or null
+        Column order = null;
+        for (int i = 0; i < filters.length; i++) {
+            TableFilter f = filters[i];
+            final HashSet<Column> allColumnsSet = ExpressionVisitor
+                    .allColumnsForTableFilters(f);
+            PlanItem item = f.getBestPlanItem(session, f, allColumnsSet);
+            planItems.put(f, item);
+            double loopCost = cost * item.cost;
+            if (i > 0) {
+                ArrayList<IndexCondition> keys = f.getHashJoinConditions(item.getIndex());
+                // build once, then one lookup per row
+                double hashCost = item.cost * HASH_BUILD_COST + cost;
+                IndexCondition merge = f.getMergeJoinCondition(item.getIndex(),
+                        filters[i - 1], order);
+                // one pass over the joined table
+                double mergeCost = cost + f.getTable().getBaseCost();
+                if (!keys.isEmpty() && hashCost < loopCost) {
+                    item.setHashJoinConditions(keys);
+                    loopCost = hashCost;
+                } else if (merge != null && mergeCost < loopCost) {
+                    item.setMergeJoinCondition(merge);
+                    loopCost = mergeCost;
+                }
+            }
+            cost += loopCost;
+            if ((i == 0 || item.getMergeJoinCondition() != null) &&
+                    item.getBitmapCondition() == null) {
+                order = item.getIndex().getSortColumn();
+            } else {
+                order = null;
+            }
+            // the index conditions of the tables joined later can use the
+            // columns of this table
+            setEvaluatable(f, true);
+        }
+        for (TableFilter f : filters) {
+            setEvaluatable(f, false);
+        }
+        return cost;
+    }
+
+    private void setEvaluatable(TableFilter filter, boolean value) {
+        if (condition != null) {
+            condition.setEvaluatable(filter, value);
+        }
+        for (TableFilter f : filters) {
+            f.setEvaluatable(filter, value);
+        }
     }
 }
@@ -6,6 +6,10 @@
 package org.minidb.table;
 
 import org.minidb.index.BaseIndex;
+import org.minidb.index.BitmapCondition;
+import org.minidb.index.IndexCondition;
+
+import java.util.ArrayList;
 
 /**
  * The plan item describes the index to be used, and the estimated cost when
@@ -16,6 +20,9 @@ public class PlanItem {
     double cost;
     private int[] masks;
     private BaseIndex index;
+    private BitmapCondition bitmapCondition;
+    private ArrayList<IndexCondition> hashJoinConditions;
+    private IndexCondition mergeJoinCondition;
 
     void setMasks(int[] masks) {
         this.masks = masks;
@@ -33,4 +40,46 @@ public class PlanItem {
         return index;
     }
 
+    void setBitmapCondition(BitmapCondition bitmapCondition) {
+        this.bitmapCondition = bitmapCondition;
+    }
+
+    /**
+     * Get the condition that is evaluated with bitmap indexes before the
+     * rows are read, if any.
+     *
+     * @return the bitmap condition, or null
+     */
+    public BitmapCondition getBitmapCondition() {
+        return bitmapCondition;
+    }
+
+    void setHashJoinConditions(ArrayList<IndexCondition> conditions) {
+        this.hashJoinConditions = conditions;
+    }
+
+    /**
+     * Get the join conditions of a hash join, if the table is joined with a
+     * hash join.
+     *
+     * @return the conditions, or null for a nested loop
+     */
+    public ArrayList<IndexCondition> getHashJoinConditions() {
+        return hashJoinConditions;
+    }
+
+    void setMergeJoinCondition(IndexCondition condition) {
+        this.mergeJoinCondition = condition;
+    }
+
+    /**
+     * Get the join condition of a merge join, if the table is joined with a
+     * merge join.
+     *
+     * @return the condition, or null
+     */
+    public IndexCondition getMergeJoinCondition() {
+        return mergeJoinCondition;
+    }
+
 }
@@ -32,4 +32,17 @@ public class Row {
     public void setValue(int i, Value v){
         data[i] = v;
     }
+
+    /**
+     * Get the estimated memory used by the values.
+     *
+     * @return the memory in bytes
+     */
+    public int getMemory() {
+        int mem = 0;
+        for (Value v : data) {
+            mem += v == null ? 8 : v.getMemory();
+        }
+        return mem;
+    }
 }
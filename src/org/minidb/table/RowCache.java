@@ -0,0 +1,210 @@
+package org.minidb.table;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of decoded committed rows, keyed by table id and row key, shared
+ * by all sessions. The rows must not be modified once they are cached.
+ * <p>
+ * The cache is split into segments that are locked independently; each
+ * segment evicts the least recently used rows when it uses more than its
+ * part of the memory.
+ * <p>
+ * Rows are only added if no row was invalidated since the caller got the
+ * stamp (see {@link #getStamp()}), before reading the row from the table.
+ * That way, a row that was read just before a concurrent commit is not
+ * added after the commit invalidated it.
+ */
+public class RowCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * The estimated memory of a cache entry, without the values.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Segment[] segments;
+    private final AtomicLong stamp = new AtomicLong();
+    private final long maxMemory;
+
+    /**
+     * Create a cache.
+     *
+     * @param maxMemory the maximum memory in bytes
+     */
+    public RowCache(long maxMemory) {
+        this.maxMemory = maxMemory;
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(Math.max(1, maxMemory / SEGMENT_COUNT));
+        }
+    }
+
+    private Segment getSegment(int tableId, long rowKey) {
+        int h = (int) (rowKey ^ (rowKey >>> 32)) * 31 + tableId;
+        h ^= h >>> 16;
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * Get the current stamp. It must be read before the row is read from the
+     * table, and passed to {@link #put(int, long, Row, long)}.
+     *
+     * @return the stamp
+     */
+    public long getStamp() {
+        return stamp.get();
+    }
+
+    /**
+     * Get a cached row.
+     *
+     * @param tableId the table id
+     * @param rowKey the row key
+     * @return the row, or null if not cached
+     */
+    public Row get(int tableId, long rowKey) {
+        Segment s = getSegment(tableId, rowKey);
+        synchronized (s) {
+            return s.map.get(new Key(tableId, rowKey));
+        }
+    }
+
+    /**
+     * Add a row, unless a row was invalidated since the stamp was read.
+     *
+     * @param tableId the table id
+     * @param rowKey the row key
+     * @param row the row
+     * @param stamp the stamp read before the row was read
+     */
+    public void put(int tableId, long rowKey, Row row, long stamp) {
+        Segment s = getSegment(tableId, rowKey);
+        synchronized (s) {
+            if (this.stamp.get() != stamp) {
+                return;
+            }
+            Row old = s.map.put(new Key(tableId, rowKey), row);
+            if (old != null) {
+                s.used -= getMemory(old);
+            }
+            s.used += getMemory(row);
+            s.evict();
+        }
+    }
+
+    /**
+     * Remove a row that was changed.
+     *
+     * @param tableId the table id
+     * @param rowKey the row key
+     */
+    public void remove(int tableId, long rowKey) {
+        Segment s = getSegment(tableId, rowKey);
+        synchronized (s) {
+            stamp.incrementAndGet();
+            Row old = s.map.remove(new Key(tableId, rowKey));
+            if (old != null) {
+                s.used -= getMemory(old);
+            }
+        }
+    }
+
+    /**
+     * Remove all rows of a table.
+     *
+     * @param tableId the table id
+     */
+    public void removeTable(int tableId) {
+        for (Segment s : segments) {
+            synchronized (s) {
+                stamp.incrementAndGet();
+                for (Iterator<java.util.Map.Entry<Key, Row>> it =
+                        s.map.entrySet().iterator(); it.hasNext(); ) {
+                    java.util.Map.Entry<Key, Row> e = it.next();
+                    if (e.getKey().tableId == tableId) {
+                        s.used -= getMemory(e.getValue());
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Get the estimated memory used by the cached rows.
+     *
+     * @return the memory in bytes
+     */
+    public long getUsedMemory() {
+        long used = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                used += s.used;
+            }
+        }
+        return used;
+    }
+
+    private static int getMemory(Row row) {
+        return ENTRY_OVERHEAD + row.getMemory();
+    }
+
+    /**
+     * A part of the cache, in access order.
+     */
+    private static final class Segment {
+
+        final LinkedHashMap<Key, Row> map = new LinkedHashMap<>(16, 0.75f, true);
+        final long maxMemory;
+        long used;
+
+        Segment(long maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        void evict() {
+            Iterator<Row> it = map.values().iterator();
+            while (used > maxMemory && it.hasNext()) {
+                used -= getMemory(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The key of a cached row.
+     */
+    private static final class Key {
+
+        final int tableId;
+        final long rowKey;
+
+        Key(int tableId, long rowKey) {
+            this.tableId = tableId;
+            this.rowKey = rowKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (rowKey ^ (rowKey >>> 32)) * 31 + tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.tableId == tableId && k.rowKey == rowKey;
+        }
+    }
+
+}
@@ -1,6 +1,8 @@
 package org.minidb.table;
 
+import org.minidb.engine.LazyValueArray;
 import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
 
 /**
  * Created by gxh on 2016/6/24.
@@ -11,4 +13,18 @@ public class RowFactory {
         return new Row(data);
     }
 
+    /**
+     * Create a row from a value of a table map. The columns of a row that
+     * was read from a page are decoded when they are used.
+     *
+     * @param array the value
+     * @return the row
+     */
+    public Row createRow(ValueArray array) {
+        if (array instanceof LazyValueArray) {
+            return new LazyRow((LazyValueArray) array);
+        }
+        return new Row(array.getList());
+    }
+
 }
@@ -4,6 +4,7 @@ import org.minidb.engine.*;
 import org.minidb.index.*;
 import org.minidb.schema.SchemaObjectBase;
 import org.minidb.store.Store;
+import org.minidb.store.mvstore.MVMap;
 import org.minidb.store.mvstore.TransactionStore;
 import org.minidb.store.mvstore.TransactionStore.TransactionMap;
 import org.minidb.util.*;
@@ -13,6 +14,12 @@ import org.minidb.value.ValueLong;
 import org.minidb.value.ValueNull;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by gxh on 2016/6/10.
@@ -32,15 +39,34 @@ public class Table extends SchemaObjectBase {
     private Column[] columns;                                       //table有哪些column，数组形式存放
     private HashMap<String, Column> columnMap = new HashMap<>();    //table的column，以hashmap形式存放，方便寻找
     private ArrayList<BaseIndex> indexes = new ArrayList<>();       //有哪些索引
+    private final ScanIndex scanIndex;                              //没有可用索引时的顺序扫描
     private TransactionMap<Value,Value> dataMap;                    //存放数据的map
-    private long lastKey;
+    /**
+     * Hands out the row keys of tables without primary key.
+     */
+    private RangeAllocator keyAllocator;
     private final String mapName;                                   //table维护的存放数据的map的名字
     private int primaryIndexColumnId = -1;                          //主索引所在列的ID，为-1表示没有主索引
+    private final String tableEngine;                               //表引擎的名字，null表示默认引擎
+
+    /**
+     * The indexes that are built online. They are not used by queries, and
+     * addRow doesn't maintain them but records the changed rows in the side
+     * log of the build. Only changed while the schema is locked exclusively.
+     */
+    private final HashMap<SecondaryIndex, IndexBuild> builds = new HashMap<>();
+
+    /**
+     * The statistics collected by ANALYZE, or null if the table was not
+     * analyzed.
+     */
+    private volatile TableStatistics statistics;
 
     public Table(CreateTableData data, Database db){
         initSchemaObjectBase(data.schema , data.id, data.tableName);
         this.database = db;
         this.store = db.getStore();
+        this.tableEngine = data.tableEngine;
         Column[] cols = new Column[data.columns.size()];
         data.columns.toArray(cols);
         setColumns(cols);
@@ -50,13 +76,19 @@ public class Table extends SchemaObjectBase {
             sortTypes[i] = ASCENDING;
         }
         ValueDataType keyType = new ValueDataType(null);
-        ValueDataType valueType = new ValueDataType(sortTypes);
+        // 行用带偏移表的格式存储，读出来的行只在用到某一列时才解码这一列
+        ValueDataType valueType = new ValueDataType(sortTypes, true);
         mapName = "table." + getId();
         TransactionStore.Transaction t = store.getTransactionStore().begin();
-        dataMap = t.openMap(mapName, keyType, valueType);
+        // 行的key都是ValueLong，可以用Bloom过滤器：插入前检查key是否存在时，不存在的key不用读page
+        dataMap = t.openMap(mapName, keyType, valueType, true);
+        // 父page里存每个子page的min/max（zone map），扫描时可以跳过整个子树
+        dataMap.setPageSummaryType(new ZoneMap.ZoneMapType());
         t.commit();
         Value k = dataMap.lastKey();
-        lastKey = k == null ? 0 : k.getLong();
+        keyAllocator = new RangeAllocator(k == null ? 1 : k.getLong() + 1,
+                Constants.ROW_KEY_RANGE_SIZE);
+        scanIndex = new ScanIndex(this, data.id, IndexType.createScan(true));
     }
 
     protected void setColumns(Column[] columns){
@@ -90,51 +122,166 @@ public class Table extends SchemaObjectBase {
     }
 
     public Row getRow(Session session, long key) {
+        RowCache cache = getRowCache(session);
+        long stamp = 0;
+        if (cache != null) {
+            Row row = cache.get(getId(), key);
+            if (row != null) {
+                return row;
+            }
+            stamp = cache.getStamp();
+        }
         TransactionMap<Value, Value> map = getMap(session);
         Value v = map.get(ValueLong.get(key));
+        if (v == null) {
+            // not visible to this session
+            return null;
+        }
         ValueArray array = (ValueArray) v;
-        Row row = session.createRow(array.getList());
+        Row row = session.createRow(array);
         row.setKey(key);
+        if (cache != null) {
+            cache.put(getId(), key, row, stamp);
+        }
         return row;
     }
 
+    /**
+     * Get the row cache, if the session can use it for this table. A session
+     * that changed rows of the table in the open transaction doesn't use it,
+     * because it sees its own uncommitted changes.
+     *
+     * @param session the session
+     * @return the cache, or null
+     */
+    RowCache getRowCache(Session session) {
+        RowCache cache = database.getRowCache();
+        if (cache == null || session == null || session.hasChangedRows(this)) {
+            return null;
+        }
+        return cache;
+    }
+
+    /**
+     * Check whether the row was changed by another transaction that is
+     * still open.
+     *
+     * @param session the session
+     * @param key the row key
+     * @return true if yes
+     */
+    public boolean isRowLocked(Session session, long key) {
+        return getMap(session).isLockedByOther(ValueLong.get(key));
+    }
+
     public void addRow(Session session, Row row){
         if (primaryIndexColumnId == -1) {
             if (row.getKey() == 0) {
-                row.setKey(++lastKey);
+                // 每个session一次取一段key，不用同步
+                row.setKey(session.nextValue(keyAllocator));
+            } else {
+                keyAllocator.ensureAbove(row.getKey());
             }
         } else {
             long c = row.getValue(primaryIndexColumnId).getLong();
             row.setKey(c);
+            keyAllocator.ensureAbove(c);
         }
         Value key = ValueLong.get(row.getKey());
-        TransactionMap<Value, Value> map = getMap(session);
-        map.put(key, ValueArray.get(row.getValueList()));
+        session.rowChanged(this, row.getKey());
+        Value old = putRow(session, key, ValueArray.get(row.getValueList()));
+        RowCache cache = database.getRowCache();
+        if (cache != null) {
+            cache.remove(getId(), row.getKey());
+        }
 //        dataMap.put(key, ValueArray.get(row.getValueList()));
-        lastKey = Math.max(lastKey, row.getKey());
 
+        Row oldRow = null;
+        if (old != null) {
+            //覆盖了已有的行，旧行的索引项要删掉
+            oldRow = session.createRow((ValueArray) old);
+            oldRow.setKey(row.getKey());
+        }
         for (int i = 0, size = indexes.size(); i < size; i++) {
             BaseIndex index = indexes.get(i);
+            if (oldRow != null) {
+                index.remove(session, oldRow);
+            }
             index.add(session, row);
         }
+        if (!builds.isEmpty()) {
+            for (IndexBuild build : builds.values()) {
+                if (oldRow != null) {
+                    build.sideLog.add(oldRow);
+                }
+                build.sideLog.add(row);
+            }
+        }
+    }
+
+    /**
+     * Add or replace a row in the table map.
+     *
+     * @param session the session
+     * @param key the row key
+     * @param value the row
+     * @return the old row, or null
+     */
+    protected Value putRow(Session session, Value key, ValueArray value) {
+        return getMap(session).put(key, value);
+    }
+
+    /**
+     * Get the maps that contain the rows: one for a regular table, one per
+     * partition for a partitioned table.
+     *
+     * @return the maps
+     */
+    List<TransactionMap<Value, Value>> getDataMaps() {
+        return Collections.singletonList(dataMap);
     }
 
     public BaseIndex addIndex(Session session, String indexName, int indexId,
-                          Column col, IndexType indexType) {
+                          IndexColumn[] cols, IndexType indexType) {
+        return addIndex(session, indexName, indexId, cols, null, indexType);
+    }
+
+    /**
+     * Create an index and fill it with the rows of the table.
+     *
+     * @param includeColumns the columns that are only stored in the index
+     *            (only for secondary indexes), or null
+     * @return the index
+     */
+    public BaseIndex addIndex(Session session, String indexName, int indexId,
+                          IndexColumn[] cols, IndexColumn[] includeColumns,
+                          IndexType indexType) {
         if (indexType.isPrimaryKey()) {
-            col.setPrimaryKey(true);
+            for (IndexColumn c : cols) {
+                c.column.setPrimaryKey(true);
+            }
         }
 
         //database.lockMeta(session);
         BaseIndex index;
         int primaryIndexColumn;
-        primaryIndexColumn = getPrimaryIndexColumn(indexType, col);
+        primaryIndexColumn = getPrimaryIndexColumn(indexType, cols);
         if (primaryIndexColumn != -1) {
             setPrimaryIndexColumnId(primaryIndexColumn);
-            index = new PrimaryIndex(this, indexId, indexName, col, indexType);
+            index = new PrimaryIndex(this, indexId, indexName, cols, indexType);
+        } else if (indexType.isHash()) {
+            if (indexType.isPersistent()) {
+                index = new ExtendibleHashIndex(session.getDatabase(), this, indexId,
+                        indexName, cols, indexType);
+            } else {
+                index = new HashIndex(this, indexId, indexName, cols, indexType);
+            }
+        } else if (indexType.isBitmap()) {
+            index = new BitmapIndex(session.getDatabase(), this, indexId,
+                    indexName, cols, indexType);
         } else {
             index = new SecondaryIndex(session.getDatabase(), this, indexId,
-                    indexName, col, indexType);
+                    indexName, cols, includeColumns, indexType);
         }
         if (index.needRebuild()) {
             rebuildIndex(session, index, indexName);
@@ -146,6 +293,156 @@ public class Table extends SchemaObjectBase {
         return index;
     }
 
+    /**
+     * Start building a secondary index online. Until the build is finished,
+     * the index is not used by queries, and the rows changed by addRow are
+     * only recorded in the side log of the build. The caller must hold the
+     * exclusive schema lock.
+     *
+     * @return the new (empty) index
+     */
+    public SecondaryIndex startIndexBuild(Session session, String indexName, int indexId,
+                                          IndexColumn[] cols, IndexColumn[] includeColumns,
+                                          IndexType indexType) {
+        SecondaryIndex index = new SecondaryIndex(session.getDatabase(), this, indexId,
+                indexName, cols, includeColumns, indexType);
+        builds.put(index, new IndexBuild());
+        return index;
+    }
+
+    /**
+     * Fill an index that is built online from a snapshot of the table map.
+     * Only the committed rows of the snapshot are added; rows with
+     * uncommitted changes are handled when the side log is replayed. Writers
+     * are not blocked, the caller only needs the shared schema lock.
+     *
+     * @param session the session
+     * @param index the index
+     */
+    public void buildIndex(Session session, SecondaryIndex index) {
+        IndexBuild build = builds.get(index);
+        int bufferSize = Math.max(1, database.getMaxMemoryRows());
+        ArrayList<MVMap<Value, Value>> buffers = new ArrayList<>();
+        ArrayList<Row> buffer = new ArrayList<>(Math.min(bufferSize, 1024));
+        boolean success = false;
+        try {
+            for (TransactionMap<Value, Value> map : getDataMaps()) {
+                Iterator<Map.Entry<Value, Value>> it = map.snapshotIterator(build.pending);
+                while (it.hasNext()) {
+                    Map.Entry<Value, Value> e = it.next();
+                    buffer.add(createRow(e.getValue(), e.getKey().getLong()));
+                    if (buffer.size() >= bufferSize) {
+                        buffers.add(index.addRowsToBuffer(buffer));
+                        buffer.clear();
+                    }
+                }
+            }
+            if (buffer.size() > 0) {
+                buffers.add(index.addRowsToBuffer(buffer));
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (MVMap<Value, Value> m : buffers) {
+                    store.getTransactionStore().removeTempMap(m);
+                }
+            }
+        }
+        index.addBufferedRows(buffers);
+    }
+
+    /**
+     * Finish building an index online: replay the side log, and make the
+     * index visible. The caller must hold the exclusive schema lock, so that
+     * no rows are changed meanwhile.
+     *
+     * @param session the session
+     * @param index the index
+     */
+    public void finishIndexBuild(Session session, SecondaryIndex index) {
+        replaySideLog(index, builds.get(index));
+        builds.remove(index);
+        database.addSchemaObject(session, index);
+        indexes.add(index);
+    }
+
+    /**
+     * Stop building an index online and remove it. The caller must hold the
+     * exclusive schema lock.
+     *
+     * @param index the index
+     */
+    public void cancelIndexBuild(SecondaryIndex index) {
+        if (builds.remove(index) != null) {
+            index.removeMap();
+        }
+    }
+
+    /**
+     * Update the index entries of all rows that were changed since the build
+     * started, or that had uncommitted changes in the snapshot, to the
+     * current state of the row.
+     */
+    private void replaySideLog(SecondaryIndex index, IndexBuild build) {
+        HashMap<Long, ArrayList<Row>> changed = new HashMap<>();
+        for (Row row : build.sideLog) {
+            ArrayList<Row> versions = changed.get(row.getKey());
+            if (versions == null) {
+                versions = new ArrayList<>();
+                changed.put(row.getKey(), versions);
+            }
+            versions.add(row);
+        }
+        for (Value key : build.pending) {
+            if (!changed.containsKey(key.getLong())) {
+                changed.put(key.getLong(), new ArrayList<Row>());
+            }
+        }
+        // remove the entries of all versions first, so that a unique value
+        // that moved from one row to another is not seen as a duplicate
+        for (ArrayList<Row> versions : changed.values()) {
+            for (Row row : versions) {
+                index.removeCommitted(row);
+            }
+        }
+        TransactionStore.Transaction readOnly = store.getTransactionStore().beginReadOnly();
+        List<TransactionMap<Value, Value>> maps = getDataMaps();
+        for (long key : changed.keySet()) {
+            ValueLong k = ValueLong.get(key);
+            // a row that moved to another partition is in two maps
+            Value committed = null;
+            TransactionStore.Transaction owner = null;
+            for (TransactionMap<Value, Value> map : maps) {
+                if (committed == null) {
+                    committed = map.getInstance(readOnly, Long.MAX_VALUE).get(k);
+                }
+                if (owner == null) {
+                    owner = map.getLockOwner(k);
+                }
+            }
+            Row uncommitted = null;
+            if (owner != null) {
+                for (TransactionMap<Value, Value> map : maps) {
+                    Value v = map.getInstance(owner, Long.MAX_VALUE).get(k);
+                    if (v != null) {
+                        uncommitted = createRow(v, key);
+                        break;
+                    }
+                }
+            }
+            index.addChangedRow(createRow(committed, key), owner, uncommitted);
+        }
+    }
+
+    private Row createRow(Value value, long key) {
+        if (value == null) {
+            return null;
+        }
+        Row row = database.createRow((ValueArray) value);
+        row.setKey(key);
+        return row;
+    }
+
     private void rebuildIndex(Session session, BaseIndex index, String indexName) {
         try {
             if (session.getDatabase().getStore() == null){
@@ -161,81 +458,145 @@ public class Table extends SchemaObjectBase {
 
     private void rebuildIndexBlockMerge(Session session, BaseIndex index) {
         // Read entries in memory, sort them, write to a new map (in sorted
-        // order); repeat (using a new map for every block of 1 MB) until all
+        // order); repeat (using a new map for every block of rows) until all
         // record are read. Merge all maps to the target (using merge sort;
         // duplicates are detected in the target). For randomly ordered data,
         // this should use relatively few write operations.
-        // A possible optimization is: change the buffer size from "row count"
-        // to "amount of memory", and buffer index keys instead of rows.
-        System.out.println("rebuildIndexBlockMerge 没写");
-//        long remaining = getRowCount(session);
-//        long total = remaining;
-//        Cursor cursor = find(session, null, null);
-//        long i = 0;
-//        Store store = session.getDatabase().getStore();
-//
-//        int bufferSize = database.getMaxMemoryRows() / 2;
-//        ArrayList<Row> buffer = new ArrayList(bufferSize);
-//        String n = getName() + ":" + index.getName();
-//        int t = MathUtils.convertLongToInt(total);
-//        ArrayList<String> bufferNames = new ArrayList();
-//        while (cursor.next()) {
-//            Row row = cursor.get();
-//            buffer.add(row);
-//            if (buffer.size() >= bufferSize) {
-//                sortRows(buffer, index);
-//                String mapName = store.nextTemporaryMapName();
-//                index.addRowsToBuffer(buffer, mapName);
-//                bufferNames.add(mapName);
-//                buffer.clear();
-//            }
-//            remaining--;
-//        }
-//        sortRows(buffer, index);
-//        if (bufferNames.size() > 0) {
-//            String mapName = store.nextTemporaryMapName();
-//            index.addRowsToBuffer(buffer, mapName);
-//            bufferNames.add(mapName);
-//            buffer.clear();
-//            index.addBufferedRows(bufferNames);
-//        } else {
-//            addRowsToIndex(session, buffer, index);
-//        }
+        // The table map is split into key ranges that are read and sorted
+        // by multiple threads; the merge itself is single threaded.
+        long total = getRowCount(session);
+        if (!(index instanceof SecondaryIndex) || total <= database.getMaxMemoryRows()) {
+            rebuildIndexBuffered(session, index);
+            return;
+        }
+        final SecondaryIndex secondary = (SecondaryIndex) index;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        List<TransactionMap<Value, Value>> maps = getDataMaps();
+        ArrayList<List<Value>> splitKeys = new ArrayList<>(maps.size());
+        int parts = 0;
+        for (TransactionMap<Value, Value> map : maps) {
+            List<Value> keys = map.getSplitKeys(Math.max(1, threads / maps.size()));
+            splitKeys.add(keys);
+            parts += keys.size() + 1;
+        }
+        final int bufferSize = Math.max(1, database.getMaxMemoryRows() / parts);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parts, threads));
+        ArrayList<Future<List<MVMap<Value, Value>>>> futures = new ArrayList<>(parts);
+        ArrayList<MVMap<Value, Value>> buffers = new ArrayList<>();
+        boolean success = false;
+        try {
+            TransactionStore.Transaction t = getTransaction(session);
+            for (int m = 0; m < maps.size(); m++) {
+                List<Value> keys = splitKeys.get(m);
+                final TransactionMap<Value, Value> map = maps.get(m).getInstance(t, Long.MAX_VALUE);
+                for (int i = 0; i <= keys.size(); i++) {
+                    final Value from = i == 0 ? null : keys.get(i - 1);
+                    final Value to = i == keys.size() ? null : keys.get(i);
+                    final Session s = session;
+                    futures.add(executor.submit(new Callable<List<MVMap<Value, Value>>>() {
+                        @Override
+                        public List<MVMap<Value, Value>> call() {
+                            return addRowsToBuffers(s, map, from, to, secondary, bufferSize);
+                        }
+                    }));
+                }
+            }
+            for (Future<List<MVMap<Value, Value>>> f : futures) {
+                buffers.addAll(getResult(f));
+            }
+            success = true;
+        } finally {
+            executor.shutdown();
+            if (!success) {
+                // a partition failed: remove the runs of the others
+                for (Future<List<MVMap<Value, Value>>> f : futures) {
+                    try {
+                        for (MVMap<Value, Value> m : getResult(f)) {
+                            store.getTransactionStore().removeTempMap(m);
+                        }
+                    } catch (RuntimeException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+        secondary.addBufferedRows(buffers);
+    }
+
+    /**
+     * Read the rows of one key range of the table, and write them to sorted
+     * runs of at most bufferSize rows.
+     */
+    private static List<MVMap<Value, Value>> addRowsToBuffers(Session session,
+            TransactionMap<Value, Value> map, Value from, Value to,
+            SecondaryIndex index, int bufferSize) {
+        ArrayList<MVMap<Value, Value>> buffers = new ArrayList<>();
+        ArrayList<Row> buffer = new ArrayList<>(bufferSize);
+        Iterator<Map.Entry<Value, Value>> it = map.entryIterator(from);
+        while (it.hasNext()) {
+            Map.Entry<Value, Value> e = it.next();
+            long key = e.getKey().getLong();
+            if (to != null && key >= to.getLong()) {
+                break;
+            }
+            Row row = session.createRow((ValueArray) e.getValue());
+            row.setKey(key);
+            buffer.add(row);
+            if (buffer.size() >= bufferSize) {
+                buffers.add(index.addRowsToBuffer(buffer));
+                buffer.clear();
+            }
+        }
+        if (buffer.size() > 0) {
+            buffers.add(index.addRowsToBuffer(buffer));
+        }
+        return buffers;
+    }
+
+    private static <T> T getResult(Future<T> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("rebuildIndex interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("rebuildIndex ERROR", cause);
+        }
     }
 
     private void rebuildIndexBuffered(Session session, BaseIndex index) {
-        System.out.println("rebuildIndexBuffered 没写");
-//        long remaining = getRowCount(session);
-//        long total = remaining;
-//        Cursor cursor = find(session, null, null);
-//        long i = 0;
-//        int bufferSize = (int) Math.min(total, database.getMaxMemoryRows());
-//        ArrayList<Row> buffer = new ArrayList(bufferSize);
-//        String n = getName() + ":" + index.getName();
-//        int t = MathUtils.convertLongToInt(total);
-//        while (cursor.next()) {
-//            Row row = cursor.get();
-//            buffer.add(row);
-//            if (buffer.size() >= bufferSize) {
-//                addRowsToIndex(session, buffer, index);
-//            }
-//            remaining--;
-//        }
-//        addRowsToIndex(session, buffer, index);
-//        if (SysProperties.CHECK && remaining != 0) {
-//            DbException.throwInternalError("rowcount remaining=" + remaining +
-//                    " " + getName());
-//        }
+        long remaining = getRowCount(session);
+        long total = remaining;
+        Cursor cursor = find(session, MIN, MAX);
+        int bufferSize = (int) Math.max(1, Math.min(total, database.getMaxMemoryRows()));
+        ArrayList<Row> buffer = new ArrayList<>(bufferSize);
+        while (cursor.next()) {
+            Row row = cursor.get();
+            buffer.add(row);
+            if (buffer.size() >= bufferSize) {
+                addRowsToIndex(session, buffer, index);
+            }
+            remaining--;
+        }
+        addRowsToIndex(session, buffer, index);
+        if (remaining != 0) {
+            throw new RuntimeException("rowcount remaining=" + remaining +
+                    " " + getName());
+        }
     }
 
-    private int getPrimaryIndexColumn(IndexType indexType, Column col) {
+    private int getPrimaryIndexColumn(IndexType indexType, IndexColumn[] cols) {
 //        throw new RuntimeException("getPrimaryIndexColumn 没写");
         if (primaryIndexColumnId != -1) {
             return -1;
         }
-        if (!indexType.isPrimaryKey()) {
+        if (!indexType.isPrimaryKey() || cols.length != 1) {
             return -1;
         }
+        Column col = cols[0].column;
 //        if (col.sortType != ASCENDING) {
 //            return -1;
 //        }
@@ -270,13 +631,12 @@ public class Table extends SchemaObjectBase {
     }
 
     private static void sortRows(ArrayList<Row> list, final BaseIndex index) {
-        throw new RuntimeException("sortRows 没写");
-//        Collections.sort(list, new Comparator<Row>() {
-//            @Override
-//            public int compare(Row r1, Row r2) {
-//                return index.compareRows(r1, r2);
-//            }
-//        });
+        Collections.sort(list, new Comparator<Row>() {
+            @Override
+            public int compare(Row r1, Row r2) {
+                return index.compareRows(r1, r2);
+            }
+        });
     }
 
     public Row getTemplateRow() {
@@ -311,9 +671,16 @@ public class Table extends SchemaObjectBase {
             buff.append(column.getCreateSQL());
         }
         buff.append("\n)");
+        if (tableEngine != null) {
+            buff.append("\nENGINE ").append(tableEngine);
+        }
         return buff.toString();
     }
 
+    public String getTableEngine() {
+        return tableEngine;
+    }
+
     public long getRowCount(Session session) {
         TransactionMap<Value, Value> map = getMap(session);
         return map.sizeAsLong();
@@ -380,15 +747,61 @@ public class Table extends SchemaObjectBase {
         return (ValueLong) v.convertTo(Value.LONG);
     }
 
+    /**
+     * Make sure that generated row keys are larger than the given key, for
+     * tables that also keep rows outside of the table map.
+     *
+     * @param key the largest used key
+     */
+    void updateLastKey(long key) {
+        keyAllocator.ensureAbove(key);
+    }
+
+    /**
+     * Find the rows in a range of row keys for a query. Only the columns
+     * used by the query need to be read (see
+     * {@link TableFilter#getColumnsUsed()}).
+     *
+     * @param filter the table filter
+     * @param first the lowest key
+     * @param last the highest key
+     * @return the cursor
+     */
+    public Cursor find(TableFilter filter, ValueLong first, ValueLong last) {
+        Session session = filter.getSession();
+        return find(session, first, last,
+                ConditionFilter.create(session, filter.getAllIndexConditions()));
+    }
+
     public Cursor find(Session session, ValueLong first, ValueLong last) {
+        return find(session, first, last, null);
+    }
+
+    /**
+     * Find the rows in a range of row keys that can match the conditions:
+     * the stored pages of the table map whose zone map can't match, and the
+     * rows that don't match, are skipped by the iterator.
+     *
+     * @param session the session
+     * @param first the lowest key
+     * @param last the highest key
+     * @param conditions the conditions, or null
+     * @return the cursor
+     */
+    private Cursor find(Session session, ValueLong first, ValueLong last,
+                        ConditionFilter conditions) {
+        RowCache cache = getRowCache(session);
+        // the stamp is read before the iterator reads the first rows
+        long stamp = cache == null ? 0 : cache.getStamp();
         TransactionMap<Value, Value> map = getMap(session);
-        return new TableCursor(session, map.entryIterator(first), last);
+        return new TableCursor(session, map.entryIterator(first, conditions, conditions),
+                last, cache, stamp);
     }
 
     public PlanItem getBestPlanItem(Session session, int[] masks,
                                     TableFilter filter, HashSet<Column> allColumnsSet) {
         PlanItem item = new PlanItem();
-//        item.setIndex(getScanIndex(session));
+        item.setIndex(getScanIndex());
         item.cost = this.getBaseCost();                       //最基本的顺序扫描
         ArrayList<BaseIndex> indexes = getIndexes();
         if (indexes != null && masks != null) {
@@ -404,6 +817,10 @@ public class Table extends SchemaObjectBase {
         return item;
     }
 
+    public ScanIndex getScanIndex() {
+        return scanIndex;
+    }
+
     public ArrayList<BaseIndex> getIndexes() {
         return indexes;
     }
@@ -416,6 +833,90 @@ public class Table extends SchemaObjectBase {
         return dataMap.sizeAsLongMax() + 1;   //有多少行，cost就是多少
     }
 
+    /**
+     * Check whether a scan returns the rows in the order of the row key.
+     *
+     * @return true if it does
+     */
+    public boolean isSortedByKey() {
+        return true;
+    }
+
+    /**
+     * Get the cost of a scan for a query. Partitioned tables only scan the
+     * partitions that can contain matching rows.
+     *
+     * @param session the session
+     * @param filter the table filter
+     * @return the cost
+     */
+    public double getScanCost(Session session, TableFilter filter) {
+        return getBaseCost();
+    }
+
+    public TableStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(TableStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Read a uniform random sample of the rows visible to the session. The
+     * positions are picked from the entry counts of the map pages (see
+     * {@link MVMap#getKey(long)}), so that only the sampled rows are read.
+     * If the table has not more rows than the sample size, all rows are
+     * read.
+     *
+     * @param session the session
+     * @param sampleSize the maximum number of rows
+     * @return the rows
+     */
+    public ArrayList<Value[]> sampleRows(Session session, int sampleSize) {
+        ArrayList<Value[]> rows = new ArrayList<>();
+        sampleRows(getMap(session), sampleSize, rows);
+        return rows;
+    }
+
+    /**
+     * Add a uniform random sample of the rows of a map to a list.
+     *
+     * @param map the map, as seen by the session
+     * @param sampleSize the maximum number of rows
+     * @param rows the list
+     */
+    static void sampleRows(TransactionMap<Value, Value> map, int sampleSize,
+                           ArrayList<Value[]> rows) {
+        long size = map.sizeAsLongMax();
+        if (size <= sampleSize) {
+            Iterator<Map.Entry<Value, Value>> it = map.entryIterator(null);
+            while (it.hasNext()) {
+                rows.add(((ValueArray) it.next().getValue()).getList());
+            }
+            return;
+        }
+        // Floyd's algorithm: sampleSize distinct positions
+        Random random = new Random();
+        TreeSet<Long> positions = new TreeSet<>();
+        for (long j = size - sampleSize; j < size; j++) {
+            long t = (long) (random.nextDouble() * (j + 1));
+            positions.add(positions.contains(t) ? j : t);
+        }
+        for (long pos : positions) {
+            Value key = map.getKey(pos);
+            if (key == null) {
+                // the map got smaller in the meantime
+                break;
+            }
+            // the entry may be removed or not visible to this session
+            Value v = map.get(key);
+            if (v != null) {
+                rows.add(((ValueArray) v).getList());
+            }
+        }
+    }
+
     public BaseIndex findPrimaryKey() {
         ArrayList<BaseIndex> indexes = getIndexes();
         if (indexes != null) {
@@ -429,27 +930,59 @@ public class Table extends SchemaObjectBase {
         return null;
     }
 
+    /**
+     * The state of an index that is built online.
+     */
+    static class IndexBuild {
+
+        /**
+         * The old and new versions of the rows changed by addRow since the
+         * build started.
+         */
+        final ConcurrentLinkedQueue<Row> sideLog = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The keys of the rows that had uncommitted changes in the snapshot.
+         */
+        final ArrayList<Value> pending = new ArrayList<>();
+    }
+
     class TableCursor implements Cursor {
 
         private final Session session;
         private final Iterator<Map.Entry<Value, Value>> it;
         private final ValueLong last;
+        private final RowCache cache;
+        private final long stamp;
         private Map.Entry<Value, Value> current;
         private Row row;
 
-        public TableCursor(Session session, Iterator<Map.Entry<Value, Value>> it, ValueLong last) {
+        public TableCursor(Session session, Iterator<Map.Entry<Value, Value>> it, ValueLong last,
+                           RowCache cache, long stamp) {
             this.session = session;
             this.it = it;
             this.last = last;
+            this.cache = cache;
+            this.stamp = stamp;
         }
 
         @Override
         public Row get() {
             if (row == null) {
                 if (current != null) {
+                    long key = current.getKey().getLong();
+                    if (cache != null) {
+                        row = cache.get(getId(), key);
+                        if (row != null) {
+                            return row;
+                        }
+                    }
                     ValueArray array = (ValueArray) current.getValue();
-                    row = session.createRow(array.getList());
-                    row.setKey(current.getKey().getLong());
+                    row = session.createRow(array);
+                    row.setKey(key);
+                    if (cache != null) {
+                        cache.put(getId(), key, row, stamp);
+                    }
                 }
             }
             return row;
@@ -12,7 +12,12 @@ public class TableEngine implements TableFactory {
     public Table createTable(CreateTableData data) {
         Database database = data.session.getDatabase();
         Store store = database.openStore();
-        Table table = new Table(data, database);
+        Table table;
+        if (data.partitionType >= 0) {
+            table = new PartitionedTable(data, database);
+        } else {
+            table = new Table(data, database);
+        }
 //        table.init(data.session);
         return table;
     }
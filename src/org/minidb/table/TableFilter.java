@@ -11,7 +11,9 @@ import org.minidb.expression.Comparison;
 import org.minidb.expression.ConditionAndOr;
 import org.minidb.expression.Expression;
 import org.minidb.expression.ExpressionColumn;
+import org.minidb.expression.ExpressionVisitor;
 import org.minidb.index.BaseIndex;
+import org.minidb.index.BitmapCondition;
 import org.minidb.index.IndexCondition;
 import org.minidb.index.IndexCursor;
 import org.minidb.value.Value;
@@ -28,11 +30,47 @@ public class TableFilter implements ColumnResolver {
 
     private Session session;
     private final Table table;
-//    private final Select select;
+    private final String alias;
+    private final Select select;
     private BaseIndex index;
     private final IndexCursor cursor;
     private final ArrayList<IndexCondition> indexConditions = new ArrayList();
+
+    /**
+     * All index conditions, including those that can't be used by the chosen
+     * index; null until the plan is set.
+     */
+    private ArrayList<IndexCondition> allIndexConditions;
     private Expression filterCondition;
+    private Expression fullCondition;
+
+    /**
+     * The joined table (next in the nested loop), or null.
+     */
+    private TableFilter join;
+
+    /**
+     * Whether this is joined as the right side of a LEFT JOIN: if no row
+     * matches the join condition, a row with NULL values is returned.
+     */
+    private boolean joinOuter;
+
+    /**
+     * The ON condition of a LEFT JOIN, or null. The ON condition of an
+     * inner join is a part of the query condition.
+     */
+    private Expression joinCondition;
+
+    /**
+     * The hash table if this table is joined with a hash join, or null.
+     */
+    private HashJoin hashJoin;
+
+    /**
+     * The cursor of a merge join if this table is joined with a merge join,
+     * or null.
+     */
+    private MergeJoin mergeJoin;
 
     private Row currentSearchRow;
     private Row current;
@@ -40,9 +78,16 @@ public class TableFilter implements ColumnResolver {
     private boolean foundOne;
     private int[] masks;
 
-    public TableFilter(Session session, Table table) {
+    /**
+     * The columns of the table used by the query, or null if not known yet.
+     */
+    private boolean[] columnsUsed;
+
+    public TableFilter(Session session, Table table, String alias, Select select) {
         this.session = session;
         this.table = table;
+        this.alias = alias;
+        this.select = select;
         this.cursor = new IndexCursor(this);
     }
 
@@ -55,6 +100,10 @@ public class TableFilter implements ColumnResolver {
         return table;
     }
 
+    public Select getSelect() {
+        return select;
+    }
+
     public Session getSession() {
         return session;
     }
@@ -72,6 +121,10 @@ public class TableFilter implements ColumnResolver {
         int len = table.getColumns().length;
         int[] masks = new int[len];
         for (IndexCondition condition : indexConditions) {
+            if (!condition.isEvaluatable()) {
+                // uses a table that is joined later
+                continue;
+            }
             int id = condition.getColumn().getColumnId();
             if (id >= 0) {
                 masks[id] |= condition.getMask(indexConditions);
@@ -79,19 +132,82 @@ public class TableFilter implements ColumnResolver {
         }
         PlanItem item = table.getBestPlanItem(s, masks, tableFilter, allColumnsSet);
         item.setMasks(masks);
+        if (fullCondition != null) {
+            // AND / OR over bitmap indexed columns
+            BitmapCondition bitmap = BitmapCondition.get(this, fullCondition);
+            if (bitmap != null) {
+                double cost = bitmap.getCost(table.getDataMap().sizeAsLongMax());
+                if (cost < item.cost) {
+                    item.cost = cost;
+                    item.setIndex(bitmap.getIndex());
+                    item.setBitmapCondition(bitmap);
+                }
+            }
+        }
         return item;
     }
 
+    /**
+     * Set the complete condition of the query, which may be evaluated with
+     * bitmap indexes.
+     *
+     * @param condition the condition
+     */
+    public void setFullCondition(Expression condition) {
+        this.fullCondition = condition;
+    }
+
+    /**
+     * Start the query. The hash tables and merge join cursors of the
+     * previous execution are removed, as the rows may have changed.
+     *
+     * @param s the session
+     */
+    public void startQuery(Session s) {
+        this.session = s;
+        closeJoin();
+        if (join != null) {
+            join.startQuery(s);
+        }
+    }
+
+    /**
+     * End the query: stop the lookup, and remove the hash tables and their
+     * temporary maps.
+     */
+    public void endQuery() {
+        cursor.close();
+        closeJoin();
+        if (join != null) {
+            join.endQuery();
+        }
+    }
+
+    private void closeJoin() {
+        if (hashJoin != null) {
+            hashJoin.close();
+        }
+        if (mergeJoin != null) {
+            mergeJoin.close();
+        }
+    }
+
     /**
      * Reset to the current position.
      */
     public void reset() {
+        if (join != null) {
+            join.reset();
+        }
         state = BEFORE_FIRST;
         foundOne = false;
     }
 
     /**
-     * Check if there are more rows to read.
+     * Check if there are more rows to read. With joined tables, this is a
+     * nested loop: the joined table is searched again for each row of this
+     * table, with the index conditions that use the columns of this table
+     * evaluated for that row.
      *
      * @return true if there are
      */
@@ -99,28 +215,267 @@ public class TableFilter implements ColumnResolver {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
-            cursor.find(session, indexConditions);
+            if (hashJoin != null) {
+                hashJoin.find(session, cursor, indexConditions);
+            } else if (mergeJoin != null) {
+                mergeJoin.find(this, index);
+            } else {
+                cursor.find(session, indexConditions);
+            }
         } else {
+            // the last row was ok - try the next row of the join
+            if (join != null && join.next()) {
+                return true;
+            }
         }
         while (true) {
-            if (cursor.next()) {
+            if (state == NULL_ROW) {
+                break;
+            }
+            if (hashJoin != null) {
+                if (hashJoin.next(session)) {
+                    currentSearchRow = current = hashJoin.get();
+                    state = FOUND;
+                } else {
+                    state = AFTER_LAST;
+                }
+            } else if (mergeJoin != null) {
+                if (mergeJoin.next()) {
+                    currentSearchRow = current = mergeJoin.get();
+                    state = FOUND;
+                } else {
+                    state = AFTER_LAST;
+                }
+            } else if (cursor.next()) {
                 currentSearchRow = cursor.getSearchRow();
                 current = null;
                 state = FOUND;
             } else {
                 state = AFTER_LAST;
-                break;
             }
-
+            // if no more rows found, try the null row (for outer joins only)
+            if (state == AFTER_LAST) {
+                if (joinOuter && !foundOne) {
+                    state = NULL_ROW;
+                    currentSearchRow = null;
+                    current = null;
+                } else {
+                    break;
+                }
+            }
             if (state == FOUND) {
+                if (!isOk(joinCondition)) {
+                    continue;
+                }
                 foundOne = true;
-                return true;
             }
+            if (join != null) {
+                join.reset();
+                if (!join.next()) {
+                    continue;
+                }
+            }
+            return true;
         }
         state = AFTER_LAST;
         return false;
     }
 
+    private boolean isOk(Expression condition) {
+        return condition == null ||
+                Boolean.TRUE.equals(condition.getBooleanValue(session));
+    }
+
+    /**
+     * Add a joined table at the end of the join chain.
+     *
+     * @param filter the joined table
+     * @param outer whether this is a LEFT JOIN
+     * @param on the ON condition of the LEFT JOIN, or null
+     */
+    public void addJoin(TableFilter filter, boolean outer, Expression on) {
+        if (join == null) {
+            join = filter;
+            filter.joinOuter = outer;
+            filter.joinCondition = on;
+        } else {
+            join.addJoin(filter, outer, on);
+        }
+    }
+
+    /**
+     * Set the joined table, when the join order is changed. Only inner
+     * joins may be reordered.
+     *
+     * @param filter the joined table, or null
+     */
+    public void setJoin(TableFilter filter) {
+        join = filter;
+    }
+
+    public TableFilter getJoin() {
+        return join;
+    }
+
+    public boolean isJoinOuter() {
+        return joinOuter;
+    }
+
+    public Expression getJoinCondition() {
+        return joinCondition;
+    }
+
+    /**
+     * Set the evaluatable flag of the columns of a table filter in the join
+     * condition.
+     *
+     * @param filter the table filter
+     * @param value whether the current row of the table filter is known
+     */
+    public void setEvaluatable(TableFilter filter, boolean value) {
+        if (joinCondition != null) {
+            joinCondition.setEvaluatable(filter, value);
+        }
+    }
+
+    /**
+     * Remove the index conditions that use a table that is joined later
+     * (the columns of the tables joined before must be evaluatable).
+     */
+    public void removeUnusableIndexConditions() {
+        for (int i = 0; i < indexConditions.size(); i++) {
+            IndexCondition cond = indexConditions.get(i);
+            if (!cond.isEvaluatable()) {
+                indexConditions.remove(i--);
+            }
+        }
+    }
+
+    /**
+     * Get the conditions column = expression where the expression uses
+     * the tables joined before, if the given index can't use any of them.
+     * Instead of scanning this table for each row of the other tables, this
+     * table can then be joined with a hash join.
+     *
+     * @param index the index
+     * @return the conditions (may be empty)
+     */
+    ArrayList<IndexCondition> getHashJoinConditions(BaseIndex index) {
+        ArrayList<IndexCondition> list = new ArrayList<>();
+        for (IndexCondition condition : indexConditions) {
+            Expression e = condition.getExpression();
+            if (condition.getCompareType() != Comparison.EQUAL || e == null ||
+                    e.isConstant() || !condition.isEvaluatable() ||
+                    !e.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+                continue;
+            }
+            Column col = condition.getColumn();
+            if (col.getColumnId() < 0 || index.getColumnIndex(col) >= 0) {
+                // the nested loop can use the index
+                return new ArrayList<>();
+            }
+            list.add(condition);
+        }
+        return list;
+    }
+
+    /**
+     * Get the condition column = column of the table joined just before,
+     * if the given index returns the rows in the order of the column, and
+     * the rows of the table joined before come in the order of their
+     * column. This table can then be joined with a merge join.
+     *
+     * @param index the index
+     * @param previous the table joined just before
+     * @param order the column by which the rows of the table joined before
+     *            are sorted, or null
+     * @return the condition, or null
+     */
+    IndexCondition getMergeJoinCondition(BaseIndex index, TableFilter previous,
+                                         Column order) {
+        Column sort = index.getSortColumn();
+        if (order == null || sort == null || index.getColumnIndex(sort) != 0) {
+            return null;
+        }
+        for (IndexCondition condition : indexConditions) {
+            Expression e = condition.getExpression();
+            if (condition.getCompareType() != Comparison.EQUAL ||
+                    condition.getColumn() != sort || !condition.isEvaluatable() ||
+                    !(e instanceof ExpressionColumn)) {
+                continue;
+            }
+            ExpressionColumn c = (ExpressionColumn) e;
+            if (c.getTableFilter() == previous && c.getColumn() == order) {
+                return condition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the columns in which order the rows are returned, if the rows are
+     * read from an index in index order.
+     *
+     * @return the columns (ascending, NULL first), or null if the order is
+     *         not known
+     */
+    public Column[] getSortColumns() {
+        if (index == null || cursor.getBitmapCondition() != null) {
+            // the rows are read in the order of the row keys
+            return null;
+        }
+        for (IndexCondition condition : indexConditions) {
+            int type = condition.getCompareType();
+            if (type == Comparison.IN_LIST || type == Comparison.IN_QUERY) {
+                // one lookup for each value of the list
+                return null;
+            }
+        }
+        Column sortColumn = index.getSortColumn();
+        if (sortColumn == null) {
+            return null;
+        }
+        IndexColumn[] indexColumns = index.getIndexColumns();
+        if (indexColumns == null || indexColumns.length == 0 ||
+                indexColumns[0].column != sortColumn) {
+            return new Column[] { sortColumn };
+        }
+        ArrayList<Column> list = new ArrayList<>();
+        for (IndexColumn c : indexColumns) {
+            if ((c.sortType & (IndexColumn.DESCENDING | IndexColumn.NULLS_LAST)) != 0) {
+                break;
+            }
+            list.add(c.column);
+        }
+        return list.toArray(new Column[list.size()]);
+    }
+
+    private static void removeNonConstant(ArrayList<IndexCondition> conditions) {
+        for (int i = 0; i < conditions.size(); i++) {
+            if (!isConstant(conditions.get(i))) {
+                conditions.remove(i--);
+            }
+        }
+    }
+
+    private static boolean isConstant(IndexCondition condition) {
+        if (condition.isAlwaysFalse()) {
+            return true;
+        }
+        if (condition.getExpression() != null) {
+            return condition.getExpression().isConstant();
+        }
+        if (condition.getExpressionList() != null) {
+            for (Expression e : condition.getExpressionList()) {
+                if (!e.isConstant()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
     public void setPlanItem(PlanItem item) {
         if (item == null) {
             // invalid plan, most likely because a column wasn't found
@@ -128,18 +483,93 @@ public class TableFilter implements ColumnResolver {
             return;
         }
         setIndex(item.getIndex());
+        cursor.setBitmapCondition(item.getBitmapCondition());
         masks = item.getMasks();
+        if (allIndexConditions == null) {
+            allIndexConditions = new ArrayList<>(indexConditions);
+        }
+        // conditions on columns that are not part of the chosen index
+        // can't be used to restrict the index lookup; they are still
+        // checked by the query condition
+        for (int i = 0; i < indexConditions.size(); i++) {
+            IndexCondition condition = indexConditions.get(i);
+            if (!condition.isAlwaysFalse()) {
+                Column col = condition.getColumn();
+                if (col.getColumnId() >= 0 && index.getColumnIndex(col) < 0) {
+                    indexConditions.remove(i);
+                    i--;
+                }
+            }
+        }
+        ArrayList<IndexCondition> keys = item.getHashJoinConditions();
+        if (keys != null) {
+            // the hash table is built once, so only the conditions with
+            // constant values can be used to read it
+            hashJoin = new HashJoin(keys);
+            removeNonConstant(indexConditions);
+            removeNonConstant(allIndexConditions);
+        } else {
+            hashJoin = null;
+        }
+        IndexCondition merge = item.getMergeJoinCondition();
+        if (merge != null) {
+            // the cursor is used for many rows of the other tables
+            mergeJoin = new MergeJoin(merge);
+            removeNonConstant(allIndexConditions);
+        } else {
+            mergeJoin = null;
+        }
     }
 
     public void addIndexCondition(IndexCondition condition) {
         indexConditions.add(condition);
     }
 
+    public ArrayList<IndexCondition> getIndexConditions() {
+        return indexConditions;
+    }
+
+    /**
+     * Get all index conditions, including those on columns that are not
+     * part of the chosen index. Partitioned tables use them to skip
+     * partitions.
+     *
+     * @return the conditions
+     */
+    public ArrayList<IndexCondition> getAllIndexConditions() {
+        return allIndexConditions == null ? indexConditions : allIndexConditions;
+    }
+
+    /**
+     * Get the columns of the table that are used by the query: in the select
+     * list or in the condition. Tables that store each column separately
+     * only read these columns.
+     *
+     * @return the flags by column id, or null if all columns may be used
+     */
+    public boolean[] getColumnsUsed() {
+        if (columnsUsed == null && select != null) {
+            boolean[] used = new boolean[table.getColumns().length];
+            for (Column c : ExpressionVisitor.allColumnsForTableFilters(this)) {
+                if (c.getTable() == table && c.getColumnId() >= 0) {
+                    used[c.getColumnId()] = true;
+                }
+            }
+            columnsUsed = used;
+        }
+        return columnsUsed;
+    }
+
     @Override
     public TableFilter getTableFilter() {
         return this;
     }
 
+    @Override
+    public String getTableAlias() {
+        return alias != null ? alias : table.getName();
+    }
+
     @Override
     public Column[] getColumns() {
         return table.getColumns();
@@ -147,6 +577,9 @@ public class TableFilter implements ColumnResolver {
 
     @Override
     public Value getValue(Column column) {
+        if (state == NULL_ROW) {
+            return ValueNull.INSTANCE;
+        }
         if (currentSearchRow == null) {
             return null;
         }
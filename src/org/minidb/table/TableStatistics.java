@@ -0,0 +1,305 @@
+package org.minidb.table;
+
+import org.minidb.engine.Database;
+import org.minidb.engine.DbObject;
+import org.minidb.engine.DbObjectBase;
+import org.minidb.engine.ValueDataType;
+import org.minidb.store.mvstore.WriteBuffer;
+import org.minidb.util.StringUtils;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * The statistics of a table, as collected by ANALYZE: the number of rows,
+ * and for each column the number of distinct values, the fraction of NULL
+ * values, and an equi-depth histogram (each bucket contains about the same
+ * number of rows, so that skewed data doesn't end up in a single bucket).
+ * <p>
+ * The statistics are stored in the meta table as an ANALYZE statement that
+ * restores them when the database is opened. The histogram bounds are
+ * stored in the binary format of the data pages, as hex.
+ */
+public class TableStatistics extends DbObjectBase {
+
+    /**
+     * The maximum number of histogram buckets per column.
+     */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private static final ValueDataType VALUE_TYPE = new ValueDataType(null);
+
+    private final Table table;
+    private final long rowCount;
+    private final long sampleSize;
+    private final ColumnStatistics[] columns;
+
+    public TableStatistics(Database db, int id, Table table, long rowCount,
+                           long sampleSize, ColumnStatistics[] columns) {
+        initDbObjectBase(db, id, table.getName());
+        this.table = table;
+        this.rowCount = rowCount;
+        this.sampleSize = sampleSize;
+        this.columns = columns;
+    }
+
+    /**
+     * Compute the statistics from a sample of the rows.
+     *
+     * @param db the database
+     * @param id the object id
+     * @param table the table
+     * @param rowCount the number of rows in the table
+     * @param sample the sampled rows
+     * @return the statistics
+     */
+    public static TableStatistics compute(Database db, int id, Table table,
+                                          long rowCount, ArrayList<Value[]> sample) {
+        int n = sample.size();
+        // the sample can contain a few more rows than counted, if rows were
+        // added in the meantime
+        rowCount = Math.max(rowCount, n);
+        Column[] cols = table.getColumns();
+        ColumnStatistics[] stats = new ColumnStatistics[cols.length];
+        ArrayList<Value> values = new ArrayList<>(n);
+        for (int c = 0; c < cols.length; c++) {
+            values.clear();
+            for (Value[] row : sample) {
+                Value v = row[c];
+                if (v != null && v != ValueNull.INSTANCE) {
+                    values.add(v);
+                }
+            }
+            Collections.sort(values, new Comparator<Value>() {
+                @Override
+                public int compare(Value a, Value b) {
+                    return a.compareTo(b);
+                }
+            });
+            int m = values.size();
+            // d: distinct values in the sample, f1: values seen only once
+            long d = 0, f1 = 0;
+            for (int i = 0; i < m; ) {
+                int j = i + 1;
+                while (j < m && values.get(j).compareTo(values.get(i)) == 0) {
+                    j++;
+                }
+                d++;
+                if (j - i == 1) {
+                    f1++;
+                }
+                i = j;
+            }
+            long distinct = estimateDistinct(d, f1, m,
+                    n == 0 ? 0 : rowCount * m / n, n >= rowCount);
+            int buckets = Math.min(HISTOGRAM_BUCKETS, m);
+            Value[] bounds = new Value[buckets == 0 ? 0 : buckets + 1];
+            for (int b = 0; b < bounds.length; b++) {
+                bounds[b] = values.get((int) ((long) b * (m - 1) / buckets));
+            }
+            stats[c] = new ColumnStatistics(distinct, n - m, bounds);
+        }
+        return new TableStatistics(db, id, table, rowCount, n, stats);
+    }
+
+    /**
+     * Estimate the number of distinct values of a column with the Duj1
+     * estimator of Haas et al.: D = n * d / (n - f1 + f1 * n / N), where n is
+     * the number of sampled (non-null) values, d the number of distinct
+     * values in the sample, f1 the number of values seen exactly once, and N
+     * the number of (non-null) values in the table.
+     */
+    private static long estimateDistinct(long d, long f1, long n, long total, boolean complete) {
+        if (complete || n == 0 || n >= total) {
+            return d;
+        }
+        double x = (double) n * d / (n - f1 + (double) f1 * n / total);
+        return Math.max(d, Math.min(total, Math.round(x)));
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Get the statistics of a column.
+     *
+     * @param columnId the column id
+     * @return the statistics, or null if not known
+     */
+    public ColumnStatistics getColumn(int columnId) {
+        return columnId < 0 || columnId >= columns.length ? null : columns[columnId];
+    }
+
+    /**
+     * Get the estimated fraction of the rows where the column is equal to a
+     * value.
+     *
+     * @param columnId the column id
+     * @return the selectivity, between 0 and 1, or -1 if not known
+     */
+    public double getEqualSelectivity(int columnId) {
+        ColumnStatistics c = getColumn(columnId);
+        if (c == null) {
+            return -1;
+        }
+        if (c.distinct == 0) {
+            return 1.0 / Math.max(1, rowCount);
+        }
+        return (1 - getNullFraction(c)) / c.distinct;
+    }
+
+    /**
+     * Get the estimated fraction of the rows where the column is in a range.
+     *
+     * @param columnId the column id
+     * @param min the lower bound, or null
+     * @param max the upper bound, or null
+     * @return the selectivity, between 0 and 1, or -1 if not known
+     */
+    public double getRangeSelectivity(int columnId, Value min, Value max) {
+        ColumnStatistics c = getColumn(columnId);
+        if (c == null) {
+            return -1;
+        }
+        Value[] h = c.histogram;
+        if (h.length == 0) {
+            // only NULL values were seen
+            return 1.0 / Math.max(1, rowCount);
+        }
+        double from = min == null ? 0 : getPosition(h, min);
+        double to = max == null ? 1 : getPosition(h, max);
+        double s = Math.max(0, to - from) * (1 - getNullFraction(c));
+        // even an empty range may contain a few rows that were not sampled;
+        // a range is never cheaper than an equality lookup
+        return Math.min(1, Math.max(s, getEqualSelectivity(columnId)));
+    }
+
+    private double getNullFraction(ColumnStatistics c) {
+        return sampleSize == 0 ? 0 : (double) c.nulls / sampleSize;
+    }
+
+    /**
+     * Get the estimated fraction of the (non-null) values that are smaller
+     * than the given value. Every bucket contains the same number of
+     * values; within a bucket, numbers are interpolated linearly.
+     */
+    private static double getPosition(Value[] h, Value v) {
+        int buckets = h.length - 1;
+        if (v.compareTo(h[0]) <= 0) {
+            return 0;
+        } else if (v.compareTo(h[buckets]) > 0) {
+            return 1;
+        }
+        int i = 0;
+        while (i < buckets - 1 && v.compareTo(h[i + 1]) > 0) {
+            i++;
+        }
+        double part = 0.5;
+        Value lo = h[i], hi = h[i + 1];
+        if (isNumeric(v) && isNumeric(lo) && isNumeric(hi) && lo.getLong() < hi.getLong()) {
+            part = (double) (v.getLong() - lo.getLong()) / (hi.getLong() - lo.getLong());
+        }
+        return (i + Math.max(0, Math.min(1, part))) / buckets;
+    }
+
+    private static boolean isNumeric(Value v) {
+        int t = v.getType();
+        return t == Value.BYTE || t == Value.SHORT || t == Value.INT || t == Value.LONG;
+    }
+
+    @Override
+    public int getType() {
+        return DbObject.STATISTICS;
+    }
+
+    @Override
+    public String getCreateSQL() {
+        StringBuilder buff = new StringBuilder("ANALYZE TABLE ");
+        buff.append(table.getSQL());
+        buff.append(" ROW_COUNT ").append(rowCount);
+        buff.append(" SAMPLE_SIZE ").append(sampleSize);
+        Column[] cols = table.getColumns();
+        for (int i = 0; i < columns.length; i++) {
+            ColumnStatistics c = columns[i];
+            buff.append(" COLUMN ").append(cols[i].getSQL()).
+                    append(" DISTINCT ").append(c.distinct).
+                    append(" NULLS ").append(c.nulls).
+                    append(" HISTOGRAM '").append(encode(c.histogram)).append('\'');
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Encode histogram bounds.
+     *
+     * @param bounds the bounds
+     * @return the hex string
+     */
+    static String encode(Value[] bounds) {
+        WriteBuffer buff = new WriteBuffer();
+        VALUE_TYPE.write(buff, ValueArray.get(bounds));
+        ByteBuffer b = buff.getBuffer();
+        b.flip();
+        byte[] bytes = new byte[b.remaining()];
+        b.get(bytes);
+        return StringUtils.convertBytesToHex(bytes);
+    }
+
+    /**
+     * Decode histogram bounds.
+     *
+     * @param hex the hex string
+     * @return the bounds
+     */
+    public static Value[] decode(String hex) {
+        byte[] bytes = StringUtils.convertHexToBytes(hex);
+        return ((ValueArray) VALUE_TYPE.read(ByteBuffer.wrap(bytes))).getList();
+    }
+
+    /**
+     * The statistics of one column.
+     */
+    public static class ColumnStatistics {
+
+        /**
+         * The estimated number of distinct (non-null) values in the table.
+         */
+        final long distinct;
+
+        /**
+         * The number of NULL values in the sample.
+         */
+        final long nulls;
+
+        /**
+         * The bounds of the equi-depth histogram buckets: the smallest value,
+         * the upper bound of each bucket, up to the largest value.
+         */
+        final Value[] histogram;
+
+        public ColumnStatistics(long distinct, long nulls, Value[] histogram) {
+            this.distinct = distinct;
+            this.nulls = nulls;
+            this.histogram = histogram;
+        }
+
+        public long getDistinct() {
+            return distinct;
+        }
+    }
+
+}
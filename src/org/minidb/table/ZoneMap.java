@@ -0,0 +1,228 @@
+package org.minidb.table;
+
+import org.minidb.engine.ValueDataType;
+import org.minidb.store.mvstore.DataUtil;
+import org.minidb.store.mvstore.PageSummaryType;
+import org.minidb.store.mvstore.WriteBuffer;
+import org.minidb.value.Value;
+import org.minidb.value.ValueArray;
+import org.minidb.value.ValueNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The smallest and the largest value, and the number of NULL values, of each
+ * column of the rows in a page of a table map (a zone map). The zone maps
+ * are stored in the parent pages, so that a scan with a condition such as
+ * TS &gt; ? skips the pages that can't contain matching rows. This works
+ * well for columns that are correlated with the insertion order, without
+ * an index.
+ */
+public class ZoneMap {
+
+    /**
+     * Values that need more memory (long strings) are not kept; the range
+     * of the column is then unknown.
+     */
+    private static final int MAX_VALUE_MEMORY = 128;
+
+    private static final ValueDataType VALUE_TYPE = new ValueDataType(null);
+
+    /**
+     * The smallest value per column; ValueNull if all values are NULL, null
+     * if unknown.
+     */
+    private final Value[] min;
+
+    /**
+     * The largest value per column; ValueNull if all values are NULL, null
+     * if unknown.
+     */
+    private final Value[] max;
+    private final long[] nullCount;
+
+    private ZoneMap(Value[] min, Value[] max, long[] nullCount) {
+        this.min = min;
+        this.max = max;
+        this.nullCount = nullCount;
+    }
+
+    /**
+     * Compute the zone map of some rows.
+     *
+     * @param rows the rows (ValueArray)
+     * @param len the number of rows
+     * @return the zone map
+     */
+    static ZoneMap create(Object[] rows, int len) {
+        int columnCount = ((ValueArray) rows[0]).getList().length;
+        Value[] min = new Value[columnCount];
+        Value[] max = new Value[columnCount];
+        long[] nullCount = new long[columnCount];
+        boolean[] unknown = new boolean[columnCount];
+        for (int i = 0; i < len; i++) {
+            Value[] row = ((ValueArray) rows[i]).getList();
+            for (int c = 0; c < columnCount; c++) {
+                Value v = c < row.length ? row[c] : ValueNull.INSTANCE;
+                if (v == ValueNull.INSTANCE) {
+                    nullCount[c]++;
+                } else if (!unknown[c]) {
+                    if (v.getMemory() > MAX_VALUE_MEMORY) {
+                        unknown[c] = true;
+                    } else {
+                        if (min[c] == null || v.compareTo(min[c]) < 0) {
+                            min[c] = v;
+                        }
+                        if (max[c] == null || v.compareTo(max[c]) > 0) {
+                            max[c] = v;
+                        }
+                    }
+                }
+            }
+        }
+        for (int c = 0; c < columnCount; c++) {
+            if (unknown[c]) {
+                min[c] = max[c] = null;
+            } else if (min[c] == null) {
+                min[c] = max[c] = ValueNull.INSTANCE;
+            }
+        }
+        return new ZoneMap(min, max, nullCount);
+    }
+
+    /**
+     * Combine the zone maps of the children of a page.
+     *
+     * @param maps the zone maps
+     * @param len the number of zone maps
+     * @return the zone map of the page
+     */
+    static ZoneMap merge(Object[] maps, int len) {
+        int columnCount = ((ZoneMap) maps[0]).min.length;
+        for (int i = 1; i < len; i++) {
+            columnCount = Math.min(columnCount, ((ZoneMap) maps[i]).min.length);
+        }
+        Value[] min = new Value[columnCount];
+        Value[] max = new Value[columnCount];
+        long[] nullCount = new long[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            boolean unknown = false;
+            for (int i = 0; i < len; i++) {
+                ZoneMap z = (ZoneMap) maps[i];
+                nullCount[c] += z.nullCount[c];
+                if (z.min[c] == null) {
+                    unknown = true;
+                } else if (z.min[c] != ValueNull.INSTANCE) {
+                    if (min[c] == null || z.min[c].compareTo(min[c]) < 0) {
+                        min[c] = z.min[c];
+                    }
+                    if (max[c] == null || z.max[c].compareTo(max[c]) > 0) {
+                        max[c] = z.max[c];
+                    }
+                }
+            }
+            if (unknown) {
+                min[c] = max[c] = null;
+            } else if (min[c] == null) {
+                min[c] = max[c] = ValueNull.INSTANCE;
+            }
+        }
+        return new ZoneMap(min, max, nullCount);
+    }
+
+    /**
+     * Check whether a value of the column in the given range can be in the
+     * rows.
+     *
+     * @param column the column index
+     * @param low the lowest value, or null
+     * @param lowInclusive whether the lowest value is included
+     * @param high the highest value, or null
+     * @param highInclusive whether the highest value is included
+     * @return false if no row can match
+     */
+    boolean canMatch(int column, Value low, boolean lowInclusive, Value high,
+                     boolean highInclusive) {
+        if (column >= min.length || min[column] == null) {
+            return true;
+        }
+        if (min[column] == ValueNull.INSTANCE) {
+            // a comparison with NULL is never true
+            return false;
+        }
+        if (low != null) {
+            int comp = max[column].compareTo(low);
+            if (comp < 0 || comp == 0 && !lowInclusive) {
+                return false;
+            }
+        }
+        if (high != null) {
+            int comp = min[column].compareTo(high);
+            if (comp > 0 || comp == 0 && !highInclusive) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(WriteBuffer buff) {
+        buff.putVarInt(min.length);
+        for (int c = 0; c < min.length; c++) {
+            if (min[c] == null) {
+                buff.put((byte) 0);
+            } else if (min[c] == ValueNull.INSTANCE) {
+                buff.put((byte) 1);
+            } else {
+                buff.put((byte) 2);
+                VALUE_TYPE.write(buff, min[c]);
+                VALUE_TYPE.write(buff, max[c]);
+            }
+            buff.putVarLong(nullCount[c]);
+        }
+    }
+
+    private static ZoneMap read(ByteBuffer buff) {
+        int columnCount = DataUtil.readVarInt(buff);
+        Value[] min = new Value[columnCount];
+        Value[] max = new Value[columnCount];
+        long[] nullCount = new long[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            int type = buff.get();
+            if (type == 1) {
+                min[c] = max[c] = ValueNull.INSTANCE;
+            } else if (type == 2) {
+                min[c] = (Value) VALUE_TYPE.read(buff);
+                max[c] = (Value) VALUE_TYPE.read(buff);
+            }
+            nullCount[c] = DataUtil.readVarLong(buff);
+        }
+        return new ZoneMap(min, max, nullCount);
+    }
+
+    /**
+     * The summary type of table maps.
+     */
+    static class ZoneMapType implements PageSummaryType {
+
+        @Override
+        public Object summarize(Object[] values, int len) {
+            return create(values, len);
+        }
+
+        @Override
+        public Object merge(Object[] summaries, int len) {
+            return ZoneMap.merge(summaries, len);
+        }
+
+        @Override
+        public void write(WriteBuffer buff, Object summary) {
+            ((ZoneMap) summary).write(buff);
+        }
+
+        @Override
+        public Object read(ByteBuffer buff) {
+            return ZoneMap.read(buff);
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.minidb.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ranges of consecutive numbers, for example row keys or sequence
+ * values. Sessions take a whole range at once (see
+ * {@link org.minidb.engine.Session#nextValue(RangeAllocator)}) and then use
+ * it without synchronization, so that concurrent inserts only share one
+ * atomic counter, once per range. Values of ranges that are not used up are
+ * lost.
+ */
+public class RangeAllocator {
+
+    /**
+     * The first value that is not reserved yet.
+     */
+    private final AtomicLong next;
+    private final int rangeSize;
+
+    public RangeAllocator(long first, int rangeSize) {
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("rangeSize=" + rangeSize);
+        }
+        this.next = new AtomicLong(first);
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Reserve the next range.
+     *
+     * @return the first value of the range
+     */
+    public long reserve() {
+        long start = next.getAndAdd(rangeSize);
+        reserved(start + rangeSize);
+        return start;
+    }
+
+    /**
+     * Called after a range was reserved, before any value of it is used.
+     *
+     * @param end the first value after the range
+     */
+    protected void reserved(long end) {
+        // nothing to do
+    }
+
+    /**
+     * Make sure that values up to the given value are never handed out,
+     * because they are used already.
+     *
+     * @param value the used value
+     */
+    public void ensureAbove(long value) {
+        while (true) {
+            long n = next.get();
+            if (n > value || next.compareAndSet(n, value + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the first value that is not reserved yet.
+     *
+     * @return the value
+     */
+    public long getNext() {
+        return next.get();
+    }
+
+    public int getRangeSize() {
+        return rangeSize;
+    }
+
+}
@@ -0,0 +1,546 @@
+package org.minidb.util;
+
+import org.minidb.store.mvstore.DataUtil;
+import org.minidb.store.mvstore.WriteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compressed bitmap of long values, in the style of roaring bitmaps. The
+ * values are split by their high bits (value &gt;&gt; 16) into containers of
+ * 65536 values each. A container with up to 4096 values is a sorted array
+ * of the low 16 bits, a fuller container is a plain bitmap of 8 KB, so that
+ * a container never needs more than 2 bytes per value.
+ * <p>
+ * Containers are immutable: all operations return new containers, so that
+ * they can be shared with the map they are read from.
+ */
+public class RoaringBitmap {
+
+    /**
+     * The maximum number of values of an array container.
+     */
+    static final int ARRAY_MAX = 4096;
+
+    private static final int WORDS = 1 << 10;
+
+    private long[] highs;
+    private Container[] containers;
+    private int size;
+
+    public RoaringBitmap() {
+        highs = new long[4];
+        containers = new Container[4];
+    }
+
+    /**
+     * Get the container key of a value.
+     *
+     * @param x the value
+     * @return the high bits
+     */
+    public static long high(long x) {
+        return x >> 16;
+    }
+
+    private static char low(long x) {
+        return (char) x;
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param x the value
+     */
+    public void add(long x) {
+        long h = high(x);
+        int i = indexOf(h);
+        if (i >= 0) {
+            containers[i] = containers[i].add(low(x));
+        } else {
+            insert(-i - 1, h, Container.of(low(x)));
+        }
+    }
+
+    /**
+     * Add (or replace) a container.
+     *
+     * @param high the container key
+     * @param c the container
+     */
+    public void addContainer(long high, Container c) {
+        int i = indexOf(high);
+        if (i >= 0) {
+            containers[i] = c;
+        } else {
+            insert(-i - 1, high, c);
+        }
+    }
+
+    private int indexOf(long high) {
+        // containers are usually added in ascending order
+        if (size > 0 && highs[size - 1] < high) {
+            return -size - 1;
+        }
+        return Arrays.binarySearch(highs, 0, size, high);
+    }
+
+    private void insert(int i, long high, Container c) {
+        if (size == highs.length) {
+            highs = Arrays.copyOf(highs, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(highs, i, highs, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        highs[i] = high;
+        containers[i] = c;
+        size++;
+    }
+
+    /**
+     * Check if the value is set.
+     *
+     * @param x the value
+     * @return true if it is
+     */
+    public boolean contains(long x) {
+        int i = Arrays.binarySearch(highs, 0, size, high(x));
+        return i >= 0 && containers[i].contains(low(x));
+    }
+
+    /**
+     * Get the number of values.
+     *
+     * @return the number of values
+     */
+    public long getCardinality() {
+        long count = 0;
+        for (int i = 0; i < size; i++) {
+            count += containers[i].getCardinality();
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the intersection of this and another bitmap. Only the containers
+     * with the same key in both bitmaps are combined.
+     *
+     * @param o the other bitmap
+     * @return the new bitmap
+     */
+    public RoaringBitmap and(RoaringBitmap o) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < o.size) {
+            long a = highs[i], b = o.highs[j];
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                Container c = containers[i].and(o.containers[j]);
+                if (c != null) {
+                    r.insert(r.size, a, c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Get the union of this and another bitmap.
+     *
+     * @param o the other bitmap
+     * @return the new bitmap
+     */
+    public RoaringBitmap or(RoaringBitmap o) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < o.size) {
+            if (j >= o.size || (i < size && highs[i] < o.highs[j])) {
+                r.insert(r.size, highs[i], containers[i]);
+                i++;
+            } else if (i >= size || highs[i] > o.highs[j]) {
+                r.insert(r.size, o.highs[j], o.containers[j]);
+                j++;
+            } else {
+                r.insert(r.size, highs[i], containers[i].or(o.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Iterate over the values in ascending order.
+     *
+     * @return the iterator
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+
+            private int index;
+            private int next = nextIn(0);
+
+            private int nextIn(int from) {
+                while (index < size) {
+                    int x = from > 0xffff ? -1 : containers[index].nextValue(from);
+                    if (x >= 0) {
+                        return x;
+                    }
+                    index++;
+                    from = 0;
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public long nextLong() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                long x = (highs[index] << 16) | next;
+                next = nextIn(next + 1);
+                return x;
+            }
+        };
+    }
+
+    /**
+     * A container of up to 65536 values (the low 16 bits).
+     */
+    public abstract static class Container {
+
+        /**
+         * Create a container with one value.
+         *
+         * @param x the value
+         * @return the container
+         */
+        public static Container of(char x) {
+            return new ArrayContainer(new char[] { x });
+        }
+
+        /**
+         * Get the number of values.
+         *
+         * @return the number of values
+         */
+        public abstract int getCardinality();
+
+        /**
+         * Get a container that also contains the given value.
+         *
+         * @param x the value
+         * @return this container if the value was already set, or a new one
+         */
+        public abstract Container add(char x);
+
+        abstract boolean contains(char x);
+
+        /**
+         * Get the smallest value that is larger or equal than the given
+         * value.
+         *
+         * @param from the value
+         * @return the value, or -1 if there is none
+         */
+        abstract int nextValue(int from);
+
+        /**
+         * Get the intersection.
+         *
+         * @param o the other container
+         * @return the new container, or null if it is empty
+         */
+        abstract Container and(Container o);
+
+        abstract Container or(Container o);
+
+        /**
+         * Get the estimated memory used, in bytes.
+         *
+         * @return the memory
+         */
+        public abstract int getMemory();
+
+        /**
+         * Write the container.
+         *
+         * @param buff the target buffer
+         */
+        public abstract void write(WriteBuffer buff);
+
+        /**
+         * Read a container.
+         *
+         * @param buff the source buffer
+         * @return the container
+         */
+        public static Container read(ByteBuffer buff) {
+            int type = buff.get();
+            int cardinality = DataUtil.readVarInt(buff);
+            if (type == 0) {
+                char[] values = new char[cardinality];
+                for (int i = 0; i < cardinality; i++) {
+                    values[i] = buff.getChar();
+                }
+                return new ArrayContainer(values);
+            }
+            long[] words = new long[WORDS];
+            for (int i = 0; i < WORDS; i++) {
+                words[i] = buff.getLong();
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+    }
+
+    /**
+     * A container with a sorted array of values.
+     */
+    static final class ArrayContainer extends Container {
+
+        final char[] values;
+
+        ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int getCardinality() {
+            return values.length;
+        }
+
+        @Override
+        public Container add(char x) {
+            int i = Arrays.binarySearch(values, x);
+            if (i >= 0) {
+                return this;
+            }
+            if (values.length >= ARRAY_MAX) {
+                return toBitmap().add(x);
+            }
+            i = -i - 1;
+            char[] v = new char[values.length + 1];
+            System.arraycopy(values, 0, v, 0, i);
+            v[i] = x;
+            System.arraycopy(values, i, v, i + 1, values.length - i);
+            return new ArrayContainer(v);
+        }
+
+        @Override
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, x) >= 0;
+        }
+
+        @Override
+        int nextValue(int from) {
+            int i = Arrays.binarySearch(values, (char) from);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < values.length ? values[i] : -1;
+        }
+
+        BitmapContainer toBitmap() {
+            long[] words = new long[WORDS];
+            for (char x : values) {
+                words[x >>> 6] |= 1L << x;
+            }
+            return new BitmapContainer(words, values.length);
+        }
+
+        @Override
+        Container and(Container o) {
+            char[] r = new char[values.length];
+            int n = 0;
+            if (o instanceof ArrayContainer) {
+                char[] b = ((ArrayContainer) o).values;
+                int i = 0, j = 0;
+                while (i < values.length && j < b.length) {
+                    if (values[i] < b[j]) {
+                        i++;
+                    } else if (values[i] > b[j]) {
+                        j++;
+                    } else {
+                        r[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (char x : values) {
+                    if (o.contains(x)) {
+                        r[n++] = x;
+                    }
+                }
+            }
+            return n == 0 ? null : new ArrayContainer(Arrays.copyOf(r, n));
+        }
+
+        @Override
+        Container or(Container o) {
+            if (o instanceof BitmapContainer) {
+                return o.or(this);
+            }
+            char[] b = ((ArrayContainer) o).values;
+            char[] r = new char[values.length + b.length];
+            int i = 0, j = 0, n = 0;
+            while (i < values.length || j < b.length) {
+                if (j >= b.length || (i < values.length && values[i] < b[j])) {
+                    r[n++] = values[i++];
+                } else if (i >= values.length || values[i] > b[j]) {
+                    r[n++] = b[j++];
+                } else {
+                    r[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            ArrayContainer c = new ArrayContainer(Arrays.copyOf(r, n));
+            return n > ARRAY_MAX ? c.toBitmap() : c;
+        }
+
+        @Override
+        public int getMemory() {
+            return 24 + 2 * values.length;
+        }
+
+        @Override
+        public void write(WriteBuffer buff) {
+            buff.put((byte) 0).putVarInt(values.length);
+            for (char x : values) {
+                buff.putChar(x);
+            }
+        }
+    }
+
+    /**
+     * A container with one bit per value.
+     */
+    static final class BitmapContainer extends Container {
+
+        final long[] words;
+        final int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        public int getCardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public Container add(char x) {
+            if (contains(x)) {
+                return this;
+            }
+            long[] w = words.clone();
+            w[x >>> 6] |= 1L << x;
+            return new BitmapContainer(w, cardinality + 1);
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int nextValue(int from) {
+            int i = from >>> 6;
+            long w = words[i] & (-1L << from);
+            while (true) {
+                if (w != 0) {
+                    return (i << 6) + Long.numberOfTrailingZeros(w);
+                }
+                if (++i == WORDS) {
+                    return -1;
+                }
+                w = words[i];
+            }
+        }
+
+        @Override
+        Container and(Container o) {
+            if (o instanceof ArrayContainer) {
+                return o.and(this);
+            }
+            long[] b = ((BitmapContainer) o).words;
+            long[] w = new long[WORDS];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                w[i] = words[i] & b[i];
+                n += Long.bitCount(w[i]);
+            }
+            if (n == 0) {
+                return null;
+            }
+            return n > ARRAY_MAX ? new BitmapContainer(w, n) : toArray(w, n);
+        }
+
+        private static ArrayContainer toArray(long[] w, int n) {
+            char[] values = new char[n];
+            int j = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long x = w[i];
+                while (x != 0) {
+                    values[j++] = (char) ((i << 6) + Long.numberOfTrailingZeros(x));
+                    x &= x - 1;
+                }
+            }
+            return new ArrayContainer(values);
+        }
+
+        @Override
+        Container or(Container o) {
+            long[] w = words.clone();
+            if (o instanceof ArrayContainer) {
+                for (char x : ((ArrayContainer) o).values) {
+                    w[x >>> 6] |= 1L << x;
+                }
+            } else {
+                long[] b = ((BitmapContainer) o).words;
+                for (int i = 0; i < WORDS; i++) {
+                    w[i] |= b[i];
+                }
+            }
+            int n = 0;
+            for (long x : w) {
+                n += Long.bitCount(x);
+            }
+            return new BitmapContainer(w, n);
+        }
+
+        @Override
+        public int getMemory() {
+            return 24 + 8 * WORDS;
+        }
+
+        @Override
+        public void write(WriteBuffer buff) {
+            buff.put((byte) 1).putVarInt(cardinality);
+            for (long x : words) {
+                buff.putLong(x);
+            }
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package org.minidb.value;
 
+import org.minidb.util.DataType;
 import org.minidb.util.Utils;
 
 import java.math.BigDecimal;
@@ -41,6 +42,15 @@ public abstract class Value {
 
     public abstract int getType();
 
+    /**
+     * Get the memory used by this object.
+     *
+     * @return the memory used in bytes
+     */
+    public int getMemory() {
+        return DataType.getDataType(getType()).memory;
+    }
+
 //    public Value convertTo(int targetType) {
 //        if (getType() == targetType) {
 //            return this;
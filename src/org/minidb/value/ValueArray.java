@@ -9,7 +9,7 @@ public class ValueArray extends Value{
 
     private final Value[] values;
 
-    private ValueArray(Value[] list){
+    protected ValueArray(Value[] list){
         this.values = list;
     }
 
@@ -17,26 +17,51 @@ public class ValueArray extends Value{
         return values;
     }
 
+    /**
+     * Get one element. Unlike getList(), a lazily decoded array only decodes
+     * this element.
+     *
+     * @param i the index
+     * @return the value
+     */
+    public Value getValue(int i) {
+        return values[i];
+    }
+
+    public int getLength() {
+        return values.length;
+    }
+
     public int getType() {
         return ARRAY;
     }
 
+    @Override
+    public int getMemory() {
+        int memory = 32;
+        for (Value v : values) {
+            memory += v == null ? 8 : v.getMemory() + 8;
+        }
+        return memory;
+    }
+
     public static ValueArray get(Value[] list) {
         return new ValueArray(list);
     }
 
     @Override
     protected int compareSecure(Value o) {
-        ValueArray v = (ValueArray) o;
-        if (values == v.values) {
+        Value[] values = getList();
+        Value[] other = ((ValueArray) o).getList();
+        if (values == other) {
             return 0;
         }
         int l = values.length;
-        int ol = v.values.length;
+        int ol = other.length;
         int len = Math.min(l, ol);
         for (int i = 0; i < len; i++) {
             Value v1 = values[i];
-            Value v2 = v.values[i];
+            Value v2 = other[i];
             int comp = v1.compareTo(v2);
             if (comp != 0) {
                 return comp;
@@ -47,6 +72,7 @@ public class ValueArray extends Value{
 
     @Override
     public String getSQL() {
+        Value[] values = getList();
         StatementBuilder buff = new StatementBuilder("(");
         for (Value v : values) {
             buff.appendExceptFirst(", ");
@@ -57,4 +83,36 @@ public class ValueArray extends Value{
         }
         return buff.append(')').toString();
     }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (Value v : getList()) {
+            h = h * 31 + (v == null ? 0 : v.hashCode());
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ValueArray)) {
+            return false;
+        }
+        Value[] values = getList();
+        Value[] list = ((ValueArray) other).getList();
+        if (values == list) {
+            return true;
+        }
+        int len = values.length;
+        if (len != list.length) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (values[i] == null ? list[i] != null : !values[i].equals(list[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
@@ -53,4 +53,14 @@ public class ValueInt extends Value{
         return String.valueOf(value);
     }
 
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ValueInt && value == ((ValueInt) other).value;
+    }
+
 }
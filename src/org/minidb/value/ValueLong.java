@@ -61,4 +61,14 @@ public class ValueLong extends Value{
         return String.valueOf(value);
     }
 
+    @Override
+    public int hashCode() {
+        return (int) (value ^ (value >> 32));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ValueLong && value == ((ValueLong) other).value;
+    }
+
 }
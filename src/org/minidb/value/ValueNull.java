@@ -16,6 +16,21 @@ public class ValueNull extends Value {
         return NULL;
     }
 
+    @Override
+    public Boolean getBoolean() {
+        return null;
+    }
+
+    @Override
+    public String getString() {
+        return null;
+    }
+
+    @Override
+    public Value convertTo(int type) {
+        return this;
+    }
+
     protected int compareSecure(Value v) {
         throw new RuntimeException("compare null");
     }
@@ -25,4 +40,14 @@ public class ValueNull extends Value {
         return "NULL";
     }
 
+    @Override
+    public int hashCode() {
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other == this;
+    }
+
 }
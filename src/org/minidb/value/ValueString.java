@@ -25,6 +25,11 @@ public class ValueString extends Value{
         return value;
     }
 
+    @Override
+    public int getMemory() {
+        return value.length() * 2 + 48;
+    }
+
     @Override
     protected int compareSecure(Value o) {
         ValueString v = (ValueString) o;
@@ -35,4 +40,16 @@ public class ValueString extends Value{
     public String getSQL() {
         return StringUtils.quoteStringSQL(value);
     }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ValueString
+                && value.equals(((ValueString) other).value);
+    }
+
 }